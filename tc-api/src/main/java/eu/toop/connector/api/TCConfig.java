@@ -37,6 +37,7 @@ import java.net.URI;
 import java.security.cert.X509Certificate;
 
 import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -45,6 +46,7 @@ import javax.annotation.concurrent.ThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.debug.GlobalDebug;
@@ -186,6 +188,66 @@ public final class TCConfig
     {
       return getConfig ().getAsString ("toop.dsd.service.baseurl");
     }
+
+    /**
+     * @return <code>true</code> if the results of the DSD queries should be
+     *         cached. Defaults to <code>true</code>.
+     * @since 2.1.2
+     */
+    public static boolean isDSDCacheEnabled ()
+    {
+      return getConfig ().getAsBoolean ("toop.dsd.cache.enabled", true);
+    }
+
+    /**
+     * @return The maximum number of cached DSD query results.
+     * @since 2.1.2
+     */
+    public static int getDSDCacheSize ()
+    {
+      return getConfig ().getAsInt ("toop.dsd.cache.size", 1000);
+    }
+
+    /**
+     * @return The time in milliseconds a cached DSD query result is used
+     *         without querying the DSD again.
+     * @since 2.1.2
+     */
+    public static long getDSDCacheTTLMS ()
+    {
+      return getConfig ().getAsLong ("toop.dsd.cache.ttl", 5 * CGlobal.MILLISECONDS_PER_MINUTE);
+    }
+
+    /**
+     * @return The time in milliseconds after the TTL in which an outdated DSD
+     *         query result is still used while it is refreshed in the
+     *         background.
+     * @since 2.1.2
+     */
+    public static long getDSDCacheStaleMS ()
+    {
+      return getConfig ().getAsLong ("toop.dsd.cache.stale", CGlobal.MILLISECONDS_PER_MINUTE);
+    }
+
+    /**
+     * @return The maximum number of concurrent queries to one DSD. Further
+     *         queries wait for a free slot.
+     * @since 2.1.2
+     */
+    public static int getDSDClientMaxConcurrent ()
+    {
+      return getConfig ().getAsInt ("toop.dsd.client.max-concurrent", 10);
+    }
+
+    /**
+     * @return The maximum time in milliseconds a DSD query waits for a free
+     *         slot before it fails.
+     * @since 2.1.2
+     */
+    public static long getDSDClientAcquireTimeoutMS ()
+    {
+      return getConfig ().getAsLong ("toop.dsd.client.acquire-timeout", 30 * CGlobal.MILLISECONDS_PER_SECOND);
+    }
   }
 
   public static final class R2D2
@@ -347,6 +409,55 @@ public final class TCConfig
       return getConfig ().getAsString ("toop.mem.as4.tc.partyid");
     }
 
+    /**
+     * Get the endpoint URL of one of multiple gateways. If at least the first
+     * one is configured, the configured gateways are used instead of
+     * {@link #getMEMAS4Endpoint()}.
+     *
+     * @param nIndex
+     *        The 1-based index of the gateway.
+     * @return The endpoint URL of the gateway or <code>null</code> if no such
+     *         gateway is configured.
+     * @since 2.1.2
+     */
+    @Nullable
+    public static String getMEMAS4GatewayEndpoint (@Nonnegative final int nIndex)
+    {
+      return getConfig ().getAsString ("toop.mem.as4.gateway." + nIndex + ".endpoint");
+    }
+
+    /**
+     * @param nIndex
+     *        The 1-based index of the gateway.
+     * @return The party ID of the gateway. Defaults to
+     *         {@link #getMEMAS4GwPartyID()}.
+     * @since 2.1.2
+     */
+    @Nullable
+    public static String getMEMAS4GatewayPartyID (@Nonnegative final int nIndex)
+    {
+      return getConfig ().getAsString ("toop.mem.as4.gateway." + nIndex + ".partyid", getMEMAS4GwPartyID ());
+    }
+
+    /**
+     * @return The number of consecutive failed submissions after which a
+     *         gateway is temporarily not used.
+     * @since 2.1.2
+     */
+    public static int getGatewayMaxFailures ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.gateway.max-failures", 3);
+    }
+
+    /**
+     * @return The time in milliseconds a failing gateway is not used.
+     * @since 2.1.2
+     */
+    public static long getGatewayEjectionMS ()
+    {
+      return getConfig ().getAsLong ("toop.mem.as4.gateway.ejection-time", 30 * CGlobal.MILLISECONDS_PER_SECOND);
+    }
+
     /**
      * @return The <code>To/PartyId/@type</code> for receiving party id
      * @since 2.0.2
@@ -362,6 +473,207 @@ public final class TCConfig
       return getConfig ().getAsLong ("toop.mem.as4.notificationWaitTimeout", 20000);
     }
 
+    /**
+     * @return The number of milliseconds a gateway notification nobody waits
+     *         for is kept before it is evicted. Waiters are only bound by their
+     *         own timeout.
+     * @since 2.1.2
+     */
+    public static long getGatewayNotificationRetentionMS ()
+    {
+      return getConfig ().getAsLong ("toop.mem.as4.notification.retention", 5 * CGlobal.MILLISECONDS_PER_MINUTE);
+    }
+
+    /**
+     * @return The maximum number of pending gateway notifications and waiters
+     *         per notification type. If exceeded, the oldest entries are
+     *         evicted.
+     * @since 2.1.2
+     */
+    public static int getGatewayNotificationMaxPending ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.notification.max-pending", 10_000);
+    }
+
+    /**
+     * @return The notification correlation store to use. Either "memory" for a
+     *         single node, "directory" for a directory shared by all nodes or
+     *         the fully qualified name of a class implementing the store
+     *         interface. Never <code>null</code>.
+     * @since 2.1.2
+     */
+    @Nonnull
+    public static String getGatewayNotificationStore ()
+    {
+      return getConfig ().getAsString ("toop.mem.as4.notification.store", "memory");
+    }
+
+    /**
+     * @return The directory shared by all nodes, if the "directory"
+     *         notification correlation store is used.
+     * @since 2.1.2
+     */
+    @Nullable
+    public static String getGatewayNotificationStorePath ()
+    {
+      return getConfig ().getAsString ("toop.mem.as4.notification.store.path");
+    }
+
+    /**
+     * @return The interval in milliseconds in which the shared directory is
+     *         checked for notifications received by other nodes.
+     * @since 2.1.2
+     */
+    public static long getGatewayNotificationStorePollMS ()
+    {
+      return getConfig ().getAsLong ("toop.mem.as4.notification.store.poll-interval", 250);
+    }
+
+    /**
+     * @return <code>true</code> if messages to the gateway should be sent via
+     *         the pooled, keep-alive HTTP client, <code>false</code> to use a
+     *         new SAAJ connection per message.
+     * @since 2.1.2
+     */
+    public static boolean isGatewayHttpPooled ()
+    {
+      return getConfig ().getAsBoolean ("toop.mem.as4.http.pooled", true);
+    }
+
+    /**
+     * @return The maximum number of persistent connections to the gateway
+     *         endpoint. Only used if the pooled HTTP client is used.
+     * @since 2.1.2
+     */
+    public static int getGatewayHttpMaxConnectionsPerRoute ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.http.max-per-route", 20);
+    }
+
+    /**
+     * @return The size in bytes above which attachments of inbound gateway
+     *         messages are written to temporary files instead of being kept in
+     *         memory.
+     * @since 2.1.2
+     */
+    public static long getIncomingSpillThresholdBytes ()
+    {
+      return getConfig ().getAsLong ("toop.mem.as4.incoming.spill-threshold", CGlobal.BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * @return <code>true</code> if messages received from the gateway should be
+     *         processed asynchronously on a dedicated thread pool per action,
+     *         <code>false</code> to process them on the servlet container
+     *         thread.
+     * @since 2.1.2
+     */
+    public static boolean isIncomingAsyncDispatch ()
+    {
+      return getConfig ().getAsBoolean ("toop.mem.as4.incoming.async", true);
+    }
+
+    /**
+     * @return The number of threads processing incoming "Deliver" messages.
+     * @since 2.1.2
+     */
+    public static int getIncomingDeliverThreads ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.incoming.deliver.threads", 8);
+    }
+
+    /**
+     * @return The number of threads processing incoming "RelayResult" and
+     *         "SubmissionResult" messages each.
+     * @since 2.1.2
+     */
+    public static int getIncomingResultThreads ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.incoming.result.threads", 2);
+    }
+
+    /**
+     * @return The maximum number of incoming messages per action waiting for a
+     *         processing thread.
+     * @since 2.1.2
+     */
+    public static int getIncomingQueueSize ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.incoming.queue-size", 100);
+    }
+
+    /**
+     * @return What to do with an incoming message if the queue of its action is
+     *         full. Either "fault" or "caller-runs". May be <code>null</code>.
+     * @since 2.1.2
+     */
+    @Nullable
+    public static String getIncomingRejectPolicy ()
+    {
+      return getConfig ().getAsString ("toop.mem.as4.incoming.reject-policy");
+    }
+
+    /**
+     * @return The maximum time in milliseconds an incoming message may wait for
+     *         and use a processing thread before a fault is returned to the
+     *         gateway.
+     * @since 2.1.2
+     */
+    public static long getIncomingAsyncTimeoutMS ()
+    {
+      return getConfig ().getAsLong ("toop.mem.as4.incoming.async.timeout", 60 * CGlobal.MILLISECONDS_PER_SECOND);
+    }
+
+    /**
+     * @return <code>true</code> if the handlers of an incoming "Deliver"
+     *         message should run concurrently, <code>false</code> to run them
+     *         one after the other.
+     * @since 2.1.2
+     */
+    public static boolean isIncomingHandlersParallel ()
+    {
+      return getConfig ().getAsBoolean ("toop.mem.as4.incoming.handlers.parallel", false);
+    }
+
+    /**
+     * @return The number of threads running the synchronous message handlers
+     *         concurrently.
+     * @since 2.1.2
+     */
+    public static int getIncomingHandlerThreads ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.incoming.handlers.threads", 8);
+    }
+
+    /**
+     * @return The number of threads running the asynchronous message handlers.
+     * @since 2.1.2
+     */
+    public static int getIncomingAsyncHandlerThreads ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.incoming.handlers.async.threads", 4);
+    }
+
+    /**
+     * @return The maximum number of asynchronous message handler executions
+     *         waiting for a thread. Further executions are dropped.
+     * @since 2.1.2
+     */
+    public static int getIncomingAsyncHandlerQueueSize ()
+    {
+      return getConfig ().getAsInt ("toop.mem.as4.incoming.handlers.async.queue-size", 1000);
+    }
+
+    /**
+     * @return The maximum time in milliseconds a single concurrently running
+     *         message handler may take, measured from its start.
+     * @since 2.1.2
+     */
+    public static long getIncomingHandlerTimeoutMS ()
+    {
+      return getConfig ().getAsLong ("toop.mem.as4.incoming.handlers.timeout", 30 * CGlobal.MILLISECONDS_PER_SECOND);
+    }
+
     /**
      * @return The DSC/DP URL where incoming AS4 messages are forwarded to. This
      *         is the value from the configuration file.
@@ -372,6 +684,18 @@ public final class TCConfig
       return getConfig ().getAsString ("toop.mem.incoming.url");
     }
 
+    /**
+     * @return <code>true</code> if the type of incoming EDM objects should
+     *         only be determined from their root element, so that the EDM
+     *         object model is only built for handlers that request it,
+     *         <code>false</code> to always parse incoming EDM objects.
+     * @since 2.1.2
+     */
+    public static boolean isIncomingEDMSniffing ()
+    {
+      return getConfig ().getAsBoolean ("toop.mem.incoming.edm.sniff", true);
+    }
+
     public static boolean isMEMOutgoingDumpEnabled ()
     {
       return getConfig ().getAsBoolean ("toop.mem.outgoing.dump.enabled", false);
@@ -393,6 +717,88 @@ public final class TCConfig
     {
       return getConfig ().getAsString ("toop.mem.incoming.dump.path");
     }
+
+    /**
+     * @return The maximum number of receivers for which the data derived from
+     *         the certificate and endpoint URL is cached by the Message Exchange
+     *         Modules.
+     * @since 2.1.2
+     */
+    public static int getReceiverProfileCacheSize ()
+    {
+      return getConfig ().getAsInt ("toop.mem.receiver-profile-cache.size", 1000);
+    }
+
+    /**
+     * @return The number of milliseconds after which cached receiver data is
+     *         derived again.
+     * @since 2.1.2
+     */
+    public static long getReceiverProfileCacheTTLMS ()
+    {
+      return getConfig ().getAsLong ("toop.mem.receiver-profile-cache.ttl", CGlobal.MILLISECONDS_PER_HOUR);
+    }
+
+    /**
+     * @return <code>true</code> if MEM dumps should be written asynchronously
+     *         into rolling, compressed segment files instead of one file per
+     *         message.
+     * @since 2.1.2
+     */
+    public static boolean isMEMDumpAsync ()
+    {
+      return getConfig ().getAsBoolean ("toop.mem.dump.async.enabled", false);
+    }
+
+    /**
+     * @return The maximum number of dumps waiting to be written. If exceeded,
+     *         further dumps are dropped.
+     * @since 2.1.2
+     */
+    public static int getMEMDumpAsyncQueueSize ()
+    {
+      return getConfig ().getAsInt ("toop.mem.dump.async.queue-size", 1000);
+    }
+
+    /**
+     * @return The maximum total size in bytes of the dumps waiting to be
+     *         written. If exceeded, further dumps are dropped.
+     * @since 2.1.2
+     */
+    public static long getMEMDumpAsyncQueueMaxBytes ()
+    {
+      return getConfig ().getAsLong ("toop.mem.dump.async.queue-max-bytes", 64 * CGlobal.BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * @return The size in bytes after which a new dump segment file is started.
+     * @since 2.1.2
+     */
+    public static long getMEMDumpSegmentSizeBytes ()
+    {
+      return getConfig ().getAsLong ("toop.mem.dump.async.segment-size", 64 * CGlobal.BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * @return The size in bytes above which payloads read from a stream are
+     *         written to temporary files instead of being kept in memory.
+     * @since 2.1.2
+     */
+    public static long getPayloadSpillThresholdBytes ()
+    {
+      return getConfig ().getAsLong ("toop.mem.payload.spill-threshold", CGlobal.BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * @return The directory for the temporary payload files. May be
+     *         <code>null</code> to use the default temporary directory.
+     * @since 2.1.2
+     */
+    @Nullable
+    public static String getPayloadSpillPath ()
+    {
+      return getConfig ().getAsString ("toop.mem.payload.spill.path");
+    }
   }
 
   public static final class HTTP
@@ -36,17 +36,22 @@ package eu.toop.connector.api.dsd;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.lang.ICloneable;
 import com.helger.json.IJsonObject;
 import com.helger.json.JsonObject;
 import com.helger.peppolid.IDocumentTypeIdentifier;
 import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.simple.doctype.SimpleDocumentTypeIdentifier;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
 
 /**
  * Simplified DSD Response Representation
  *
  * @author jerouris at 21.05.2020
  */
-public class DSDDatasetResponse
+public class DSDDatasetResponse implements ICloneable <DSDDatasetResponse>
 {
   private IParticipantIdentifier m_aDPIdentifier;
 
@@ -63,6 +68,27 @@ public class DSDDatasetResponse
   public DSDDatasetResponse ()
   {}
 
+  /**
+   * Copy constructor. The identifiers are copied as well, as they may be
+   * mutable.
+   *
+   * @param aOther
+   *        The object to copy. May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public DSDDatasetResponse (@Nonnull final DSDDatasetResponse aOther)
+  {
+    ValueEnforcer.notNull (aOther, "Other");
+    m_aDPIdentifier = aOther.m_aDPIdentifier == null ? null : new SimpleParticipantIdentifier (aOther.m_aDPIdentifier);
+    m_sDatasetIdentifier = aOther.m_sDatasetIdentifier;
+    m_sDistributionFormat = aOther.m_sDistributionFormat;
+    m_sDistributionConforms = aOther.m_sDistributionConforms;
+    m_sDistributionMediaType = aOther.m_sDistributionMediaType;
+    m_sAccessServiceConforms = aOther.m_sAccessServiceConforms;
+    m_aDocumentTypeIdentifier = aOther.m_aDocumentTypeIdentifier == null ? null
+                                                                         : new SimpleDocumentTypeIdentifier (aOther.m_aDocumentTypeIdentifier);
+  }
+
   @Nullable
   public IParticipantIdentifier getDPIdentifier ()
   {
@@ -154,6 +180,13 @@ public class DSDDatasetResponse
     return this;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public DSDDatasetResponse getClone ()
+  {
+    return new DSDDatasetResponse (this);
+  }
+
   @Nonnull
   public IJsonObject getAsJson ()
   {
@@ -0,0 +1,639 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An archive of message dumps, that appends all dumps to compressed segment
+ * files instead of creating one file per message. Segments are stored in one
+ * folder per day (<code>yyyy/MM/dd</code>) and a new segment is started each
+ * day or if the maximum segment size is exceeded.
+ * <p>
+ * Each dump is a separate gzip member, so a segment is a valid gzip file as a
+ * whole and each dump can be decompressed on its own. For every segment
+ * <code>xyz.gz</code> an index <code>xyz.gz.idx</code> is written with one
+ * line per dump (see {@link DumpArchiveEntry}). A dump is compressed straight
+ * into its segment while it is written, without buffering it. Therefore a
+ * segment is used by one dump at a time, and concurrently written dumps use
+ * separate segments. Use {@link DumpArchiveLookup} to find dumps.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public final class DumpArchive implements AutoCloseable
+{
+  public static final String TYPE_INCOMING = "incoming";
+  public static final String TYPE_OUTGOING = "outgoing";
+  public static final String TYPE_RESPONSE = "response";
+
+  public static final String SEGMENT_EXTENSION = ".gz";
+  public static final String INDEX_EXTENSION = ".idx";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (DumpArchive.class);
+
+  private static final DateTimeFormatter SEGMENT_TIME_FORMAT = DateTimeFormatter.ofPattern ("yyyyMMdd'T'HHmmss");
+
+  // The ebMS header is at the beginning of the dump
+  private static final int HEADER_SAMPLE_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  private static final Pattern PATTERN_MESSAGE_ID = Pattern.compile ("<(?:[\\w.-]+:)?MessageId(?:\\s[^>]*)?>\\s*([^<\\s]+)\\s*</");
+  private static final Pattern PATTERN_CONVERSATION_ID = Pattern.compile ("<(?:[\\w.-]+:)?ConversationId(?:\\s[^>]*)?>\\s*([^<\\s]+)\\s*</");
+
+  /**
+   * The content of a single dump.
+   */
+  @FunctionalInterface
+  public interface IDumpContent
+  {
+    /**
+     * @param aOS
+     *        The stream to write the dump to. Never <code>null</code>. Must
+     *        not be closed.
+     * @throws IOException
+     *         on error
+     */
+    void writeTo (@Nonnull OutputStream aOS) throws IOException;
+  }
+
+  /**
+   * A single open segment together with its index. Only used by one dump at a
+   * time. Closing the stream keeps the segment open.
+   */
+  private static final class Segment extends FilterOutputStream
+  {
+    private final File m_aFile;
+    private final LocalDate m_aDate;
+    private final Writer m_aIndexWriter;
+    private long m_nSize;
+
+    Segment (@Nonnull final File aFile, @Nonnull final LocalDate aDate) throws IOException
+    {
+      super (new BufferedOutputStream (new FileOutputStream (aFile, true), 64 * CGlobal.BYTES_PER_KILOBYTE));
+      m_aFile = aFile;
+      m_aDate = aDate;
+      m_nSize = aFile.length ();
+      try
+      {
+        m_aIndexWriter = new OutputStreamWriter (new FileOutputStream (new File (aFile.getParentFile (),
+                                                                                 aFile.getName () + INDEX_EXTENSION),
+                                                                       true),
+                                                 StandardCharsets.UTF_8);
+      }
+      catch (final IOException ex)
+      {
+        StreamHelper.close (out);
+        throw ex;
+      }
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      out.write (b);
+      m_nSize++;
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      out.write (aBuf, nOfs, nLen);
+      m_nSize += nLen;
+    }
+
+    @Override
+    public void close ()
+    {
+      // The segment stays open for the next dump
+    }
+
+    void closeSegment ()
+    {
+      // Close the segment before the index, so that no index entry points to
+      // unwritten data
+      StreamHelper.close (out);
+      StreamHelper.close (m_aIndexWriter);
+    }
+  }
+
+  /**
+   * Compresses a single dump straight into its segment and writes the index
+   * entry when it is closed.
+   */
+  private final class DumpOutputStream extends OutputStream
+  {
+    private final String m_sMessageID;
+    private final String m_sType;
+    private final Segment m_aSegment;
+    private final long m_nOffset;
+    private final NonBlockingByteArrayOutputStream m_aHeader = new NonBlockingByteArrayOutputStream (4 *
+                                                                                                      CGlobal.BYTES_PER_KILOBYTE);
+    private final GZIPOutputStream m_aGZIP;
+    private boolean m_bClosed = false;
+    private boolean m_bFailed = false;
+
+    DumpOutputStream (@Nullable final String sMessageID,
+                      @Nonnull final String sType,
+                      @Nonnull final Segment aSegment) throws IOException
+    {
+      m_sMessageID = sMessageID;
+      m_sType = sType;
+      m_aSegment = aSegment;
+      m_nOffset = aSegment.m_nSize;
+      // Writes the gzip header
+      m_aGZIP = new GZIPOutputStream (aSegment, 8 * CGlobal.BYTES_PER_KILOBYTE);
+    }
+
+    private void _checkOpen () throws IOException
+    {
+      if (m_bClosed)
+        throw new IOException ("The dump stream is already closed");
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      _checkOpen ();
+      if (m_aHeader.size () < HEADER_SAMPLE_SIZE)
+        m_aHeader.write (b);
+      try
+      {
+        m_aGZIP.write (b);
+      }
+      catch (final IOException ex)
+      {
+        m_bFailed = true;
+        throw ex;
+      }
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      _checkOpen ();
+      final int nSample = Math.min (nLen, HEADER_SAMPLE_SIZE - m_aHeader.size ());
+      if (nSample > 0)
+        m_aHeader.write (aBuf, nOfs, nSample);
+      try
+      {
+        m_aGZIP.write (aBuf, nOfs, nLen);
+      }
+      catch (final IOException ex)
+      {
+        m_bFailed = true;
+        throw ex;
+      }
+    }
+
+    /**
+     * Discard the dump without writing an index entry.
+     */
+    void abort ()
+    {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        // Releases the deflater. The segment is not reused, as it contains a
+        // partial dump.
+        StreamHelper.close (m_aGZIP);
+        m_aFailedCount.incrementAndGet ();
+        _releaseSegment (m_aSegment, false);
+      }
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_bClosed)
+        return;
+      if (m_bFailed)
+      {
+        abort ();
+        return;
+      }
+      m_bClosed = true;
+
+      boolean bSuccess = false;
+      try
+      {
+        // Writes the gzip trailer, but keeps the segment open
+        m_aGZIP.close ();
+        m_aSegment.flush ();
+
+        final String sHeader = m_aHeader.getAsString (StandardCharsets.UTF_8);
+        final String sMessageID = StringHelper.hasText (m_sMessageID) ? m_sMessageID : _find (PATTERN_MESSAGE_ID, sHeader);
+        final String sConversationID = _find (PATTERN_CONVERSATION_ID, sHeader);
+        final DumpArchiveEntry aEntry = new DumpArchiveEntry (m_aSegment.m_aFile,
+                                                              sMessageID,
+                                                              sConversationID,
+                                                              m_sType,
+                                                              System.currentTimeMillis (),
+                                                              m_nOffset,
+                                                              m_aSegment.m_nSize - m_nOffset);
+        // The index is written after the data, so that no entry points to
+        // unwritten data
+        m_aSegment.m_aIndexWriter.write (aEntry.getAsIndexLine ());
+        m_aSegment.m_aIndexWriter.flush ();
+        m_aWrittenCount.incrementAndGet ();
+        bSuccess = true;
+      }
+      catch (final IOException ex)
+      {
+        m_aFailedCount.incrementAndGet ();
+        LOGGER.error ("Error writing " + m_sType + " dump of '" + m_sMessageID + "' to " + m_aSegment.m_aFile, ex);
+        throw ex;
+      }
+      finally
+      {
+        // Start a new segment after an error, as the current one may be
+        // corrupt
+        _releaseSegment (m_aSegment, bSuccess);
+      }
+    }
+  }
+
+  private final File m_aBaseDir;
+  private final String m_sFilePrefix;
+  private final long m_nMaxSegmentBytes;
+  private final Lock m_aLock = new ReentrantLock ();
+  private final AtomicLong m_aWrittenCount = new AtomicLong ();
+  private final AtomicLong m_aFailedCount = new AtomicLong ();
+
+  // The most recently used segment is reused first
+  @GuardedBy ("m_aLock")
+  private final Deque <Segment> m_aIdleSegments = new ArrayDeque <> ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsSet <Segment> m_aBusySegments = new CommonsHashSet <> ();
+  @GuardedBy ("m_aLock")
+  private int m_nSegmentIndex = 0;
+  @GuardedBy ("m_aLock")
+  private boolean m_bClosed = false;
+
+  /**
+   * @param aBaseDir
+   *        The directory in which the daily folders are created. May not be
+   *        <code>null</code>.
+   * @param sFilePrefix
+   *        The prefix of the segment file names. May neither be
+   *        <code>null</code> nor empty.
+   * @param nMaxSegmentBytes
+   *        The size after which a new segment is started. Must be &gt; 0.
+   */
+  public DumpArchive (@Nonnull final File aBaseDir,
+                      @Nonnull @Nonempty final String sFilePrefix,
+                      @Nonnegative final long nMaxSegmentBytes)
+  {
+    ValueEnforcer.notNull (aBaseDir, "BaseDir");
+    ValueEnforcer.notEmpty (sFilePrefix, "FilePrefix");
+    ValueEnforcer.isGT0 (nMaxSegmentBytes, "MaxSegmentBytes");
+    m_aBaseDir = aBaseDir;
+    m_sFilePrefix = sFilePrefix;
+    m_nMaxSegmentBytes = nMaxSegmentBytes;
+  }
+
+  @Nullable
+  private static String _find (@Nonnull final Pattern aPattern, @Nonnull final String sHeader)
+  {
+    final Matcher aMatcher = aPattern.matcher (sHeader);
+    return aMatcher.find () ? aMatcher.group (1) : null;
+  }
+
+  /**
+   * @return The directory in which the daily folders are created. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public File getBaseDir ()
+  {
+    return m_aBaseDir;
+  }
+
+  /**
+   * @return The prefix of the segment file names. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public String getFilePrefix ()
+  {
+    return m_sFilePrefix;
+  }
+
+  /**
+   * @return The number of dumps written so far.
+   */
+  @Nonnegative
+  public long getWrittenCount ()
+  {
+    return m_aWrittenCount.get ();
+  }
+
+  /**
+   * @return The number of dumps that could not be written.
+   */
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailedCount.get ();
+  }
+
+  /**
+   * @return The number of currently open segments.
+   */
+  @Nonnegative
+  public int getOpenSegmentCount ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_aIdleSegments.size () + m_aBusySegments.size ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  private Segment _acquireSegment () throws IOException
+  {
+    m_aLock.lock ();
+    try
+    {
+      if (m_bClosed)
+        throw new IOException ("The dump archive " + m_sFilePrefix + " is already closed");
+
+      final LocalDate aToday = PDTFactory.getCurrentLocalDate ();
+      Segment ret;
+      while ((ret = m_aIdleSegments.pollFirst ()) != null)
+      {
+        if (aToday.equals (ret.m_aDate) && ret.m_nSize < m_nMaxSegmentBytes)
+          break;
+        ret.closeSegment ();
+      }
+      if (ret == null)
+        ret = _createSegment (aToday);
+      m_aBusySegments.add (ret);
+      return ret;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @GuardedBy ("m_aLock")
+  @Nonnull
+  private Segment _createSegment (@Nonnull final LocalDate aToday) throws IOException
+  {
+    final File aFolder = new File (m_aBaseDir,
+                                   StringHelper.getLeadingZero (aToday.getYear (), 4) +
+                                               "/" +
+                                               StringHelper.getLeadingZero (aToday.getMonthValue (), 2) +
+                                               "/" +
+                                               StringHelper.getLeadingZero (aToday.getDayOfMonth (), 2));
+    if (!aFolder.isDirectory () && FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aFolder).isFailure ())
+      throw new IOException ("Failed to create the dump archive folder " + aFolder.getAbsolutePath ());
+
+    m_nSegmentIndex++;
+    final File aFile = new File (aFolder,
+                                 m_sFilePrefix +
+                                          "-" +
+                                          SEGMENT_TIME_FORMAT.format (PDTFactory.getCurrentLocalDateTime ()) +
+                                          "-" +
+                                          m_nSegmentIndex +
+                                          SEGMENT_EXTENSION);
+    final Segment ret = new Segment (aFile, aToday);
+    LOGGER.info ("Writing dumps to segment '" + aFile.getAbsolutePath () + "'");
+    return ret;
+  }
+
+  private void _releaseSegment (@Nonnull final Segment aSegment, final boolean bReuse)
+  {
+    m_aLock.lock ();
+    try
+    {
+      m_aBusySegments.remove (aSegment);
+      if (bReuse && !m_bClosed)
+        m_aIdleSegments.addFirst (aSegment);
+      else
+        aSegment.closeSegment ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  private DumpOutputStream _openDumpStream (@Nullable final String sMessageID, @Nonnull final String sType) throws IOException
+  {
+    ValueEnforcer.notNull (sType, "Type");
+
+    final Segment aSegment = _acquireSegment ();
+    try
+    {
+      return new DumpOutputStream (sMessageID, sType, aSegment);
+    }
+    catch (final IOException ex)
+    {
+      m_aFailedCount.incrementAndGet ();
+      _releaseSegment (aSegment, false);
+      throw ex;
+    }
+  }
+
+  /**
+   * Open a stream for a new dump. The dump is compressed straight into a
+   * segment that is exclusively used by this stream until it is closed. The
+   * index entry is written when the stream is closed.
+   *
+   * @param sMessageID
+   *        The message ID if known. If <code>null</code> it is taken from the
+   *        ebMS header of the dump.
+   * @param sType
+   *        The type of the dump. May not be <code>null</code>.
+   * @return The stream to write the dump to. Never <code>null</code>. Must be
+   *         closed by the caller.
+   * @throws IOException
+   *         If the archive is closed or no segment could be opened
+   */
+  @Nonnull
+  public OutputStream openDumpStream (@Nullable final String sMessageID, @Nonnull final String sType) throws IOException
+  {
+    return _openDumpStream (sMessageID, sType);
+  }
+
+  /**
+   * Add a complete dump to the archive. If the content fails, the partially
+   * written dump is not added to the index.
+   *
+   * @param sMessageID
+   *        The message ID if known. If <code>null</code> it is taken from the
+   *        ebMS header of the dump.
+   * @param sType
+   *        The type of the dump. May not be <code>null</code>.
+   * @param aContent
+   *        The content of the dump. May not be <code>null</code>.
+   * @throws IOException
+   *         on error
+   */
+  public void writeDump (@Nullable final String sMessageID,
+                         @Nonnull final String sType,
+                         @Nonnull final IDumpContent aContent) throws IOException
+  {
+    ValueEnforcer.notNull (aContent, "Content");
+
+    final DumpOutputStream aOS = _openDumpStream (sMessageID, sType);
+    try
+    {
+      aContent.writeTo (aOS);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      aOS.abort ();
+      LOGGER.error ("Error writing " + sType + " dump of '" + sMessageID + "' to the dump archive " + m_sFilePrefix, ex);
+      throw ex;
+    }
+    aOS.close ();
+  }
+
+  /**
+   * Add a complete dump to the archive.
+   *
+   * @param sMessageID
+   *        The message ID if known. If <code>null</code> it is taken from the
+   *        ebMS header of the dump.
+   * @param sType
+   *        The type of the dump. May not be <code>null</code>.
+   * @param aBytes
+   *        The dump. May not be <code>null</code>.
+   * @throws IOException
+   *         on error
+   */
+  public void writeDump (@Nullable final String sMessageID,
+                         @Nonnull final String sType,
+                         @Nonnull final byte [] aBytes) throws IOException
+  {
+    ValueEnforcer.notNull (aBytes, "Bytes");
+    writeDump (sMessageID, sType, aOS -> aOS.write (aBytes));
+  }
+
+  /**
+   * @param sPrefix
+   *        The prefix to use for the keys. May not be <code>null</code>.
+   * @return The status data of this archive for the status page. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Object> getStatusData (@Nonnull final String sPrefix)
+  {
+    final ICommonsOrderedMap <String, Object> ret = new CommonsLinkedHashMap <> ();
+    ret.put (sPrefix + "written", Long.valueOf (getWrittenCount ()));
+    ret.put (sPrefix + "failed", Long.valueOf (getFailedCount ()));
+    ret.put (sPrefix + "open-segments", Integer.valueOf (getOpenSegmentCount ()));
+    return ret;
+  }
+
+  /**
+   * Close all idle segments. The segments of dumps that are still being
+   * written are closed together with the dump. Dumps opened afterwards fail.
+   */
+  @Override
+  public void close ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      m_bClosed = true;
+      for (final Segment aSegment : m_aIdleSegments)
+        aSegment.closeSegment ();
+      m_aIdleSegments.clear ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BaseDir", m_aBaseDir)
+                                       .append ("FilePrefix", m_sFilePrefix)
+                                       .append ("MaxSegmentBytes", m_nMaxSegmentBytes)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,229 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.dump;
+
+import java.io.File;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A single entry of the index of an {@link DumpArchive} segment. Each entry
+ * is stored as one tab separated line: message ID, conversation ID, type,
+ * timestamp in milliseconds, offset and length of the compressed dump within
+ * the segment.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class DumpArchiveEntry
+{
+  private static final char SEP = '\t';
+
+  private final File m_aSegment;
+  private final String m_sMessageID;
+  private final String m_sConversationID;
+  private final String m_sType;
+  private final long m_nTimestamp;
+  private final long m_nOffset;
+  private final long m_nLength;
+
+  public DumpArchiveEntry (@Nonnull final File aSegment,
+                              @Nullable final String sMessageID,
+                              @Nullable final String sConversationID,
+                              @Nonnull final String sType,
+                              final long nTimestamp,
+                              @Nonnegative final long nOffset,
+                              @Nonnegative final long nLength)
+  {
+    ValueEnforcer.notNull (aSegment, "Segment");
+    ValueEnforcer.notNull (sType, "Type");
+    ValueEnforcer.isGE0 (nOffset, "Offset");
+    ValueEnforcer.isGE0 (nLength, "Length");
+    m_aSegment = aSegment;
+    m_sMessageID = StringHelper.getNotNull (sMessageID);
+    m_sConversationID = StringHelper.getNotNull (sConversationID);
+    m_sType = sType;
+    m_nTimestamp = nTimestamp;
+    m_nOffset = nOffset;
+    m_nLength = nLength;
+  }
+
+  /**
+   * @return The segment file containing the dump. Never <code>null</code>.
+   */
+  @Nonnull
+  public File getSegment ()
+  {
+    return m_aSegment;
+  }
+
+  /**
+   * @return The message ID. Never <code>null</code> but maybe empty if it could
+   *         not be determined.
+   */
+  @Nonnull
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The conversation ID. Never <code>null</code> but maybe empty if
+   *         it could not be determined.
+   */
+  @Nonnull
+  public String getConversationID ()
+  {
+    return m_sConversationID;
+  }
+
+  /**
+   * @return The type of the dump, e.g. "incoming", "outgoing" or "response".
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public String getType ()
+  {
+    return m_sType;
+  }
+
+  /**
+   * @return The time the dump was written in milliseconds since the epoch.
+   */
+  public long getTimestamp ()
+  {
+    return m_nTimestamp;
+  }
+
+  @Nonnegative
+  public long getOffset ()
+  {
+    return m_nOffset;
+  }
+
+  @Nonnegative
+  public long getLength ()
+  {
+    return m_nLength;
+  }
+
+  @Nonnull
+  private static String _clean (@Nonnull final String s)
+  {
+    return s.replace (SEP, ' ').replace ('\r', ' ').replace ('\n', ' ');
+  }
+
+  /**
+   * @return This entry as a single index line including the trailing newline.
+   */
+  @Nonnull
+  public String getAsIndexLine ()
+  {
+    return _clean (m_sMessageID) +
+           SEP +
+           _clean (m_sConversationID) +
+           SEP +
+           _clean (m_sType) +
+           SEP +
+           m_nTimestamp +
+           SEP +
+           m_nOffset +
+           SEP +
+           m_nLength +
+           '\n';
+  }
+
+  /**
+   * Parse a single line of an index file.
+   *
+   * @param aSegment
+   *        The segment the index belongs to. May not be <code>null</code>.
+   * @param sLine
+   *        The line without the trailing newline. May not be <code>null</code>.
+   * @return <code>null</code> if the line is not a valid index line, e.g.
+   *         because it was only partially written.
+   */
+  @Nullable
+  public static DumpArchiveEntry parseIndexLine (@Nonnull final File aSegment, @Nonnull final String sLine)
+  {
+    final String [] aParts = StringHelper.getExplodedArray (SEP, sLine);
+    if (aParts.length != 6)
+      return null;
+    final long nTimestamp = StringParser.parseLong (aParts[3], -1);
+    final long nOffset = StringParser.parseLong (aParts[4], -1);
+    final long nLength = StringParser.parseLong (aParts[5], -1);
+    if (nTimestamp < 0 || nOffset < 0 || nLength < 0)
+      return null;
+    return new DumpArchiveEntry (aSegment, aParts[0], aParts[1], aParts[2], nTimestamp, nOffset, nLength);
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final DumpArchiveEntry rhs = (DumpArchiveEntry) o;
+    return m_aSegment.equals (rhs.m_aSegment) && m_nOffset == rhs.m_nOffset;
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_aSegment).append (m_nOffset).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Segment", m_aSegment)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("ConversationID", m_sConversationID)
+                                       .append ("Type", m_sType)
+                                       .append ("Timestamp", m_nTimestamp)
+                                       .append ("Offset", m_nOffset)
+                                       .append ("Length", m_nLength)
+                                       .getToString ();
+  }
+}
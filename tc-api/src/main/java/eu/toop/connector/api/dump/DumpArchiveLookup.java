@@ -0,0 +1,282 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.dump;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringParser;
+
+/**
+ * Find and read dumps in the segments written by {@link DumpArchive}. Only
+ * the index files are searched, and only the found dumps are decompressed.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class DumpArchiveLookup
+{
+  private DumpArchiveLookup ()
+  {}
+
+  /**
+   * Determine the date of an index file from the daily folder it is stored in.
+   *
+   * @return <code>null</code> if the folder is no daily folder.
+   */
+  @Nullable
+  private static LocalDate _getFolderDate (@Nonnull final Path aIndexFile)
+  {
+    final Path aDay = aIndexFile.getParent ();
+    final Path aMonth = aDay == null ? null : aDay.getParent ();
+    final Path aYear = aMonth == null ? null : aMonth.getParent ();
+    if (aYear == null)
+      return null;
+    final int nYear = StringParser.parseInt (aYear.getFileName ().toString (), -1);
+    final int nMonth = StringParser.parseInt (aMonth.getFileName ().toString (), -1);
+    final int nDay = StringParser.parseInt (aDay.getFileName ().toString (), -1);
+    try
+    {
+      return LocalDate.of (nYear, nMonth, nDay);
+    }
+    catch (final DateTimeException ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Find all dumps matching the provided filter.
+   *
+   * @param aBaseDir
+   *        The base directory of the archive. May not be <code>null</code>.
+   *        All archives (incoming, outgoing, responses) below this directory
+   *        are searched.
+   * @param aFrom
+   *        The first day to search, inclusive. May be <code>null</code>.
+   * @param aTo
+   *        The last day to search, inclusive. May be <code>null</code>.
+   * @param aFilter
+   *        The filter to apply. May not be <code>null</code>.
+   * @return The matching entries in the order of the segments. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         If an index cannot be read
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <DumpArchiveEntry> findEntries (@Nonnull final File aBaseDir,
+                                                                @Nullable final LocalDate aFrom,
+                                                                @Nullable final LocalDate aTo,
+                                                                @Nonnull final Predicate <? super DumpArchiveEntry> aFilter) throws IOException
+  {
+    ValueEnforcer.notNull (aBaseDir, "BaseDir");
+    ValueEnforcer.notNull (aFilter, "Filter");
+
+    final ICommonsList <DumpArchiveEntry> ret = new CommonsArrayList <> ();
+    if (!aBaseDir.isDirectory ())
+      return ret;
+
+    final String sIndexSuffix = DumpArchive.SEGMENT_EXTENSION + DumpArchive.INDEX_EXTENSION;
+    final ICommonsList <Path> aIndexFiles;
+    try (final Stream <Path> aStream = Files.walk (aBaseDir.toPath (), 4))
+    {
+      aIndexFiles = new CommonsArrayList <> (aStream.filter (p -> p.getFileName ().toString ().endsWith (sIndexSuffix))
+                                                    .sorted ()
+                                                    .collect (Collectors.toList ()));
+    }
+
+    for (final Path aIndexFile : aIndexFiles)
+    {
+      if (aFrom != null || aTo != null)
+      {
+        final LocalDate aDate = _getFolderDate (aIndexFile);
+        if (aDate != null && ((aFrom != null && aDate.isBefore (aFrom)) || (aTo != null && aDate.isAfter (aTo))))
+          continue;
+      }
+
+      final String sIndexName = aIndexFile.getFileName ().toString ();
+      final File aSegment = new File (aIndexFile.getParent ().toFile (),
+                                      sIndexName.substring (0, sIndexName.length () - DumpArchive.INDEX_EXTENSION.length ()));
+      try (final BufferedReader aReader = Files.newBufferedReader (aIndexFile, StandardCharsets.UTF_8))
+      {
+        String sLine;
+        while ((sLine = aReader.readLine ()) != null)
+        {
+          final DumpArchiveEntry aEntry = DumpArchiveEntry.parseIndexLine (aSegment, sLine);
+          if (aEntry != null && aFilter.test (aEntry))
+            ret.add (aEntry);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Find all dumps of a message, e.g. the incoming message, the outgoing
+   * message (once per try) and the response.
+   *
+   * @param aBaseDir
+   *        The base directory of the archive. May not be <code>null</code>.
+   * @param sMessageID
+   *        The message ID to search. May not be <code>null</code>.
+   * @return The matching entries. Never <code>null</code>.
+   * @throws IOException
+   *         If an index cannot be read
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <DumpArchiveEntry> findByMessageID (@Nonnull final File aBaseDir,
+                                                                    @Nonnull final String sMessageID) throws IOException
+  {
+    ValueEnforcer.notNull (sMessageID, "MessageID");
+    return findEntries (aBaseDir, null, null, x -> x.getMessageID ().equals (sMessageID));
+  }
+
+  /**
+   * Find all dumps of a conversation.
+   *
+   * @param aBaseDir
+   *        The base directory of the archive. May not be <code>null</code>.
+   * @param sConversationID
+   *        The conversation ID to search. May not be <code>null</code>.
+   * @return The matching entries. Never <code>null</code>.
+   * @throws IOException
+   *         If an index cannot be read
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <DumpArchiveEntry> findByConversationID (@Nonnull final File aBaseDir,
+                                                                         @Nonnull final String sConversationID) throws IOException
+  {
+    ValueEnforcer.notNull (sConversationID, "ConversationID");
+    return findEntries (aBaseDir, null, null, x -> x.getConversationID ().equals (sConversationID));
+  }
+
+  /**
+   * Open a single dump.
+   *
+   * @param aEntry
+   *        The index entry of the dump. May not be <code>null</code>.
+   * @return The decompressed dump. Must be closed by the caller.
+   * @throws IOException
+   *         on error
+   */
+  @Nonnull
+  public static InputStream openDump (@Nonnull final DumpArchiveEntry aEntry) throws IOException
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+
+    final InputStream aIS = Files.newInputStream (aEntry.getSegment ().toPath ());
+    try
+    {
+      long nSkipped = 0;
+      while (nSkipped < aEntry.getOffset ())
+      {
+        final long n = aIS.skip (aEntry.getOffset () - nSkipped);
+        if (n <= 0)
+          throw new IOException ("Offset " + aEntry.getOffset () + " is beyond the end of " + aEntry.getSegment ());
+        nSkipped += n;
+      }
+      // Limit to this dump, as GZIPInputStream would read all following
+      // members
+      return new GZIPInputStream (new FilterInputStream (aIS)
+      {
+        private long m_nRemaining = aEntry.getLength ();
+
+        @Override
+        public int read () throws IOException
+        {
+          if (m_nRemaining <= 0)
+            return -1;
+          final int ret = super.read ();
+          if (ret >= 0)
+            m_nRemaining--;
+          return ret;
+        }
+
+        @Override
+        public int read (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+        {
+          if (m_nRemaining <= 0)
+            return -1;
+          final int ret = super.read (aBuf, nOfs, (int) Math.min (nLen, m_nRemaining));
+          if (ret > 0)
+            m_nRemaining -= ret;
+          return ret;
+        }
+
+        @Override
+        public long skip (final long n) throws IOException
+        {
+          final long ret = super.skip (Math.min (n, m_nRemaining));
+          if (ret > 0)
+            m_nRemaining -= ret;
+          return ret;
+        }
+
+        @Override
+        public int available () throws IOException
+        {
+          return (int) Math.min (super.available (), m_nRemaining);
+        }
+      });
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      aIS.close ();
+      throw ex;
+    }
+  }
+}
@@ -33,16 +33,23 @@
  */
 package eu.toop.connector.api.me;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import javax.annotation.Nonnull;
 import javax.servlet.ServletContext;
 
 import com.helger.commons.annotation.IsSPIInterface;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 
 import eu.toop.connector.api.me.incoming.IMEIncomingHandler;
 import eu.toop.connector.api.me.model.MEMessage;
 import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.connector.api.me.outgoing.MESendResult;
 
 /**
  * Abstract API to be implemented for sending and receiving AS4 messages. This
@@ -94,6 +101,55 @@ public interface IMessageExchangeSPI
   void sendOutgoing (@Nonnull IMERoutingInformation aRoutingInfo,
                      @Nonnull MEMessage aMessage) throws MEOutgoingException;
 
+  /**
+   * Trigger the message transmission in step 1/4 and 3/4 without blocking the
+   * calling thread until the transmission is finished. The default
+   * implementation calls {@link #sendOutgoing(IMERoutingInformation, MEMessage)}
+   * synchronously and should be overridden by implementations that can do
+   * better.
+   *
+   * @param aRoutingInfo
+   *        Routing information. May not be <code>null</code>.
+   * @param aMessage
+   *        The message to be exchanged. May not be <code>null</code>.
+   * @return The completion stage with the transmission result. It is completed
+   *         exceptionally with an {@link MEOutgoingException} (maybe wrapped in
+   *         a {@link java.util.concurrent.CompletionException}) in case of
+   *         error. Never <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  default CompletionStage <MESendResult> sendOutgoingAsync (@Nonnull final IMERoutingInformation aRoutingInfo,
+                                                            @Nonnull final MEMessage aMessage)
+  {
+    final CompletableFuture <MESendResult> ret = new CompletableFuture <> ();
+    try
+    {
+      sendOutgoing (aRoutingInfo, aMessage);
+      ret.complete (MESendResult.create (null));
+    }
+    catch (final MEOutgoingException | RuntimeException ex)
+    {
+      ret.completeExceptionally (ex);
+    }
+    return ret;
+  }
+
+  /**
+   * Get implementation specific runtime information, e.g. queue depths, to be
+   * shown on the status page.
+   *
+   * @return The status data with the key as the name. Never <code>null</code>
+   *         but maybe empty.
+   * @since 2.1.2
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  default ICommonsOrderedMap <String, Object> getStatusData ()
+  {
+    return new CommonsLinkedHashMap <> ();
+  }
+
   /**
    * Shutdown the Message Exchange.
    *
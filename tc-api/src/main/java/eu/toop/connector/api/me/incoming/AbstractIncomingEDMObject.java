@@ -0,0 +1,169 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.incoming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.ByteArrayWrapper;
+
+import eu.toop.connector.api.me.model.IMEPayloadData;
+import eu.toop.connector.api.me.model.MEPayloadDataInMemory;
+import eu.toop.edm.IEDMTopLevelObject;
+import eu.toop.edm.xml.EDMPayloadDeterminator;
+
+/**
+ * Base class for incoming EDM objects. Either the EDM object or the raw bytes
+ * it was received as must be present. The EDM object is only parsed from the
+ * raw bytes, when it is requested. The raw bytes are only created from the EDM
+ * object when they are requested.
+ *
+ * @param <T>
+ *        The EDM top-level object type
+ * @since 2.1.2
+ */
+@NotThreadSafe
+public abstract class AbstractIncomingEDMObject <T extends IEDMTopLevelObject> implements IIncomingEDMObject
+{
+  private final Class <T> m_aObjectClass;
+  private T m_aObject;
+  private IMEPayloadData m_aRawData;
+  private final String m_sTopLevelContentID;
+  private final IMEIncomingTransportMetadata m_aMetadata;
+
+  protected AbstractIncomingEDMObject (@Nonnull final Class <T> aObjectClass,
+                                       @Nullable final T aObject,
+                                       @Nullable final IMEPayloadData aRawData,
+                                       @Nonnull @Nonempty final String sTopLevelContentID,
+                                       @Nonnull final IMEIncomingTransportMetadata aMetadata)
+  {
+    ValueEnforcer.notNull (aObjectClass, "ObjectClass");
+    ValueEnforcer.isTrue (aObject != null || aRawData != null, "Either the EDM object or the raw data must be provided");
+    ValueEnforcer.notEmpty (sTopLevelContentID, "TopLevelContentID");
+    ValueEnforcer.notNull (aMetadata, "Metadata");
+    m_aObjectClass = aObjectClass;
+    m_aObject = aObject;
+    m_aRawData = aRawData;
+    m_sTopLevelContentID = sTopLevelContentID;
+    m_aMetadata = aMetadata;
+  }
+
+  /**
+   * Serialize the EDM object. Only called if no raw data was provided.
+   *
+   * @param aObject
+   *        The EDM object to serialize. Never <code>null</code>.
+   * @return The serialized EDM object. May not be <code>null</code>.
+   */
+  @Nonnull
+  protected abstract byte [] getObjectAsBytes (@Nonnull T aObject);
+
+  /**
+   * @return The EDM object, parsed from the raw data on first access. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException
+   *         If the raw data is not an EDM object of the expected type
+   * @throws UncheckedIOException
+   *         If the raw data cannot be read
+   */
+  @Nonnull
+  protected final T getObject ()
+  {
+    T ret = m_aObject;
+    if (ret == null)
+    {
+      final IEDMTopLevelObject aParsed;
+      try (final InputStream aIS = m_aRawData.openStream ())
+      {
+        aParsed = EDMPayloadDeterminator.parseAndFind (aIS);
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to read the EDM payload", ex);
+      }
+      if (!m_aObjectClass.isInstance (aParsed))
+        throw new IllegalStateException ("The EDM payload is not a valid " + m_aObjectClass.getSimpleName () + " but " + aParsed);
+      ret = m_aObjectClass.cast (aParsed);
+      m_aObject = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * @return <code>true</code> if the EDM object is already present,
+   *         <code>false</code> if it would be parsed on the next access.
+   */
+  public final boolean isObjectParsed ()
+  {
+    return m_aObject != null;
+  }
+
+  /**
+   * Get the raw bytes of the EDM object, as received from the sender. Received
+   * raw data is only valid while the incoming handler is invoked.
+   *
+   * @return The raw bytes of the EDM object. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IMEPayloadData getRawData ()
+  {
+    IMEPayloadData ret = m_aRawData;
+    if (ret == null)
+    {
+      ret = new MEPayloadDataInMemory (new ByteArrayWrapper (getObjectAsBytes (m_aObject), false));
+      m_aRawData = ret;
+    }
+    return ret;
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getTopLevelContentID ()
+  {
+    return m_sTopLevelContentID;
+  }
+
+  @Nonnull
+  public final IMEIncomingTransportMetadata getMetadata ()
+  {
+    return m_aMetadata;
+  }
+}
@@ -41,6 +41,7 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.hashcode.HashCodeGenerator;
 import com.helger.commons.string.ToStringGenerator;
 
+import eu.toop.connector.api.me.model.IMEPayloadData;
 import eu.toop.edm.EDMErrorResponse;
 
 /**
@@ -50,45 +51,78 @@ import eu.toop.edm.EDMErrorResponse;
  * @author Philip Helger
  */
 @NotThreadSafe
-public class IncomingEDMErrorResponse implements IIncomingEDMResponse
+public class IncomingEDMErrorResponse extends AbstractIncomingEDMObject <EDMErrorResponse> implements IIncomingEDMResponse
 {
-  private final EDMErrorResponse m_aErrorResponse;
-  private final String m_sTopLevelContentID;
-  private final IMEIncomingTransportMetadata m_aMetadata;
-
   public IncomingEDMErrorResponse (@Nonnull final EDMErrorResponse aErrorResponse,
-                                   @Nonnull @Nonempty final String sTopLevelContentID,
-                                   @Nonnull final IMEIncomingTransportMetadata aMetadata)
+                             @Nonnull @Nonempty final String sTopLevelContentID,
+                             @Nonnull final IMEIncomingTransportMetadata aMetadata)
   {
-    ValueEnforcer.notNull (aErrorResponse, "ErrorResponse");
-    ValueEnforcer.notEmpty (sTopLevelContentID, "TopLevelContentID");
-    ValueEnforcer.notNull (aMetadata, "Metadata");
-    m_aErrorResponse = aErrorResponse;
-    m_sTopLevelContentID = sTopLevelContentID;
-    m_aMetadata = aMetadata;
+    super (EDMErrorResponse.class, ValueEnforcer.notNull (aErrorResponse, "ErrorResponse"), null, sTopLevelContentID, aMetadata);
   }
 
   /**
-   * @return The EDM error response that contains the main payload. Never
-   *         <code>null</code>.
+   * Constructor for an error response that is only parsed when
+   * {@link #getErrorResponse()} is called.
+   *
+   * @param aRawData
+   *        The raw bytes of the received error response. May not be <code>null</code>.
+   * @param sTopLevelContentID
+   *        The Content-ID of the MIME part. May neither be <code>null</code>
+   *        nor empty.
+   * @param aMetadata
+   *        The transport metadata. May not be <code>null</code>.
+   * @since 2.1.2
    */
-  @Nonnull
-  public EDMErrorResponse getErrorResponse ()
+  public IncomingEDMErrorResponse (@Nonnull final IMEPayloadData aRawData,
+                             @Nonnull @Nonempty final String sTopLevelContentID,
+                             @Nonnull final IMEIncomingTransportMetadata aMetadata)
   {
-    return m_aErrorResponse;
+    super (EDMErrorResponse.class, null, ValueEnforcer.notNull (aRawData, "RawData"), sTopLevelContentID, aMetadata);
   }
 
+  /**
+   * Constructor for an already parsed error response that keeps the raw bytes it
+   * was parsed from.
+   *
+   * @param aErrorResponse
+   *        The parsed error response. May not be <code>null</code>.
+   * @param aRawData
+   *        The raw bytes of the received error response. May not be <code>null</code>.
+   * @param sTopLevelContentID
+   *        The Content-ID of the MIME part. May neither be <code>null</code>
+   *        nor empty.
+   * @param aMetadata
+   *        The transport metadata. May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public IncomingEDMErrorResponse (@Nonnull final EDMErrorResponse aErrorResponse,
+                             @Nonnull final IMEPayloadData aRawData,
+                             @Nonnull @Nonempty final String sTopLevelContentID,
+                             @Nonnull final IMEIncomingTransportMetadata aMetadata)
+  {
+    super (EDMErrorResponse.class,
+           ValueEnforcer.notNull (aErrorResponse, "ErrorResponse"),
+           ValueEnforcer.notNull (aRawData, "RawData"),
+           sTopLevelContentID,
+           aMetadata);
+  }
+
+  @Override
   @Nonnull
-  @Nonempty
-  public String getTopLevelContentID ()
+  protected byte [] getObjectAsBytes (@Nonnull final EDMErrorResponse aErrorResponse)
   {
-    return m_sTopLevelContentID;
+    return aErrorResponse.getWriter ().getAsBytes ();
   }
 
+  /**
+   * @return The EDM error response that contains the main payload. Never
+   *         <code>null</code>. If the error response was received unparsed, it is
+   *         parsed on the first invocation.
+   */
   @Nonnull
-  public IMEIncomingTransportMetadata getMetadata ()
+  public EDMErrorResponse getErrorResponse ()
   {
-    return m_aMetadata;
+    return getObject ();
   }
 
   @Override
@@ -100,21 +134,21 @@ public class IncomingEDMErrorResponse implements IIncomingEDMResponse
       return false;
 
     final IncomingEDMErrorResponse rhs = (IncomingEDMErrorResponse) o;
-    return m_aErrorResponse.equals (rhs.m_aErrorResponse) && m_aMetadata.equals (rhs.m_aMetadata);
+    return getErrorResponse ().equals (rhs.getErrorResponse ()) && getMetadata ().equals (rhs.getMetadata ());
   }
 
   @Override
   public int hashCode ()
   {
-    return new HashCodeGenerator (this).append (m_aErrorResponse).append (m_aMetadata).getHashCode ();
+    return new HashCodeGenerator (this).append (getErrorResponse ()).append (getMetadata ()).getHashCode ();
   }
 
   @Override
   public String toString ()
   {
-    return new ToStringGenerator (this).append ("ErrorResponse", m_aErrorResponse)
-                                       .append ("TopLevelContentID", m_sTopLevelContentID)
-                                       .append ("Metadata", m_aMetadata)
+    return new ToStringGenerator (this).append ("ErrorResponse", isObjectParsed () ? getErrorResponse () : "unparsed")
+                                       .append ("TopLevelContentID", getTopLevelContentID ())
+                                       .append ("Metadata", getMetadata ())
                                        .getToString ();
   }
 }
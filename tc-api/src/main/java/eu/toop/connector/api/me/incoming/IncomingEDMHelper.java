@@ -0,0 +1,133 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.incoming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.connector.api.me.model.IMEPayloadData;
+import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.edm.EDMErrorResponse;
+import eu.toop.edm.EDMRequest;
+import eu.toop.edm.EDMResponse;
+import eu.toop.edm.IEDMTopLevelObject;
+import eu.toop.edm.xml.EDMPayloadDeterminator;
+
+/**
+ * Helper class to create the incoming EDM objects from the payloads received
+ * by a Message Exchange Module.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class IncomingEDMHelper
+{
+  private IncomingEDMHelper ()
+  {}
+
+  /**
+   * Create the incoming EDM object from the received payloads. The raw data of
+   * the top-level payload is kept in the created object.
+   *
+   * @param aPayloads
+   *        The received payloads. The first payload is the top-level EDM
+   *        object, all other payloads are attachments of a response. May
+   *        neither be <code>null</code> nor empty.
+   * @param aMetadata
+   *        The transport metadata. May not be <code>null</code>.
+   * @param bSniffOnly
+   *        <code>true</code> to only determine the type from the root element
+   *        and parse the EDM object when it is requested, <code>false</code>
+   *        to parse it immediately.
+   * @return <code>null</code> if the top-level payload is no supported EDM
+   *         object.
+   * @throws IOException
+   *         If the top-level payload cannot be read
+   */
+  @Nullable
+  public static IIncomingEDMObject createIncomingObject (@Nonnull final List <MEPayload> aPayloads,
+                                                         @Nonnull final IMEIncomingTransportMetadata aMetadata,
+                                                         final boolean bSniffOnly) throws IOException
+  {
+    ValueEnforcer.notEmpty (aPayloads, "Payloads");
+    ValueEnforcer.notNull (aMetadata, "Metadata");
+
+    final MEPayload aHead = aPayloads.get (0);
+    final IMEPayloadData aRawData = aHead.getPayloadData ();
+    final String sTopLevelContentID = aHead.getContentID ();
+    final List <MEPayload> aAttachments = aPayloads.subList (1, aPayloads.size ());
+
+    if (bSniffOnly)
+    {
+      final EIncomingEDMType eType;
+      try (final InputStream aIS = aRawData.openStream ())
+      {
+        eType = IncomingEDMSniffer.sniff (aIS);
+      }
+      if (eType == null)
+        return null;
+      switch (eType)
+      {
+        case REQUEST:
+          return new IncomingEDMRequest (aRawData, sTopLevelContentID, aMetadata);
+        case RESPONSE:
+          return new IncomingEDMResponse (aRawData, sTopLevelContentID, aAttachments, aMetadata);
+        case ERROR_RESPONSE:
+          return new IncomingEDMErrorResponse (aRawData, sTopLevelContentID, aMetadata);
+        default:
+          throw new IllegalStateException ("Unsupported EDM type " + eType);
+      }
+    }
+
+    final IEDMTopLevelObject aTopLevel;
+    try (final InputStream aIS = aRawData.openStream ())
+    {
+      aTopLevel = EDMPayloadDeterminator.parseAndFind (aIS);
+    }
+    if (aTopLevel instanceof EDMRequest)
+      return new IncomingEDMRequest ((EDMRequest) aTopLevel, aRawData, sTopLevelContentID, aMetadata);
+    if (aTopLevel instanceof EDMResponse)
+      return new IncomingEDMResponse ((EDMResponse) aTopLevel, aRawData, sTopLevelContentID, aAttachments, aMetadata);
+    if (aTopLevel instanceof EDMErrorResponse)
+      return new IncomingEDMErrorResponse ((EDMErrorResponse) aTopLevel, aRawData, sTopLevelContentID, aMetadata);
+    return null;
+  }
+}
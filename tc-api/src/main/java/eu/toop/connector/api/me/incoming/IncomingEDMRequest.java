@@ -41,6 +41,7 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.hashcode.HashCodeGenerator;
 import com.helger.commons.string.ToStringGenerator;
 
+import eu.toop.connector.api.me.model.IMEPayloadData;
 import eu.toop.edm.EDMRequest;
 
 /**
@@ -50,45 +51,78 @@ import eu.toop.edm.EDMRequest;
  * @author Philip Helger
  */
 @NotThreadSafe
-public class IncomingEDMRequest implements IIncomingEDMRequest
+public class IncomingEDMRequest extends AbstractIncomingEDMObject <EDMRequest> implements IIncomingEDMRequest
 {
-  private final EDMRequest m_aRequest;
-  private final String m_sTopLevelContentID;
-  private final IMEIncomingTransportMetadata m_aMetadata;
-
   public IncomingEDMRequest (@Nonnull final EDMRequest aRequest,
                              @Nonnull @Nonempty final String sTopLevelContentID,
                              @Nonnull final IMEIncomingTransportMetadata aMetadata)
   {
-    ValueEnforcer.notNull (aRequest, "Request");
-    ValueEnforcer.notEmpty (sTopLevelContentID, "TopLevelContentID");
-    ValueEnforcer.notNull (aMetadata, "Metadata");
-    m_aRequest = aRequest;
-    m_sTopLevelContentID = sTopLevelContentID;
-    m_aMetadata = aMetadata;
+    super (EDMRequest.class, ValueEnforcer.notNull (aRequest, "Request"), null, sTopLevelContentID, aMetadata);
   }
 
   /**
-   * @return The EDM request that contains the main payload. Never
-   *         <code>null</code>.
+   * Constructor for a request that is only parsed when
+   * {@link #getRequest()} is called.
+   *
+   * @param aRawData
+   *        The raw bytes of the received request. May not be <code>null</code>.
+   * @param sTopLevelContentID
+   *        The Content-ID of the MIME part. May neither be <code>null</code>
+   *        nor empty.
+   * @param aMetadata
+   *        The transport metadata. May not be <code>null</code>.
+   * @since 2.1.2
    */
-  @Nonnull
-  public EDMRequest getRequest ()
+  public IncomingEDMRequest (@Nonnull final IMEPayloadData aRawData,
+                             @Nonnull @Nonempty final String sTopLevelContentID,
+                             @Nonnull final IMEIncomingTransportMetadata aMetadata)
   {
-    return m_aRequest;
+    super (EDMRequest.class, null, ValueEnforcer.notNull (aRawData, "RawData"), sTopLevelContentID, aMetadata);
   }
 
+  /**
+   * Constructor for an already parsed request that keeps the raw bytes it
+   * was parsed from.
+   *
+   * @param aRequest
+   *        The parsed request. May not be <code>null</code>.
+   * @param aRawData
+   *        The raw bytes of the received request. May not be <code>null</code>.
+   * @param sTopLevelContentID
+   *        The Content-ID of the MIME part. May neither be <code>null</code>
+   *        nor empty.
+   * @param aMetadata
+   *        The transport metadata. May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public IncomingEDMRequest (@Nonnull final EDMRequest aRequest,
+                             @Nonnull final IMEPayloadData aRawData,
+                             @Nonnull @Nonempty final String sTopLevelContentID,
+                             @Nonnull final IMEIncomingTransportMetadata aMetadata)
+  {
+    super (EDMRequest.class,
+           ValueEnforcer.notNull (aRequest, "Request"),
+           ValueEnforcer.notNull (aRawData, "RawData"),
+           sTopLevelContentID,
+           aMetadata);
+  }
+
+  @Override
   @Nonnull
-  @Nonempty
-  public String getTopLevelContentID ()
+  protected byte [] getObjectAsBytes (@Nonnull final EDMRequest aRequest)
   {
-    return m_sTopLevelContentID;
+    return aRequest.getWriter ().getAsBytes ();
   }
 
+  /**
+   * @return The EDM request that contains the main payload. Never
+   *         <code>null</code>. If the request was received unparsed, it is
+   *         parsed on the first invocation.
+   */
   @Nonnull
-  public IMEIncomingTransportMetadata getMetadata ()
+  public EDMRequest getRequest ()
   {
-    return m_aMetadata;
+    return getObject ();
   }
 
   @Override
@@ -100,21 +134,21 @@ public class IncomingEDMRequest implements IIncomingEDMRequest
       return false;
 
     final IncomingEDMRequest rhs = (IncomingEDMRequest) o;
-    return m_aRequest.equals (rhs.m_aRequest) && m_aMetadata.equals (rhs.m_aMetadata);
+    return getRequest ().equals (rhs.getRequest ()) && getMetadata ().equals (rhs.getMetadata ());
   }
 
   @Override
   public int hashCode ()
   {
-    return new HashCodeGenerator (this).append (m_aRequest).append (m_aMetadata).getHashCode ();
+    return new HashCodeGenerator (this).append (getRequest ()).append (getMetadata ()).getHashCode ();
   }
 
   @Override
   public String toString ()
   {
-    return new ToStringGenerator (this).append ("Request", m_aRequest)
-                                       .append ("TopLevelContentID", m_sTopLevelContentID)
-                                       .append ("Metadata", m_aMetadata)
+    return new ToStringGenerator (this).append ("Request", isObjectParsed () ? getRequest () : "unparsed")
+                                       .append ("TopLevelContentID", getTopLevelContentID ())
+                                       .append ("Metadata", getMetadata ())
                                        .getToString ();
   }
 }
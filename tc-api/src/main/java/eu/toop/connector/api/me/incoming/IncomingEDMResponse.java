@@ -48,6 +48,7 @@ import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.hashcode.HashCodeGenerator;
 import com.helger.commons.string.ToStringGenerator;
 
+import eu.toop.connector.api.me.model.IMEPayloadData;
 import eu.toop.connector.api.me.model.MEPayload;
 import eu.toop.edm.EDMResponse;
 
@@ -58,45 +59,99 @@ import eu.toop.edm.EDMResponse;
  * @author Philip Helger
  */
 @NotThreadSafe
-public class IncomingEDMResponse implements IIncomingEDMResponse
+public class IncomingEDMResponse extends AbstractIncomingEDMObject <EDMResponse> implements IIncomingEDMResponse
 {
-  private final EDMResponse m_aResponse;
-  private final String m_sTopLevelContentID;
   private final ICommonsOrderedMap <String, MEPayload> m_aAttachments = new CommonsLinkedHashMap <> ();
-  private final IMEIncomingTransportMetadata m_aMetadata;
 
   public IncomingEDMResponse (@Nonnull final EDMResponse aResponse,
                               @Nonnull @Nonempty final String sTopLevelContentID,
                               @Nullable final List <MEPayload> aAttachments,
                               @Nonnull final IMEIncomingTransportMetadata aMetadata)
   {
-    ValueEnforcer.notNull (aResponse, "Response");
-    ValueEnforcer.notEmpty (sTopLevelContentID, "TopLevelContentID");
-    ValueEnforcer.notNull (aMetadata, "Metadata");
+    super (EDMResponse.class, ValueEnforcer.notNull (aResponse, "Response"), null, sTopLevelContentID, aMetadata);
+    _addAttachments (aAttachments);
+  }
+
+  /**
+   * Constructor for a response that is only parsed when
+   * {@link #getResponse()} is called.
+   *
+   * @param aRawData
+   *        The raw bytes of the received response. May not be
+   *        <code>null</code>.
+   * @param sTopLevelContentID
+   *        The Content-ID of the MIME part. May neither be <code>null</code>
+   *        nor empty.
+   * @param aAttachments
+   *        The attachments. May be <code>null</code>.
+   * @param aMetadata
+   *        The transport metadata. May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public IncomingEDMResponse (@Nonnull final IMEPayloadData aRawData,
+                              @Nonnull @Nonempty final String sTopLevelContentID,
+                              @Nullable final List <MEPayload> aAttachments,
+                              @Nonnull final IMEIncomingTransportMetadata aMetadata)
+  {
+    super (EDMResponse.class, null, ValueEnforcer.notNull (aRawData, "RawData"), sTopLevelContentID, aMetadata);
+    _addAttachments (aAttachments);
+  }
+
+  /**
+   * Constructor for an already parsed response that keeps the raw bytes it
+   * was parsed from.
+   *
+   * @param aResponse
+   *        The parsed response. May not be <code>null</code>.
+   * @param aRawData
+   *        The raw bytes of the received response. May not be
+   *        <code>null</code>.
+   * @param sTopLevelContentID
+   *        The Content-ID of the MIME part. May neither be <code>null</code>
+   *        nor empty.
+   * @param aAttachments
+   *        The attachments. May be <code>null</code>.
+   * @param aMetadata
+   *        The transport metadata. May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public IncomingEDMResponse (@Nonnull final EDMResponse aResponse,
+                              @Nonnull final IMEPayloadData aRawData,
+                              @Nonnull @Nonempty final String sTopLevelContentID,
+                              @Nullable final List <MEPayload> aAttachments,
+                              @Nonnull final IMEIncomingTransportMetadata aMetadata)
+  {
+    super (EDMResponse.class,
+           ValueEnforcer.notNull (aResponse, "Response"),
+           ValueEnforcer.notNull (aRawData, "RawData"),
+           sTopLevelContentID,
+           aMetadata);
+    _addAttachments (aAttachments);
+  }
 
-    m_aResponse = aResponse;
-    m_sTopLevelContentID = sTopLevelContentID;
+  private void _addAttachments (@Nullable final List <MEPayload> aAttachments)
+  {
     if (aAttachments != null)
       for (final MEPayload aItem : aAttachments)
         m_aAttachments.put (aItem.getContentID (), aItem);
-    m_aMetadata = aMetadata;
   }
 
-  /**
-   * @return The EDM response that contains the main payload. Never
-   *         <code>null</code>.
-   */
+  @Override
   @Nonnull
-  public EDMResponse getResponse ()
+  protected byte [] getObjectAsBytes (@Nonnull final EDMResponse aResponse)
   {
-    return m_aResponse;
+    return aResponse.getWriter ().getAsBytes ();
   }
 
+  /**
+   * @return The EDM response that contains the main payload. Never
+   *         <code>null</code>. If the response was received unparsed, it is
+   *         parsed on the first invocation.
+   */
   @Nonnull
-  @Nonempty
-  public String getTopLevelContentID ()
+  public EDMResponse getResponse ()
   {
-    return m_sTopLevelContentID;
+    return getObject ();
   }
 
   /**
@@ -121,12 +176,6 @@ public class IncomingEDMResponse implements IIncomingEDMResponse
     return m_aAttachments.getClone ();
   }
 
-  @Nonnull
-  public IMEIncomingTransportMetadata getMetadata ()
-  {
-    return m_aMetadata;
-  }
-
   @Override
   public boolean equals (final Object o)
   {
@@ -136,27 +185,27 @@ public class IncomingEDMResponse implements IIncomingEDMResponse
       return false;
 
     final IncomingEDMResponse rhs = (IncomingEDMResponse) o;
-    return m_aResponse.equals (rhs.m_aResponse) &&
+    return getResponse ().equals (rhs.getResponse ()) &&
            m_aAttachments.equals (rhs.m_aAttachments) &&
-           m_aMetadata.equals (rhs.m_aMetadata);
+           getMetadata ().equals (rhs.getMetadata ());
   }
 
   @Override
   public int hashCode ()
   {
-    return new HashCodeGenerator (this).append (m_aResponse)
+    return new HashCodeGenerator (this).append (getResponse ())
                                        .append (m_aAttachments)
-                                       .append (m_aMetadata)
+                                       .append (getMetadata ())
                                        .getHashCode ();
   }
 
   @Override
   public String toString ()
   {
-    return new ToStringGenerator (this).append ("Response", m_aResponse)
-                                       .append ("TopLevelContentID", m_sTopLevelContentID)
+    return new ToStringGenerator (this).append ("Response", isObjectParsed () ? getResponse () : "unparsed")
+                                       .append ("TopLevelContentID", getTopLevelContentID ())
                                        .append ("Attachments", m_aAttachments)
-                                       .append ("Metadata", m_aMetadata)
+                                       .append ("Metadata", getMetadata ())
                                        .getToString ();
   }
 }
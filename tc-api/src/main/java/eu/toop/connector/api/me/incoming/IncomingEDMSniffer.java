@@ -0,0 +1,152 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.incoming;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * Determine the type of a top-level EDM object by only reading its root
+ * element with StAX, without building the EDM object model. Requests use the
+ * RegRep "QueryRequest" root element, responses and error responses the
+ * "QueryResponse" root element, with the "Failure" status for error
+ * responses.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class IncomingEDMSniffer
+{
+  public static final String NAMESPACE_URI_QUERY = "urn:oasis:names:tc:ebxml-regrep:xsd:query:4.0";
+  public static final String RESPONSE_STATUS_FAILURE = "urn:oasis:names:tc:ebxml-regrep:ResponseStatusType:Failure";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (IncomingEDMSniffer.class);
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+
+  static
+  {
+    final XMLInputFactory aFactory = XMLInputFactory.newInstance ();
+    // The root element is all we need - never resolve anything
+    aFactory.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    aFactory.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    aFactory.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    XML_INPUT_FACTORY = aFactory;
+  }
+
+  private IncomingEDMSniffer ()
+  {}
+
+  /**
+   * Determine the type of the EDM object from the provided XML.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. Only
+   *        the beginning up to the root element is read. The stream is not
+   *        closed.
+   * @return <code>null</code> if the XML cannot be read or if the root element
+   *         is not an EDM top-level element.
+   */
+  @Nullable
+  public static EIncomingEDMType sniff (@Nonnull final InputStream aIS)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    XMLStreamReader aReader = null;
+    try
+    {
+      aReader = XML_INPUT_FACTORY.createXMLStreamReader (aIS);
+      while (aReader.hasNext ())
+        if (aReader.next () == XMLStreamReader.START_ELEMENT)
+          return getType (aReader.getNamespaceURI (),
+                          aReader.getLocalName (),
+                          aReader.getAttributeValue (null, "status"));
+      return null;
+    }
+    catch (final XMLStreamException ex)
+    {
+      LOGGER.warn ("Failed to read the root element of the EDM payload: " + ex.getMessage ());
+      return null;
+    }
+    finally
+    {
+      if (aReader != null)
+        try
+        {
+          aReader.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // Ignore
+        }
+    }
+  }
+
+  /**
+   * Determine the type of the EDM object from its root element.
+   *
+   * @param sNamespaceURI
+   *        Namespace URI of the root element. May be <code>null</code>.
+   * @param sLocalName
+   *        Local name of the root element. May be <code>null</code>.
+   * @param sStatus
+   *        The value of the "status" attribute of the root element. May be
+   *        <code>null</code>.
+   * @return <code>null</code> if the root element is not an EDM top-level
+   *         element.
+   */
+  @Nullable
+  public static EIncomingEDMType getType (@Nullable final String sNamespaceURI,
+                                          @Nullable final String sLocalName,
+                                          @Nullable final String sStatus)
+  {
+    if (!NAMESPACE_URI_QUERY.equals (sNamespaceURI))
+      return null;
+    if ("QueryRequest".equals (sLocalName))
+      return EIncomingEDMType.REQUEST;
+    if ("QueryResponse".equals (sLocalName))
+      return RESPONSE_STATUS_FAILURE.equals (sStatus) ? EIncomingEDMType.ERROR_RESPONSE : EIncomingEDMType.RESPONSE;
+    return null;
+  }
+}
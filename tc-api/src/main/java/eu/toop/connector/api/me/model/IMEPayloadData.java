@@ -0,0 +1,118 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.io.ByteArrayWrapper;
+
+/**
+ * The content of a single {@link MEPayload}. It may be kept in memory, in a
+ * file or be read from its source on demand. Data that is backed by a
+ * temporary resource is reference counted: every additional user must call
+ * {@link #retain()} and every user must call {@link #release()} when done.
+ * When the last reference is released, the temporary resource is deleted.
+ * Serializing any implementation results in an in-memory copy.
+ *
+ * @since 2.1.2
+ */
+public interface IMEPayloadData extends Serializable
+{
+  /**
+   * @return The number of bytes or -1 if unknown.
+   */
+  @CheckForSigned
+  long getSize ();
+
+  /**
+   * @return <code>true</code> if the bytes are kept in memory, so that
+   *         {@link #getAsByteArrayWrapper()} is cheap.
+   */
+  boolean isInMemory ();
+
+  /**
+   * @return The file containing the bytes or <code>null</code> if this data is
+   *         not backed by a file.
+   */
+  @Nullable
+  default File getFile ()
+  {
+    return null;
+  }
+
+  /**
+   * Open a new stream on the bytes. May be called multiple times.
+   *
+   * @return A new input stream that must be closed by the caller. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         If the data cannot be read, e.g. because it was already released
+   */
+  @Nonnull
+  InputStream openStream () throws IOException;
+
+  /**
+   * Get all bytes in memory. For data that is not kept in memory, this reads
+   * everything on each invocation - use {@link #openStream()} where possible.
+   *
+   * @return The bytes. Never <code>null</code>.
+   * @throws java.io.UncheckedIOException
+   *         If the data cannot be read
+   */
+  @Nonnull
+  ByteArrayWrapper getAsByteArrayWrapper ();
+
+  /**
+   * Add a reference to this data.
+   *
+   * @throws IllegalStateException
+   *         If the data was already released
+   */
+  default void retain ()
+  {}
+
+  /**
+   * Remove a reference from this data. The underlying temporary resource is
+   * deleted when the last reference is removed.
+   */
+  default void release ()
+  {}
+}
@@ -76,11 +76,11 @@ public final class MEPayload implements Serializable
   /**
    * The actual payload content
    */
-  private final ByteArrayWrapper m_aData;
+  private final IMEPayloadData m_aData;
 
   protected MEPayload (@Nonnull final IMimeType aMimeType,
                        @Nonnull @Nonempty final String sContentID,
-                       @Nonnull final ByteArrayWrapper aData)
+                       @Nonnull final IMEPayloadData aData)
   {
     ValueEnforcer.notNull (aMimeType, "MimeType");
     ValueEnforcer.notEmpty (sContentID, "ContentID");
@@ -109,9 +109,26 @@ public final class MEPayload implements Serializable
     return m_sContentID;
   }
 
+  /**
+   * @return The payload bytes in memory. If the payload is not kept in memory,
+   *         it is read completely on every invocation. Never
+   *         <code>null</code>.
+   * @see #getPayloadData()
+   */
   @Nonnull
   @ReturnsMutableObject
   public ByteArrayWrapper getData ()
+  {
+    return m_aData.getAsByteArrayWrapper ();
+  }
+
+  /**
+   * @return The payload content, that may be kept in memory, in a file or be
+   *         read on demand. Never <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  public IMEPayloadData getPayloadData ()
   {
     return m_aData;
   }
@@ -166,7 +183,7 @@ public final class MEPayload implements Serializable
   {
     private IMimeType m_aMimeType;
     private String m_sContentID;
-    private ByteArrayWrapper m_aData;
+    private IMEPayloadData m_aData;
 
     protected Builder ()
     {}
@@ -212,6 +229,19 @@ public final class MEPayload implements Serializable
 
     @Nonnull
     public Builder data (@Nullable final ByteArrayWrapper a)
+    {
+      return data (a == null ? null : new MEPayloadDataInMemory (a));
+    }
+
+    /**
+     * @param a
+     *        The payload content. May be <code>null</code>. The reference of
+     *        the caller is taken over by the payload.
+     * @return this for chaining
+     * @since 2.1.2
+     */
+    @Nonnull
+    public Builder data (@Nullable final IMEPayloadData a)
     {
       m_aData = a;
       return this;
@@ -0,0 +1,163 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * {@link IMEPayloadData} backed by a file. A temporary file is deleted when
+ * the last reference is released.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public final class MEPayloadDataFile implements IMEPayloadData
+{
+  private final File m_aFile;
+  private final boolean m_bTemporary;
+  private final transient AtomicInteger m_aRefCount = new AtomicInteger (1);
+
+  /**
+   * Constructor. The new object has one reference.
+   *
+   * @param aFile
+   *        The file containing the data. May not be <code>null</code>.
+   * @param bTemporary
+   *        <code>true</code> if the file should be deleted when the last
+   *        reference is released.
+   */
+  public MEPayloadDataFile (@Nonnull final File aFile, final boolean bTemporary)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    m_aFile = aFile;
+    m_bTemporary = bTemporary;
+  }
+
+  @Nonnegative
+  public long getSize ()
+  {
+    return m_aFile.length ();
+  }
+
+  public boolean isInMemory ()
+  {
+    return false;
+  }
+
+  @Nonnull
+  @Override
+  public File getFile ()
+  {
+    return m_aFile;
+  }
+
+  public boolean isTemporary ()
+  {
+    return m_bTemporary;
+  }
+
+  /**
+   * @return <code>true</code> if the last reference was released.
+   */
+  public boolean isReleased ()
+  {
+    return m_aRefCount.get () <= 0;
+  }
+
+  @Nonnull
+  public InputStream openStream () throws IOException
+  {
+    if (isReleased ())
+      throw new IOException ("The payload file " + m_aFile.getAbsolutePath () + " was already released");
+    final InputStream ret = FileHelper.getBufferedInputStream (m_aFile);
+    if (ret == null)
+      throw new IOException ("Failed to open payload file " + m_aFile.getAbsolutePath ());
+    return ret;
+  }
+
+  @Nonnull
+  public ByteArrayWrapper getAsByteArrayWrapper ()
+  {
+    return MEPayloadDataHelper.readAll (this);
+  }
+
+  @Override
+  public void retain ()
+  {
+    while (true)
+    {
+      final int nCount = m_aRefCount.get ();
+      if (nCount <= 0)
+        throw new IllegalStateException ("The payload file " + m_aFile.getAbsolutePath () + " was already released");
+      if (m_aRefCount.compareAndSet (nCount, nCount + 1))
+        return;
+    }
+  }
+
+  @Override
+  public void release ()
+  {
+    if (m_aRefCount.decrementAndGet () == 0 && m_bTemporary)
+      FileOperationManager.INSTANCE.deleteFileIfExisting (m_aFile);
+  }
+
+  @Nonnull
+  private Object writeReplace () throws ObjectStreamException
+  {
+    return new MEPayloadDataInMemory (getAsByteArrayWrapper ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("File", m_aFile)
+                                       .append ("Temporary", m_bTemporary)
+                                       .append ("RefCount", m_aRefCount.get ())
+                                       .getToString ();
+  }
+}
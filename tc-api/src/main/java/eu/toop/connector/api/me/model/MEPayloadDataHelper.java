@@ -0,0 +1,196 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * Helper methods for {@link IMEPayloadData}.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class MEPayloadDataHelper
+{
+  private static final int BUFFER_SIZE = 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private MEPayloadDataHelper ()
+  {}
+
+  @Nonnull
+  static ByteArrayWrapper readAll (@Nonnull final IMEPayloadData aData)
+  {
+    final long nSize = aData.getSize ();
+    final int nInitialSize = nSize > 0 && nSize < Integer.MAX_VALUE ? (int) nSize : BUFFER_SIZE;
+    try (final InputStream aIS = aData.openStream ();
+         final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (nInitialSize))
+    {
+      final byte [] aBuffer = new byte [BUFFER_SIZE];
+      int nRead;
+      while ((nRead = aIS.read (aBuffer)) >= 0)
+        aBAOS.write (aBuffer, 0, nRead);
+      return new ByteArrayWrapper (aBAOS.directGetBuffer (), 0, aBAOS.size (), false);
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to read payload data", ex);
+    }
+  }
+
+  @Nonnull
+  private static IMEPayloadData _spill (@Nonnull final NonBlockingByteArrayOutputStream aBAOS,
+                                        @Nonnull final byte [] aBuffer,
+                                        final int nRead,
+                                        @Nonnull final InputStream aIS,
+                                        @Nullable final File aSpillDir) throws IOException
+  {
+    if (aSpillDir != null)
+      FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aSpillDir);
+    final File aFile = File.createTempFile ("toop-payload-", ".tmp", aSpillDir);
+    boolean bSuccess = false;
+    try
+    {
+      try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aFile))
+      {
+        if (aOS == null)
+          throw new IOException ("Failed to open temporary payload file " + aFile.getAbsolutePath ());
+        aBAOS.writeTo (aOS);
+        aOS.write (aBuffer, 0, nRead);
+        int nNext;
+        while ((nNext = aIS.read (aBuffer)) >= 0)
+          aOS.write (aBuffer, 0, nNext);
+      }
+      bSuccess = true;
+    }
+    finally
+    {
+      if (!bSuccess)
+        FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+    }
+    return new MEPayloadDataFile (aFile, true);
+  }
+
+  /**
+   * Read payload data from a stream. Small payloads are kept in memory, while
+   * bigger ones are written to a temporary file that is deleted when the
+   * returned data is released.
+   *
+   * @param aIS
+   *        The stream to read from. Is not closed. May not be
+   *        <code>null</code>.
+   * @param nSpillThreshold
+   *        The number of bytes up to which the data is kept in memory. Must be
+   *        &ge; 0.
+   * @param aSpillDir
+   *        The directory for the temporary file. May be <code>null</code> to
+   *        use the default temporary directory.
+   * @return The read data. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a read or write error
+   */
+  @Nonnull
+  public static IMEPayloadData read (@Nonnull @WillNotClose final InputStream aIS,
+                                     @Nonnegative final long nSpillThreshold,
+                                     @Nullable final File aSpillDir) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.isGE0 (nSpillThreshold, "SpillThreshold");
+
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    final byte [] aBuffer = new byte [BUFFER_SIZE];
+    int nRead;
+    while ((nRead = aIS.read (aBuffer)) >= 0)
+    {
+      if (aBAOS.size () + nRead > nSpillThreshold)
+        return _spill (aBAOS, aBuffer, nRead, aIS, aSpillDir);
+      aBAOS.write (aBuffer, 0, nRead);
+    }
+    return new MEPayloadDataInMemory (new ByteArrayWrapper (aBAOS.directGetBuffer (), 0, aBAOS.size (), false));
+  }
+
+  /**
+   * Read payload data from a stream, using the spill threshold and directory
+   * from the configuration.
+   *
+   * @param aIS
+   *        The stream to read from. Is not closed. May not be
+   *        <code>null</code>.
+   * @return The read data. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a read or write error
+   * @see TCConfig.MEM#getPayloadSpillThresholdBytes()
+   * @see TCConfig.MEM#getPayloadSpillPath()
+   */
+  @Nonnull
+  public static IMEPayloadData read (@Nonnull @WillNotClose final InputStream aIS) throws IOException
+  {
+    final String sSpillPath = TCConfig.MEM.getPayloadSpillPath ();
+    return read (aIS,
+                 TCConfig.MEM.getPayloadSpillThresholdBytes (),
+                 StringHelper.hasText (sSpillPath) ? new File (sSpillPath) : null);
+  }
+
+  /**
+   * Release the data of all provided payloads.
+   *
+   * @param aPayloads
+   *        The payloads to release. May be <code>null</code>.
+   */
+  public static void releaseAll (@Nullable final Iterable <MEPayload> aPayloads)
+  {
+    if (aPayloads != null)
+      for (final MEPayload aPayload : aPayloads)
+        aPayload.getPayloadData ().release ();
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.model;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * {@link IMEPayloadData} kept in memory.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class MEPayloadDataInMemory implements IMEPayloadData
+{
+  private final ByteArrayWrapper m_aData;
+
+  public MEPayloadDataInMemory (@Nonnull final ByteArrayWrapper aData)
+  {
+    ValueEnforcer.notNull (aData, "Data");
+    m_aData = aData;
+  }
+
+  @Nonnegative
+  public long getSize ()
+  {
+    return m_aData.size ();
+  }
+
+  public boolean isInMemory ()
+  {
+    return true;
+  }
+
+  @Nonnull
+  public InputStream openStream ()
+  {
+    return new NonBlockingByteArrayInputStream (m_aData.bytes (), m_aData.getOffset (), m_aData.size ());
+  }
+
+  @Nonnull
+  public ByteArrayWrapper getAsByteArrayWrapper ()
+  {
+    return m_aData;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final MEPayloadDataInMemory rhs = (MEPayloadDataInMemory) o;
+    return m_aData.equals (rhs.m_aData);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_aData).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Data", m_aData).getToString ();
+  }
+}
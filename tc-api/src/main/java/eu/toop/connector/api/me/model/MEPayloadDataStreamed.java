@@ -0,0 +1,123 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * {@link IMEPayloadData} that is read from its source on demand, e.g. from an
+ * attachment of a received message. The source must stay readable as long as
+ * the data is used - this object does not own it.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class MEPayloadDataStreamed implements IMEPayloadData
+{
+  /**
+   * Opens a new stream on the source.
+   */
+  @FunctionalInterface
+  public interface ISource
+  {
+    @Nonnull
+    InputStream openStream () throws IOException;
+  }
+
+  private final transient ISource m_aSource;
+  private final long m_nSize;
+
+  /**
+   * Constructor
+   *
+   * @param aSource
+   *        The source of the data. May not be <code>null</code>.
+   * @param nSize
+   *        The number of bytes or -1 if unknown.
+   */
+  public MEPayloadDataStreamed (@Nonnull final ISource aSource, @CheckForSigned final long nSize)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    m_aSource = aSource;
+    m_nSize = nSize;
+  }
+
+  @CheckForSigned
+  public long getSize ()
+  {
+    return m_nSize;
+  }
+
+  public boolean isInMemory ()
+  {
+    return false;
+  }
+
+  @Nonnull
+  public InputStream openStream () throws IOException
+  {
+    final InputStream ret = m_aSource.openStream ();
+    if (ret == null)
+      throw new IOException ("The payload source returned no stream");
+    return ret;
+  }
+
+  @Nonnull
+  public ByteArrayWrapper getAsByteArrayWrapper ()
+  {
+    return MEPayloadDataHelper.readAll (this);
+  }
+
+  @Nonnull
+  private Object writeReplace () throws ObjectStreamException
+  {
+    return new MEPayloadDataInMemory (getAsByteArrayWrapper ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Size", m_nSize).getToString ();
+  }
+}
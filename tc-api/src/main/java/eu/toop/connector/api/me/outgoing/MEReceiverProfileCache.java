@@ -0,0 +1,298 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.outgoing;
+
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * A bounded cache for data that a Message Exchange Module derives from the
+ * receiver certificate and endpoint URL of the routing information, like the
+ * receiving party ID. The key is the combination of certificate and endpoint
+ * URL. As certificates are compared by their DER encoding, changed SMP data
+ * automatically results in a new entry. Entries expire after a configurable
+ * time, so that configuration changes are picked up, and the least recently
+ * used entries are evicted if the cache is full.
+ *
+ * @param <T>
+ *        The cached profile type
+ * @since 2.1.2
+ */
+@ThreadSafe
+public class MEReceiverProfileCache <T>
+{
+  /**
+   * Creates the profile for a receiver.
+   *
+   * @param <T>
+   *        The profile type
+   */
+  @FunctionalInterface
+  public interface IProfileFactory <T>
+  {
+    @Nonnull
+    T create (@Nonnull X509Certificate aCertificate, @Nonnull String sEndpointURL) throws MEOutgoingException;
+  }
+
+  private static final class Key
+  {
+    private final X509Certificate m_aCertificate;
+    private final String m_sEndpointURL;
+    private final int m_nHashCode;
+
+    Key (@Nonnull final X509Certificate aCertificate, @Nonnull final String sEndpointURL)
+    {
+      m_aCertificate = aCertificate;
+      m_sEndpointURL = sEndpointURL;
+      // X509Certificate caches its hash code
+      m_nHashCode = new HashCodeGenerator (this).append (aCertificate).append (sEndpointURL).getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_sEndpointURL.equals (rhs.m_sEndpointURL) && m_aCertificate.equals (rhs.m_aCertificate);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+  }
+
+  private static final class Entry <T>
+  {
+    private final T m_aProfile;
+    private final long m_nExpirationTime;
+
+    Entry (@Nonnull final T aProfile, final long nExpirationTime)
+    {
+      m_aProfile = aProfile;
+      m_nExpirationTime = nExpirationTime;
+    }
+  }
+
+  private final int m_nMaxSize;
+  private final long m_nTTLMS;
+  private final Lock m_aLock = new ReentrantLock ();
+  @GuardedBy ("m_aLock")
+  private final LinkedHashMap <Key, Entry <T>> m_aMap;
+  private final AtomicLong m_aHits = new AtomicLong ();
+  private final AtomicLong m_aMisses = new AtomicLong ();
+
+  /**
+   * Constructor using the size and expiration time from the configuration.
+   */
+  public MEReceiverProfileCache ()
+  {
+    this (TCConfig.MEM.getReceiverProfileCacheSize (), TCConfig.MEM.getReceiverProfileCacheTTLMS ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached profiles. Must be &gt; 0.
+   * @param nTTLMS
+   *        The milliseconds after which a profile is created again. Must be
+   *        &gt; 0.
+   */
+  public MEReceiverProfileCache (@Nonnegative final int nMaxSize, @Nonnegative final long nTTLMS)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.isGT0 (nTTLMS, "TTLMS");
+    m_nMaxSize = nMaxSize;
+    m_nTTLMS = nTTLMS;
+    // Access order for LRU eviction
+    m_aMap = new LinkedHashMap <Key, Entry <T>> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <Key, Entry <T>> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+  }
+
+  /**
+   * Get the cached profile of the receiver of the provided routing information
+   * or create and cache it.
+   *
+   * @param aRoutingInfo
+   *        The routing information. May not be <code>null</code>.
+   * @param aFactory
+   *        The factory creating the profile if it is not cached. May not be
+   *        <code>null</code>.
+   * @return The profile. Never <code>null</code>.
+   * @throws MEOutgoingException
+   *         If the profile cannot be created
+   */
+  @Nonnull
+  public T getOrCreate (@Nonnull final IMERoutingInformation aRoutingInfo,
+                        @Nonnull final IProfileFactory <T> aFactory) throws MEOutgoingException
+  {
+    ValueEnforcer.notNull (aRoutingInfo, "RoutingInfo");
+    ValueEnforcer.notNull (aFactory, "Factory");
+
+    final X509Certificate aCertificate = aRoutingInfo.getCertificate ();
+    final String sEndpointURL = aRoutingInfo.getEndpointURL ();
+    ValueEnforcer.notNull (aCertificate, "RoutingInfo.Certificate");
+    ValueEnforcer.notNull (sEndpointURL, "RoutingInfo.EndpointURL");
+
+    final Key aKey = new Key (aCertificate, sEndpointURL);
+    final long nNow = System.currentTimeMillis ();
+    m_aLock.lock ();
+    try
+    {
+      final Entry <T> aEntry = m_aMap.get (aKey);
+      if (aEntry != null && aEntry.m_nExpirationTime > nNow)
+      {
+        m_aHits.incrementAndGet ();
+        return aEntry.m_aProfile;
+      }
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    // Create outside the lock - creating a profile twice is harmless
+    m_aMisses.incrementAndGet ();
+    final T ret = aFactory.create (aCertificate, sEndpointURL);
+    ValueEnforcer.notNull (ret, "CreatedProfile");
+    m_aLock.lock ();
+    try
+    {
+      m_aMap.put (aKey, new Entry <> (ret, nNow + m_nTTLMS));
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+    return ret;
+  }
+
+  /**
+   * Remove all cached profiles, e.g. after the SMP data or the configuration
+   * changed.
+   */
+  public void clear ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      m_aMap.clear ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The number of cached profiles, including expired ones.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_aMap.size ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @param sPrefix
+   *        The prefix of all keys. May not be <code>null</code>.
+   * @return The statistics of this cache for the status page. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Object> getStatusData (@Nonnull final String sPrefix)
+  {
+    final ICommonsOrderedMap <String, Object> ret = new CommonsLinkedHashMap <> ();
+    ret.put (sPrefix + "size", Integer.valueOf (size ()));
+    ret.put (sPrefix + "hits", Long.valueOf (getHitCount ()));
+    ret.put (sPrefix + "misses", Long.valueOf (getMissCount ()));
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize).append ("TTLMS", m_nTTLMS).getToString ();
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.outgoing;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The result of a successful asynchronous message transmission via a Message
+ * Exchange Module. A failed transmission is never represented by this class,
+ * but by an exceptionally completed stage.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public class MESendResult
+{
+  private final String m_sMessageID;
+
+  public MESendResult (@Nullable final String sMessageID)
+  {
+    m_sMessageID = sMessageID;
+  }
+
+  /**
+   * @return The ID of the sent AS4 message. May be <code>null</code> if the
+   *         Message Exchange Module does not provide it.
+   */
+  @Nullable
+  public final String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MessageID", m_sMessageID).getToString ();
+  }
+
+  @Nonnull
+  public static MESendResult create (@Nullable final String sMessageID)
+  {
+    return new MESendResult (sMessageID);
+  }
+}
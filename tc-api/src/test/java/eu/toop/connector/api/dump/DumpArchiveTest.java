@@ -0,0 +1,215 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for classes {@link DumpArchive} and
+ * {@link DumpArchiveLookup}.
+ */
+public final class DumpArchiveTest
+{
+  private File m_aDir;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_aDir = Files.createTempDirectory ("dump-archive").toFile ();
+  }
+
+  @After
+  public void tearDown ()
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (m_aDir);
+  }
+
+  private static String _createDump (final int nIndex)
+  {
+    return "Content-Type: multipart/related\r\n\r\n<S12:Envelope><S12:Header><eb:Messaging><eb:UserMessage><eb:MessageInfo>" +
+           "<eb:MessageId>msg-" +
+           nIndex +
+           "@toop</eb:MessageId><eb:RefToMessageId>ref</eb:RefToMessageId></eb:MessageInfo>" +
+           "<eb:CollaborationInfo><eb:ConversationId>conv-" +
+           (nIndex % 2) +
+           "</eb:ConversationId></eb:CollaborationInfo></eb:UserMessage></eb:Messaging></S12:Header></S12:Envelope>";
+  }
+
+  @Test
+  public void testWriteAndLookup () throws Exception
+  {
+    // Small segments to test the rolling
+    try (final DumpArchive aArchive = new DumpArchive (m_aDir, "test", 512))
+    {
+      for (int i = 0; i < 10; i++)
+        try (final OutputStream aOS = aArchive.openDumpStream (null, DumpArchive.TYPE_INCOMING))
+        {
+          aOS.write (_createDump (i).getBytes (StandardCharsets.UTF_8));
+        }
+      aArchive.writeDump ("msg-3@toop", DumpArchive.TYPE_RESPONSE, "response".getBytes (StandardCharsets.UTF_8));
+      assertEquals (11, aArchive.getWrittenCount ());
+      assertEquals (0, aArchive.getFailedCount ());
+    }
+
+    // Lookup by message ID
+    ICommonsList <DumpArchiveEntry> aEntries = DumpArchiveLookup.findByMessageID (m_aDir, "msg-3@toop");
+    assertEquals (2, aEntries.size ());
+    assertEquals (DumpArchive.TYPE_INCOMING, aEntries.get (0).getType ());
+    assertEquals ("conv-1", aEntries.get (0).getConversationID ());
+    try (final InputStream aIS = DumpArchiveLookup.openDump (aEntries.get (0)))
+    {
+      assertEquals (_createDump (3), StreamHelper.getAllBytesAsString (aIS, StandardCharsets.UTF_8));
+    }
+    try (final InputStream aIS = DumpArchiveLookup.openDump (aEntries.get (1)))
+    {
+      assertEquals ("response", StreamHelper.getAllBytesAsString (aIS, StandardCharsets.UTF_8));
+    }
+
+    // Lookup by conversation ID
+    aEntries = DumpArchiveLookup.findByConversationID (m_aDir, "conv-0");
+    assertEquals (5, aEntries.size ());
+    for (final DumpArchiveEntry aEntry : aEntries)
+      try (final InputStream aIS = DumpArchiveLookup.openDump (aEntry))
+      {
+        assertTrue (StreamHelper.getAllBytesAsString (aIS, StandardCharsets.UTF_8).contains (aEntry.getMessageID ()));
+      }
+
+    // Date range
+    assertEquals (0, DumpArchiveLookup.findEntries (m_aDir, PDTFactory.getCurrentLocalDate ().plusDays (1), null, x -> true).size ());
+    assertEquals (11, DumpArchiveLookup.findEntries (m_aDir, null, PDTFactory.getCurrentLocalDate (), x -> true).size ());
+
+    assertEquals (0, DumpArchiveLookup.findByMessageID (m_aDir, "ref").size ());
+  }
+
+  @Test
+  public void testConcurrentDumps () throws Exception
+  {
+    try (final DumpArchive aArchive = new DumpArchive (m_aDir, "test", 1024 * 1024))
+    {
+      // Two dumps written at the same time use separate segments
+      try (final OutputStream aOS1 = aArchive.openDumpStream ("msg-a", DumpArchive.TYPE_INCOMING);
+           final OutputStream aOS2 = aArchive.openDumpStream ("msg-b", DumpArchive.TYPE_INCOMING))
+      {
+        for (int i = 0; i < 100; i++)
+        {
+          aOS1.write (("a" + i).getBytes (StandardCharsets.UTF_8));
+          aOS2.write (("b" + i).getBytes (StandardCharsets.UTF_8));
+        }
+      }
+      assertEquals (2, aArchive.getOpenSegmentCount ());
+
+      // Afterwards the idle segments are reused
+      aArchive.writeDump ("msg-c", DumpArchive.TYPE_INCOMING, "c".getBytes (StandardCharsets.UTF_8));
+      assertEquals (2, aArchive.getOpenSegmentCount ());
+      assertEquals (3, aArchive.getWrittenCount ());
+    }
+
+    final ICommonsList <DumpArchiveEntry> aEntries = DumpArchiveLookup.findByMessageID (m_aDir, "msg-b");
+    assertEquals (1, aEntries.size ());
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < 100; i++)
+      aSB.append ("b").append (i);
+    try (final InputStream aIS = DumpArchiveLookup.openDump (aEntries.get (0)))
+    {
+      assertEquals (aSB.toString (), StreamHelper.getAllBytesAsString (aIS, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testFailedDumpIsNotIndexed () throws Exception
+  {
+    try (final DumpArchive aArchive = new DumpArchive (m_aDir, "test", 1024 * 1024))
+    {
+      try
+      {
+        aArchive.writeDump ("msg-1", DumpArchive.TYPE_OUTGOING, aOS -> {
+          aOS.write ("partial".getBytes (StandardCharsets.UTF_8));
+          throw new IOException ("Simulated");
+        });
+        fail ();
+      }
+      catch (final IOException ex)
+      {
+        // expected
+      }
+      assertEquals (0, aArchive.getWrittenCount ());
+      assertEquals (1, aArchive.getFailedCount ());
+      // The segment with the partial dump is not reused
+      assertEquals (0, aArchive.getOpenSegmentCount ());
+
+      aArchive.writeDump ("msg-2", DumpArchive.TYPE_OUTGOING, "complete".getBytes (StandardCharsets.UTF_8));
+    }
+
+    assertEquals (0, DumpArchiveLookup.findByMessageID (m_aDir, "msg-1").size ());
+    final ICommonsList <DumpArchiveEntry> aEntries = DumpArchiveLookup.findByMessageID (m_aDir, "msg-2");
+    assertEquals (1, aEntries.size ());
+    try (final InputStream aIS = DumpArchiveLookup.openDump (aEntries.get (0)))
+    {
+      assertEquals ("complete", StreamHelper.getAllBytesAsString (aIS, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testParseIndexLine ()
+  {
+    final DumpArchiveEntry aEntry = new DumpArchiveEntry (new File ("x.gz"), "a\tb", null, "incoming", 1, 2, 3);
+    final String sLine = aEntry.getAsIndexLine ();
+    final DumpArchiveEntry aParsed = DumpArchiveEntry.parseIndexLine (new File ("x.gz"), sLine.substring (0, sLine.length () - 1));
+    assertEquals (aEntry, aParsed);
+    assertEquals ("a b", aParsed.getMessageID ());
+    assertEquals ("", aParsed.getConversationID ());
+
+    // Partially written line
+    assertNull (DumpArchiveEntry.parseIndexLine (new File ("x.gz"), "a\tb\tincoming\t1\t2"));
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.incoming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+
+import eu.toop.connector.api.me.model.IMEPayloadData;
+import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.connector.api.me.model.MEPayloadDataInMemory;
+
+/**
+ * Test class for class {@link IncomingEDMSniffer}.
+ */
+public final class IncomingEDMSnifferTest
+{
+  private static final String NS = "xmlns:query=\"" + IncomingEDMSniffer.NAMESPACE_URI_QUERY + "\"";
+
+  private static EIncomingEDMType _sniff (@Nonnull final String sXML)
+  {
+    return IncomingEDMSniffer.sniff (new NonBlockingByteArrayInputStream (sXML.getBytes (StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testSniff ()
+  {
+    assertEquals (EIncomingEDMType.REQUEST, _sniff ("<?xml version=\"1.0\"?><!-- c --><query:QueryRequest " + NS + " id=\"x\"/>"));
+    assertEquals (EIncomingEDMType.RESPONSE,
+                  _sniff ("<query:QueryResponse " + NS + " status=\"urn:oasis:names:tc:ebxml-regrep:ResponseStatusType:Success\"/>"));
+    assertEquals (EIncomingEDMType.RESPONSE, _sniff ("<query:QueryResponse " + NS + "/>"));
+    assertEquals (EIncomingEDMType.ERROR_RESPONSE,
+                  _sniff ("<query:QueryResponse " + NS + " status=\"" + IncomingEDMSniffer.RESPONSE_STATUS_FAILURE + "\">"));
+
+    // Wrong namespace
+    assertNull (_sniff ("<QueryRequest xmlns=\"urn:other\"/>"));
+    assertNull (_sniff ("<query:Other " + NS + "/>"));
+    // No XML
+    assertNull (_sniff (""));
+    assertNull (_sniff ("no xml"));
+    // The DTD is ignored
+    assertEquals (EIncomingEDMType.REQUEST,
+                  _sniff ("<!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><query:QueryRequest " + NS + ">&e;</query:QueryRequest>"));
+  }
+
+  @Test
+  public void testCreateIncomingObjectSniffOnly () throws Exception
+  {
+    final IMEPayloadData aData = new MEPayloadDataInMemory (new ByteArrayWrapper (("<query:QueryRequest " +
+                                                                                   NS +
+                                                                                   "/>").getBytes (StandardCharsets.UTF_8),
+                                                                                  false));
+    final MEPayload aPayload = MEPayload.builder ().mimeTypeRegRep ().contentID ("cid").data (aData).build ();
+    final IIncomingEDMObject aObj = IncomingEDMHelper.createIncomingObject (new CommonsArrayList <> (aPayload),
+                                                                            new MEIncomingTransportMetadata (null,
+                                                                                                             null,
+                                                                                                             null,
+                                                                                                             null),
+                                                                            true);
+    assertTrue (aObj instanceof IncomingEDMRequest);
+    final IncomingEDMRequest aRequest = (IncomingEDMRequest) aObj;
+    assertFalse (aRequest.isObjectParsed ());
+    assertSame (aPayload.getPayloadData (), aRequest.getRawData ());
+    assertEquals ("cid", aRequest.getTopLevelContentID ());
+  }
+}
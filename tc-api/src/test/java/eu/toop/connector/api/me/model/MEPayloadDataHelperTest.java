@@ -0,0 +1,144 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.api.me.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mock.CommonsTestHelper;
+
+/**
+ * Test class for class {@link MEPayloadDataHelper}.
+ */
+public final class MEPayloadDataHelperTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempDir = new TemporaryFolder ();
+
+  private static byte [] _createBytes (final int nLen)
+  {
+    final byte [] ret = new byte [nLen];
+    for (int i = 0; i < nLen; ++i)
+      ret[i] = (byte) i;
+    return ret;
+  }
+
+  @Test
+  public void testInMemory () throws IOException
+  {
+    final byte [] aBytes = _createBytes (1000);
+    final IMEPayloadData aData = MEPayloadDataHelper.read (new NonBlockingByteArrayInputStream (aBytes),
+                                                           1000,
+                                                           m_aTempDir.getRoot ());
+    assertTrue (aData.isInMemory ());
+    assertNull (aData.getFile ());
+    assertEquals (1000, aData.getSize ());
+    assertArrayEquals (aBytes, aData.getAsByteArrayWrapper ().getAllBytes ());
+    assertEquals (0, m_aTempDir.getRoot ().list ().length);
+  }
+
+  @Test
+  public void testSpilled () throws IOException
+  {
+    final byte [] aBytes = _createBytes (100_000);
+    final IMEPayloadData aData = MEPayloadDataHelper.read (new NonBlockingByteArrayInputStream (aBytes),
+                                                           1000,
+                                                           m_aTempDir.getRoot ());
+    assertFalse (aData.isInMemory ());
+    final File aFile = aData.getFile ();
+    assertNotNull (aFile);
+    assertTrue (aFile.exists ());
+    assertEquals (100_000, aData.getSize ());
+    try (final InputStream aIS = aData.openStream ())
+    {
+      assertArrayEquals (aBytes, StreamHelper.getAllBytes (aIS));
+    }
+    assertArrayEquals (aBytes, aData.getAsByteArrayWrapper ().getAllBytes ());
+
+    // Two references
+    aData.retain ();
+    aData.release ();
+    assertTrue (aFile.exists ());
+    aData.release ();
+    assertFalse (aFile.exists ());
+
+    try
+    {
+      aData.openStream ();
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aData.retain ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSerialization () throws IOException
+  {
+    final byte [] aBytes = _createBytes (5000);
+    final IMEPayloadData aData = MEPayloadDataHelper.read (new NonBlockingByteArrayInputStream (aBytes),
+                                                           10,
+                                                           m_aTempDir.getRoot ());
+    final MEPayload aPayload = MEPayload.builder ().mimeTypeRegRep ().randomContentID ().data (aData).build ();
+    final MEPayload aCopy = CommonsTestHelper.serializeDeserializeObject (aPayload);
+    assertTrue (aCopy.getPayloadData ().isInMemory ());
+    assertArrayEquals (aBytes, aCopy.getData ().getAllBytes ());
+    aData.release ();
+  }
+}
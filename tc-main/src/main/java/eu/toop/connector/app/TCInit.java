@@ -62,6 +62,7 @@ import com.helger.xservlet.requesttrack.RequestTracker;
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.me.MessageExchangeManager;
 import eu.toop.connector.api.me.incoming.IMEIncomingHandler;
+import eu.toop.connector.app.dsd.DSDDatasetResponseProviderRemote;
 import eu.toop.kafkaclient.ToopKafkaClient;
 import eu.toop.kafkaclient.ToopKafkaSettings;
 
@@ -242,6 +243,9 @@ public final class TCInit
     // Shutdown message exchange
     MessageExchangeManager.getConfiguredImplementation ().shutdown (aServletContext);
 
+    // Close the pooled connections to the DSD
+    DSDDatasetResponseProviderRemote.shutdown ();
+
     // Shutdown tracker
     ToopKafkaClient.close ();
 
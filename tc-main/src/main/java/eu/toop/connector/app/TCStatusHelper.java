@@ -50,6 +50,11 @@ import com.helger.json.IJsonObject;
 import com.helger.json.JsonObject;
 
 import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.dsd.IDSDDatasetResponseProvider;
+import eu.toop.connector.api.me.IMessageExchangeSPI;
+import eu.toop.connector.api.me.MessageExchangeManager;
+import eu.toop.connector.app.api.TCAPIConfig;
+import eu.toop.connector.app.dsd.CachingDSDDatasetResponseProvider;
 
 /**
  * Helper to create the TOOP Connector status reachable via the "/tc-status/"
@@ -100,6 +105,19 @@ public final class TCStatusHelper
         aStatusData.add (aEntry.getKey (), aEntry.getValue ());
     }
 
+    // Add runtime information of the configured MEM implementation
+    final IMessageExchangeSPI aMEM = MessageExchangeManager.getImplementationOfID (TCConfig.MEM.getMEMImplementationID ());
+    if (aMEM != null)
+      for (final Map.Entry <String, Object> aEntry : aMEM.getStatusData ().entrySet ())
+        aStatusData.add ("mem." + aMEM.getID () + "." + aEntry.getKey (), aEntry.getValue ());
+
+    // Add the DSD cache statistics
+    final IDSDDatasetResponseProvider aDSDProvider = TCAPIConfig.getDSDDatasetResponseProvider ();
+    if (aDSDProvider instanceof CachingDSDDatasetResponseProvider)
+      for (final Map.Entry <String, Object> aEntry : ((CachingDSDDatasetResponseProvider) aDSDProvider).getStatusData ("dsd.cache.")
+                                                                                                         .entrySet ())
+        aStatusData.add (aEntry.getKey (), aEntry.getValue ());
+
     return aStatusData;
   }
 }
@@ -38,11 +38,14 @@ import javax.annotation.concurrent.GuardedBy;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.io.stream.StreamHelper;
 
+import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.dd.IDDServiceGroupHrefProvider;
 import eu.toop.connector.api.dd.IDDServiceMetadataProvider;
 import eu.toop.connector.api.dsd.IDSDDatasetResponseProvider;
 import eu.toop.connector.api.validation.IVSValidator;
+import eu.toop.connector.app.dsd.CachingDSDDatasetResponseProvider;
 import eu.toop.connector.app.dsd.DSDDatasetResponseProviderRemote;
 import eu.toop.connector.app.smp.DDServiceGroupHrefProviderSMP;
 import eu.toop.connector.app.smp.DDServiceMetadataProviderSMP;
@@ -60,7 +63,7 @@ public final class TCAPIConfig
   private static final SimpleReadWriteLock s_aRWLock = new SimpleReadWriteLock ();
 
   @GuardedBy ("s_aRWLock")
-  private static IDSDDatasetResponseProvider s_aDSDPartyIDProvider = new DSDDatasetResponseProviderRemote ();
+  private static IDSDDatasetResponseProvider s_aDSDPartyIDProvider = _createDefaultDSDDatasetResponseProvider ();
   @GuardedBy ("s_aRWLock")
   private static IDDServiceGroupHrefProvider s_aDDSGHrefProvider = new DDServiceGroupHrefProviderSMP ();
   @GuardedBy ("s_aRWLock")
@@ -71,16 +74,39 @@ public final class TCAPIConfig
   private TCAPIConfig ()
   {}
 
+  @Nonnull
+  private static IDSDDatasetResponseProvider _createDefaultDSDDatasetResponseProvider ()
+  {
+    final IDSDDatasetResponseProvider ret = new DSDDatasetResponseProviderRemote ();
+    if (TCConfig.DSD.isDSDCacheEnabled ())
+      return new CachingDSDDatasetResponseProvider (ret);
+    return ret;
+  }
+
   @Nonnull
   public static IDSDDatasetResponseProvider getDSDDatasetResponseProvider ()
   {
     return s_aRWLock.readLockedGet ( () -> s_aDSDPartyIDProvider);
   }
 
+  /**
+   * Set the DSD dataset response provider. If the replaced provider is
+   * {@link AutoCloseable} (like {@link CachingDSDDatasetResponseProvider}) it
+   * is closed.
+   *
+   * @param aProvider
+   *        The new provider. May not be <code>null</code>.
+   */
   public static void setDSDDatasetResponseProvider (@Nonnull final IDSDDatasetResponseProvider aProvider)
   {
     ValueEnforcer.notNull (aProvider, "IDSDDatasetResponseProvider");
-    s_aRWLock.writeLockedGet ( () -> s_aDSDPartyIDProvider = aProvider);
+    final IDSDDatasetResponseProvider aOldProvider = s_aRWLock.writeLockedGet ( () -> {
+      final IDSDDatasetResponseProvider ret = s_aDSDPartyIDProvider;
+      s_aDSDPartyIDProvider = aProvider;
+      return ret;
+    });
+    if (aOldProvider != aProvider && aOldProvider instanceof AutoCloseable)
+      StreamHelper.close ((AutoCloseable) aOldProvider);
   }
 
   @Nonnull
@@ -34,6 +34,7 @@
 package eu.toop.connector.app.api;
 
 import java.util.Locale;
+import java.util.concurrent.CompletionStage;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -58,6 +59,7 @@ import eu.toop.connector.api.me.MessageExchangeManager;
 import eu.toop.connector.api.me.model.MEMessage;
 import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.connector.api.me.outgoing.MESendResult;
 
 /**
  * A utility class that provides abstractions for all major tasks to be invoked
@@ -226,4 +228,26 @@ public final class TCAPIHelper
     final IMessageExchangeSPI aMEM = MessageExchangeManager.getConfiguredImplementation ();
     aMEM.sendOutgoing (aRoutingInfo, aMessage);
   }
+
+  /**
+   * Send an AS4 message using the configured Message Exchange Module (MEM)
+   * without blocking the calling thread until the transmission is finished.
+   *
+   * @param aRoutingInfo
+   *        Routing information. May not be <code>null</code>.
+   * @param aMessage
+   *        The message to be exchanged. May not be <code>null</code>.
+   * @return The completion stage with the transmission result. Never
+   *         <code>null</code>.
+   * @see IMessageExchangeSPI#sendOutgoingAsync(IMERoutingInformation,
+   *      MEMessage)
+   * @since 2.1.2
+   */
+  @Nonnull
+  public static CompletionStage <MESendResult> sendAS4MessageAsync (@Nonnull final IMERoutingInformation aRoutingInfo,
+                                                                    @Nonnull final MEMessage aMessage)
+  {
+    final IMessageExchangeSPI aMEM = MessageExchangeManager.getConfiguredImplementation ();
+    return aMEM.sendOutgoingAsync (aRoutingInfo, aMessage);
+  }
 }
@@ -0,0 +1,609 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.app.dsd;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.dsd.DSDDatasetResponse;
+import eu.toop.connector.api.dsd.IDSDDatasetResponseProvider;
+import eu.toop.connector.api.error.ITCErrorHandler;
+import eu.toop.edm.error.IToopErrorCode;
+
+/**
+ * An {@link IDSDDatasetResponseProvider} that caches the results of another
+ * provider (usually {@link DSDDatasetResponseProviderRemote}). The cache is
+ * bounded and evicts the least recently used entries. An entry is served from
+ * the cache until its TTL is reached. Within an additional "stale" time span
+ * the old result is still returned, but the entry is refreshed in the
+ * background. Concurrent identical queries that are not cached result in a
+ * single query of the delegate. Results of queries that reported an error are
+ * not cached. The results are deep copied when they are stored and when they
+ * are returned, as {@link DSDDatasetResponse} is mutable.<br>
+ * {@link #close()} stops the background refresh threads. It is called by
+ * {@link eu.toop.connector.app.api.TCAPIConfig} when the provider is
+ * replaced.<br>
+ * Install it via
+ * {@link eu.toop.connector.app.api.TCAPIConfig#setDSDDatasetResponseProvider(IDSDDatasetResponseProvider)}.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public class CachingDSDDatasetResponseProvider implements IDSDDatasetResponseProvider, AutoCloseable
+{
+  /** The number of threads used for background refreshes */
+  public static final int REFRESH_THREADS = 2;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (CachingDSDDatasetResponseProvider.class);
+
+  private enum EQueryType
+  {
+    BY_COUNTRY,
+    BY_DP_TYPE;
+  }
+
+  private static final class Key
+  {
+    private final EQueryType m_eQueryType;
+    private final String m_sDatasetType;
+    private final String m_sValue;
+    private final int m_nHashCode;
+
+    Key (@Nonnull final EQueryType eQueryType, @Nonnull final String sDatasetType, @Nullable final String sValue)
+    {
+      m_eQueryType = eQueryType;
+      m_sDatasetType = sDatasetType;
+      m_sValue = sValue;
+      m_nHashCode = new HashCodeGenerator (this).append (eQueryType).append (sDatasetType).append (sValue).getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_eQueryType == rhs.m_eQueryType &&
+             m_sDatasetType.equals (rhs.m_sDatasetType) &&
+             (m_sValue == null ? rhs.m_sValue == null : m_sValue.equals (rhs.m_sValue));
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return m_eQueryType + "/" + m_sDatasetType + "/" + m_sValue;
+    }
+  }
+
+  /**
+   * A single message reported by the delegate.
+   */
+  private static final class Message
+  {
+    private final EErrorLevel m_eErrorLevel;
+    private final String m_sMsg;
+    private final Throwable m_aThrowable;
+    private final IToopErrorCode m_eCode;
+
+    Message (@Nonnull final EErrorLevel eErrorLevel,
+             @Nonnull final String sMsg,
+             @Nullable final Throwable t,
+             @Nonnull final IToopErrorCode eCode)
+    {
+      m_eErrorLevel = eErrorLevel;
+      m_sMsg = sMsg;
+      m_aThrowable = t;
+      m_eCode = eCode;
+    }
+  }
+
+  /**
+   * The outcome of a single delegate query. The messages are remembered, so
+   * that they can be forwarded to the error handler of every coalesced caller.
+   */
+  private static final class Result implements ITCErrorHandler
+  {
+    private ICommonsSet <DSDDatasetResponse> m_aResponses;
+    private final ICommonsList <Message> m_aMessages = new CommonsArrayList <> ();
+    private boolean m_bFailure = false;
+
+    public void onMessage (@Nonnull final EErrorLevel eErrorLevel,
+                           @Nonnull final String sMsg,
+                           @Nullable final Throwable t,
+                           @Nonnull final IToopErrorCode eCode)
+    {
+      m_aMessages.add (new Message (eErrorLevel, sMsg, t, eCode));
+      if (eErrorLevel.isGE (EErrorLevel.ERROR))
+        m_bFailure = true;
+    }
+
+    void forwardMessages (@Nonnull final ITCErrorHandler aErrorHandler)
+    {
+      for (final Message aMsg : m_aMessages)
+        aErrorHandler.onMessage (aMsg.m_eErrorLevel, aMsg.m_sMsg, aMsg.m_aThrowable, aMsg.m_eCode);
+    }
+  }
+
+  private static final class Entry
+  {
+    private final ICommonsSet <DSDDatasetResponse> m_aResponses;
+    private final long m_nLoadTime;
+
+    Entry (@Nonnull final ICommonsSet <DSDDatasetResponse> aResponses, final long nLoadTime)
+    {
+      m_aResponses = aResponses;
+      m_nLoadTime = nLoadTime;
+    }
+  }
+
+  private final IDSDDatasetResponseProvider m_aDelegate;
+  private final int m_nMaxSize;
+  private final long m_nTTLMS;
+  private final long m_nStaleMS;
+  private final Lock m_aLock = new ReentrantLock ();
+  @GuardedBy ("m_aLock")
+  private final LinkedHashMap <Key, Entry> m_aMap;
+  private final ConcurrentHashMap <Key, CompletableFuture <Result>> m_aInFlight = new ConcurrentHashMap <> ();
+  private final ThreadPoolExecutor m_aRefreshExecutor;
+  private final AtomicLong m_aHits = new AtomicLong ();
+  private final AtomicLong m_aStaleHits = new AtomicLong ();
+  private final AtomicLong m_aMisses = new AtomicLong ();
+  private final AtomicLong m_aCoalesced = new AtomicLong ();
+  private final AtomicLong m_aRefreshes = new AtomicLong ();
+
+  /**
+   * Constructor using the cache settings from the configuration.
+   *
+   * @param aDelegate
+   *        The provider whose results are cached. May not be
+   *        <code>null</code>.
+   */
+  public CachingDSDDatasetResponseProvider (@Nonnull final IDSDDatasetResponseProvider aDelegate)
+  {
+    this (aDelegate, TCConfig.DSD.getDSDCacheSize (), TCConfig.DSD.getDSDCacheTTLMS (), TCConfig.DSD.getDSDCacheStaleMS ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The provider whose results are cached. May not be
+   *        <code>null</code>.
+   * @param nMaxSize
+   *        The maximum number of cached query results. Must be &gt; 0.
+   * @param nTTLMS
+   *        The milliseconds a result is served from the cache without
+   *        refreshing it. Must be &gt; 0.
+   * @param nStaleMS
+   *        The milliseconds after the TTL in which the old result is still
+   *        served while it is refreshed in the background. Must be &ge; 0.
+   */
+  public CachingDSDDatasetResponseProvider (@Nonnull final IDSDDatasetResponseProvider aDelegate,
+                                            @Nonnegative final int nMaxSize,
+                                            @Nonnegative final long nTTLMS,
+                                            @Nonnegative final long nStaleMS)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.isGT0 (nTTLMS, "TTLMS");
+    ValueEnforcer.isGE0 (nStaleMS, "StaleMS");
+    m_aDelegate = aDelegate;
+    m_nMaxSize = nMaxSize;
+    m_nTTLMS = nTTLMS;
+    m_nStaleMS = nStaleMS;
+    // Access order for LRU eviction
+    m_aMap = new LinkedHashMap <Key, Entry> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <Key, Entry> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+
+    final AtomicInteger aThreadIndex = new AtomicInteger ();
+    final ThreadFactory aThreadFactory = r -> {
+      final Thread t = new Thread (r, "tc-dsd-refresh-" + aThreadIndex.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    // At most one refresh per key is pending, and the number of keys is
+    // bounded
+    m_aRefreshExecutor = new ThreadPoolExecutor (REFRESH_THREADS,
+                                                 REFRESH_THREADS,
+                                                 60,
+                                                 TimeUnit.SECONDS,
+                                                 new LinkedBlockingQueue <> (),
+                                                 aThreadFactory);
+    m_aRefreshExecutor.allowCoreThreadTimeOut (true);
+  }
+
+  /**
+   * @return The provider whose results are cached. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IDSDDatasetResponseProvider getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  @Nonnull
+  private static ICommonsSet <DSDDatasetResponse> _copy (@Nonnull final ICommonsSet <DSDDatasetResponse> aSet)
+  {
+    // The caller may modify the returned set and its elements
+    final ICommonsSet <DSDDatasetResponse> ret = new CommonsHashSet <> (aSet.size ());
+    for (final DSDDatasetResponse aResponse : aSet)
+      ret.add (aResponse.getClone ());
+    return ret;
+  }
+
+  @Nonnull
+  private Result _query (@Nonnull final Key aKey, @Nonnull final String sLogPrefix)
+  {
+    final Result ret = new Result ();
+    switch (aKey.m_eQueryType)
+    {
+      case BY_COUNTRY:
+        ret.m_aResponses = m_aDelegate.getAllDatasetResponsesByCountry (sLogPrefix, aKey.m_sDatasetType, aKey.m_sValue, ret);
+        break;
+      case BY_DP_TYPE:
+        ret.m_aResponses = m_aDelegate.getAllDatasetResponsesByDPType (sLogPrefix, aKey.m_sDatasetType, aKey.m_sValue, ret);
+        break;
+      default:
+        throw new IllegalStateException ("Unsupported query type " + aKey.m_eQueryType);
+    }
+    if (ret.m_aResponses == null)
+    {
+      // Be lenient with custom delegates
+      ret.m_aResponses = new CommonsHashSet <> ();
+      ret.m_bFailure = true;
+    }
+    return ret;
+  }
+
+  /**
+   * Query the delegate and complete the in-flight future of the key. Must only
+   * be called by the thread that registered the future.
+   */
+  @Nonnull
+  private Result _loadAndComplete (@Nonnull final Key aKey,
+                                   @Nonnull final String sLogPrefix,
+                                   @Nonnull final CompletableFuture <Result> aFuture)
+  {
+    try
+    {
+      final Result ret = _query (aKey, sLogPrefix);
+      if (!ret.m_bFailure)
+      {
+        final Entry aEntry = new Entry (_copy (ret.m_aResponses), System.currentTimeMillis ());
+        m_aLock.lock ();
+        try
+        {
+          m_aMap.put (aKey, aEntry);
+        }
+        finally
+        {
+          m_aLock.unlock ();
+        }
+      }
+      aFuture.complete (ret);
+      return ret;
+    }
+    catch (final RuntimeException ex)
+    {
+      aFuture.completeExceptionally (ex);
+      throw ex;
+    }
+    finally
+    {
+      // Only after the entry was stored
+      m_aInFlight.remove (aKey, aFuture);
+    }
+  }
+
+  @Nonnull
+  private Result _load (@Nonnull final Key aKey, @Nonnull final String sLogPrefix)
+  {
+    final CompletableFuture <Result> aNewFuture = new CompletableFuture <> ();
+    final CompletableFuture <Result> aExistingFuture = m_aInFlight.putIfAbsent (aKey, aNewFuture);
+    if (aExistingFuture == null)
+      return _loadAndComplete (aKey, sLogPrefix, aNewFuture);
+
+    // Somebody else is already querying the same
+    m_aCoalesced.incrementAndGet ();
+    try
+    {
+      return aExistingFuture.join ();
+    }
+    catch (final CompletionException ex)
+    {
+      if (ex.getCause () instanceof RuntimeException)
+        throw (RuntimeException) ex.getCause ();
+      throw ex;
+    }
+  }
+
+  private void _refreshInBackground (@Nonnull final Key aKey, @Nonnull final String sLogPrefix)
+  {
+    final CompletableFuture <Result> aFuture = new CompletableFuture <> ();
+    if (m_aInFlight.putIfAbsent (aKey, aFuture) != null)
+    {
+      // Already being refreshed
+      return;
+    }
+
+    m_aRefreshes.incrementAndGet ();
+    final Runnable aTask = () -> {
+      try
+      {
+        final Result aResult = _loadAndComplete (aKey, sLogPrefix, aFuture);
+        if (aResult.m_bFailure)
+          LOGGER.warn (sLogPrefix + "Failed to refresh the cached DSD result of " + aKey + " - keeping the old result");
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.warn (sLogPrefix + "Failed to refresh the cached DSD result of " + aKey, ex);
+      }
+    };
+    try
+    {
+      m_aRefreshExecutor.execute (aTask);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Only happens after close, as the queue is unbounded
+      aTask.run ();
+    }
+  }
+
+  @Nonnull
+  private ICommonsSet <DSDDatasetResponse> _get (@Nonnull final Key aKey,
+                                                 @Nonnull final String sLogPrefix,
+                                                 @Nonnull final ITCErrorHandler aErrorHandler)
+  {
+    final Entry aEntry;
+    m_aLock.lock ();
+    try
+    {
+      aEntry = m_aMap.get (aKey);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    if (aEntry != null)
+    {
+      final long nAge = System.currentTimeMillis () - aEntry.m_nLoadTime;
+      if (nAge < m_nTTLMS)
+      {
+        m_aHits.incrementAndGet ();
+        return _copy (aEntry.m_aResponses);
+      }
+      if (nAge < m_nTTLMS + m_nStaleMS)
+      {
+        m_aStaleHits.incrementAndGet ();
+        _refreshInBackground (aKey, sLogPrefix);
+        return _copy (aEntry.m_aResponses);
+      }
+    }
+
+    m_aMisses.incrementAndGet ();
+    final Result aResult = _load (aKey, sLogPrefix);
+    aResult.forwardMessages (aErrorHandler);
+    return _copy (aResult.m_aResponses);
+  }
+
+  @Nonnull
+  public ICommonsSet <DSDDatasetResponse> getAllDatasetResponsesByCountry (@Nonnull final String sLogPrefix,
+                                                                           @Nonnull @Nonempty final String sDatasetType,
+                                                                           @Nonnull @Nonempty final String sCountryCode,
+                                                                           @Nonnull final ITCErrorHandler aErrorHandler)
+  {
+    return _get (new Key (EQueryType.BY_COUNTRY, sDatasetType, sCountryCode), sLogPrefix, aErrorHandler);
+  }
+
+  @Nonnull
+  public ICommonsSet <DSDDatasetResponse> getAllDatasetResponsesByDPType (@Nonnull final String sLogPrefix,
+                                                                          @Nonnull @Nonempty final String sDatasetType,
+                                                                          @Nonnull @Nonempty final String sDPType,
+                                                                          @Nonnull final ITCErrorHandler aErrorHandler)
+  {
+    return _get (new Key (EQueryType.BY_DP_TYPE, sDatasetType, sDPType), sLogPrefix, aErrorHandler);
+  }
+
+  /**
+   * Remove all cached results, e.g. after the DSD content changed.
+   */
+  public void clear ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      m_aMap.clear ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The number of cached results, including expired ones.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_aMap.size ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The number of queries answered with a fresh cached result.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of queries answered with a stale cached result while
+   *         it was refreshed in the background.
+   */
+  @Nonnegative
+  public long getStaleHitCount ()
+  {
+    return m_aStaleHits.get ();
+  }
+
+  /**
+   * @return The number of queries without a usable cached result. This
+   *         includes the coalesced queries.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @return The number of missed queries that waited for an identical query
+   *         already in progress instead of querying the delegate.
+   */
+  @Nonnegative
+  public long getCoalescedCount ()
+  {
+    return m_aCoalesced.get ();
+  }
+
+  /**
+   * @return The number of background refreshes started.
+   */
+  @Nonnegative
+  public long getRefreshCount ()
+  {
+    return m_aRefreshes.get ();
+  }
+
+  /**
+   * @param sPrefix
+   *        The prefix of all keys. May not be <code>null</code>.
+   * @return The statistics of this cache for the status page. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Object> getStatusData (@Nonnull final String sPrefix)
+  {
+    final ICommonsOrderedMap <String, Object> ret = new CommonsLinkedHashMap <> ();
+    ret.put (sPrefix + "size", Integer.valueOf (size ()));
+    ret.put (sPrefix + "hits", Long.valueOf (getHitCount ()));
+    ret.put (sPrefix + "stale-hits", Long.valueOf (getStaleHitCount ()));
+    ret.put (sPrefix + "misses", Long.valueOf (getMissCount ()));
+    ret.put (sPrefix + "coalesced", Long.valueOf (getCoalescedCount ()));
+    ret.put (sPrefix + "refreshes", Long.valueOf (getRefreshCount ()));
+    return ret;
+  }
+
+  /**
+   * Stop the background refresh threads. Afterwards, stale results are
+   * refreshed synchronously.
+   */
+  @Override
+  public void close ()
+  {
+    m_aRefreshExecutor.shutdown ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .append ("TTLMS", m_nTTLMS)
+                                       .append ("StaleMS", m_nStaleMS)
+                                       .getToString ();
+  }
+}
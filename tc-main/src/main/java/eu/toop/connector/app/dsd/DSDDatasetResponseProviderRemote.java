@@ -33,20 +33,50 @@
  */
 package eu.toop.connector.app.dsd;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.ConnectionSocketFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.debug.GlobalDebug;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.url.URLHelper;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
 
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.dsd.DSDDatasetHelper;
@@ -54,22 +84,101 @@ import eu.toop.connector.api.dsd.DSDDatasetResponse;
 import eu.toop.connector.api.dsd.IDSDDatasetResponseProvider;
 import eu.toop.connector.api.error.ITCErrorHandler;
 import eu.toop.connector.api.http.TCHttpClientSettings;
-import eu.toop.dsd.client.DSDClient;
 import eu.toop.edm.error.EToopErrorCode;
 import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
+import eu.toop.edm.xml.dcatap.DatasetMarshaller;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
  * This class implements the {@link IDSDDatasetResponseProvider} interface using
- * a remote query to DSD.
+ * a remote query to DSD.<br>
+ * All instances with the same base URL and the same concurrency settings share
+ * one pooled HTTP client, so that the connections (including the TLS session)
+ * to the DSD are kept alive across queries, and limit the number of concurrent
+ * queries to that DSD. A change of the configured concurrency settings
+ * therefore results in a new shared client for new instances. The HTTP client
+ * settings are taken from the configuration when the shared client is created
+ * and are not updated afterwards. The shared clients are closed by
+ * {@link #shutdown()}.
  *
  * @author Philip Helger
  */
 public class DSDDatasetResponseProviderRemote implements IDSDDatasetResponseProvider
 {
+  /**
+   * The long-lived, pooled HTTP client of a single DSD base URL together with
+   * the limit of concurrent queries.
+   */
+  @ThreadSafe
+  private static final class SharedClient implements AutoCloseable
+  {
+    private final HttpClientManager m_aHttpClientMgr;
+    private final int m_nMaxConcurrent;
+    private final Semaphore m_aLimit;
+    private final long m_nAcquireTimeoutMS;
+
+    SharedClient (@Nonnegative final int nMaxConcurrent, @Nonnegative final long nAcquireTimeoutMS)
+    {
+      ValueEnforcer.isGT0 (nMaxConcurrent, "MaxConcurrent");
+      ValueEnforcer.isGE0 (nAcquireTimeoutMS, "AcquireTimeoutMS");
+      m_aHttpClientMgr = new HttpClientManager (new HttpClientFactory (new TCHttpClientSettings ())
+      {
+        @Override
+        @Nonnull
+        public HttpClientConnectionManager createConnectionManager (@Nonnull final Registry <ConnectionSocketFactory> aRegistry)
+        {
+          final HttpClientConnectionManager ret = super.createConnectionManager (aRegistry);
+          if (ret instanceof PoolingHttpClientConnectionManager)
+          {
+            // One connection per concurrent query
+            final PoolingHttpClientConnectionManager aPool = (PoolingHttpClientConnectionManager) ret;
+            aPool.setMaxTotal (nMaxConcurrent);
+            aPool.setDefaultMaxPerRoute (nMaxConcurrent);
+          }
+          return ret;
+        }
+
+        @Override
+        @Nonnull
+        public HttpClientBuilder createHttpClientBuilder ()
+        {
+          return super.createHttpClientBuilder ()
+                      .evictExpiredConnections ()
+                      .evictIdleConnections (IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+      });
+      m_nMaxConcurrent = nMaxConcurrent;
+      m_aLimit = new Semaphore (nMaxConcurrent, true);
+      m_nAcquireTimeoutMS = nAcquireTimeoutMS;
+    }
+
+    public void close ()
+    {
+      StreamHelper.close (m_aHttpClientMgr);
+    }
+  }
+
   private static final Logger LOGGER = LoggerFactory.getLogger (DSDDatasetResponseProviderRemote.class);
 
+  // The REST query interface of the DSD
+  private static final String QUERY_PATH = "/rest/search";
+  private static final String PARAM_QUERY_ID = "queryId";
+  private static final String PARAM_DATASET_TYPE = "dataSetType";
+  private static final String PARAM_COUNTRY_CODE = "countryCode";
+  private static final String PARAM_DP_TYPE = "dpType";
+  private static final String QUERY_ID_BY_LOCATION = "urn:toop:dsd:ebxml-regrep:queries:DataSetRequest";
+  private static final String QUERY_ID_BY_DP_TYPE = "urn:toop:dsd:ebxml-regrep:queries:ByDatasetTypeAndDPType";
+  private static final String SLOT_DATASET = "Dataset";
+  private static final String STATUS_FAILURE = "urn:oasis:names:tc:ebxml-regrep:ResponseStatusType:Failure";
+
+  // Idle pooled connections to the DSD are closed after this time
+  private static final long IDLE_TIMEOUT_MS = 60 * CGlobal.MILLISECONDS_PER_SECOND;
+
+  // One client per base URL and concurrency settings
+  private static final Map <String, SharedClient> SHARED_CLIENTS = new ConcurrentHashMap <> ();
+
   private final String m_sBaseURL;
+  private final SharedClient m_aSharedClient;
 
   /**
    * Constructor using the DSD URL from the configuration file.
@@ -89,6 +198,26 @@ public class DSDDatasetResponseProviderRemote implements IDSDDatasetResponseProv
   {
     ValueEnforcer.notEmpty (sBaseURL, "BaseURL");
     m_sBaseURL = sBaseURL;
+    final int nMaxConcurrent = TCConfig.DSD.getDSDClientMaxConcurrent ();
+    final long nAcquireTimeoutMS = TCConfig.DSD.getDSDClientAcquireTimeoutMS ();
+    final String sKey = sBaseURL + '\n' + nMaxConcurrent + '\n' + nAcquireTimeoutMS;
+    m_aSharedClient = SHARED_CLIENTS.computeIfAbsent (sKey, k -> new SharedClient (nMaxConcurrent, nAcquireTimeoutMS));
+  }
+
+  /**
+   * Close the pooled HTTP clients of all DSDs. Instances created afterwards use
+   * new clients.
+   *
+   * @since 2.1.2
+   */
+  public static void shutdown ()
+  {
+    for (final String sKey : SHARED_CLIENTS.keySet ())
+    {
+      final SharedClient aClient = SHARED_CLIENTS.remove (sKey);
+      if (aClient != null)
+        aClient.close ();
+    }
   }
 
   /**
@@ -102,19 +231,143 @@ public class DSDDatasetResponseProviderRemote implements IDSDDatasetResponseProv
     return m_sBaseURL;
   }
 
+  @Nonnull
+  @Nonempty
+  private String _buildQueryURL (@Nonnull @Nonempty final String sQueryID,
+                                 @Nonnull @Nonempty final String sDatasetType,
+                                 @Nonnull @Nonempty final String sParamName,
+                                 @Nullable final String sParamValue)
+  {
+    final StringBuilder aSB = new StringBuilder (StringHelper.trimEnd (m_sBaseURL, '/'));
+    aSB.append (QUERY_PATH)
+       .append ('?')
+       .append (PARAM_QUERY_ID)
+       .append ('=')
+       .append (URLHelper.urlEncode (sQueryID))
+       .append ('&')
+       .append (PARAM_DATASET_TYPE)
+       .append ('=')
+       .append (URLHelper.urlEncode (sDatasetType));
+    // The filter is optional
+    if (StringHelper.hasText (sParamValue))
+      aSB.append ('&').append (sParamName).append ('=').append (URLHelper.urlEncode (sParamValue));
+    return aSB.toString ();
+  }
+
+  /**
+   * Extract all datasets from the ebRS QueryResponse returned by the DSD.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  static ICommonsList <DCatAPDatasetType> parseQueryResponse (@Nonnull final byte [] aResponse)
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new NonBlockingByteArrayInputStream (aResponse));
+    if (aDoc == null)
+      throw new IllegalStateException ("The DSD response is not valid XML");
+
+    final Element aRoot = aDoc.getDocumentElement ();
+    if (STATUS_FAILURE.equals (aRoot.getAttribute ("status")))
+      throw new IllegalStateException ("The DSD query failed");
+
+    final ICommonsList <DCatAPDatasetType> ret = new CommonsArrayList <> ();
+    final Element aROL = XMLHelper.getFirstChildElementOfName (aRoot, "RegistryObjectList");
+    if (aROL != null)
+    {
+      final DatasetMarshaller aMarshaller = new DatasetMarshaller ();
+      for (final Element aRO : _getChildElements (aROL, "RegistryObject"))
+        for (final Element aSlot : _getChildElements (aRO, "Slot"))
+          if (SLOT_DATASET.equals (aSlot.getAttribute ("name")))
+          {
+            final Element aSlotValue = XMLHelper.getFirstChildElementOfName (aSlot, "SlotValue");
+            final Element aDataset = aSlotValue == null ? null : XMLHelper.getFirstChildElement (aSlotValue);
+            final DCatAPDatasetType aDS = aDataset == null ? null : aMarshaller.read (aDataset);
+            if (aDS != null)
+              ret.add (aDS);
+            else
+              LOGGER.warn ("Ignoring invalid DSD dataset in RegistryObject '" + aRO.getAttribute ("id") + "'");
+          }
+    }
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private static ICommonsList <Element> _getChildElements (@Nonnull final Element aParent, @Nonnull final String sLocalName)
+  {
+    final ICommonsList <Element> ret = new CommonsArrayList <> ();
+    for (Node aChild = aParent.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+      if (aChild instanceof Element)
+      {
+        final Element aElement = (Element) aChild;
+        final String sName = aElement.getLocalName () != null ? aElement.getLocalName () : aElement.getTagName ();
+        if (sLocalName.equals (sName))
+          ret.add (aElement);
+      }
+    return ret;
+  }
+
+  /**
+   * Run a query with the shared client of the base URL, honouring the maximum
+   * number of concurrent queries.
+   *
+   * @param sURL
+   *        The query URL. May neither be <code>null</code> nor empty.
+   * @return The datasets contained in the response.
+   * @throws IllegalStateException
+   *         If no query slot became available in time or the query failed
+   */
+  @Nonnull
+  private List <DCatAPDatasetType> _query (@Nonnull @Nonempty final String sURL)
+  {
+    final Semaphore aLimit = m_aSharedClient.m_aLimit;
+    try
+    {
+      if (!aLimit.tryAcquire (m_aSharedClient.m_nAcquireTimeoutMS, TimeUnit.MILLISECONDS))
+        throw new IllegalStateException ("Timeout waiting for one of the " +
+                                         m_aSharedClient.m_nMaxConcurrent +
+                                         " concurrent DSD queries to '" +
+                                         m_sBaseURL +
+                                         "' to finish");
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IllegalStateException ("Interrupted while waiting for a DSD query slot", ex);
+    }
+
+    final byte [] aResponse;
+    try
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Querying the DSD: " + sURL);
+      aResponse = m_aSharedClient.m_aHttpClientMgr.execute (new HttpGet (sURL), new ResponseHandlerByteArray ());
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to query the DSD at '" + sURL + "'", ex);
+    }
+    finally
+    {
+      aLimit.release ();
+    }
+    if (aResponse == null)
+      throw new IllegalStateException ("The DSD at '" + sURL + "' returned no content");
+    return parseQueryResponse (aResponse);
+  }
+
   @Nonnull
   public ICommonsSet <DSDDatasetResponse> getAllDatasetResponsesByCountry (@Nonnull final String sLogPrefix,
                                                                            @Nonnull @Nonempty final String sDatasetType,
                                                                            @Nonnull @Nonempty final String sCountryCode,
                                                                            @Nonnull final ITCErrorHandler aErrorHandler)
   {
-    final DSDClient aDSDClient = new DSDClient (m_sBaseURL);
-    aDSDClient.setHttpClientSettings (new TCHttpClientSettings ());
-
     ICommonsSet <DSDDatasetResponse> ret;
     try
     {
-      final List <DCatAPDatasetType> aDatasetTypeList = aDSDClient.queryDatasetByLocation (sDatasetType, sCountryCode);
+      final List <DCatAPDatasetType> aDatasetTypeList = _query (_buildQueryURL (QUERY_ID_BY_LOCATION,
+                                                                                      sDatasetType,
+                                                                                      PARAM_COUNTRY_CODE,
+                                                                                      sCountryCode));
       ret = DSDDatasetHelper.buildDSDResponseSet (aDatasetTypeList);
     }
     catch (final RuntimeException ex)
@@ -145,13 +398,13 @@ public class DSDDatasetResponseProviderRemote implements IDSDDatasetResponseProv
                                                                           @Nonnull @Nonempty final String sDPType,
                                                                           @Nonnull final ITCErrorHandler aErrorHandler)
   {
-    final DSDClient aDSDClient = new DSDClient (m_sBaseURL);
-    aDSDClient.setHttpClientSettings (new TCHttpClientSettings ());
-
     ICommonsSet <DSDDatasetResponse> ret;
     try
     {
-      final List <DCatAPDatasetType> aDatasetTypeList = aDSDClient.queryDatasetByDPType (sDatasetType, sDPType);
+      final List <DCatAPDatasetType> aDatasetTypeList = _query (_buildQueryURL (QUERY_ID_BY_DP_TYPE,
+                                                                                      sDatasetType,
+                                                                                      PARAM_DP_TYPE,
+                                                                                      sDPType));
       ret = DSDDatasetHelper.buildDSDResponseSet (aDatasetTypeList);
     }
     catch (final RuntimeException ex)
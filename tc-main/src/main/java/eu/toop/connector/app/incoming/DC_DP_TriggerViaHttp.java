@@ -44,6 +44,7 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.ArrayHelper;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.ByteArrayWrapper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
@@ -129,6 +130,19 @@ public final class DC_DP_TriggerViaHttp
     return ret;
   }
 
+  /**
+   * Get the bytes for JAXB without copying them, if the wrapper covers the
+   * whole array.
+   */
+  @Nonnull
+  private static byte [] _getBytes (@Nonnull final ByteArrayWrapper aData)
+  {
+    final byte [] ret = aData.bytes ();
+    if (aData.getOffset () == 0 && aData.size () == ret.length)
+      return ret;
+    return aData.getAllBytes ();
+  }
+
   @Nonnull
   private static TCPayload _createPayload (@Nonnull final byte [] aValue,
                                            @Nullable final String sContentID,
@@ -164,7 +178,7 @@ public final class DC_DP_TriggerViaHttp
 
     final TCIncomingMessage aMsg = new TCIncomingMessage ();
     aMsg.setMetadata (_createMetadata (aRequest.getMetadata (), TCPayloadType.REQUEST));
-    aMsg.addPayload (_createPayload (aRequest.getRequest ().getWriter ().getAsBytes (),
+    aMsg.addPayload (_createPayload (_getBytes (aRequest.getRawData ().getAsByteArrayWrapper ()),
                                      aRequest.getTopLevelContentID (),
                                      CRegRep4.MIME_TYPE_EBRS_XML));
     return _forwardMessage (aMsg, sDestURL);
@@ -183,12 +197,12 @@ public final class DC_DP_TriggerViaHttp
 
     final TCIncomingMessage aMsg = new TCIncomingMessage ();
     aMsg.setMetadata (_createMetadata (aResponse.getMetadata (), TCPayloadType.RESPONSE));
-    aMsg.addPayload (_createPayload (aResponse.getResponse ().getWriter ().getAsBytes (),
+    aMsg.addPayload (_createPayload (_getBytes (aResponse.getRawData ().getAsByteArrayWrapper ()),
                                      aResponse.getTopLevelContentID (),
                                      CRegRep4.MIME_TYPE_EBRS_XML));
     // Add all attachments
     for (final MEPayload aPayload : aResponse.attachments ().values ())
-      aMsg.addPayload (_createPayload (aPayload.getData ().bytes (), aPayload.getContentID (), aPayload.getMimeType ()));
+      aMsg.addPayload (_createPayload (_getBytes (aPayload.getData ()), aPayload.getContentID (), aPayload.getMimeType ()));
     return _forwardMessage (aMsg, sDestURL);
   }
 
@@ -205,7 +219,7 @@ public final class DC_DP_TriggerViaHttp
 
     final TCIncomingMessage aMsg = new TCIncomingMessage ();
     aMsg.setMetadata (_createMetadata (aErrorResponse.getMetadata (), TCPayloadType.ERROR_RESPONSE));
-    aMsg.addPayload (_createPayload (aErrorResponse.getErrorResponse ().getWriter ().getAsBytes (),
+    aMsg.addPayload (_createPayload (_getBytes (aErrorResponse.getRawData ().getAsByteArrayWrapper ()),
                                      aErrorResponse.getTopLevelContentID (),
                                      CRegRep4.MIME_TYPE_EBRS_XML));
     return _forwardMessage (aMsg, sDestURL);
@@ -0,0 +1,262 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.app.dsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.error.level.EErrorLevel;
+
+import eu.toop.connector.api.dsd.DSDDatasetResponse;
+import eu.toop.connector.api.dsd.IDSDDatasetResponseProvider;
+import eu.toop.connector.api.error.ITCErrorHandler;
+import eu.toop.connector.api.error.LoggingTCErrorHandler;
+import eu.toop.edm.error.EToopErrorCode;
+import eu.toop.edm.error.IToopErrorCode;
+
+/**
+ * Test class of class {@link CachingDSDDatasetResponseProvider}.
+ */
+public final class CachingDSDDatasetResponseProviderTest
+{
+  private static final class CountingProvider implements IDSDDatasetResponseProvider
+  {
+    private final AtomicInteger m_aCalls = new AtomicInteger ();
+    private volatile CountDownLatch m_aBlock;
+    private volatile boolean m_bFail;
+
+    @Nonnull
+    private ICommonsSet <DSDDatasetResponse> _query (@Nonnull final String sValue,
+                                                     @Nonnull final ITCErrorHandler aErrorHandler)
+    {
+      m_aCalls.incrementAndGet ();
+      try
+      {
+        final CountDownLatch aBlock = m_aBlock;
+        if (aBlock != null)
+          aBlock.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      final ICommonsSet <DSDDatasetResponse> ret = new CommonsHashSet <> ();
+      if (m_bFail)
+        aErrorHandler.onError ("Failed to query the DSD", EToopErrorCode.DD_001);
+      else
+        ret.add (new DSDDatasetResponse ().setDatasetIdentifier (sValue));
+      return ret;
+    }
+
+    @Nonnull
+    public ICommonsSet <DSDDatasetResponse> getAllDatasetResponsesByCountry (@Nonnull final String sLogPrefix,
+                                                                             @Nonnull final String sDatasetType,
+                                                                             @Nonnull final String sCountryCode,
+                                                                             @Nonnull final ITCErrorHandler aErrorHandler)
+    {
+      return _query (sCountryCode, aErrorHandler);
+    }
+
+    @Nonnull
+    public ICommonsSet <DSDDatasetResponse> getAllDatasetResponsesByDPType (@Nonnull final String sLogPrefix,
+                                                                            @Nonnull final String sDatasetType,
+                                                                            @Nonnull final String sDPType,
+                                                                            @Nonnull final ITCErrorHandler aErrorHandler)
+    {
+      return _query (sDPType, aErrorHandler);
+    }
+  }
+
+  private static final class CountingErrorHandler implements ITCErrorHandler
+  {
+    private final AtomicInteger m_aErrors = new AtomicInteger ();
+
+    public void onMessage (@Nonnull final EErrorLevel eErrorLevel,
+                           @Nonnull final String sMsg,
+                           @Nullable final Throwable t,
+                           @Nonnull final IToopErrorCode eCode)
+    {
+      m_aErrors.incrementAndGet ();
+    }
+  }
+
+  @Test
+  public void testHitAndMiss ()
+  {
+    final CountingProvider aDelegate = new CountingProvider ();
+    final CachingDSDDatasetResponseProvider aCache = new CachingDSDDatasetResponseProvider (aDelegate, 10, 60_000, 0);
+
+    final ICommonsSet <DSDDatasetResponse> aSet = aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE);
+    assertEquals (1, aSet.size ());
+    // Modifying the result must not modify the cache
+    aSet.iterator ().next ().setDatasetIdentifier ("modified");
+    aSet.clear ();
+    final ICommonsSet <DSDDatasetResponse> aSet2 = aCache.getAllDatasetResponsesByCountry ("",
+                                                                                          "type",
+                                                                                          "AT",
+                                                                                          LoggingTCErrorHandler.INSTANCE);
+    assertEquals (1, aSet2.size ());
+    assertEquals ("AT", aSet2.iterator ().next ().getDatasetIdentifier ());
+    assertEquals (1, aDelegate.m_aCalls.get ());
+
+    // Different query type and different value are different keys
+    aCache.getAllDatasetResponsesByDPType ("", "type", "AT", LoggingTCErrorHandler.INSTANCE);
+    aCache.getAllDatasetResponsesByCountry ("", "type", "SE", LoggingTCErrorHandler.INSTANCE);
+    assertEquals (3, aDelegate.m_aCalls.get ());
+    assertEquals (1, aCache.getHitCount ());
+    assertEquals (3, aCache.getMissCount ());
+    assertEquals (3, aCache.size ());
+  }
+
+  @Test
+  public void testLRU ()
+  {
+    final CountingProvider aDelegate = new CountingProvider ();
+    final CachingDSDDatasetResponseProvider aCache = new CachingDSDDatasetResponseProvider (aDelegate, 2, 60_000, 0);
+    aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE);
+    aCache.getAllDatasetResponsesByCountry ("", "type", "SE", LoggingTCErrorHandler.INSTANCE);
+    // Touch AT so that SE is the eldest
+    aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE);
+    aCache.getAllDatasetResponsesByCountry ("", "type", "PL", LoggingTCErrorHandler.INSTANCE);
+    assertEquals (2, aCache.size ());
+    aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE);
+    assertEquals (3, aDelegate.m_aCalls.get ());
+    aCache.getAllDatasetResponsesByCountry ("", "type", "SE", LoggingTCErrorHandler.INSTANCE);
+    assertEquals (4, aDelegate.m_aCalls.get ());
+  }
+
+  @Test
+  public void testClose () throws Exception
+  {
+    final CountingProvider aDelegate = new CountingProvider ();
+    final CachingDSDDatasetResponseProvider aCache = new CachingDSDDatasetResponseProvider (aDelegate, 10, 1, 60_000);
+    aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE);
+    aCache.close ();
+    Thread.sleep (5);
+
+    // After closing, stale results are refreshed synchronously
+    assertEquals (1, aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE).size ());
+    assertEquals (1, aCache.getStaleHitCount ());
+    assertEquals (2, aDelegate.m_aCalls.get ());
+  }
+
+  @Test
+  public void testErrorsAreNotCached ()
+  {
+    final CountingProvider aDelegate = new CountingProvider ();
+    aDelegate.m_bFail = true;
+    final CachingDSDDatasetResponseProvider aCache = new CachingDSDDatasetResponseProvider (aDelegate, 10, 60_000, 0);
+    final CountingErrorHandler aErrorHandler = new CountingErrorHandler ();
+    assertTrue (aCache.getAllDatasetResponsesByCountry ("", "type", "AT", aErrorHandler).isEmpty ());
+    assertTrue (aCache.getAllDatasetResponsesByCountry ("", "type", "AT", aErrorHandler).isEmpty ());
+    assertEquals (2, aDelegate.m_aCalls.get ());
+    assertEquals (2, aErrorHandler.m_aErrors.get ());
+    assertEquals (0, aCache.size ());
+  }
+
+  @Test
+  public void testStaleWhileRevalidate () throws Exception
+  {
+    final CountingProvider aDelegate = new CountingProvider ();
+    final CachingDSDDatasetResponseProvider aCache = new CachingDSDDatasetResponseProvider (aDelegate, 10, 50, 60_000);
+    aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE);
+    Thread.sleep (100);
+
+    // Block the refresh to show that the stale result is returned immediately
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    aDelegate.m_aBlock = aBlock;
+    assertEquals (1, aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE).size ());
+    assertEquals (1, aCache.getAllDatasetResponsesByCountry ("", "type", "AT", LoggingTCErrorHandler.INSTANCE).size ());
+    assertEquals (2, aCache.getStaleHitCount ());
+    // Only one refresh for both stale hits
+    assertEquals (1, aCache.getRefreshCount ());
+    aBlock.countDown ();
+
+    // Wait for the refresh
+    for (int i = 0; i < 100 && aDelegate.m_aCalls.get () < 2; ++i)
+      Thread.sleep (10);
+    assertEquals (2, aDelegate.m_aCalls.get ());
+  }
+
+  @Test
+  public void testSingleFlight () throws Exception
+  {
+    final CountingProvider aDelegate = new CountingProvider ();
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    aDelegate.m_aBlock = aBlock;
+    final CachingDSDDatasetResponseProvider aCache = new CachingDSDDatasetResponseProvider (aDelegate, 10, 60_000, 0);
+
+    final int nThreads = 8;
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final ICommonsList <Future <ICommonsSet <DSDDatasetResponse>>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+        aFutures.add (aES.submit ( () -> aCache.getAllDatasetResponsesByDPType ("",
+                                                                                 "type",
+                                                                                 "dptype",
+                                                                                 LoggingTCErrorHandler.INSTANCE)));
+
+      // Wait until all other callers wait for the first one
+      for (int i = 0; i < 500 && aCache.getCoalescedCount () < nThreads - 1; ++i)
+        Thread.sleep (10);
+      aBlock.countDown ();
+
+      for (final Future <ICommonsSet <DSDDatasetResponse>> aFuture : aFutures)
+        assertEquals (1, aFuture.get (10, TimeUnit.SECONDS).size ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+    assertEquals (1, aDelegate.m_aCalls.get ());
+    assertEquals (nThreads - 1, aCache.getCoalescedCount ());
+  }
+}
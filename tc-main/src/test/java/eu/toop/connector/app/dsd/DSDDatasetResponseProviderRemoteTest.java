@@ -33,14 +33,22 @@
  */
 package eu.toop.connector.app.dsd;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.junit.Test;
 
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.stream.StreamHelper;
 
 import eu.toop.connector.api.dsd.DSDDatasetResponse;
 import eu.toop.connector.api.error.LoggingTCErrorHandler;
+import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
 
 /**
  * Test class of class {@link DSDDatasetResponseProviderRemote}.
@@ -58,4 +66,17 @@ public final class DSDDatasetResponseProviderRemoteTest
                                                                                                                    LoggingTCErrorHandler.INSTANCE);
     assertNotNull (aResp);
   }
+
+  @Test
+  public void testParseQueryResponse () throws IOException
+  {
+    final byte [] aResponse;
+    try (final InputStream aIS = new FileSystemResource ("src/test/resources/dsd/dsd-response1.xml").getInputStream ())
+    {
+      aResponse = StreamHelper.getAllBytes (aIS);
+    }
+    final ICommonsList <DCatAPDatasetType> aDatasets = DSDDatasetResponseProviderRemote.parseQueryResponse (aResponse);
+    assertEquals (1, aDatasets.size ());
+    assertEquals ("RegisteredOrganization", aDatasets.getFirst ().getIdentifierAtIndex (0));
+  }
 }
@@ -33,26 +33,32 @@
  */
 package eu.toop.connector.mem.external;
 
+import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509Certificate;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
 
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 import javax.xml.XMLConstants;
-import javax.xml.bind.DatatypeConverter;
+import javax.xml.namespace.QName;
 import javax.xml.soap.AttachmentPart;
+import javax.xml.soap.SOAPElement;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPHeader;
+import javax.xml.soap.SOAPHeaderElement;
 import javax.xml.soap.SOAPMessage;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -60,11 +66,11 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.charset.CharsetHelper;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.ByteArrayWrapper;
 import com.helger.commons.io.resource.ClassPathResource;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.mime.CMimeType;
@@ -80,17 +86,17 @@ import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.xml.microdom.IMicroDocument;
 import com.helger.xml.microdom.IMicroElement;
 import com.helger.xml.microdom.MicroDocument;
-import com.helger.xml.microdom.MicroElement;
 import com.helger.xml.microdom.serialize.MicroWriter;
 import com.helger.xml.namespace.MapBasedNamespaceContext;
-import com.helger.xml.serialize.read.DOMReader;
 import com.helger.xml.serialize.write.XMLWriterSettings;
 import com.helger.xml.transform.TransformSourceFactory;
 
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.me.incoming.MEIncomingException;
+import eu.toop.connector.api.me.model.IMEPayloadData;
 import eu.toop.connector.api.me.model.MEMessage;
 import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.connector.api.me.model.MEPayloadDataStreamed;
 import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
 import eu.toop.connector.mem.external.notifications.RelayResult;
@@ -105,9 +111,35 @@ public final class EBMSUtils {
   public static final String NS_SOAPENV = "http://www.w3.org/2003/05/soap-envelope";
   public static final String NS_EBMS = "http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/";
 
+  private static volatile Templates receiptTemplates;
+
   private EBMSUtils() {
   }
 
+  /**
+   * @return The compiled receipt stylesheet. Compiled on first use and shared
+   *         afterwards, as {@link Templates} are thread-safe.
+   * @throws TransformerConfigurationException If the stylesheet cannot be
+   *                                           compiled
+   */
+  @Nonnull
+  static Templates getReceiptTemplates() throws TransformerConfigurationException {
+    Templates ret = receiptTemplates;
+    if (ret == null) {
+      synchronized (EBMSUtils.class) {
+        ret = receiptTemplates;
+        if (ret == null) {
+          final StreamSource stylesource = TransformSourceFactory.create(new ClassPathResource("/receipt-generator.xslt"));
+          final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+          transformerFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+          ret = transformerFactory.newTemplates(stylesource);
+          receiptTemplates = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
   /*
    * See
    * http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/profiles/AS4-profile/v1.0/
@@ -117,10 +149,7 @@ public final class EBMSUtils {
     ValueEnforcer.notNull(message, "SOAPMessage");
 
     try {
-      final StreamSource stylesource = TransformSourceFactory.create(new ClassPathResource("/receipt-generator.xslt"));
-      final TransformerFactory transformerFactory = TransformerFactory.newInstance();
-      transformerFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-      final Transformer transformer = transformerFactory.newTransformer(stylesource);
+      final Transformer transformer = getReceiptTemplates().newTransformer();
       transformer.setParameter("messageid", genereateEbmsMessageId(MEMConstants.MEM_AS4_SUFFIX));
       transformer.setParameter("timestamp", DateTimeUtils.getCurrentTimestamp());
       try (final NonBlockingByteArrayOutputStream baos = new NonBlockingByteArrayOutputStream()) {
@@ -213,127 +242,226 @@ public final class EBMSUtils {
     return UUID.randomUUID().toString() + "@" + ext;
   }
 
-  @Nullable
-  private static IMicroElement _property(@Nonnull final String sName, @Nullable final String sValue) {
-    if (sValue == null) {
-      return null;
-    }
+  private static final String PREFIX_EBMS = "eb";
 
-    final IMicroElement ret = new MicroElement(NS_EBMS, "Property");
-    ret.setAttribute("name", sName).appendText(sValue);
+  @Nonnull
+  private static SOAPElement _child(@Nonnull final SOAPElement eParent, @Nonnull final String sLocalName)
+      throws SOAPException {
+    return eParent.addChildElement(sLocalName, PREFIX_EBMS, NS_EBMS);
+  }
+
+  @Nonnull
+  private static SOAPElement _child(@Nonnull final SOAPElement eParent,
+                                    @Nonnull final String sLocalName,
+                                    @Nullable final String sText) throws SOAPException {
+    final SOAPElement ret = _child(eParent, sLocalName);
+    if (sText != null) {
+      ret.addTextNode(sText);
+    }
     return ret;
   }
 
-  /*
-   * The conversion procedure goes here
-   */
-  public static SOAPMessage convert2MEOutboundAS4Message(final SubmissionMessageProperties metadata,
-                                                         final MEMessage meMessage) throws MEOutgoingException {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("Convert submission data to SOAP Message");
+  private static void _property(@Nonnull final SOAPElement eParent,
+                                @Nonnull final String sName,
+                                @Nullable final String sValue) throws SOAPException {
+    if (sValue != null) {
+      _child(eParent, "Property", sValue).setAttribute("name", sName);
     }
+  }
 
-    try {
-      final IMicroDocument aDoc = new MicroDocument();
-      final IMicroElement eMessaging = aDoc.appendElement(NS_EBMS, "Messaging");
-      eMessaging.setAttribute(NS_SOAPENV, "mustUnderstand", "true");
-      final IMicroElement eUserMessage = eMessaging.appendElement(NS_EBMS, "UserMessage");
+  /**
+   * Write the ebMS <code>Messaging</code> header of an outbound message
+   * directly into the SOAP header, without any intermediate representation.
+   *
+   * @param soapHeader
+   *        The SOAP header to write to
+   * @param metadata
+   *        The submission metadata
+   * @param meMessage
+   *        The message with the payloads
+   * @throws SOAPException
+   *         in case of error
+   */
+  static void addMessagingHeader(@Nonnull final SOAPHeader soapHeader,
+                                 @Nonnull final SubmissionMessageProperties metadata,
+                                 @Nonnull final MEMessage meMessage) throws SOAPException {
+    addMessagingHeader(soapHeader, metadata, meMessage, TCConfig.MEM.getMEMAS4GwPartyID());
+  }
 
+  /**
+   * Write the ebMS <code>Messaging</code> header of an outbound message
+   * directly into the SOAP header, addressed to a specific gateway.
+   *
+   * @param soapHeader
+   *        The SOAP header to write to
+   * @param metadata
+   *        The submission metadata
+   * @param meMessage
+   *        The message with the payloads
+   * @param gatewayPartyID
+   *        The party ID of the gateway the message is sent to
+   * @throws SOAPException
+   *         in case of error
+   * @since 2.1.2
+   */
+  static void addMessagingHeader(@Nonnull final SOAPHeader soapHeader,
+                                 @Nonnull final SubmissionMessageProperties metadata,
+                                 @Nonnull final MEMessage meMessage,
+                                 @Nullable final String gatewayPartyID) throws SOAPException {
+    final SOAPHeaderElement eMessaging = soapHeader.addHeaderElement(new QName(NS_EBMS, "Messaging", PREFIX_EBMS));
+    eMessaging.setMustUnderstand(true);
+    final SOAPElement eUserMessage = _child(eMessaging, "UserMessage");
+
+    {
+      final SOAPElement eMessageInfo = _child(eUserMessage, "MessageInfo");
+      _child(eMessageInfo, "Timestamp", DateTimeUtils.getCurrentTimestamp());
+      final String ebmsMessageId = genereateEbmsMessageId(MEMConstants.MEM_AS4_SUFFIX);
+      _child(eMessageInfo, "MessageId", ebmsMessageId);
+    }
+    {
+      final SOAPElement ePartyInfo = _child(eUserMessage, "PartyInfo");
       {
-        final IMicroElement eMessageInfo = eUserMessage.appendElement(NS_EBMS, "MessageInfo");
-        eMessageInfo.appendElement(NS_EBMS, "Timestamp").appendText(DateTimeUtils.getCurrentTimestamp());
-        final String ebmsMessageId = genereateEbmsMessageId(MEMConstants.MEM_AS4_SUFFIX);
-        eMessageInfo.appendElement(NS_EBMS, "MessageId").appendText(ebmsMessageId);
+        final SOAPElement eFrom = _child(ePartyInfo, "From");
+        _child(eFrom, "PartyId", TCConfig.MEM.getMEMAS4TcPartyid());
+        _child(eFrom, "Role", MEMConstants.MEM_PARTY_ROLE);
       }
       {
-        final IMicroElement ePartyInfo = eUserMessage.appendElement(NS_EBMS, "PartyInfo");
-        {
-          final IMicroElement eFrom = ePartyInfo.appendElement(NS_EBMS, "From");
-          final IMicroElement partyId = eFrom.appendElement(NS_EBMS, "PartyId");
-          partyId
-              //.setAttribute("type", "urn:oasis:names:tc:ebcore:partyid-type:unregistered")
-              .appendText(TCConfig.MEM.getMEMAS4TcPartyid());
-          eFrom.appendElement(NS_EBMS, "Role").appendText(MEMConstants.MEM_PARTY_ROLE);
-        }
-        {
-          final IMicroElement eTo = ePartyInfo.appendElement(NS_EBMS, "To");
-          eTo.appendElement(NS_EBMS, "PartyId")
-              //.setAttribute("type", "urn:oasis:names:tc:ebcore:partyid-type:unregistered")
-              .appendText(TCConfig.MEM.getMEMAS4GwPartyID());
-          eTo.appendElement(NS_EBMS, "Role").appendText(MEMConstants.GW_PARTY_ROLE);
-        }
+        final SOAPElement eTo = _child(ePartyInfo, "To");
+        _child(eTo, "PartyId", gatewayPartyID);
+        _child(eTo, "Role", MEMConstants.GW_PARTY_ROLE);
       }
+    }
 
-      {
-        final IMicroElement eCollaborationInfo = eUserMessage.appendElement(NS_EBMS, "CollaborationInfo");
-        eCollaborationInfo.appendElement(NS_EBMS, "Service").appendText(MEMConstants.SERVICE);
-        eCollaborationInfo.appendElement(NS_EBMS, "Action").appendText(MEMConstants.ACTION_SUBMIT);
-        eCollaborationInfo.appendElement(NS_EBMS, "ConversationId").appendText(metadata.conversationId);
-      }
+    {
+      final SOAPElement eCollaborationInfo = _child(eUserMessage, "CollaborationInfo");
+      _child(eCollaborationInfo, "Service", MEMConstants.SERVICE);
+      _child(eCollaborationInfo, "Action", MEMConstants.ACTION_SUBMIT);
+      _child(eCollaborationInfo, "ConversationId", metadata.conversationId);
+    }
 
-      {
-        final IMicroElement eMessageProperties = eUserMessage.appendElement(NS_EBMS, "MessageProperties");
-        eMessageProperties.appendChild(_property("ToPartyId", metadata.toPartyId));
-        eMessageProperties.appendChild(_property("ToPartyIdType", metadata.toPartyIdType));
-        eMessageProperties.appendChild(_property("ToPartyRole", metadata.toPartyRole));
-        // NOTE: ToPartyCertificate is the DER+BASE64 encoded X509 certificate.
-        // First decode as byte array, then parse it using
-        // CertificateFactory.getInstance("X509", "BC")
-        // recommended provider: BouncyCastleProvider
-        eMessageProperties.appendChild(_property("ToPartyCertificate", metadata.toPartyCertificate));
-        eMessageProperties.appendChild(_property("TargetURL", metadata.targetURL));
-        eMessageProperties.appendChild(_property("Service", metadata.service));
-        eMessageProperties.appendChild(_property("ServiceType", metadata.serviceType));
-        eMessageProperties.appendChild(_property("Action", metadata.action));
-
-        eMessageProperties.appendChild(_property("MessageId", metadata.messageId));
-        eMessageProperties.appendChild(_property("RefToMessageId", metadata.refToMessageId));
-        eMessageProperties.appendChild(_property("ConversationId", metadata.conversationId));
-
-        // split in type and value is not desired
-        eMessageProperties.appendChild(_property("originalSender",
-            metadata.senderId != null ? metadata.senderId.getURIEncoded()
-                : null));
-        eMessageProperties.appendChild(_property("finalRecipient",
-            metadata.receiverId != null ? metadata.receiverId.getURIEncoded()
-                : null));
-      }
+    {
+      final SOAPElement eMessageProperties = _child(eUserMessage, "MessageProperties");
+      _property(eMessageProperties, "ToPartyId", metadata.toPartyId);
+      _property(eMessageProperties, "ToPartyIdType", metadata.toPartyIdType);
+      _property(eMessageProperties, "ToPartyRole", metadata.toPartyRole);
+      // NOTE: ToPartyCertificate is the DER+BASE64 encoded X509 certificate.
+      // First decode as byte array, then parse it using
+      // CertificateFactory.getInstance("X509", "BC")
+      // recommended provider: BouncyCastleProvider
+      _property(eMessageProperties, "ToPartyCertificate", metadata.toPartyCertificate);
+      _property(eMessageProperties, "TargetURL", metadata.targetURL);
+      _property(eMessageProperties, "Service", metadata.service);
+      _property(eMessageProperties, "ServiceType", metadata.serviceType);
+      _property(eMessageProperties, "Action", metadata.action);
+
+      _property(eMessageProperties, "MessageId", metadata.messageId);
+      _property(eMessageProperties, "RefToMessageId", metadata.refToMessageId);
+      _property(eMessageProperties, "ConversationId", metadata.conversationId);
+
+      // split in type and value is not desired
+      _property(eMessageProperties, "originalSender",
+          metadata.senderId != null ? metadata.senderId.getURIEncoded() : null);
+      _property(eMessageProperties, "finalRecipient",
+          metadata.receiverId != null ? metadata.receiverId.getURIEncoded() : null);
+    }
 
-      {
-        final IMicroElement ePayloadInfo = eUserMessage.appendElement(NS_EBMS, "PayloadInfo");
-        for (final MEPayload aPayload : meMessage.payloads()) {
-          final IMicroElement ePartInfo = ePayloadInfo.appendElement(NS_EBMS, "PartInfo");
-          ePartInfo.setAttribute("href", "cid:" + aPayload.getContentID());
+    {
+      final SOAPElement ePayloadInfo = _child(eUserMessage, "PayloadInfo");
+      for (final MEPayload aPayload : meMessage.payloads()) {
+        final SOAPElement ePartInfo = _child(ePayloadInfo, "PartInfo");
+        ePartInfo.setAttribute("href", "cid:" + aPayload.getContentID());
 
-          final IMicroElement ePartProperties = ePartInfo.appendElement(NS_EBMS, "PartProperties");
-          ePartProperties.appendChild(_property("MimeType", aPayload.getMimeTypeString()));
-        }
+        final SOAPElement ePartProperties = _child(ePartInfo, "PartProperties");
+        _property(ePartProperties, "MimeType", aPayload.getMimeTypeString());
       }
+    }
+  }
 
-      final MapBasedNamespaceContext aNSCtx = new MapBasedNamespaceContext();
-      aNSCtx.addMapping("env", NS_SOAPENV);
-      aNSCtx.addMapping("eb", NS_EBMS);
+  /**
+   * Create the outbound SOAP message with the ebMS header but without any
+   * attachments. The payloads can then either be added with
+   * {@link #addAttachments(SOAPMessage, List)} or be streamed separately.
+   *
+   * @param metadata
+   *        The submission metadata
+   * @param meMessage
+   *        The message with the payloads
+   * @return The SOAP message without attachments
+   * @throws MEOutgoingException
+   *         in case of error
+   * @since 2.1.2
+   */
+  @Nonnull
+  public static SOAPMessage createOutboundEnvelope(final SubmissionMessageProperties metadata,
+                                                   final MEMessage meMessage) throws MEOutgoingException {
+    return createOutboundEnvelope(metadata, meMessage, TCConfig.MEM.getMEMAS4GwPartyID());
+  }
 
-      // Convert to org.w3c.dom ....
-      final Element element = DOMReader.readXMLDOM(MicroWriter.getNodeAsBytes(aDoc,
-          new XMLWriterSettings().setNamespaceContext(aNSCtx)))
-          .getDocumentElement();
+  /**
+   * Create the outbound SOAP message with the ebMS header, addressed to a
+   * specific gateway, but without any attachments.
+   *
+   * @param metadata
+   *        The submission metadata
+   * @param meMessage
+   *        The message with the payloads
+   * @param gatewayPartyID
+   *        The party ID of the gateway the message is sent to
+   * @return The SOAP message without attachments
+   * @throws MEOutgoingException
+   *         in case of error
+   * @since 2.1.2
+   */
+  @Nonnull
+  public static SOAPMessage createOutboundEnvelope(final SubmissionMessageProperties metadata,
+                                                   final MEMessage meMessage,
+                                                   @Nullable final String gatewayPartyID) throws MEOutgoingException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Convert submission data to SOAP Message");
+    }
 
-      // create a soap message based on this XML
+    try {
+      // create a soap message and write the header directly into it
       final SOAPMessage message = SoapUtil.createEmptyMessage();
-      final Node importNode = message.getSOAPHeader().getOwnerDocument().importNode(element, true);
-      message.getSOAPHeader().appendChild(importNode);
+      addMessagingHeader(message.getSOAPHeader(), metadata, meMessage, gatewayPartyID);
+      return message;
+    } catch (final RuntimeException | SOAPException ex) {
+      throw new MEOutgoingException("Unspecific error", ex);
+    }
+  }
 
-      for (final MEPayload payload : meMessage.payloads()) {
+  /**
+   * Add all provided payloads as SAAJ attachments to the provided message.
+   *
+   * @param message
+   *        The message to add the attachments to
+   * @param payloads
+   *        The payloads to add
+   * @throws MEOutgoingException
+   *         in case of error
+   * @since 2.1.2
+   */
+  public static void addAttachments(@Nonnull final SOAPMessage message,
+                                    @Nonnull final List<MEPayload> payloads) throws MEOutgoingException {
+    try {
+      for (final MEPayload payload : payloads) {
         final AttachmentPart attachmentPart = message.createAttachmentPart();
         attachmentPart.setContentId('<' + payload.getContentID() + '>');
-        try {
-          attachmentPart.setRawContentBytes(payload.getData().bytes(),
-              payload.getData().getOffset(),
-              payload.getData().size(),
-              payload.getMimeTypeString());
-        } catch (final SOAPException e) {
-          throw new MEOutgoingException("Failed to read payload", e);
+        final IMEPayloadData data = payload.getPayloadData();
+        if (data.getFile() != null) {
+          // Read from the file when the message is written
+          attachmentPart.setDataHandler(new DataHandler(new FileDataSource(data.getFile())));
+          attachmentPart.setContentType(payload.getMimeTypeString());
+        } else {
+          final ByteArrayWrapper bytes = data.getAsByteArrayWrapper();
+          try {
+            attachmentPart.setRawContentBytes(bytes.bytes(),
+                bytes.getOffset(),
+                bytes.size(),
+                payload.getMimeTypeString());
+          } catch (final SOAPException e) {
+            throw new MEOutgoingException("Failed to read payload", e);
+          }
         }
         message.addAttachmentPart(attachmentPart);
       }
@@ -341,15 +469,42 @@ public final class EBMSUtils {
       if (message.saveRequired()) {
         message.saveChanges();
       }
+    } catch (final RuntimeException | SOAPException ex) {
+      throw new MEOutgoingException("Unspecific error", ex);
+    }
+  }
 
-      if (LOG.isTraceEnabled()) {
-        LOG.trace(SoapUtil.describe(message));
-      }
-      return message;
-    } catch (final RuntimeException |
+  /*
+   * The conversion procedure goes here
+   */
+  public static SOAPMessage convert2MEOutboundAS4Message(final SubmissionMessageProperties metadata,
+                                                         final MEMessage meMessage) throws MEOutgoingException {
+    final SOAPMessage message = createOutboundEnvelope(metadata, meMessage);
+    addAttachments(message, meMessage.payloads());
 
-        SOAPException ex) {
-      throw new MEOutgoingException("Unspecific error", ex);
+    if (LOG.isTraceEnabled()) {
+      LOG.trace(SoapUtil.describe(message));
+    }
+    return message;
+  }
+
+  /**
+   * Read the ebMS header model of the provided message in a single pass.
+   *
+   * @param message
+   *        The SOAP message to read from. May not be <code>null</code>.
+   * @return The header model. Never <code>null</code>.
+   * @throws MEIncomingException
+   *         if the SOAP header cannot be accessed
+   * @since 2.1.2
+   */
+  @Nonnull
+  public static EbmsHeaderModel readHeaderModel(@Nonnull final SOAPMessage message) throws MEIncomingException {
+    ValueEnforcer.notNull(message, "SOAPMessage");
+    try {
+      return EbmsHeaderModel.read(message.getSOAPHeader());
+    } catch (final SOAPException e) {
+      throw new MEIncomingException(e.getMessage(), e);
     }
   }
 
@@ -363,7 +518,25 @@ public final class EBMSUtils {
    *         in case of error
    */
   public static MEMessage soap2MEMessage(@Nonnull final SOAPMessage message) throws MEIncomingException {
+    return soap2MEMessage(message, readHeaderModel(message));
+  }
+
+  /**
+   * Process the inbound SOAPMessage and convert it to the MEMEssage
+   *
+   * @param message
+   *        the soap message to be converted to a MEMessage. Cannot be null
+   * @param header
+   *        the header model previously read from the message. Cannot be null
+   * @return the MEMessage object created from the supplied SOAPMessage
+   * @throws MEIncomingException
+   *         in case of error
+   * @since 2.1.2
+   */
+  public static MEMessage soap2MEMessage(@Nonnull final SOAPMessage message,
+                                         @Nonnull final EbmsHeaderModel header) throws MEIncomingException {
     ValueEnforcer.notNull(message, "SOAPMessage");
+    ValueEnforcer.notNull(header, "Header");
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("Convert message to submission data");
@@ -371,14 +544,6 @@ public final class EBMSUtils {
 
     final MEMessage.Builder meMessage = MEMessage.builder();
 
-    // load the message properties
-    final SOAPHeader soapHeader;
-    try {
-      soapHeader = message.getSOAPHeader();
-    } catch (final SOAPException e) {
-      throw new MEIncomingException(e.getMessage(), e);
-    }
-
     if (message.countAttachments() > 0) {
       // Read all attachments
       final Iterator<?> it = message.getAttachments();
@@ -386,17 +551,15 @@ public final class EBMSUtils {
         final AttachmentPart att = (AttachmentPart) it.next();
         // remove surplus characters
         final String href = RegExHelper.stringReplacePattern("<|>", att.getContentId(), "");
-        final Node partInfo;
-        try {
-          // throws exception if part info does not exist
-          partInfo = SoapXPathUtil.safeFindSingleNode(soapHeader,
-              "//:PayloadInfo/:PartInfo[@href='cid:" + href + "']");
-        } catch (final Exception ex) {
+        final EbmsHeaderModel.PartInfo partInfo = header.getPartInfo("cid:" + href);
+        if (partInfo == null) {
           throw new MEIncomingException("ContentId: " + href + " was not found in PartInfo");
         }
 
-        String sMimeType = SoapXPathUtil.getSingleNodeTextContent(partInfo,
-            ".//:PartProperties/:Property[@name='MimeType']");
+        String sMimeType = partInfo.getPropertyValue("MimeType");
+        if (sMimeType == null) {
+          throw new IllegalArgumentException("No MimeType PartProperty for ContentId: " + href);
+        }
         if (sMimeType.startsWith("cid:")) {
           sMimeType = sMimeType.substring(4);
         }
@@ -420,31 +583,27 @@ public final class EBMSUtils {
           }
         }
 
-        try {
-          final Node charSetNode = SoapXPathUtil.findSingleNode(partInfo,
-              ".//:PartProperties/:Property[@name='CharacterSet']/text()");
-          if (charSetNode != null) {
-            final Charset aCharset = CharsetHelper.getCharsetFromNameOrNull(charSetNode.getNodeValue());
-            if (aCharset != null) {
-              // Add charset to MIME type
-              mimeType.addParameter(CMimeType.PARAMETER_NAME_CHARSET, aCharset.name());
-            }
+        final String sCharset = partInfo.getPropertyValue("CharacterSet");
+        if (StringHelper.hasText(sCharset)) {
+          final Charset aCharset = CharsetHelper.getCharsetFromNameOrNull(sCharset);
+          if (aCharset != null) {
+            // Add charset to MIME type
+            mimeType.addParameter(CMimeType.PARAMETER_NAME_CHARSET, aCharset.name());
           }
-        } catch (final RuntimeException ex) {
-          // ignore
-        }
-
-        byte[] rawContentBytes;
-        try {
-          rawContentBytes = att.getRawContentBytes();
-        } catch (final SOAPException e) {
-          throw new MEIncomingException("Failed to read payload", e);
         }
 
+        // Read on demand - the attachment stays readable until the processing
+        // of the inbound message is done
         final MEPayload payload = MEPayload.builder()
             .mimeType(mimeType)
             .contentID(href)
-            .data(rawContentBytes)
+            .data(new MEPayloadDataStreamed(() -> {
+              try {
+                return att.getRawContent();
+              } catch (final SOAPException e) {
+                throw new IOException("Failed to read payload", e);
+              }
+            }, -1))
             .build();
         if (LOG.isDebugEnabled()) {
           LOG.debug("\tpayload.payloadId: " + payload.getContentID());
@@ -455,42 +614,23 @@ public final class EBMSUtils {
       }
     }
 
-    final Node messagePropsNode = SoapXPathUtil.safeFindSingleNode(soapHeader, "//:MessageProperties");
+    if (!header.hasMessageProperties())
+      throw new IllegalArgumentException("No MessageProperties found");
 
-    String sSenderIdType;
-    try {
-      sSenderIdType = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='originalSender']/@type");
-    } catch (final IllegalArgumentException ex) {
-      sSenderIdType = null;
-    }
-    final String sSenderId = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-        ".//:Property[@name='originalSender']/text()");
+    final EbmsHeaderModel.Property aSenderProp = header.getMessageProperty("originalSender");
+    final String sSenderIdType = aSenderProp == null ? null : aSenderProp.getType();
+    final String sSenderId = header.getMandatoryMessagePropertyValue("originalSender");
 
-    String sReceiverIdType;
-    try {
-      sReceiverIdType = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='finalRecipient']/@type");
-    } catch (final IllegalArgumentException ex) {
-      sReceiverIdType = null;
-    }
-    final String sReceiverId = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-        ".//:Property[@name='finalRecipient']/text()");
+    final EbmsHeaderModel.Property aReceiverProp = header.getMessageProperty("finalRecipient");
+    final String sReceiverIdType = aReceiverProp == null ? null : aReceiverProp.getType();
+    final String sReceiverId = header.getMandatoryMessagePropertyValue("finalRecipient");
 
     // Document can never have a type attribute
-    final String sDoctypeId = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-        ".//:Property[@name='Action']/text()");
+    final String sDoctypeId = header.getMandatoryMessagePropertyValue("Action");
 
     // For RC2 backwards compatibility
-    String sProcidType;
-    try {
-      sProcidType = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='ServiceType']/text()");
-    } catch (final IllegalArgumentException ex) {
-      sProcidType = null;
-    }
-    final String sProcid = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-        ".//:Property[@name='Service']/text()");
+    final String sProcidType = header.getMessagePropertyValue("ServiceType");
+    final String sProcid = header.getMandatoryMessagePropertyValue("Service");
 
     final IIdentifierFactory aIF = TCConfig.getIdentifierFactory();
     final IParticipantIdentifier sender = sSenderIdType != null ? aIF.createParticipantIdentifier(sSenderIdType,
@@ -520,111 +660,84 @@ public final class EBMSUtils {
 
   public static RelayResult soap2RelayResult(final SOAPMessage sNotification) throws MEIncomingException {
     ValueEnforcer.notNull(sNotification, "Notification");
+    return soap2RelayResult(readHeaderModel(sNotification));
+  }
 
-    final RelayResult notification = new RelayResult();
-
-    try {
-      final Node messagePropsNode = SoapXPathUtil.safeFindSingleNode(sNotification.getSOAPHeader(),
-          "//:MessageProperties");
-
-      final String messageId = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='MessageId']/text()");
-      notification.setMessageID(messageId);
-
-      final String refToMessageId = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='RefToMessageId']/text()");
-      notification.setRefToMessageID(refToMessageId);
-
-      final String sSignalType = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='Result']");
-      if (!"ERROR".equalsIgnoreCase(sSignalType)) {
-        notification.setResult(ResultType.RECEIPT);
-      } else {
-        notification.setResult(ResultType.ERROR);
-
-        try {
-          final String errorCode = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-              ".//:Property[@name='ErrorCode']");
-          notification.setErrorCode(errorCode);
-        } catch (final RuntimeException e) {
-          throw new IllegalStateException("ErrorCode is mandatory for relay result errors.");
-        }
+  /**
+   * Create a {@link RelayResult} from the header of a Notify message.
+   *
+   * @param header
+   *        the header model of the notification. Cannot be null
+   * @return the relay result
+   * @since 2.1.2
+   */
+  public static RelayResult soap2RelayResult(@Nonnull final EbmsHeaderModel header) {
+    ValueEnforcer.notNull(header, "Header");
+    if (!header.hasMessageProperties())
+      throw new IllegalArgumentException("No MessageProperties found");
 
-        try {
-          final String severity = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-              ".//:Property[@name='severity']");
-          notification.setSeverity(severity);
-        } catch (final RuntimeException e) {
-          // TODO so what?
-        }
+    final RelayResult notification = new RelayResult();
+    notification.setMessageID(header.getMandatoryMessagePropertyValue("MessageId"));
+    notification.setRefToMessageID(header.getMandatoryMessagePropertyValue("RefToMessageId"));
 
-        try {
-          final String shortDesc = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-              ".//:Property[@name='ShortDescription']");
-          notification.setShortDescription(shortDesc);
-        } catch (final RuntimeException ignored) {
-          // TODO so what?
-        }
+    final String sSignalType = header.getMandatoryMessagePropertyValue("Result");
+    if (!"ERROR".equalsIgnoreCase(sSignalType)) {
+      notification.setResult(ResultType.RECEIPT);
+    } else {
+      notification.setResult(ResultType.ERROR);
 
-        try {
-          final String desc = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-              ".//:Property[@name='Description']");
-          notification.setDescription(desc);
-        } catch (final RuntimeException ignored) {
-          // TODO so what?
-        }
-      }
+      final String errorCode = header.getMessagePropertyValue("ErrorCode");
+      if (errorCode == null)
+        throw new IllegalStateException("ErrorCode is mandatory for relay result errors.");
+      notification.setErrorCode(errorCode);
 
-      return notification;
-    } catch (final RuntimeException ex) {
-      throw ex;
-    } catch (final SOAPException ex) {
-      throw new MEIncomingException("SOAP error", ex);
+      // Optional
+      notification.setSeverity(header.getMessagePropertyValue("severity"));
+      notification.setShortDescription(header.getMessagePropertyValue("ShortDescription"));
+      notification.setDescription(header.getMessagePropertyValue("Description"));
     }
+    return notification;
   }
 
   public static SubmissionResult soap2SubmissionResult(final SOAPMessage sSubmissionResult) throws MEIncomingException {
     ValueEnforcer.notNull(sSubmissionResult, "SubmissionResult");
+    return soap2SubmissionResult(readHeaderModel(sSubmissionResult));
+  }
+
+  /**
+   * Create a {@link SubmissionResult} from the header of a SubmissionResult
+   * message.
+   *
+   * @param header
+   *        the header model of the submission result. Cannot be null
+   * @return the submission result
+   * @since 2.1.2
+   */
+  public static SubmissionResult soap2SubmissionResult(@Nonnull final EbmsHeaderModel header) {
+    ValueEnforcer.notNull(header, "Header");
+    if (!header.hasMessageProperties())
+      throw new IllegalArgumentException("No MessageProperties found");
 
     final SubmissionResult submissionResult = new SubmissionResult();
+    submissionResult.setRefToMessageID(header.getMandatoryMessagePropertyValue("RefToMessageId"));
 
-    try {
-      final Node messagePropsNode = SoapXPathUtil.safeFindSingleNode(sSubmissionResult.getSOAPHeader(),
-          "//:MessageProperties");
-
-      final String refToMessageID = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='RefToMessageId']/text()");
-      submissionResult.setRefToMessageID(refToMessageID);
-
-      final String sSignalType = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-          ".//:Property[@name='Result']");
-      if ("ERROR".equalsIgnoreCase(sSignalType)) {
-        submissionResult.setResult(ResultType.ERROR);
-
-        // description must be there when there is an error
-        final String description = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-            ".//:Property[@name='Description']");
-        submissionResult.setDescription(description);
-
-      } else {
-        submissionResult.setResult(ResultType.RECEIPT);
-
-        // message id is conditional, it must be there only in case of receipt
-        final String messageID = SoapXPathUtil.getSingleNodeTextContent(messagePropsNode,
-            ".//:Property[@name='MessageId']/text()");
-        submissionResult.setMessageID(messageID);
-      }
+    final String sSignalType = header.getMandatoryMessagePropertyValue("Result");
+    if ("ERROR".equalsIgnoreCase(sSignalType)) {
+      submissionResult.setResult(ResultType.ERROR);
+
+      // description must be there when there is an error
+      submissionResult.setDescription(header.getMandatoryMessagePropertyValue("Description"));
+    } else {
+      submissionResult.setResult(ResultType.RECEIPT);
 
-      return submissionResult;
-    } catch (final RuntimeException ex) {
-      throw ex;
-    } catch (final Exception ex) {
-      throw new MEIncomingException("SOAP error", ex);
+      // message id is conditional, it must be there only in case of receipt
+      submissionResult.setMessageID(header.getMandatoryMessagePropertyValue("MessageId"));
     }
+    return submissionResult;
   }
 
   @Nonnull
-  private static String _getCN(@Nonnull final String sPrincipal) {
+  static String getCN(@Nonnull final String sPrincipal) {
     try {
       for (final Rdn aRdn : new LdapName(sPrincipal).getRdns()) {
         if (aRdn.getType().equalsIgnoreCase("CN")) {
@@ -644,18 +757,31 @@ public final class EBMSUtils {
    * @return SubmissionData
    */
   static SubmissionMessageProperties inferSubmissionData(final IMERoutingInformation gatewayRoutingMetadata) throws MEOutgoingException {
-    final X509Certificate certificate = gatewayRoutingMetadata.getCertificate();
     // we need the certificate to obtain the to party id
-    ValueEnforcer.notNull(certificate, "Endpoint Certificate");
+    ValueEnforcer.notNull(gatewayRoutingMetadata.getCertificate(), "Endpoint Certificate");
+    return inferSubmissionData(gatewayRoutingMetadata,
+                               ReceiverProfile.create(gatewayRoutingMetadata.getCertificate(),
+                                                      gatewayRoutingMetadata.getEndpointURL()));
+  }
+
+  /**
+   * process the GatewayRoutingMetadata object and obtain the actual submission
+   * data, using the cached data of the receiver.
+   *
+   * @return SubmissionData
+   * @since 2.1.2
+   */
+  static SubmissionMessageProperties inferSubmissionData(final IMERoutingInformation gatewayRoutingMetadata,
+                                                         @Nonnull final ReceiverProfile receiverProfile) {
     final SubmissionMessageProperties submissionData = new SubmissionMessageProperties();
     submissionData.messageId = genereateEbmsMessageId(MEMConstants.MEM_AS4_SUFFIX);
     submissionData.action = gatewayRoutingMetadata.getDocumentTypeID().getURIEncoded();
     submissionData.service = gatewayRoutingMetadata.getProcessID().getValue();
     submissionData.serviceType = gatewayRoutingMetadata.getProcessID().getScheme();
 
-    submissionData.toPartyId = _getCN(gatewayRoutingMetadata.getCertificate().getSubjectX500Principal().getName());
+    submissionData.toPartyId = receiverProfile.getToPartyId();
 
-    submissionData.toPartyIdType = TCConfig.MEM.getToPartyIdType();
+    submissionData.toPartyIdType = receiverProfile.getToPartyIdType();
 
 
     // TODO: infer it from the transaction id
@@ -670,14 +796,7 @@ public final class EBMSUtils {
     submissionData.senderId = gatewayRoutingMetadata.getSenderID();
     submissionData.receiverId = gatewayRoutingMetadata.getReceiverID();
 
-    try {
-      // DER encoded X509 certificate
-      final byte[] certBytes = gatewayRoutingMetadata.getCertificate().getEncoded();
-      // base 64 encoded DER bytes (i.e. converted to CER)
-      submissionData.toPartyCertificate = DatatypeConverter.printBase64Binary(certBytes);
-    } catch (final CertificateEncodingException e) {
-      throw new MEOutgoingException("Certificate interpreation error", e);
-    }
+    submissionData.toPartyCertificate = receiverProfile.getToPartyCertificate();
     return submissionData;
   }
 
@@ -710,6 +829,37 @@ public final class EBMSUtils {
     } // else the receipt is null and we received a HTTP.OK, isn't that great?
   }
 
+  /**
+   * Calls {@link SoapUtil#sendSOAPMessage(SOAPMessage, List, URL)} but checks
+   * the return value for a fault or a receipt.
+   *
+   * @param envelope
+   *        SOAP message without attachments. May not be <code>null</code>
+   * @param payloads
+   *        The payloads to be sent as attachments. May not be <code>null</code>
+   * @param url
+   *        Target URL. May not be <code>null</code>
+   * @throws MEOutgoingException
+   *         if a fault is received instead of an ebms receipt
+   * @since 2.1.2
+   */
+  public static void sendSOAPMessage(@Nonnull final SOAPMessage envelope,
+                                     @Nonnull final List<MEPayload> payloads,
+                                     @Nonnull final URL url) throws MEOutgoingException {
+    ValueEnforcer.notNull(envelope, "SOAP Message");
+    ValueEnforcer.notNull(payloads, "Payloads");
+    ValueEnforcer.notNull(url, "Target url");
+
+    final SOAPMessage response = SoapUtil.sendSOAPMessage(envelope, payloads, url);
+
+    if (response != null) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(SoapUtil.describe(response));
+      }
+      validateReceipt(response);
+    } // else the receipt is null and we received a HTTP.OK, isn't that great?
+  }
+
   /**
    * Check if the response is a soap fault (i.e. the response contains an error)
    */
@@ -0,0 +1,320 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsImmutableObject;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The parts of an inbound ebMS <code>Messaging</code> header that are needed
+ * to dispatch a Deliver, Relay or SubmissionResult message. It is filled in a
+ * single pass over the header, so that the dispatch paths don't need to run a
+ * separate XPath for each value. If an element occurs more than once, the
+ * first occurrence in document order wins - just like with the previous
+ * XPath lookups.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class EbmsHeaderModel {
+  /**
+   * A single <code>Property</code> element
+   */
+  @Immutable
+  public static final class Property {
+    private final String name;
+    private final String value;
+    private final String type;
+
+    Property(@Nonnull final String name, @Nonnull final String value, @Nullable final String type) {
+      this.name = name;
+      this.value = value;
+      this.type = type;
+    }
+
+    @Nonnull
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return The text content of the element. Never <code>null</code> but maybe
+     *         empty.
+     */
+    @Nonnull
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * @return The value of the <code>type</code> attribute or <code>null</code>
+     *         if it is not present.
+     */
+    @Nullable
+    public String getType() {
+      return type;
+    }
+
+    @Override
+    public String toString() {
+      return new ToStringGenerator(null).append("Name", name)
+                                        .append("Value", value)
+                                        .appendIfNotNull("Type", type)
+                                        .getToString();
+    }
+  }
+
+  /**
+   * A single <code>PayloadInfo/PartInfo</code> element with its
+   * <code>PartProperties</code>
+   */
+  @Immutable
+  public static final class PartInfo {
+    private final String href;
+    private final Map<String, Property> properties = new LinkedHashMap<>();
+
+    PartInfo(@Nonnull final String href) {
+      this.href = href;
+    }
+
+    /**
+     * @return The <code>href</code> attribute, e.g. <code>cid:xyz</code>. Never
+     *         <code>null</code> but maybe empty.
+     */
+    @Nonnull
+    public String getHref() {
+      return href;
+    }
+
+    @Nonnull
+    @ReturnsImmutableObject
+    public Map<String, Property> properties() {
+      return Collections.unmodifiableMap(properties);
+    }
+
+    @Nullable
+    public String getPropertyValue(@Nullable final String name) {
+      final Property p = properties.get(name);
+      return p == null ? null : p.getValue();
+    }
+
+    @Override
+    public String toString() {
+      return new ToStringGenerator(null).append("Href", href).append("Properties", properties).getToString();
+    }
+  }
+
+  private String action;
+  private String messageID;
+  private boolean messagePropertiesFound = false;
+  private final Map<String, Property> messageProperties = new LinkedHashMap<>();
+  private final Map<String, PartInfo> partInfos = new LinkedHashMap<>();
+
+  private EbmsHeaderModel() {
+  }
+
+  @Nonnull
+  private static String getText(@Nonnull final Element e) {
+    final String ret = e.getTextContent();
+    return ret == null ? "" : ret;
+  }
+
+  @Nullable
+  private static String getLocalName(@Nonnull final Node node) {
+    return EBMSUtils.NS_EBMS.equals(node.getNamespaceURI()) ? node.getLocalName() : null;
+  }
+
+  private void walk(@Nonnull final Element element, final boolean inMessageProperties,
+      @Nullable final PartInfo currentPart) {
+    boolean childInMessageProperties = inMessageProperties;
+    PartInfo childPart = currentPart;
+
+    final String localName = getLocalName(element);
+    if (localName != null) {
+      switch (localName) {
+      case "MessageProperties":
+        if (!messagePropertiesFound) {
+          messagePropertiesFound = true;
+          childInMessageProperties = true;
+        }
+        break;
+      case "PartInfo":
+        childPart = partInfos.computeIfAbsent(element.getAttribute("href"), PartInfo::new);
+        break;
+      case "Property": {
+        final String name = element.getAttribute("name");
+        final Property p = new Property(name,
+            getText(element),
+            element.hasAttribute("type") ? element.getAttribute("type") : null);
+        if (currentPart != null) {
+          currentPart.properties.putIfAbsent(name, p);
+        } else if (inMessageProperties) {
+          messageProperties.putIfAbsent(name, p);
+        }
+        // Properties have no nested elements
+        return;
+      }
+      case "Action":
+        if (action == null && "CollaborationInfo".equals(getLocalName(element.getParentNode()))) {
+          action = getText(element);
+        }
+        return;
+      case "MessageId":
+        if (messageID == null && "MessageInfo".equals(getLocalName(element.getParentNode()))) {
+          messageID = getText(element);
+        }
+        return;
+      default:
+        break;
+      }
+    }
+
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        walk((Element) child, childInMessageProperties, childPart);
+      }
+    }
+  }
+
+  /**
+   * Read all relevant information from the provided header in a single pass.
+   *
+   * @param header The SOAP header (or any element containing the ebMS
+   *               <code>Messaging</code> element). May not be
+   *               <code>null</code>.
+   * @return The filled model. Never <code>null</code>.
+   */
+  @Nonnull
+  public static EbmsHeaderModel read(@Nonnull final Element header) {
+    ValueEnforcer.notNull(header, "Header");
+    final EbmsHeaderModel ret = new EbmsHeaderModel();
+    ret.walk(header, false, null);
+    return ret;
+  }
+
+  /**
+   * @return The first <code>CollaborationInfo/Action</code> value or
+   *         <code>null</code> if none is present.
+   */
+  @Nullable
+  public String getAction() {
+    return action;
+  }
+
+  /**
+   * @return The first <code>MessageInfo/MessageId</code> value or
+   *         <code>null</code> if none is present.
+   */
+  @Nullable
+  public String getMessageID() {
+    return messageID;
+  }
+
+  /**
+   * @return <code>true</code> if a <code>MessageProperties</code> element was
+   *         found.
+   */
+  public boolean hasMessageProperties() {
+    return messagePropertiesFound;
+  }
+
+  @Nonnull
+  @ReturnsImmutableObject
+  public Map<String, Property> messageProperties() {
+    return Collections.unmodifiableMap(messageProperties);
+  }
+
+  @Nullable
+  public Property getMessageProperty(@Nullable final String name) {
+    return messageProperties.get(name);
+  }
+
+  @Nullable
+  public String getMessagePropertyValue(@Nullable final String name) {
+    final Property p = messageProperties.get(name);
+    return p == null ? null : p.getValue();
+  }
+
+  /**
+   * Get the value of a mandatory message property.
+   *
+   * @param name The property name.
+   * @return The value. Never <code>null</code>.
+   * @throws IllegalArgumentException If no such property is present
+   */
+  @Nonnull
+  public String getMandatoryMessagePropertyValue(@Nonnull final String name) {
+    final Property p = messageProperties.get(name);
+    if (p == null)
+      throw new IllegalArgumentException("No MessageProperty '" + name + "' found");
+    return p.getValue();
+  }
+
+  @Nonnull
+  @ReturnsImmutableObject
+  public Map<String, PartInfo> partInfos() {
+    return Collections.unmodifiableMap(partInfos);
+  }
+
+  /**
+   * @param href The <code>href</code> value, including the <code>cid:</code>
+   *             prefix.
+   * @return The matching part info or <code>null</code>.
+   */
+  @Nullable
+  public PartInfo getPartInfo(@Nullable final String href) {
+    return partInfos.get(href);
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringGenerator(null).append("Action", action)
+                                      .append("MessageID", messageID)
+                                      .append("MessageProperties", messageProperties)
+                                      .append("PartInfos", partInfos)
+                                      .getToString();
+  }
+}
@@ -33,30 +33,59 @@
  */
 package eu.toop.connector.mem.external;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.UsedViaReflection;
 import com.helger.commons.error.level.EErrorLevel;
-import com.helger.commons.url.URLHelper;
+import com.helger.scope.IScope;
 import com.helger.scope.singleton.AbstractGlobalSingleton;
 
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.me.incoming.MEIncomingException;
+import eu.toop.connector.api.me.model.IMEPayloadData;
 import eu.toop.connector.api.me.model.MEMessage;
+import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.connector.api.me.model.MEPayloadDataHelper;
 import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.connector.api.me.outgoing.MEReceiverProfileCache;
+import eu.toop.connector.mem.external.gateway.GatewayEndpoint;
+import eu.toop.connector.mem.external.gateway.GatewayRouter;
 import eu.toop.connector.mem.external.notifications.IMessageHandler;
+import eu.toop.connector.mem.external.notifications.INotificationCorrelationStore;
 import eu.toop.connector.mem.external.notifications.IRelayResultHandler;
 import eu.toop.connector.mem.external.notifications.ISubmissionResultHandler;
+import eu.toop.connector.mem.external.notifications.InternalNotificationHandler;
 import eu.toop.connector.mem.external.notifications.InternalRelayResultHandler;
 import eu.toop.connector.mem.external.notifications.InternalSubmissionResultHandler;
+import eu.toop.connector.mem.external.notifications.Notification;
+import eu.toop.connector.mem.external.notifications.NotificationCorrelationStoreFactory;
 import eu.toop.connector.mem.external.notifications.RelayResult;
 import eu.toop.connector.mem.external.notifications.SubmissionResult;
 import eu.toop.edm.error.EToopErrorCode;
@@ -67,14 +96,24 @@ import eu.toop.kafkaclient.ToopKafkaClient;
  *
  * @author myildiz at 15.02.2018.
  */
-@NotThreadSafe
+@ThreadSafe
 public class MEMDelegate extends AbstractGlobalSingleton {
 
   private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(MEMDelegate.class);
-  private final List<IMessageHandler> messageHandlers = new ArrayList<>();
-  private final List<IRelayResultHandler> relayResultHandlers = new ArrayList<>();
-  private final List<ISubmissionResultHandler> submissionResultHandlers = new ArrayList<>();
+  // Copy-on-write, because the lists are iterated for every received message
+  // and only rarely modified
+  private final List<IMessageHandler> messageHandlers = new CopyOnWriteArrayList<>();
+  private final List<IRelayResultHandler> relayResultHandlers = new CopyOnWriteArrayList<>();
+  private final List<ISubmissionResultHandler> submissionResultHandlers = new CopyOnWriteArrayList<>();
 
+  // Created on demand from the configuration
+  private volatile GatewayRouter gatewayRouter;
+
+  // Created on demand if the message handlers run concurrently
+  private volatile HandlerPools handlerPools;
+
+  private final INotificationCorrelationStore notificationStore;
+  private final MEReceiverProfileCache<ReceiverProfile> receiverProfileCache = new MEReceiverProfileCache<>();
   private final InternalRelayResultHandler internalRelayResultHandler;
   private final InternalSubmissionResultHandler internalSRHandler;
 
@@ -84,8 +123,9 @@ public class MEMDelegate extends AbstractGlobalSingleton {
     // and a notification listener in order to watch the process of
     // a send message call
 
-    internalRelayResultHandler = new InternalRelayResultHandler();
-    internalSRHandler = new InternalSubmissionResultHandler();
+    notificationStore = NotificationCorrelationStoreFactory.createFromConfig();
+    internalRelayResultHandler = new InternalRelayResultHandler(notificationStore);
+    internalSRHandler = new InternalSubmissionResultHandler(notificationStore);
 
     relayResultHandlers.add(internalRelayResultHandler);
     submissionResultHandlers.add(internalSRHandler);
@@ -97,7 +137,135 @@ public class MEMDelegate extends AbstractGlobalSingleton {
   }
 
   /**
-   * The V1 message sending interface for the message exchange module
+   * @return The router choosing the gateway for outbound messages. Created
+   *         from the configuration on first use. Never <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  public GatewayRouter getGatewayRouter() {
+    GatewayRouter ret = gatewayRouter;
+    if (ret == null) {
+      synchronized (this) {
+        ret = gatewayRouter;
+        if (ret == null) {
+          ret = GatewayRouter.createFromConfig();
+          gatewayRouter = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  protected void onDestroy(@Nonnull final IScope aScopeInDestruction) throws Exception {
+    final HandlerPools pools = handlerPools;
+    if (pools != null)
+      pools.shutdownNow();
+    internalSRHandler.close();
+    internalRelayResultHandler.close();
+    notificationStore.close();
+  }
+
+  /**
+   * The executors of the concurrently running message handlers. Synchronous and
+   * asynchronous handlers use separate pools, so that slow asynchronous
+   * handlers cannot delay the response to the gateway. The timeouts are fired
+   * by a separate scheduler.
+   */
+  private static final class HandlerPools {
+    private final ThreadPoolExecutor synchronous;
+    private final ThreadPoolExecutor asynchronous;
+    private final ScheduledThreadPoolExecutor timeouts;
+
+    HandlerPools() {
+      final int syncThreads = TCConfig.MEM.getIncomingHandlerThreads();
+      // Every caller waits for its synchronous handlers, so their number is
+      // bounded by the number of concurrent requests
+      synchronous = new ThreadPoolExecutor(syncThreads,
+                                           syncThreads,
+                                           60,
+                                           TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<>(),
+                                           createThreadFactory("mem-message-handler-"));
+      synchronous.allowCoreThreadTimeOut(true);
+
+      final int asyncThreads = TCConfig.MEM.getIncomingAsyncHandlerThreads();
+      asynchronous = new ThreadPoolExecutor(asyncThreads,
+                                            asyncThreads,
+                                            60,
+                                            TimeUnit.SECONDS,
+                                            new ArrayBlockingQueue<>(TCConfig.MEM.getIncomingAsyncHandlerQueueSize()),
+                                            createThreadFactory("mem-async-message-handler-"));
+      asynchronous.allowCoreThreadTimeOut(true);
+
+      timeouts = new ScheduledThreadPoolExecutor(1, createThreadFactory("mem-message-handler-timeout-"));
+      // Don't keep cancelled timeouts in the queue
+      timeouts.setRemoveOnCancelPolicy(true);
+    }
+
+    @Nonnull
+    private static ThreadFactory createThreadFactory(@Nonnull final String prefix) {
+      final AtomicInteger threadIndex = new AtomicInteger();
+      return r -> {
+        final Thread t = new Thread(r, prefix + threadIndex.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      };
+    }
+
+    void shutdownNow() {
+      synchronous.shutdownNow();
+      asynchronous.shutdownNow();
+      timeouts.shutdownNow();
+    }
+  }
+
+  @Nonnull
+  private HandlerPools getHandlerPools() {
+    HandlerPools ret = handlerPools;
+    if (ret == null) {
+      synchronized (this) {
+        ret = handlerPools;
+        if (ret == null) {
+          ret = new HandlerPools();
+          handlerPools = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return The cache of the data derived from the receiver certificates.
+   *         Never <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  public MEReceiverProfileCache<ReceiverProfile> getReceiverProfileCache() {
+    return receiverProfileCache;
+  }
+
+  /**
+   * @return The internal correlation handler for SubmissionResults. Mainly
+   *         used to read its statistics.
+   */
+  @Nonnull
+  public InternalSubmissionResultHandler getInternalSubmissionResultHandler() {
+    return internalSRHandler;
+  }
+
+  /**
+   * @return The internal correlation handler for RelayResults. Mainly used to
+   *         read its statistics.
+   */
+  @Nonnull
+  public InternalRelayResultHandler getInternalRelayResultHandler() {
+    return internalRelayResultHandler;
+  }
+
+  /**
+   * The V1 message sending interface for the message exchange module. This is
+   * the blocking version of {@link #sendMessageAsync(IMERoutingInformation, MEMessage)}.
    *
    * @param gatewayRoutingMetadata The container for the endpoint information and
    *                               docid/procid
@@ -107,47 +275,123 @@ public class MEMDelegate extends AbstractGlobalSingleton {
    */
   public void sendMessage(final IMERoutingInformation gatewayRoutingMetadata, final MEMessage meMessage)
       throws MEOutgoingException {
+    final CompletableFuture<String> result = sendMessageAsync(gatewayRoutingMetadata, meMessage);
+    try {
+      result.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MEOutgoingException("Wait for the gateway notifications was interrupted.", e);
+    } catch (final ExecutionException e) {
+      throw InternalNotificationHandler.asMEOutgoingException(e.getCause());
+    }
+  }
+
+  /**
+   * Send the message to the gateway and return a future that is completed once
+   * both the SubmissionResult and the RelayResult were received. The calling
+   * thread is only used to push the message to the gateway, and is not blocked
+   * while waiting for the notifications.
+   *
+   * @param gatewayRoutingMetadata The container for the endpoint information and
+   *                               docid/procid
+   * @param meMessage              the payloads and their metadata to be sent to
+   *                               the gateway.
+   * @return A future that is completed with the ID of the outbound AS4
+   *         message, or exceptionally with a {@link MEOutgoingException} in
+   *         case of a negative or missing notification. Never
+   *         <code>null</code>.
+   * @throws MEOutgoingException in case the message could not be sent to the
+   *                             gateway
+   */
+  @Nonnull
+  public CompletableFuture<String> sendMessageAsync(final IMERoutingInformation gatewayRoutingMetadata,
+      final MEMessage meMessage) throws MEOutgoingException {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Send message called for procid: " + gatewayRoutingMetadata.getProcessID().getURIEncoded() +
                 " docid: " +
                 gatewayRoutingMetadata.getDocumentTypeID().getURIEncoded());
       LOG.debug("Convert gateway routing metadata to submission data");
     }
-    final SubmissionMessageProperties submissionData = EBMSUtils.inferSubmissionData(gatewayRoutingMetadata);
-    if (LOG.isDebugEnabled())
-      LOG.debug("Create SOAP Message based on the submission data and the payloads");
-    final SOAPMessage soapMessage = EBMSUtils.convert2MEOutboundAS4Message(submissionData, meMessage);
-    if (LOG.isTraceEnabled()) {
-      LOG.trace(SoapUtil.describe(soapMessage));
-    }
-
-    String messageID;
+    final ReceiverProfile receiverProfile = receiverProfileCache.getOrCreate(gatewayRoutingMetadata,
+                                                                             ReceiverProfile::create);
+    final SubmissionMessageProperties submissionData = EBMSUtils.inferSubmissionData(gatewayRoutingMetadata,
+                                                                                   receiverProfile);
+
+    final GatewayRouter router = getGatewayRouter();
+    final GatewayEndpoint gateway = router.acquire();
+    final SOAPMessage soapMessage;
+    final String messageID;
     try {
-      messageID = SoapXPathUtil.getSingleNodeTextContent(soapMessage.getSOAPHeader(), "//:MessageInfo/:MessageId");
-    } catch (final SOAPException e) {
-      throw new MEOutgoingException("Failed to find MessageId", e);
+      if (LOG.isDebugEnabled())
+        LOG.debug("Create SOAP Message based on the submission data and the payloads");
+      // The payloads are not added as SAAJ attachments but passed to the
+      // transport
+      soapMessage = EBMSUtils.createOutboundEnvelope(submissionData, meMessage, gateway.getPartyID());
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(SoapUtil.describe(soapMessage));
+      }
+
+      try {
+        messageID = SoapXPathUtil.getSingleNodeTextContent(soapMessage.getSOAPHeader(), "//:MessageInfo/:MessageId");
+      } catch (final SOAPException e) {
+        throw new MEOutgoingException("Failed to find MessageId", e);
+      }
+    } catch (final MEOutgoingException | RuntimeException ex) {
+      router.release(gateway);
+      throw ex;
     }
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("New soap message ID " + messageID);
-      LOG.debug("Send soap message " + messageID);
+      LOG.debug("Send soap message " + messageID + " to " + gateway.getURL());
     }
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("\n" + SoapUtil.describe(soapMessage));
     }
 
-    EBMSUtils.sendSOAPMessage(soapMessage, URLHelper.getAsURL(TCConfig.MEM.getMEMAS4Endpoint()));
-    if (LOG.isDebugEnabled())
+    final long timeout = TCConfig.MEM.getGatewayNotificationWaitTimeout();
+
+    // Register the waiter before sending, so that an early SubmissionResult is
+    // correlated right away
+    final CompletableFuture<Notification> submissionResultFuture = internalSRHandler.obtainNotificationAsync(messageID,
+                                                                                                             timeout);
+    // Passive health check: a failed send, a missing or a negative
+    // SubmissionResult count against the gateway
+    submissionResultFuture.whenComplete((notification, ex) -> {
+      if (ex == null && ((SubmissionResult) notification).getResult() == ResultType.RECEIPT)
+        router.onSuccess(gateway);
+      else
+        router.onFailure(gateway);
+    });
+
+    try {
+      EBMSUtils.sendSOAPMessage(soapMessage, meMessage.payloads(), gateway.getURL());
+    } catch (final MEOutgoingException | RuntimeException ex) {
+      // Stop waiting and drop the registration including its timeout
+      internalSRHandler.cancel(messageID);
+      throw ex;
+    }
+    if (LOG.isDebugEnabled()) {
       LOG.debug("SOAP Message " + messageID + " sent");
+      LOG.debug("Wait for SubmissionResult for " + messageID);
+    }
 
-    final long timeout = TCConfig.MEM.getGatewayNotificationWaitTimeout();
     // now that we have sent the object, first wait for the submission result
-    if (LOG.isDebugEnabled())
-      LOG.debug("Wait for SubmissionResult for " + messageID);
-    final SubmissionResult submissionResult = (SubmissionResult) internalSRHandler.obtainNotification(messageID,
-                                                                                                      timeout);
+    return submissionResultFuture.thenCompose(notification -> {
+      final SubmissionResult submissionResult = (SubmissionResult) notification;
+      checkSubmissionResult(submissionResult);
+
+      if (LOG.isDebugEnabled())
+        LOG.debug("Wait for RelayResult for " + messageID);
+      return internalRelayResultHandler.obtainNotificationAsync(submissionResult.getMessageID(), timeout);
+    }).thenApply(notification -> {
+      checkRelayResult((RelayResult) notification);
+      return messageID;
+    });
+  }
 
+  private static void checkSubmissionResult(@Nonnull final SubmissionResult submissionResult) {
     LOG.info("SubmissionResult " + submissionResult.getResult());
     if (submissionResult.getResult() != ResultType.RECEIPT) {
       if (LOG.isErrorEnabled()) {
@@ -162,15 +406,11 @@ public class MEMDelegate extends AbstractGlobalSingleton {
                                  "]\n";
 
       ToopKafkaClient.send(EErrorLevel.ERROR, () -> errorMesage);
-      throw new MEOutgoingException(EToopErrorCode.ME_002, errorMesage);
-
+      throw new CompletionException(new MEOutgoingException(EToopErrorCode.ME_002, errorMesage));
     }
+  }
 
-    if (LOG.isDebugEnabled())
-      LOG.debug("Wait for RelayResult for " + messageID);
-    final RelayResult relayResult = (RelayResult) internalRelayResultHandler.obtainNotification(submissionResult.getMessageID(),
-                                                                                                timeout);
-
+  private static void checkRelayResult(@Nonnull final RelayResult relayResult) {
     if (LOG.isInfoEnabled())
       LOG.info("RelayResult " + relayResult.getResult());
 
@@ -193,8 +433,8 @@ public class MEMDelegate extends AbstractGlobalSingleton {
 
       ToopKafkaClient.send(EErrorLevel.ERROR, () -> errorMesage);
       if ("EBMS:0301".equals(relayResult.getErrorCode()))
-        throw new MEOutgoingException(EToopErrorCode.ME_003, errorMesage);
-      throw new MEOutgoingException(EToopErrorCode.ME_004, errorMesage);
+        throw new CompletionException(new MEOutgoingException(EToopErrorCode.ME_003, errorMesage));
+      throw new CompletionException(new MEOutgoingException(EToopErrorCode.ME_004, errorMesage));
     }
   }
 
@@ -275,21 +515,195 @@ public class MEMDelegate extends AbstractGlobalSingleton {
    * @throws MEIncomingException in case of error
    */
   public void dispatchInboundMessage(@Nonnull final SOAPMessage message) throws MEIncomingException {
+    dispatchInboundMessage(message, EBMSUtils.readHeaderModel(message));
+  }
+
+  /**
+   * Dispatch the received inbound message form the AS4 gateway to the handlers
+   *
+   * @param message message to be dispatched
+   * @param header  the header model of the message
+   * @throws MEIncomingException in case of error
+   * @since 2.1.2
+   */
+  public void dispatchInboundMessage(@Nonnull final SOAPMessage message, @Nonnull final EbmsHeaderModel header)
+      throws MEIncomingException {
     if (LOG.isInfoEnabled())
       LOG.info("Received a Deliver message\n" + //
                "   Inbound  AS4  Message ID: " +
-               EBMSUtils.getMessageId(message));
+               header.getMessageID());
     try {
       // Do it only once
-      final MEMessage aMEMessage = EBMSUtils.soap2MEMessage(message);
-      for (final IMessageHandler messageHandler : messageHandlers) {
-        messageHandler.handleMessage(aMEMessage);
-      }
+      final MEMessage aMEMessage = EBMSUtils.soap2MEMessage(message, header);
+      if (TCConfig.MEM.isIncomingHandlersParallel())
+        _dispatchParallel(aMEMessage);
+      else
+        for (final IMessageHandler messageHandler : messageHandlers) {
+          messageHandler.handleMessage(aMEMessage);
+        }
     } catch (final Exception e) {
       throw new MEIncomingException("Error handling message " + message, e);
     }
   }
 
+  /**
+   * Create a copy of the message, whose payloads do not depend on the inbound
+   * request anymore. Big payloads are copied into temporary files.
+   *
+   * @param aMEMessage the message to copy
+   * @return the copy with one reference on each payload
+   * @throws IOException if a payload cannot be copied
+   */
+  @Nonnull
+  static MEMessage detach(@Nonnull final MEMessage aMEMessage) throws IOException {
+    final MEMessage.Builder builder = MEMessage.builder()
+                                               .senderID(aMEMessage.getSenderID())
+                                               .receiverID(aMEMessage.getReceiverID())
+                                               .docTypeID(aMEMessage.getDoctypeID())
+                                               .processID(aMEMessage.getProcessID());
+    final List<MEPayload> copies = new ArrayList<>();
+    boolean success = false;
+    try {
+      for (final MEPayload payload : aMEMessage.payloads()) {
+        final IMEPayloadData data;
+        if (payload.getPayloadData().isInMemory()) {
+          data = payload.getPayloadData();
+        } else {
+          try (final InputStream is = payload.getPayloadData().openStream()) {
+            data = MEPayloadDataHelper.read(is);
+          }
+        }
+        final MEPayload copy = MEPayload.builder()
+                                        .mimeType(payload.getMimeType())
+                                        .contentID(payload.getContentID())
+                                        .data(data)
+                                        .build();
+        copies.add(copy);
+        builder.addPayload(copy);
+      }
+      success = true;
+    } finally {
+      if (!success)
+        MEPayloadDataHelper.releaseAll(copies);
+    }
+    return builder.build();
+  }
+
+  private static void retainPayloads(@Nonnull final MEMessage aMEMessage) {
+    for (final MEPayload payload : aMEMessage.payloads())
+      payload.getPayloadData().retain();
+  }
+
+  /**
+   * Create a task running the handler. The task is cancelled if the handler
+   * runs longer than the timeout, measured from the moment the handler starts,
+   * not from the moment the task is queued.
+   *
+   * @param timeouts      the scheduler firing the timeout
+   * @param timeout       the timeout in milliseconds
+   * @param handlerName   the handler name for logging
+   * @param handlerAction the action to run
+   * @return the task to be executed. Never <code>null</code>.
+   */
+  @Nonnull
+  private static FutureTask<Void> createTimedTask(@Nonnull final ScheduledThreadPoolExecutor timeouts,
+      final long timeout, @Nonnull final String handlerName, @Nonnull final IHandlerAction handlerAction) {
+    final AtomicReference<Future<?>> self = new AtomicReference<>();
+    final FutureTask<Void> ret = new FutureTask<>(() -> {
+      final ScheduledFuture<?> timeoutTask = timeouts.schedule(() -> {
+        if (self.get().cancel(true))
+          LOG.warn("Message handler " + handlerName + " timed out after " + timeout + " ms");
+      }, timeout, TimeUnit.MILLISECONDS);
+      try {
+        handlerAction.run();
+      } finally {
+        timeoutTask.cancel(false);
+      }
+      return null;
+    });
+    self.set(ret);
+    return ret;
+  }
+
+  @FunctionalInterface
+  private interface IHandlerAction {
+    void run() throws Exception;
+  }
+
+  /**
+   * Run all message handlers concurrently, cancel each of them after the
+   * configured timeout, and wait only for the synchronous ones.
+   */
+  private void _dispatchParallel(@Nonnull final MEMessage aMEMessage) throws MEIncomingException {
+    final HandlerPools pools = getHandlerPools();
+    final long timeout = TCConfig.MEM.getIncomingHandlerTimeoutMS();
+
+    // Asynchronous handlers may outlive the inbound request, after which its
+    // attachments can no longer be read. They share a detached copy.
+    MEMessage detached = null;
+    for (final IMessageHandler messageHandler : messageHandlers)
+      if (!messageHandler.isSynchronous()) {
+        try {
+          detached = detach(aMEMessage);
+        } catch (final IOException ex) {
+          throw new MEIncomingException("Failed to copy the payloads for the asynchronous message handlers", ex);
+        }
+        break;
+      }
+
+    final List<Future<?>> synchronous = new ArrayList<>();
+    try {
+      for (final IMessageHandler messageHandler : messageHandlers) {
+        final String handlerName = String.valueOf(messageHandler);
+        if (messageHandler.isSynchronous()) {
+          final FutureTask<Void> task = createTimedTask(pools.timeouts,
+                                                        timeout,
+                                                        handlerName,
+                                                        () -> messageHandler.handleMessage(aMEMessage));
+          pools.synchronous.execute(task);
+          synchronous.add(task);
+        } else {
+          final MEMessage handlerMessage = detached;
+          retainPayloads(handlerMessage);
+          // The task always runs to its end, so it releases the payloads
+          final FutureTask<Void> task = createTimedTask(pools.timeouts, timeout, handlerName, () -> {
+            try {
+              messageHandler.handleMessage(handlerMessage);
+            } catch (final Exception ex) {
+              LOG.error("Error in asynchronous message handler " + handlerName, ex);
+            } finally {
+              MEPayloadDataHelper.releaseAll(handlerMessage.payloads());
+            }
+          });
+          try {
+            pools.asynchronous.execute(task);
+          } catch (final RejectedExecutionException ex) {
+            MEPayloadDataHelper.releaseAll(handlerMessage.payloads());
+            LOG.error("Too many pending asynchronous message handlers - not running " + handlerName);
+          }
+        }
+      }
+    } finally {
+      // Drop the reference of the dispatcher
+      if (detached != null)
+        MEPayloadDataHelper.releaseAll(detached.payloads());
+    }
+
+    // Each synchronous task is cancelled by its own timeout
+    for (final Future<?> future : synchronous) {
+      try {
+        future.get();
+      } catch (final CancellationException ex) {
+        throw new MEIncomingException("Message handler timed out after " + timeout + " ms", ex);
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new MEIncomingException("Interrupted while waiting for the message handlers", ex);
+      } catch (final ExecutionException ex) {
+        throw new MEIncomingException("Error in message handler", ex.getCause());
+      }
+    }
+  }
+
   /**
    * Dispatch the received RelayResult to the registered listeners
    *
@@ -297,9 +711,22 @@ public class MEMDelegate extends AbstractGlobalSingleton {
    * @throws MEIncomingException in case of error
    */
   public void dispatchRelayResult(final SOAPMessage notification) throws MEIncomingException {
+    dispatchRelayResult(notification, EBMSUtils.readHeaderModel(notification));
+  }
+
+  /**
+   * Dispatch the received RelayResult to the registered listeners
+   *
+   * @param notification Relay result
+   * @param header       the header model of the notification
+   * @throws MEIncomingException in case of error
+   * @since 2.1.2
+   */
+  public void dispatchRelayResult(final SOAPMessage notification, @Nonnull final EbmsHeaderModel header)
+      throws MEIncomingException {
     try {
       // Do it only once
-      final RelayResult relayResult = EBMSUtils.soap2RelayResult(notification);
+      final RelayResult relayResult = EBMSUtils.soap2RelayResult(header);
 
       if (LOG.isInfoEnabled())
         LOG.info("RelayResult for \n" + //
@@ -324,9 +751,22 @@ public class MEMDelegate extends AbstractGlobalSingleton {
    * @throws MEIncomingException in case of error
    */
   public void dispatchSubmissionResult(final SOAPMessage submissionResult) throws MEIncomingException {
+    dispatchSubmissionResult(submissionResult, EBMSUtils.readHeaderModel(submissionResult));
+  }
+
+  /**
+   * Dispatch the received SubmissioNResult to the registered listeners
+   *
+   * @param submissionResult Submission result SOAP message
+   * @param header           the header model of the submission result
+   * @throws MEIncomingException in case of error
+   * @since 2.1.2
+   */
+  public void dispatchSubmissionResult(final SOAPMessage submissionResult, @Nonnull final EbmsHeaderModel header)
+      throws MEIncomingException {
     try {
       // Do it only once
-      final SubmissionResult sSubmissionResult = EBMSUtils.soap2SubmissionResult(submissionResult);
+      final SubmissionResult sSubmissionResult = EBMSUtils.soap2SubmissionResult(header);
 
       if (LOG.isInfoEnabled())
         LOG.info("SubmissionResult for \n" + //
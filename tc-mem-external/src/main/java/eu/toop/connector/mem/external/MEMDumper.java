@@ -35,11 +35,15 @@ package eu.toop.connector.mem.external;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
@@ -48,7 +52,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.annotation.Nonempty;
-import com.helger.commons.base64.Base64;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.datetime.PDTFactory;
 import com.helger.commons.id.factory.GlobalIDFactory;
 import com.helger.commons.io.file.FileHelper;
@@ -57,21 +63,23 @@ import com.helger.commons.io.file.SimpleFileIO;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.string.StringHelper;
 import com.helger.datetime.util.PDTIOHelper;
-import com.helger.json.IJsonArray;
-import com.helger.json.IJsonObject;
-import com.helger.json.JsonArray;
-import com.helger.json.JsonObject;
-import com.helger.json.serialize.JsonWriter;
-import com.helger.json.serialize.JsonWriterSettings;
 import com.helger.security.certificate.CertificateHelper;
 
 import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.me.incoming.MEIncomingException;
 import eu.toop.connector.api.me.model.MEMessage;
 import eu.toop.connector.api.me.model.MEPayload;
 import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
+import eu.toop.connector.mem.external.dump.JsonDumpWriter;
+import eu.toop.connector.mem.external.dump.SegmentDumpWriter;
+import eu.toop.connector.mem.external.transport.MultipartRelatedEntity;
 
 /**
  * Dumper for MEM/External messages. Must be enabled via the configuration.
+ * Dumps are either written synchronously to one file per message, or
+ * asynchronously into rolling segment files by a {@link SegmentDumpWriter}.
+ * In the segments, the dumps are indexed by the ebMS message ID if it is
+ * known.
  *
  * @author Philip Helger
  * @since 2.0.0-rc3
@@ -79,28 +87,45 @@ import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
 @Immutable
 public final class MEMDumper {
   private static final Logger LOGGER = LoggerFactory.getLogger(MEMDumper.class);
+  private static final String PREFIX_OUTGOING = "toop-mem-external-outgoing";
+  private static final String PREFIX_INCOMING = "toop-mem-external-incoming";
+
+  /** The asynchronous writers per file prefix and path */
+  private static final ConcurrentMap<String, SegmentDumpWriter> ASYNC_WRITERS = new ConcurrentHashMap<>();
+
+  /** The last daily folder that was created */
+  private static volatile File s_aLastTargetFolder;
 
   private MEMDumper() {
   }
 
   @Nonnull
-  private static IJsonObject _asJson(@Nonnull final MEMessage aMessage) {
-    final IJsonObject ret = new JsonObject();
-    if (aMessage.getSenderID() != null)
-      ret.add("sender", aMessage.getSenderID().getURIEncoded());
-    if (aMessage.getReceiverID() != null)
-      ret.add("receiver", aMessage.getReceiverID().getURIEncoded());
-    if (aMessage.getDoctypeID() != null)
-      ret.add("doctype", aMessage.getDoctypeID().getURIEncoded());
-    if (aMessage.getProcessID() != null)
-      ret.add("process", aMessage.getProcessID().getURIEncoded());
-    final IJsonArray aJsonPayloads = new JsonArray();
-    for (final MEPayload aPayload : aMessage.payloads()) {
-      aJsonPayloads.add(new JsonObject().add("mimeType", aPayload.getMimeTypeString())
-                                        .add("contentID", aPayload.getContentID())
-                                        .add("data", Base64.safeEncodeBytes(aPayload.getData().bytes())));
+  private static SegmentDumpWriter _getAsyncWriter(@Nonnull final String sPrefix, @Nonnull final String sPath) {
+    return ASYNC_WRITERS.computeIfAbsent(sPrefix + "|" + sPath,
+                                         k -> new SegmentDumpWriter(new File(sPath),
+                                                                    sPrefix,
+                                                                    TCConfig.MEM.getMEMDumpAsyncQueueSize(),
+                                                                    TCConfig.MEM.getMEMDumpAsyncQueueMaxBytes(),
+                                                                    TCConfig.MEM.getMEMDumpSegmentSizeBytes()));
+  }
+
+  /**
+   * @return The ebMS message ID or <code>null</code> to let the archive take
+   *         it from the dumped ebMS header.
+   */
+  @Nullable
+  private static String _getRecordID(@Nonnull final SOAPMessage aMessage) {
+    try {
+      return EBMSUtils.getMessageId(aMessage);
+    } catch (final MEIncomingException | RuntimeException ex) {
+      return null;
     }
-    ret.addJson("payloads", aJsonPayloads);
+  }
+
+  private static long _getPayloadSize(@Nonnull final MEMessage aMessage) {
+    long ret = 0;
+    for (final MEPayload aPayload : aMessage.payloads())
+      ret += Math.max(aPayload.getPayloadData().getSize(), 0);
     return ret;
   }
 
@@ -113,7 +138,11 @@ public final class MEMDumper {
                                      StringHelper.getLeadingZero(aLD.getMonthValue(), 2) +
                                      "/" +
                                      StringHelper.getLeadingZero(aLD.getDayOfMonth(), 2));
-    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting(ret);
+    // Only check the file system once per day
+    if (!ret.equals(s_aLastTargetFolder)) {
+      FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting(ret);
+      s_aLastTargetFolder = ret;
+    }
     return ret;
   }
 
@@ -123,6 +152,46 @@ public final class MEMDumper {
     return PDTIOHelper.getCurrentLocalDateTimeForFilename() + "-" + GlobalIDFactory.getNewIntID();
   }
 
+  private static void _writeOutgoingJson(@Nonnull final IMERoutingInformation aRoutingInfo,
+      @Nonnull final MEMessage aMessage, @Nonnull final OutputStream aOS) throws IOException {
+    final JsonDumpWriter aJson = new JsonDumpWriter(aOS);
+    aJson.beginObject();
+    aJson.beginObject("routing")
+         .property("sender", aRoutingInfo.getSenderID().getURIEncoded())
+         .property("receiver", aRoutingInfo.getReceiverID().getURIEncoded())
+         .property("doctype", aRoutingInfo.getDocumentTypeID().getURIEncoded())
+         .property("process", aRoutingInfo.getProcessID().getURIEncoded())
+         .property("transportProtocol", aRoutingInfo.getTransportProtocol())
+         .property("endpointURL", aRoutingInfo.getEndpointURL())
+         .property("certificate", CertificateHelper.getPEMEncodedCertificate(aRoutingInfo.getCertificate()))
+         .endObject();
+
+    aJson.beginObject("message");
+    if (aMessage.getSenderID() != null)
+      aJson.property("sender", aMessage.getSenderID().getURIEncoded());
+    if (aMessage.getReceiverID() != null)
+      aJson.property("receiver", aMessage.getReceiverID().getURIEncoded());
+    if (aMessage.getDoctypeID() != null)
+      aJson.property("doctype", aMessage.getDoctypeID().getURIEncoded());
+    if (aMessage.getProcessID() != null)
+      aJson.property("process", aMessage.getProcessID().getURIEncoded());
+    aJson.beginArray("payloads");
+    for (final MEPayload aPayload : aMessage.payloads()) {
+      // Base64 encode the payload straight into the stream
+      aJson.beginObject()
+           .property("mimeType", aPayload.getMimeTypeString())
+           .property("contentID", aPayload.getContentID());
+      try (final InputStream aIS = aPayload.getPayloadData().openStream()) {
+        aJson.base64Property("data", aIS);
+      }
+      aJson.endObject();
+    }
+    aJson.endArray();
+    aJson.endObject();
+    aJson.endObject();
+    aJson.flush();
+  }
+
   /**
    * Dump an outgoing message if dumping is enabled.
    *
@@ -135,34 +204,20 @@ public final class MEMDumper {
     if (TCConfig.MEM.isMEMOutgoingDumpEnabled()) {
       final String sPath = TCConfig.MEM.getMEMOutgoingDumpPath();
       if (StringHelper.hasText(sPath)) {
-        final IJsonObject aJson = new JsonObject().addJson("routing",
-                                                           new JsonObject().add("sender",
-                                                                                aRoutingInfo.getSenderID()
-                                                                                            .getURIEncoded())
-                                                                           .add("receiver",
-                                                                                aRoutingInfo.getReceiverID()
-                                                                                            .getURIEncoded())
-                                                                           .add("doctype",
-                                                                                aRoutingInfo.getDocumentTypeID()
-                                                                                            .getURIEncoded())
-                                                                           .add("process",
-                                                                                aRoutingInfo.getProcessID()
-                                                                                            .getURIEncoded())
-                                                                           .add("transportProtocol",
-                                                                                aRoutingInfo.getTransportProtocol())
-
-                                                                           .add("endpointURL",
-                                                                                aRoutingInfo.getEndpointURL())
-                                                                           .add("certificate",
-                                                                                CertificateHelper.getPEMEncodedCertificate(aRoutingInfo.getCertificate())))
-                                                  .addJson("message", _asJson(aMessage));
+        if (TCConfig.MEM.isMEMDumpAsync()) {
+          // The message and the routing information are immutable. The
+          // message ID is only created when the message is sent.
+          _getAsyncWriter(PREFIX_OUTGOING, sPath).offer(null,
+                                                        "json",
+                                                        _getPayloadSize(aMessage),
+                                                        aOS -> _writeOutgoingJson(aRoutingInfo, aMessage, aOS));
+          return;
+        }
 
         final File aTargetFile = new File(_getTargetFolder(sPath),
                                           "toop-mem-external-outgoing-" + _getFileID() + ".json");
         try (final OutputStream aOS = FileHelper.getBufferedOutputStream(aTargetFile)) {
-          new JsonWriter(new JsonWriterSettings().setIndentEnabled(true)).writeToStream(aJson,
-                                                                                        aOS,
-                                                                                        StandardCharsets.UTF_8);
+          _writeOutgoingJson(aRoutingInfo, aMessage, aOS);
           LOGGER.info("Wrote outgoing MEM dump file '" + aTargetFile.getAbsolutePath() + "'");
         } catch (final IOException ex) {
           LOGGER.error("Error writing to outgoing MEM dump file '" + aTargetFile.getAbsolutePath() + "'", ex);
@@ -177,8 +232,14 @@ public final class MEMDumper {
       final String sPath = TCConfig.MEM.getMEMOutgoingDumpPath();
       if (StringHelper.hasText(sPath)) {
         try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream()) {
+          // Serialize on the calling thread, as SOAPMessage is not thread-safe
           aMessage.writeTo(aBAOS);
 
+          if (TCConfig.MEM.isMEMDumpAsync()) {
+            _getAsyncWriter(PREFIX_OUTGOING, sPath).offer(_getRecordID(aMessage), "raw", aBAOS.size(), aBAOS::writeTo);
+            return;
+          }
+
           final File aTargetFile = new File(_getTargetFolder(sPath),
                                             "toop-mem-external-outgoing-" + _getFileID() + ".raw");
           if (SimpleFileIO.writeFile(aTargetFile, aBAOS.toByteArray()).isSuccess())
@@ -193,10 +254,98 @@ public final class MEMDumper {
     }
   }
 
+  /**
+   * Dump an outgoing envelope together with its payloads in the same
+   * <code>multipart/related</code> layout that is sent to the gateway.
+   *
+   * @param aEnvelope
+   *        The SOAP message without attachments
+   * @param aPayloads
+   *        The payloads
+   * @since 2.1.2
+   */
+  public static void dumpOutgoingMessage(@Nonnull final SOAPMessage aEnvelope, @Nonnull final List<MEPayload> aPayloads) {
+    if (TCConfig.MEM.isMEMOutgoingDumpEnabled()) {
+      final String sPath = TCConfig.MEM.getMEMOutgoingDumpPath();
+      if (StringHelper.hasText(sPath)) {
+        if (TCConfig.MEM.isMEMDumpAsync()) {
+          try {
+            // The envelope is serialized on the calling thread, the payloads
+            // are immutable
+            final MultipartRelatedEntity aEntity = new MultipartRelatedEntity(aEnvelope, aPayloads);
+            _getAsyncWriter(PREFIX_OUTGOING, sPath).offer(_getRecordID(aEnvelope),
+                                                          "raw",
+                                                          Math.max(aEntity.getContentLength(), 0),
+                                                          aEntity::writeTo);
+          } catch (final SOAPException ex) {
+            LOGGER.error("Error dumping outgoing SOAP message", ex);
+          }
+          return;
+        }
+
+        final File aTargetFile = new File(_getTargetFolder(sPath),
+                                          "toop-mem-external-outgoing-" + _getFileID() + ".raw");
+        try (final OutputStream aOS = FileHelper.getBufferedOutputStream(aTargetFile)) {
+          new MultipartRelatedEntity(aEnvelope, aPayloads).writeTo(aOS);
+          LOGGER.info("Wrote outgoing MEM dump file '" + aTargetFile.getAbsolutePath() + "'");
+        } catch (final SOAPException | IOException ex) {
+          LOGGER.error("Error writing to outgoing MEM dump file '" + aTargetFile.getAbsolutePath() + "'", ex);
+        }
+      } else
+        LOGGER.warn("Dumping of outgoing MEM messages is enabled, but no dump path was configured. Not dumping the message.");
+    }
+  }
+
+  /**
+   * Open a dump file for an incoming message if dumping is enabled. This allows
+   * dumping the message while it is read, without buffering it. If
+   * asynchronous dumping is enabled, the message is streamed straight into a
+   * segment, and indexed by the message ID from its ebMS header.
+   *
+   * @return The stream to write the raw message to or <code>null</code> if
+   *         dumping is disabled or the file could not be opened. Must be closed
+   *         by the caller.
+   * @since 2.1.2
+   */
+  @Nullable
+  public static OutputStream openIncomingDumpStream() {
+    if (TCConfig.MEM.isMEMIncomingDumpEnabled()) {
+      final String sPath = TCConfig.MEM.getMEMIncomingDumpPath();
+      if (StringHelper.hasText(sPath)) {
+        if (TCConfig.MEM.isMEMDumpAsync()) {
+          try {
+            // The message ID is only known after parsing, so it is taken from
+            // the dumped ebMS header
+            return _getAsyncWriter(PREFIX_INCOMING, sPath).openDumpStream(null, "raw");
+          } catch (final IOException ex) {
+            LOGGER.error("Error opening incoming MEM dump stream", ex);
+            return null;
+          }
+        }
+
+        final String sFilename = "toop-mem-external-incoming-" + _getFileID() + ".raw";
+        final File aTargetFile = new File(_getTargetFolder(sPath), sFilename);
+        final OutputStream ret = FileHelper.getBufferedOutputStream(aTargetFile);
+        if (ret != null)
+          LOGGER.info("Writing incoming MEM dump file '" + aTargetFile.getAbsolutePath() + "'");
+        else
+          LOGGER.error("Error opening incoming MEM dump file '" + aTargetFile.getAbsolutePath() + "'");
+        return ret;
+      }
+      LOGGER.warn("Dumping of incoming MEM messages is enabled, but no dump path was configured. Not dumping the message.");
+    }
+    return null;
+  }
+
   public static void dumpIncomingMessage(@Nonnull final byte[] aBytes) {
     if (TCConfig.MEM.isMEMIncomingDumpEnabled()) {
       final String sPath = TCConfig.MEM.getMEMIncomingDumpPath();
       if (StringHelper.hasText(sPath)) {
+        if (TCConfig.MEM.isMEMDumpAsync()) {
+          _getAsyncWriter(PREFIX_INCOMING, sPath).offer(null, "raw", aBytes.length, aOS -> aOS.write(aBytes));
+          return;
+        }
+
         final String sFilename = "toop-mem-external-incoming-" + _getFileID() + ".raw";
         final File aTargetFile = new File(_getTargetFolder(sPath), sFilename);
         if (SimpleFileIO.writeFile(aTargetFile, aBytes).isSuccess())
@@ -207,4 +356,35 @@ public final class MEMDumper {
         LOGGER.warn("Dumping of incoming MEM messages is enabled, but no dump path was configured. Not dumping the message.");
     }
   }
+
+  /**
+   * @return The statistics of the asynchronous dump writers. Never
+   *         <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsOrderedMap<String, Object> getStatusData() {
+    final ICommonsOrderedMap<String, Object> ret = new CommonsLinkedHashMap<>();
+    for (final SegmentDumpWriter aWriter : ASYNC_WRITERS.values()) {
+      final String sKey = "dump." + aWriter.getFilePrefix() + ".";
+      ret.put(sKey + "queue-depth", Integer.valueOf(aWriter.getQueueDepth()));
+      ret.put(sKey + "queued-bytes", Long.valueOf(aWriter.getQueuedBytes()));
+      ret.put(sKey + "written", Long.valueOf(aWriter.getWrittenCount()));
+      ret.put(sKey + "dropped", Long.valueOf(aWriter.getDroppedCount()));
+      ret.put(sKey + "failed", Long.valueOf(aWriter.getFailedCount()));
+    }
+    return ret;
+  }
+
+  /**
+   * Write all pending asynchronous dumps and stop the writer threads.
+   *
+   * @since 2.1.2
+   */
+  public static void shutdown() {
+    for (final SegmentDumpWriter aWriter : ASYNC_WRITERS.values())
+      aWriter.close();
+    ASYNC_WRITERS.clear();
+  }
 }
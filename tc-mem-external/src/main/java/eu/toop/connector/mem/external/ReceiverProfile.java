@@ -0,0 +1,109 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.bind.DatatypeConverter;
+
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+
+/**
+ * The data of a receiving gateway that is derived from its certificate and the
+ * configuration. Created once per receiver and cached, as extracting the CN
+ * and encoding the certificate is comparably expensive.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class ReceiverProfile {
+  private final String toPartyId;
+  private final String toPartyIdType;
+  private final String toPartyCertificate;
+
+  private ReceiverProfile(@Nonnull final String toPartyId, @Nullable final String toPartyIdType,
+      @Nonnull final String toPartyCertificate) {
+    this.toPartyId = toPartyId;
+    this.toPartyIdType = toPartyIdType;
+    this.toPartyCertificate = toPartyCertificate;
+  }
+
+  /**
+   * @return The CN of the receiver certificate
+   */
+  @Nonnull
+  public String getToPartyId() {
+    return toPartyId;
+  }
+
+  @Nullable
+  public String getToPartyIdType() {
+    return toPartyIdType;
+  }
+
+  /**
+   * @return The Base64 encoded DER bytes of the receiver certificate
+   */
+  @Nonnull
+  public String getToPartyCertificate() {
+    return toPartyCertificate;
+  }
+
+  /**
+   * Derive the profile of a receiver.
+   *
+   * @param certificate the certificate of the receiving gateway
+   * @param endpointURL the endpoint URL of the receiving gateway. Not part of
+   *                    the profile, but of the cache key.
+   * @return The new profile. Never <code>null</code>.
+   * @throws MEOutgoingException if the certificate cannot be encoded
+   */
+  @Nonnull
+  public static ReceiverProfile create(@Nonnull final X509Certificate certificate,
+      @Nonnull final String endpointURL) throws MEOutgoingException {
+    final String toPartyId = EBMSUtils.getCN(certificate.getSubjectX500Principal().getName());
+    try {
+      // base 64 encoded DER bytes (i.e. converted to CER)
+      final String toPartyCertificate = DatatypeConverter.printBase64Binary(certificate.getEncoded());
+      return new ReceiverProfile(toPartyId, TCConfig.MEM.getToPartyIdType(), toPartyCertificate);
+    } catch (final CertificateEncodingException e) {
+      throw new MEOutgoingException("Certificate interpreation error", e);
+    }
+  }
+}
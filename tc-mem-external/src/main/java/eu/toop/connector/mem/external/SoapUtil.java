@@ -37,13 +37,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
+import javax.annotation.Nonnull;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.soap.AttachmentPart;
 import javax.xml.soap.MessageFactory;
 import javax.xml.soap.MimeHeaders;
-import javax.xml.soap.SOAPConnection;
-import javax.xml.soap.SOAPConnectionFactory;
 import javax.xml.soap.SOAPConstants;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
@@ -56,12 +56,17 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Node;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.exception.InitializationException;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.me.model.MEPayload;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
-import eu.toop.edm.error.EToopErrorCode;
+import eu.toop.connector.mem.external.transport.HttpClientSoapTransport;
+import eu.toop.connector.mem.external.transport.ISoapTransport;
+import eu.toop.connector.mem.external.transport.SaajSoapTransport;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
@@ -69,16 +74,16 @@ import eu.toop.kafkaclient.ToopKafkaClient;
  */
 public class SoapUtil {
   private static final MessageFactory messageFactory;
-  private static final SOAPConnectionFactory soapConnectionFactory;
   private static final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 
   private static final Transformer serializer;
 
+  private static volatile ISoapTransport transport;
+
   static {
     try {
       // Ensure to use SOAP 1.2
       messageFactory = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
-      soapConnectionFactory = SOAPConnectionFactory.newInstance();
       serializer = TransformerFactory.newInstance().newTransformer();
       serializer.setOutputProperty(OutputKeys.INDENT, "yes");
       serializer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
@@ -108,6 +113,62 @@ public class SoapUtil {
     }
   }
 
+  /**
+   * @return The transport used to send messages to the gateway. Created lazily
+   *         according to the configuration. Never <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  public static ISoapTransport getTransport() {
+    ISoapTransport ret = transport;
+    if (ret == null) {
+      synchronized (SoapUtil.class) {
+        ret = transport;
+        if (ret == null) {
+          ret = TCConfig.MEM.isGatewayHttpPooled() ? new HttpClientSoapTransport() : new SaajSoapTransport();
+          transport = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Set the transport used to send messages to the gateway. The previous
+   * transport is closed.
+   *
+   * @param newTransport the new transport. May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public static void setTransport(@Nonnull final ISoapTransport newTransport) {
+    ValueEnforcer.notNull(newTransport, "Transport");
+    final ISoapTransport old;
+    synchronized (SoapUtil.class) {
+      old = transport;
+      transport = newTransport;
+    }
+    if (old != null && old != newTransport) {
+      old.close();
+    }
+  }
+
+  /**
+   * Close the current transport and release its pooled connections. The next
+   * send creates a new transport.
+   *
+   * @since 2.1.2
+   */
+  public static void closeTransport() {
+    final ISoapTransport old;
+    synchronized (SoapUtil.class) {
+      old = transport;
+      transport = null;
+    }
+    if (old != null) {
+      old.close();
+    }
+  }
+
   /**
    * This method sends a SOAP1.2 message to the given url.
    *
@@ -119,12 +180,26 @@ public class SoapUtil {
   public static SOAPMessage sendSOAPMessage(final SOAPMessage message, final URL endpoint) throws MEOutgoingException {
     ToopKafkaClient.send(EErrorLevel.INFO, () -> "Sending AS4 SOAP message to " + endpoint.toExternalForm());
     MEMDumper.dumpOutgoingMessage(message);
-    try {
-      final SOAPConnection connection = soapConnectionFactory.createConnection();
-      return connection.call(message, endpoint);
-    } catch (final SOAPException e) {
-      throw new MEOutgoingException(EToopErrorCode.ME_001, e);
-    }
+    return getTransport().send(message, endpoint);
+  }
+
+  /**
+   * This method sends a SOAP1.2 envelope together with the provided payloads
+   * as MIME attachments to the given url. Depending on the transport the
+   * payloads are streamed without creating SAAJ attachments.
+   *
+   * @param envelope the SOAP message without attachments
+   * @param payloads the payloads to be send as attachments
+   * @param endpoint endpoint to send the message to
+   * @return The response message
+   * @throws MEOutgoingException in case of error
+   * @since 2.1.2
+   */
+  public static SOAPMessage sendSOAPMessage(final SOAPMessage envelope, final List<MEPayload> payloads,
+      final URL endpoint) throws MEOutgoingException {
+    ToopKafkaClient.send(EErrorLevel.INFO, () -> "Sending AS4 SOAP message to " + endpoint.toExternalForm());
+    MEMDumper.dumpOutgoingMessage(envelope, payloads);
+    return getTransport().send(envelope, payloads, endpoint);
   }
 
   /**
@@ -34,13 +34,21 @@
 package eu.toop.connector.mem.external;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
+import javax.xml.namespace.QName;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Node;
@@ -51,13 +59,94 @@ import com.helger.xml.namespace.MapBasedNamespaceContext;
 import com.helger.xml.xpath.XPathHelper;
 
 /**
+ * XPath helper for the ebMS headers. Compiled expressions are pooled in a
+ * bounded cache shared by all threads and reused. Values that differ per
+ * message (like a content ID) should be passed as XPath variables (e.g.
+ * <code>$href</code>) instead of being concatenated into the expression.
+ *
  * @author myildiz at 15.02.2018.
  */
 @Immutable
 public final class SoapXPathUtil {
+  /**
+   * Upper bound of cached expressions. Only reached if callers concatenate
+   * values into expressions.
+   */
+  private static final int MAX_CACHED_EXPRESSIONS = 256;
+
+  /**
+   * Upper bound of idle compiled instances kept per expression.
+   */
+  private static final int MAX_POOLED_PER_EXPRESSION = 16;
+
+  /**
+   * XPath and XPathExpression instances are neither thread safe nor reentrant,
+   * so each compiled expression is only used by one thread at a time. It has
+   * its own XPath and variable bindings.
+   */
+  private static final class CompiledExpression {
+    private final Map<String, Object> variables = new HashMap<>();
+    private final XPathExpression compiled;
+
+    CompiledExpression(@Nonnull final String expression) throws XPathExpressionException {
+      final XPath xpath = createXPath();
+      xpath.setXPathVariableResolver(this::resolveVariable);
+      compiled = xpath.compile(expression);
+    }
+
+    @Nonnull
+    private Object resolveVariable(@Nonnull final QName name) {
+      final Object ret = variables.get(name.getLocalPart());
+      if (ret == null)
+        throw new IllegalArgumentException("XPath variable $" + name.getLocalPart() + " is not bound");
+      return ret;
+    }
+
+    @Nullable
+    Object evaluate(@Nonnull final Node node,
+                    @Nullable final Map<String, ?> vars,
+                    @Nonnull final QName returnType) throws XPathExpressionException {
+      if (vars == null || vars.isEmpty())
+        return compiled.evaluate(node, returnType);
+
+      variables.putAll(vars);
+      try {
+        return compiled.evaluate(node, returnType);
+      } finally {
+        variables.clear();
+      }
+    }
+  }
+
+  /**
+   * The idle compiled instances per expression. Nothing is bound to the
+   * calling threads, so no webapp classes are kept alive by container threads
+   * after an undeployment.
+   */
+  private static final ConcurrentMap<String, Queue<CompiledExpression>> POOLS = new ConcurrentHashMap<>();
+
   private SoapXPathUtil() {
   }
 
+  @Nullable
+  private static Object evaluate(@Nonnull final Node node,
+                                 @Nonnull final String expression,
+                                 @Nullable final Map<String, ?> variables,
+                                 @Nonnull final QName returnType) throws XPathExpressionException {
+    Queue<CompiledExpression> pool = POOLS.get(expression);
+    if (pool == null && POOLS.size() < MAX_CACHED_EXPRESSIONS)
+      pool = POOLS.computeIfAbsent(expression, k -> new ConcurrentLinkedQueue<>());
+
+    CompiledExpression compiled = pool == null ? null : pool.poll();
+    if (compiled == null)
+      compiled = new CompiledExpression(expression);
+    final Object ret = compiled.evaluate(node, variables, returnType);
+    // Return it for reuse by the next caller
+    if (pool != null && pool.size() < MAX_POOLED_PER_EXPRESSION)
+      pool.offer(compiled);
+    return ret;
+  }
+
   @Nonnull
   @ReturnsMutableCopy
   private static XPath createXPath() {
@@ -79,8 +168,27 @@ public final class SoapXPathUtil {
    */
   @Nullable
   public static Node findSingleNode(@Nonnull final Node node, @Nonnull final String xpath) {
+    return findSingleNode(node, xpath, null);
+  }
+
+  /**
+   * Tries to find a single not wrt the provided XPATH and returns null if not
+   * found
+   *
+   * @param node      source node
+   * @param xpath     XPath to evaluate
+   * @param variables The values of the XPath variables used in the expression,
+   *                  keyed by the variable name without the leading
+   *                  <code>$</code>. May be <code>null</code>.
+   * @return The resolved {@link Node}. May be <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nullable
+  public static Node findSingleNode(@Nonnull final Node node,
+                                    @Nonnull final String xpath,
+                                    @Nullable final Map<String, ?> variables) {
     try {
-      return (Node) createXPath().evaluate(xpath, node, XPathConstants.NODE);
+      return (Node) evaluate(node, xpath, variables, XPathConstants.NODE);
     } catch (final XPathExpressionException e) {
       throw new IllegalArgumentException(e);
     }
@@ -97,9 +205,28 @@ public final class SoapXPathUtil {
    */
   @Nonnull
   public static Node safeFindSingleNode(@Nonnull final Node node, @Nonnull final String xpath) {
-    final Node o = findSingleNode(node, xpath);
+    return safeFindSingleNode(node, xpath, null);
+  }
+
+  /**
+   * Tries to find a single not wrt the provided XPATH. Throws an exception if no
+   * value is found
+   *
+   * @param node      Source node
+   * @param xpath     XPath to evaluate
+   * @param variables The values of the XPath variables used in the expression.
+   *                  May be <code>null</code>.
+   * @return A non-<code>null</code> {@link Node}.
+   * @throws IllegalArgumentException If no result was found (for whatever reason)
+   * @since 2.1.2
+   */
+  @Nonnull
+  public static Node safeFindSingleNode(@Nonnull final Node node,
+                                        @Nonnull final String xpath,
+                                        @Nullable final Map<String, ?> variables) {
+    final Node o = findSingleNode(node, xpath, variables);
     if (o == null)
-      throw new IllegalArgumentException("No match for [" + xpath + "]");
+      throw new IllegalArgumentException("No match for [" + xpath + "]" + (variables == null ? "" : " with " + variables));
     return o;
   }
 
@@ -119,7 +246,7 @@ public final class SoapXPathUtil {
   @Nonnull
   public static List<Node> listNodes(@Nonnull final Node node, @Nonnull final String xpath) {
     try {
-      final NodeList o = (NodeList) createXPath().evaluate(xpath, node, XPathConstants.NODESET);
+      final NodeList o = (NodeList) evaluate(node, xpath, null, XPathConstants.NODESET);
       if (o == null)
         throw new IllegalArgumentException("No match for [" + xpath + "]");
 
@@ -0,0 +1,295 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.dump;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A minimal streaming JSON writer for dumps. Unlike building a JSON tree
+ * first, binary data is Base64 encoded straight into the target stream, so the
+ * memory consumption does not depend on the payload size. The output is
+ * indented like the JSON written by <code>JsonWriter</code>.
+ *
+ * @since 2.1.2
+ */
+@NotThreadSafe
+public final class JsonDumpWriter implements Flushable {
+  private static final String INDENT = "  ";
+
+  private final OutputStream out;
+  private final Writer writer;
+  private int depth;
+  private boolean needsComma;
+
+  /**
+   * @param out the stream to write to. It is never closed by this writer. May
+   *            not be <code>null</code>.
+   */
+  public JsonDumpWriter(@Nonnull final OutputStream out) {
+    ValueEnforcer.notNull(out, "OutputStream");
+    this.out = out;
+    this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  private void newLine() throws IOException {
+    writer.write('\n');
+    for (int i = 0; i < depth; i++)
+      writer.write(INDENT);
+  }
+
+  private void beginValue(@Nullable final String name) throws IOException {
+    if (needsComma)
+      writer.write(',');
+    if (depth > 0)
+      newLine();
+    if (name != null) {
+      writeString(name);
+      writer.write(" : ");
+    }
+  }
+
+  private void writeString(@Nonnull final String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          writer.write("\\\"");
+          break;
+        case '\\':
+          writer.write("\\\\");
+          break;
+        case '\n':
+          writer.write("\\n");
+          break;
+        case '\r':
+          writer.write("\\r");
+          break;
+        case '\t':
+          writer.write("\\t");
+          break;
+        default:
+          if (c < 0x20)
+            writer.write(String.format("\\u%04x", Integer.valueOf(c)));
+          else
+            writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+
+  private void begin(@Nullable final String name, final char bracket) throws IOException {
+    beginValue(name);
+    writer.write(bracket);
+    depth++;
+    needsComma = false;
+  }
+
+  private void end(final char bracket) throws IOException {
+    final boolean empty = !needsComma;
+    depth--;
+    if (!empty)
+      newLine();
+    writer.write(bracket);
+    needsComma = true;
+  }
+
+  /**
+   * Start an object as an array element or as the root value.
+   *
+   * @return this for chaining
+   * @throws IOException on write error
+   */
+  @Nonnull
+  public JsonDumpWriter beginObject() throws IOException {
+    begin(null, '{');
+    return this;
+  }
+
+  /**
+   * Start an object as a property of the current object.
+   *
+   * @param name the property name. May not be <code>null</code>.
+   * @return this for chaining
+   * @throws IOException on write error
+   */
+  @Nonnull
+  public JsonDumpWriter beginObject(@Nonnull final String name) throws IOException {
+    begin(name, '{');
+    return this;
+  }
+
+  @Nonnull
+  public JsonDumpWriter endObject() throws IOException {
+    end('}');
+    return this;
+  }
+
+  /**
+   * Start an array as a property of the current object.
+   *
+   * @param name the property name. May not be <code>null</code>.
+   * @return this for chaining
+   * @throws IOException on write error
+   */
+  @Nonnull
+  public JsonDumpWriter beginArray(@Nonnull final String name) throws IOException {
+    begin(name, '[');
+    return this;
+  }
+
+  @Nonnull
+  public JsonDumpWriter endArray() throws IOException {
+    end(']');
+    return this;
+  }
+
+  /**
+   * Write a string property.
+   *
+   * @param name  the property name. May not be <code>null</code>.
+   * @param value the value. May be <code>null</code>.
+   * @return this for chaining
+   * @throws IOException on write error
+   */
+  @Nonnull
+  public JsonDumpWriter property(@Nonnull final String name, @Nullable final String value) throws IOException {
+    beginValue(name);
+    if (value == null)
+      writer.write("null");
+    else
+      writeString(value);
+    needsComma = true;
+    return this;
+  }
+
+  /**
+   * Write a property with the Base64 encoded bytes as the value. The bytes are
+   * encoded straight into the target stream.
+   *
+   * @param name the property name. May not be <code>null</code>.
+   * @param data the bytes to encode. May not be <code>null</code>.
+   * @param off  offset into the bytes
+   * @param len  number of bytes to encode
+   * @return this for chaining
+   * @throws IOException on write error
+   */
+  @Nonnull
+  public JsonDumpWriter base64Property(@Nonnull final String name, @Nonnull final byte[] data, final int off,
+      final int len) throws IOException {
+    ValueEnforcer.isArrayOfsLen(data, off, len);
+    return base64Value(name, b64 -> b64.write(data, off, len));
+  }
+
+  /**
+   * Write a property with the Base64 encoded content of a stream as the value.
+   * The content is encoded straight into the target stream.
+   *
+   * @param name the property name. May not be <code>null</code>.
+   * @param is   the stream to encode. Is not closed. May not be
+   *             <code>null</code>.
+   * @return this for chaining
+   * @throws IOException on read or write error
+   * @since 2.1.2
+   */
+  @Nonnull
+  public JsonDumpWriter base64Property(@Nonnull final String name, @Nonnull @WillNotClose final InputStream is)
+      throws IOException {
+    ValueEnforcer.notNull(is, "InputStream");
+    return base64Value(name, b64 -> {
+      final byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = is.read(buffer)) >= 0)
+        b64.write(buffer, 0, read);
+    });
+  }
+
+  /**
+   * Writes the raw bytes to be Base64 encoded.
+   */
+  @FunctionalInterface
+  private interface IBase64Content {
+    void writeTo(@Nonnull OutputStream b64) throws IOException;
+  }
+
+  @Nonnull
+  private JsonDumpWriter base64Value(@Nonnull final String name, @Nonnull final IBase64Content content)
+      throws IOException {
+    beginValue(name);
+    writer.write('"');
+    // The Base64 alphabet is plain ASCII, so it can bypass the writer
+    writer.flush();
+    try (final OutputStream b64 = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+      @Override
+      public void write(final byte[] buf, final int bufOff, final int bufLen) throws IOException {
+        out.write(buf, bufOff, bufLen);
+      }
+
+      @Override
+      public void close() {
+        // Keep the target stream open
+      }
+    })) {
+      content.writeTo(b64);
+    }
+    writer.write('"');
+    needsComma = true;
+    return this;
+  }
+
+  /**
+   * Flush all buffered characters to the target stream. Must be called after
+   * the last value.
+   */
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+}
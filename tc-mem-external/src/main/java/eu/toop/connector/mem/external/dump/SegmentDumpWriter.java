@@ -0,0 +1,255 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.connector.api.dump.DumpArchive;
+
+/**
+ * Writes dumps asynchronously into a {@link DumpArchive}. Dumps are queued in
+ * a buffer bounded by count and by bytes, and written by a single background
+ * thread, so the caller never waits for the disk. If the buffer is full, the
+ * dump is dropped instead of blocking the caller. Dumps that are produced
+ * while a stream is read can instead be streamed straight into the archive
+ * via {@link #openDumpStream(String, String)}.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public final class SegmentDumpWriter implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SegmentDumpWriter.class);
+
+  private static final class DumpRecord {
+    private final String recordID;
+    private final String type;
+    private final long size;
+    private final DumpArchive.IDumpContent content;
+
+    DumpRecord(final String recordID, final String type, final long size, final DumpArchive.IDumpContent content) {
+      this.recordID = recordID;
+      this.type = type;
+      this.size = size;
+      this.content = content;
+    }
+  }
+
+  private static final DumpRecord END = new DumpRecord(null, "", 0, out -> {});
+
+  private final DumpArchive archive;
+  private final BlockingQueue<DumpRecord> queue;
+  private final long maxQueueBytes;
+  private final AtomicLong queuedBytes = new AtomicLong();
+  private final Thread writerThread;
+  private final AtomicLong droppedCount = new AtomicLong();
+  private volatile boolean closed;
+
+  /**
+   * @param baseDirectory   the directory in which the daily folders are
+   *                        created. May not be <code>null</code>.
+   * @param filePrefix      the prefix of the segment file names. May not be
+   *                        empty.
+   * @param queueSize       the maximum number of dumps waiting to be written.
+   *                        Must be &gt; 0.
+   * @param maxQueueBytes   the maximum total size of the dumps waiting to be
+   *                        written. Must be &gt; 0.
+   * @param maxSegmentBytes the size after which a new segment is started. Must
+   *                        be &gt; 0.
+   */
+  public SegmentDumpWriter(@Nonnull final File baseDirectory, @Nonnull final String filePrefix,
+      @Nonnegative final int queueSize, @Nonnegative final long maxQueueBytes,
+      @Nonnegative final long maxSegmentBytes) {
+    ValueEnforcer.isGT0(queueSize, "QueueSize");
+    ValueEnforcer.isGT0(maxQueueBytes, "MaxQueueBytes");
+    this.archive = new DumpArchive(baseDirectory, filePrefix, maxSegmentBytes);
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.maxQueueBytes = maxQueueBytes;
+    this.writerThread = new Thread(this::run, "mem-dump-writer-" + filePrefix);
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  /**
+   * Queue a dump for writing.
+   *
+   * @param recordID the message ID under which the dump is indexed. If
+   *                 <code>null</code> it is taken from the ebMS header of the
+   *                 dump.
+   * @param type     the type of the dump, e.g. the file extension. May not be
+   *                 <code>null</code>.
+   * @param size     the number of bytes kept alive by the content while the
+   *                 dump is queued. Must be &ge; 0.
+   * @param content  the content of the dump. Invoked on the writer thread, so
+   *                 it must only access data that is no longer modified by the
+   *                 caller. May not be <code>null</code>.
+   * @return <code>true</code> if the dump was queued, <code>false</code> if it
+   *         was dropped because the queue is full or the writer is closed.
+   */
+  public boolean offer(@Nullable final String recordID, @Nonnull final String type, @Nonnegative final long size,
+      @Nonnull final DumpArchive.IDumpContent content) {
+    ValueEnforcer.notNull(type, "Type");
+    ValueEnforcer.isGE0(size, "Size");
+    ValueEnforcer.notNull(content, "Content");
+    if (!closed) {
+      if (queuedBytes.addAndGet(size) <= maxQueueBytes && queue.offer(new DumpRecord(recordID, type, size, content)))
+        return true;
+      queuedBytes.addAndGet(-size);
+    }
+
+    final long dropped = droppedCount.incrementAndGet();
+    LOGGER.warn("Dropping " + type + " dump of '" + recordID + "' (" + dropped + " dropped in total)");
+    return false;
+  }
+
+  /**
+   * Open a stream that writes a dump straight into the archive on the calling
+   * thread, without queueing it. Used for dumps that are produced while a
+   * stream is read, so that they are never buffered.
+   *
+   * @param recordID the message ID under which the dump is indexed. If
+   *                 <code>null</code> it is taken from the ebMS header of the
+   *                 dump.
+   * @param type     the type of the dump. May not be <code>null</code>.
+   * @return The stream to write the dump to. Must be closed by the caller.
+   * @throws IOException if the writer is closed or no segment could be opened
+   */
+  @Nonnull
+  public OutputStream openDumpStream(@Nullable final String recordID, @Nonnull final String type) throws IOException {
+    if (closed)
+      throw new IOException("The dump writer " + archive.getFilePrefix() + " is already closed");
+    return archive.openDumpStream(recordID, type);
+  }
+
+  /**
+   * @return The prefix of the segment file names. Never <code>null</code>.
+   */
+  @Nonnull
+  public String getFilePrefix() {
+    return archive.getFilePrefix();
+  }
+
+  /**
+   * @return The number of dumps waiting to be written.
+   */
+  @Nonnegative
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * @return The total size of the dumps waiting to be written.
+   */
+  @Nonnegative
+  public long getQueuedBytes() {
+    return queuedBytes.get();
+  }
+
+  /**
+   * @return The number of dumps written so far.
+   */
+  @Nonnegative
+  public long getWrittenCount() {
+    return archive.getWrittenCount();
+  }
+
+  /**
+   * @return The number of dumps dropped because the queue was full.
+   */
+  @Nonnegative
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return The number of dumps that could not be written.
+   */
+  @Nonnegative
+  public long getFailedCount() {
+    return archive.getFailedCount();
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        final DumpRecord record = queue.take();
+        if (record == END)
+          break;
+        try {
+          archive.writeDump(record.recordID, record.type, record.content);
+        } catch (final IOException | RuntimeException ex) {
+          // Already logged and counted by the archive
+        } finally {
+          queuedBytes.addAndGet(-record.size);
+        }
+      }
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      archive.close();
+    }
+  }
+
+  /**
+   * Write all queued dumps and stop the writer thread. Dumps offered afterwards
+   * are dropped.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      queue.put(END);
+      writerThread.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    if (writerThread.isAlive())
+      LOGGER.warn("The dump writer did not finish within 30 seconds");
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.gateway;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A single AS4 gateway together with its runtime state: the number of
+ * outstanding submissions and the passive health information.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public final class GatewayEndpoint {
+  private final URL url;
+  private final String partyID;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  @GuardedBy("this")
+  private int consecutiveFailures;
+  @GuardedBy("this")
+  private long ejectedUntil;
+  @GuardedBy("this")
+  private long totalFailures;
+
+  public GatewayEndpoint(@Nonnull final URL url, @Nullable final String partyID) {
+    ValueEnforcer.notNull(url, "URL");
+    this.url = url;
+    this.partyID = partyID;
+  }
+
+  /**
+   * @return The endpoint URL of the gateway. Never <code>null</code>.
+   */
+  @Nonnull
+  public URL getURL() {
+    return url;
+  }
+
+  /**
+   * @return The party ID of the gateway to be used in the ebMS header. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getPartyID() {
+    return partyID;
+  }
+
+  /**
+   * @return The number of submissions sent to this gateway for which no
+   *         SubmissionResult was received yet.
+   */
+  @Nonnegative
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  void incrementOutstanding() {
+    outstanding.incrementAndGet();
+  }
+
+  void decrementOutstanding() {
+    outstanding.decrementAndGet();
+  }
+
+  /**
+   * @param now Current time in milliseconds
+   * @return <code>true</code> if the gateway is currently not ejected.
+   */
+  public synchronized boolean isHealthy(final long now) {
+    return now >= ejectedUntil;
+  }
+
+  synchronized void onSuccess() {
+    consecutiveFailures = 0;
+  }
+
+  /**
+   * @return <code>true</code> if the gateway was ejected because of this
+   *         failure.
+   */
+  synchronized boolean onFailure(final long now, final int maxFailures, final long ejectionMS) {
+    totalFailures++;
+    consecutiveFailures++;
+    if (consecutiveFailures >= maxFailures) {
+      consecutiveFailures = 0;
+      ejectedUntil = now + ejectionMS;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return The number of failed submissions since startup.
+   */
+  public synchronized long getTotalFailures() {
+    return totalFailures;
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringGenerator(this).append("URL", url)
+                                      .append("PartyID", partyID)
+                                      .append("Outstanding", outstanding.get())
+                                      .getToString();
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.gateway;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.url.URLHelper;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * Chooses the gateway for an outbound message. The healthy gateway with the
+ * least outstanding submissions is used. Gateways that repeatedly fail to
+ * deliver a positive SubmissionResult in time are not used for a while.
+ * Because notifications are correlated by message ID only, it does not matter
+ * which gateway delivers them.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public final class GatewayRouter {
+  private static final Logger LOG = LoggerFactory.getLogger(GatewayRouter.class);
+
+  private final ICommonsList<GatewayEndpoint> gateways;
+  private final int maxFailures;
+  private final long ejectionMS;
+  // Rotates the start position, so that equally loaded gateways are used in turn
+  private final AtomicInteger next = new AtomicInteger();
+
+  public GatewayRouter(@Nonnull final List<GatewayEndpoint> gateways,
+                       @Nonnegative final int maxFailures,
+                       @Nonnegative final long ejectionMS) {
+    ValueEnforcer.notEmptyNoNullValue(gateways, "Gateways");
+    ValueEnforcer.isGT0(maxFailures, "MaxFailures");
+    ValueEnforcer.isGE0(ejectionMS, "EjectionMS");
+    this.gateways = new CommonsArrayList<>(gateways);
+    this.maxFailures = maxFailures;
+    this.ejectionMS = ejectionMS;
+  }
+
+  /**
+   * @return A new router with the gateways from the configuration. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException If no gateway is configured
+   */
+  @Nonnull
+  public static GatewayRouter createFromConfig() {
+    final ICommonsList<GatewayEndpoint> gateways = new CommonsArrayList<>();
+    int index = 1;
+    String endpoint;
+    while (StringHelper.hasText(endpoint = TCConfig.MEM.getMEMAS4GatewayEndpoint(index))) {
+      gateways.add(_create(endpoint, TCConfig.MEM.getMEMAS4GatewayPartyID(index)));
+      index++;
+    }
+    if (gateways.isEmpty()) {
+      // Single gateway configuration
+      endpoint = TCConfig.MEM.getMEMAS4Endpoint();
+      if (StringHelper.hasNoText(endpoint))
+        throw new IllegalStateException("No AS4 gateway endpoint is configured");
+      gateways.add(_create(endpoint, TCConfig.MEM.getMEMAS4GwPartyID()));
+    } else
+      LOG.info("Using " + gateways.size() + " AS4 gateways: " + gateways);
+    return new GatewayRouter(gateways, TCConfig.MEM.getGatewayMaxFailures(), TCConfig.MEM.getGatewayEjectionMS());
+  }
+
+  @Nonnull
+  private static GatewayEndpoint _create(@Nonnull final String endpoint, final String partyID) {
+    return new GatewayEndpoint(URLHelper.getAsURL(endpoint), partyID);
+  }
+
+  /**
+   * @return All gateways. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList<GatewayEndpoint> getAllGateways() {
+    return gateways.getClone();
+  }
+
+  /**
+   * Choose the gateway for the next message and count the message as
+   * outstanding. Each call must be followed by exactly one call to
+   * {@link #onSuccess(GatewayEndpoint)}, {@link #onFailure(GatewayEndpoint)} or
+   * {@link #release(GatewayEndpoint)}.
+   *
+   * @return The gateway to use. Never <code>null</code>.
+   */
+  @Nonnull
+  public GatewayEndpoint acquire() {
+    final long now = System.currentTimeMillis();
+    final int size = gateways.size();
+    final int start = Math.floorMod(next.getAndIncrement(), size);
+
+    GatewayEndpoint best = null;
+    for (int i = 0; i < size; ++i) {
+      final GatewayEndpoint gateway = gateways.get((start + i) % size);
+      if (gateway.isHealthy(now) && (best == null || gateway.getOutstanding() < best.getOutstanding()))
+        best = gateway;
+    }
+    if (best == null) {
+      // All gateways are ejected - better try one than fail right away
+      best = gateways.get(start);
+      LOG.warn("All AS4 gateways are currently marked as unhealthy - using " + best.getURL());
+    }
+    best.incrementOutstanding();
+    return best;
+  }
+
+  /**
+   * The message was not sent for reasons unrelated to the gateway.
+   *
+   * @param gateway The gateway returned by {@link #acquire()}.
+   */
+  public void release(@Nonnull final GatewayEndpoint gateway) {
+    gateway.decrementOutstanding();
+  }
+
+  /**
+   * A positive SubmissionResult was received.
+   *
+   * @param gateway The gateway returned by {@link #acquire()}.
+   */
+  public void onSuccess(@Nonnull final GatewayEndpoint gateway) {
+    gateway.decrementOutstanding();
+    gateway.onSuccess();
+  }
+
+  /**
+   * Sending failed, or no or a negative SubmissionResult was received.
+   *
+   * @param gateway The gateway returned by {@link #acquire()}.
+   */
+  public void onFailure(@Nonnull final GatewayEndpoint gateway) {
+    gateway.decrementOutstanding();
+    if (gateway.onFailure(System.currentTimeMillis(), maxFailures, ejectionMS))
+      LOG.warn("AS4 gateway " + gateway.getURL() + " failed " + maxFailures + " times in a row - not using it for " +
+               ejectionMS + " ms");
+  }
+
+  /**
+   * @return The outstanding submissions, health and failure count per gateway
+   *         for the status page. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap<String, Object> getStatusData() {
+    final ICommonsOrderedMap<String, Object> ret = new CommonsLinkedHashMap<>();
+    final long now = System.currentTimeMillis();
+    int index = 1;
+    for (final GatewayEndpoint gateway : gateways) {
+      final String prefix = "gateway." + index + ".";
+      ret.put(prefix + "url", gateway.getURL().toExternalForm());
+      ret.put(prefix + "outstanding", Integer.valueOf(gateway.getOutstanding()));
+      ret.put(prefix + "healthy", Boolean.valueOf(gateway.isHealthy(now)));
+      ret.put(prefix + "failures", Long.valueOf(gateway.getTotalFailures()));
+      index++;
+    }
+    return ret;
+  }
+}
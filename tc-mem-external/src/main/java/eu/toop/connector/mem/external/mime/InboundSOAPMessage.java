@@ -0,0 +1,294 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.mime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.xml.soap.AttachmentPart;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.mime.MimeTypeParserException;
+import com.helger.commons.string.StringHelper;
+
+import eu.toop.connector.mem.external.SoapUtil;
+
+/**
+ * An inbound SOAP message that was read incrementally from a stream. For
+ * <code>multipart/related</code> content, the SOAP part is kept in memory,
+ * while every attachment above the spill threshold is written to a temporary
+ * file. The attachments of the resulting {@link SOAPMessage} read from these
+ * parts on demand. {@link #close()} must be called to delete the temporary
+ * files.
+ *
+ * @since 2.1.2
+ */
+public final class InboundSOAPMessage implements AutoCloseable {
+  private final SOAPMessage message;
+  private final List<SpillingOutputStream> parts;
+
+  private InboundSOAPMessage(@Nonnull final SOAPMessage message, @Nonnull final List<SpillingOutputStream> parts) {
+    this.message = message;
+    this.parts = parts;
+  }
+
+  /**
+   * @return The parsed SOAP message. Never <code>null</code>. Attachments are
+   *         only readable until {@link #close()} is called.
+   */
+  @Nonnull
+  public SOAPMessage getMessage() {
+    return message;
+  }
+
+  /**
+   * @return The number of attachments that were spilled to temporary files.
+   */
+  public int getSpilledPartCount() {
+    int ret = 0;
+    for (final SpillingOutputStream part : parts)
+      if (part.isSpilled())
+        ret++;
+    return ret;
+  }
+
+  /**
+   * Delete all temporary files.
+   */
+  @Override
+  public void close() {
+    for (final SpillingOutputStream part : parts)
+      part.delete();
+  }
+
+  /**
+   * A data source on a part that was read from the stream, applying the
+   * content transfer encoding.
+   */
+  private static final class PartDataSource implements DataSource {
+    private final SpillingOutputStream content;
+    private final String contentType;
+    private final String name;
+    private final boolean base64;
+
+    PartDataSource(@Nonnull final SpillingOutputStream content,
+                   @Nonnull final String contentType,
+                   @Nullable final String name,
+                   final boolean base64) {
+      this.content = content;
+      this.contentType = contentType;
+      this.name = name;
+      this.base64 = base64;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      final InputStream ret = content.openInputStream();
+      return base64 ? Base64.getMimeDecoder().wrap(ret) : ret;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      throw new IOException("Inbound MIME parts are read-only");
+    }
+
+    @Override
+    public String getContentType() {
+      return contentType;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+
+  private static boolean isBase64(@Nonnull final Map<String, String> partHeaders) throws IOException {
+    final String cte = partHeaders.get("content-transfer-encoding");
+    if (StringHelper.hasNoText(cte))
+      return false;
+    switch (cte.trim().toLowerCase(Locale.US)) {
+    case "binary":
+    case "8bit":
+    case "7bit":
+      return false;
+    case "base64":
+      return true;
+    default:
+      throw new IOException("Unsupported Content-Transfer-Encoding '" + cte + "'");
+    }
+  }
+
+  @Nullable
+  private static String unquote(@Nullable final String s) {
+    if (s != null && s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"')
+      return s.substring(1, s.length() - 1);
+    return s;
+  }
+
+  @Nonnull
+  private static SOAPMessage createMessage(@Nonnull final MimeHeaders headers, @Nonnull final InputStream is)
+      throws IOException, SOAPException {
+    final SOAPMessage ret = SoapUtil.createMessage(headers, is);
+    // Parse the envelope now, while the content is still available
+    ret.getSOAPPart().getEnvelope();
+    return ret;
+  }
+
+  /**
+   * Read a SOAP message from the provided stream.
+   *
+   * @param httpHeaders    The transport headers. Must contain the
+   *                       <code>Content-Type</code>. May not be
+   *                       <code>null</code>.
+   * @param is             The stream to read from. Is not closed. May not be
+   *                       <code>null</code>.
+   * @param spillThreshold The size in bytes above which attachments are
+   *                       written to temporary files.
+   * @return The read message. Never <code>null</code>.
+   * @throws IOException   In case of a read error or an invalid MIME structure
+   * @throws SOAPException In case the SOAP part is invalid
+   */
+  @Nonnull
+  public static InboundSOAPMessage read(@Nonnull final MimeHeaders httpHeaders,
+                                        @Nonnull @WillNotClose final InputStream is,
+                                        final long spillThreshold) throws IOException, SOAPException {
+    ValueEnforcer.notNull(httpHeaders, "HttpHeaders");
+    ValueEnforcer.notNull(is, "InputStream");
+
+    final String[] contentTypes = httpHeaders.getHeader("Content-Type");
+    final String contentType = contentTypes == null || contentTypes.length == 0 ? null : contentTypes[0];
+    IMimeType mimeType = null;
+    if (StringHelper.hasText(contentType)) {
+      try {
+        mimeType = MimeTypeParser.parseMimeType(contentType);
+      } catch (final MimeTypeParserException ex) {
+        throw new IOException("Invalid Content-Type '" + contentType + "'", ex);
+      }
+    }
+
+    if (mimeType == null || !"multipart/related".equalsIgnoreCase(mimeType.getAsStringWithoutParameters())) {
+      // Single part - no attachments
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream()) {
+        final byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = is.read(buffer)) >= 0)
+          aBAOS.write(buffer, 0, read);
+        final SOAPMessage message = createMessage(httpHeaders,
+                                                  new NonBlockingByteArrayInputStream(aBAOS.directGetBuffer(),
+                                                                                      0,
+                                                                                      aBAOS.size()));
+        return new InboundSOAPMessage(message, new ArrayList<>());
+      }
+    }
+
+    final String boundary = unquote(mimeType.getParameterValueWithName("boundary"));
+    if (StringHelper.hasNoText(boundary))
+      throw new IOException("Content-Type '" + contentType + "' has no boundary");
+    final String start = unquote(mimeType.getParameterValueWithName("start"));
+
+    final MultipartStreamReader reader = new MultipartStreamReader(is, boundary);
+    reader.skipPreamble();
+
+    SOAPMessage message = null;
+    final List<SpillingOutputStream> parts = new ArrayList<>();
+    final List<Map<String, String>> partHeaders = new ArrayList<>();
+    try {
+      while (reader.hasNextPart()) {
+        final Map<String, String> headers = reader.readPartHeaders();
+        final boolean isRoot = message == null &&
+                               (start == null ? parts.isEmpty() : start.equals(headers.get("content-id")));
+        if (isRoot) {
+          // The SOAP part is always kept in memory
+          try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream()) {
+            reader.readPartBody(aBAOS);
+            final MimeHeaders rootHeaders = new MimeHeaders();
+            for (final Map.Entry<String, String> e : headers.entrySet())
+              rootHeaders.addHeader(e.getKey(), e.getValue());
+            message = createMessage(rootHeaders,
+                                    new NonBlockingByteArrayInputStream(aBAOS.directGetBuffer(), 0, aBAOS.size()));
+          }
+        } else {
+          final SpillingOutputStream part = new SpillingOutputStream(spillThreshold);
+          parts.add(part);
+          partHeaders.add(headers);
+          try {
+            reader.readPartBody(part);
+          } finally {
+            part.close();
+          }
+        }
+      }
+      if (message == null)
+        throw new IOException("No SOAP root part found in multipart/related message");
+
+      for (int i = 0; i < parts.size(); ++i) {
+        final Map<String, String> headers = partHeaders.get(i);
+        final String partContentType = StringHelper.getNotNull(headers.get("content-type"), "application/octet-stream");
+        final AttachmentPart attachment = message.createAttachmentPart();
+        attachment.setDataHandler(new DataHandler(new PartDataSource(parts.get(i),
+                                                                     partContentType,
+                                                                     headers.get("content-id"),
+                                                                     isBase64(headers))));
+        for (final Map.Entry<String, String> e : headers.entrySet())
+          if (!"content-transfer-encoding".equals(e.getKey()))
+            attachment.setMimeHeader(e.getKey(), e.getValue());
+        message.addAttachmentPart(attachment);
+      }
+      return new InboundSOAPMessage(message, parts);
+    } catch (final IOException | SOAPException | RuntimeException ex) {
+      for (final SpillingOutputStream part : parts)
+        part.delete();
+      throw ex;
+    }
+  }
+}
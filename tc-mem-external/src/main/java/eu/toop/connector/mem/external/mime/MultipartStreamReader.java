@@ -0,0 +1,262 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.mime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Incremental reader for a MIME multipart body (RFC 2046). The parts are read
+ * one after the other directly from the underlying stream - only a small
+ * window of the stream is buffered at any time.
+ *
+ * <pre>
+ * reader.skipPreamble ();
+ * while (reader.hasNextPart ()) {
+ *   headers = reader.readPartHeaders ();
+ *   reader.readPartBody (out);
+ * }
+ * </pre>
+ *
+ * @since 2.1.2
+ */
+@NotThreadSafe
+public final class MultipartStreamReader {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_HEADER_LINE_LENGTH = 16 * 1024;
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+
+  private final InputStream in;
+  /** CRLF--boundary */
+  private final byte[] delimiter;
+  private final byte[] buf;
+  private int pos;
+  private int limit;
+  private boolean eof;
+  private boolean lastPartRead;
+
+  /**
+   * Constructor
+   *
+   * @param in       The stream to read from. Is not closed by this class. May
+   *                 not be <code>null</code>.
+   * @param boundary The MIME boundary without the leading dashes. May neither be
+   *                 <code>null</code> nor empty.
+   */
+  public MultipartStreamReader(@Nonnull @WillNotClose final InputStream in, @Nonnull final String boundary) {
+    ValueEnforcer.notNull(in, "InputStream");
+    ValueEnforcer.notEmpty(boundary, "Boundary");
+    this.in = in;
+    delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+    buf = new byte[Math.max(BUFFER_SIZE, delimiter.length * 4)];
+    // The first boundary may be at the very beginning of the stream, so add a
+    // virtual CRLF in front of it
+    buf[0] = CR;
+    buf[1] = LF;
+    limit = 2;
+  }
+
+  /**
+   * Make sure that at least the provided number of bytes are available in the
+   * buffer, unless the end of the stream is reached.
+   */
+  private void fill(final int minAvailable) throws IOException {
+    if (limit - pos >= minAvailable || eof)
+      return;
+    if (pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+      limit -= pos;
+      pos = 0;
+    }
+    while (limit < minAvailable && !eof) {
+      final int read = in.read(buf, limit, buf.length - limit);
+      if (read < 0)
+        eof = true;
+      else
+        limit += read;
+    }
+  }
+
+  private int indexOfDelimiter() {
+    final int last = limit - delimiter.length;
+    outer: for (int i = pos; i <= last; ++i) {
+      for (int j = 0; j < delimiter.length; ++j)
+        if (buf[i + j] != delimiter[j])
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Copy everything up to the next delimiter to the provided stream and
+   * consume the delimiter.
+   *
+   * @param out The stream to write to. May be <code>null</code> to skip the
+   *            content.
+   */
+  private void copyUntilDelimiter(@Nullable final OutputStream out) throws IOException {
+    while (true) {
+      fill(buf.length);
+      final int idx = indexOfDelimiter();
+      if (idx >= 0) {
+        if (out != null)
+          out.write(buf, pos, idx - pos);
+        pos = idx + delimiter.length;
+        break;
+      }
+      if (eof)
+        throw new EOFException("Unexpected end of MIME multipart stream - boundary not found");
+      // Keep the tail, as it may contain the beginning of the delimiter
+      final int safeEnd = limit - delimiter.length + 1;
+      if (out != null)
+        out.write(buf, pos, safeEnd - pos);
+      pos = safeEnd;
+    }
+
+    // After the delimiter either "--" (close delimiter) or transport padding
+    // and CRLF follows
+    fill(2);
+    if (limit - pos >= 2 && buf[pos] == '-' && buf[pos + 1] == '-') {
+      pos += 2;
+      lastPartRead = true;
+      return;
+    }
+    while (true) {
+      fill(1);
+      if (limit - pos < 1)
+        throw new EOFException("Unexpected end of MIME multipart stream after boundary");
+      final byte b = buf[pos++];
+      if (b == LF)
+        break;
+      if (b != CR && b != ' ' && b != '\t')
+        throw new IOException("Invalid character after MIME boundary: " + (b & 0xff));
+    }
+  }
+
+  /**
+   * Skip everything up to and including the first boundary.
+   *
+   * @throws IOException in case of a read error or if no boundary is found
+   */
+  public void skipPreamble() throws IOException {
+    copyUntilDelimiter(null);
+  }
+
+  /**
+   * @return <code>true</code> if there is another part to read,
+   *         <code>false</code> if the close delimiter was reached.
+   */
+  public boolean hasNextPart() {
+    return !lastPartRead;
+  }
+
+  @Nonnull
+  private String readHeaderLine() throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    while (true) {
+      fill(1);
+      if (limit - pos < 1)
+        throw new EOFException("Unexpected end of MIME multipart stream in part headers");
+      final byte b = buf[pos++];
+      if (b == LF)
+        break;
+      if (b != CR) {
+        if (sb.length() >= MAX_HEADER_LINE_LENGTH)
+          throw new IOException("MIME part header line too long");
+        // Header are US-ASCII
+        sb.append((char) (b & 0xff));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Read the headers of the next part.
+   *
+   * @return The headers in the order they appear. The keys are lower-cased.
+   *         Never <code>null</code>.
+   * @throws IOException in case of a read error
+   */
+  @Nonnull
+  public Map<String, String> readPartHeaders() throws IOException {
+    final Map<String, String> ret = new LinkedHashMap<>();
+    String lastName = null;
+    while (true) {
+      final String line = readHeaderLine();
+      if (line.isEmpty())
+        break;
+      if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && lastName != null) {
+        // Folded header
+        ret.put(lastName, ret.get(lastName) + " " + line.trim());
+        continue;
+      }
+      final int colon = line.indexOf(':');
+      if (colon <= 0)
+        throw new IOException("Invalid MIME part header line '" + line + "'");
+      lastName = line.substring(0, colon).trim().toLowerCase(Locale.US);
+      final String value = line.substring(colon + 1).trim();
+      final String existing = ret.get(lastName);
+      ret.put(lastName, StringHelper.hasText(existing) ? existing + ", " + value : value);
+    }
+    return ret;
+  }
+
+  /**
+   * Copy the body of the current part to the provided stream.
+   *
+   * @param out The stream to write to. May not be <code>null</code>. Is not
+   *            closed.
+   * @throws IOException in case of a read or write error
+   */
+  public void readPartBody(@Nonnull @WillNotClose final OutputStream out) throws IOException {
+    ValueEnforcer.notNull(out, "OutputStream");
+    copyUntilDelimiter(out);
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.mime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * An output stream that keeps the content in memory until a threshold is
+ * exceeded, and writes everything to a temporary file afterwards.
+ *
+ * @since 2.1.2
+ */
+@NotThreadSafe
+public final class SpillingOutputStream extends OutputStream {
+  private final long threshold;
+  private NonBlockingByteArrayOutputStream memory = new NonBlockingByteArrayOutputStream();
+  private File file;
+  private OutputStream fileOS;
+  private long size;
+  private boolean closed;
+
+  /**
+   * @param threshold The number of bytes up to which the content is kept in
+   *                  memory. Must be &ge; 0.
+   */
+  public SpillingOutputStream(final long threshold) {
+    ValueEnforcer.isGE0(threshold, "Threshold");
+    this.threshold = threshold;
+  }
+
+  private void spillIfNeeded(final int additional) throws IOException {
+    if (fileOS == null && size + additional > threshold) {
+      file = File.createTempFile("toop-mem-external-", ".part");
+      file.deleteOnExit();
+      fileOS = FileHelper.getBufferedOutputStream(file);
+      if (fileOS == null)
+        throw new IOException("Failed to open temporary file " + file.getAbsolutePath());
+      memory.writeTo(fileOS);
+      memory = null;
+    }
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    spillIfNeeded(1);
+    if (fileOS != null)
+      fileOS.write(b);
+    else
+      memory.write(b);
+    size++;
+  }
+
+  @Override
+  public void write(@Nonnull final byte[] b, final int off, final int len) throws IOException {
+    spillIfNeeded(len);
+    if (fileOS != null)
+      fileOS.write(b, off, len);
+    else
+      memory.write(b, off, len);
+    size += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (fileOS != null)
+      fileOS.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      if (fileOS != null)
+        fileOS.close();
+    }
+  }
+
+  /**
+   * @return The number of bytes written so far.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return <code>true</code> if the content was written to a temporary file.
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  /**
+   * @return The temporary file or <code>null</code> if the content is kept in
+   *         memory.
+   */
+  @Nullable
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return A new input stream on the content. Only valid after
+   *         {@link #close()}.
+   * @throws IOException if the temporary file cannot be opened
+   */
+  @Nonnull
+  public InputStream openInputStream() throws IOException {
+    ValueEnforcer.isTrue(closed, "The stream must be closed first");
+    if (file != null) {
+      final InputStream ret = FileHelper.getBufferedInputStream(file);
+      if (ret == null)
+        throw new IOException("Failed to open temporary file " + file.getAbsolutePath());
+      return ret;
+    }
+    return new NonBlockingByteArrayInputStream(memory.directGetBuffer(), 0, memory.size());
+  }
+
+  /**
+   * Delete the temporary file, if any.
+   */
+  public void delete() {
+    StreamHelper.close(fileOS);
+    if (file != null)
+      FileOperationManager.INSTANCE.deleteFileIfExisting(file);
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.mime;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * An input stream that copies everything that is read to a second output
+ * stream. Errors on the copy are logged and stop the copying, but never affect
+ * the reader. Closing this stream closes the copy as well.
+ *
+ * @since 2.1.2
+ */
+@NotThreadSafe
+public final class TeeInputStream extends FilterInputStream {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TeeInputStream.class);
+
+  private OutputStream copy;
+
+  /**
+   * @param source The stream to read from. May not be <code>null</code>.
+   * @param copy   The stream to copy to. May be <code>null</code> in which case
+   *               nothing is copied.
+   */
+  public TeeInputStream(@Nonnull final InputStream source, @Nullable final OutputStream copy) {
+    super(source);
+    this.copy = copy;
+  }
+
+  private void copy(@Nonnull final byte[] buf, final int off, final int len) {
+    if (copy != null && len > 0) {
+      try {
+        copy.write(buf, off, len);
+      } catch (final IOException ex) {
+        LOGGER.error("Error copying input stream - stopping the copy", ex);
+        StreamHelper.close(copy);
+        copy = null;
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int ret = super.read();
+    if (ret >= 0)
+      copy(new byte[] { (byte) ret }, 0, 1);
+    return ret;
+  }
+
+  @Override
+  public int read(final byte[] buf, final int off, final int len) throws IOException {
+    final int ret = super.read(buf, off, len);
+    copy(buf, off, ret);
+    return ret;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    // Read instead of skipping, so that the copy stays complete
+    final byte[] buf = new byte[(int) Math.min(n, 4096)];
+    final int ret = read(buf, 0, buf.length);
+    return ret < 0 ? 0 : ret;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void mark(final int readlimit) {
+    // not supported
+  }
+
+  @Override
+  public void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      StreamHelper.close(copy);
+      copy = null;
+    }
+  }
+}
@@ -0,0 +1,360 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.notifications;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.connector.mem.external.ResultType;
+
+/**
+ * An {@link INotificationCorrelationStore} for several TC nodes that share a
+ * directory (e.g. an NFS mount). A notification is delivered directly if a
+ * sender on the receiving node waits for it. Otherwise it is written to
+ * <code>&lt;directory&gt;/&lt;type&gt;/&lt;encoded refToMessageID&gt;</code>
+ * and every node periodically claims the files of the messages it waits for.
+ * IDs whose encoding would be too long for a file name are stored under their
+ * SHA-256 hash instead. The full ID is always part of the file content.
+ * <p>
+ * Files are written to a temporary name and renamed atomically, and claimed by
+ * an atomic rename as well, so a notification is delivered exactly once even if
+ * the directory is polled by several nodes. Files that are not claimed within
+ * the retention period are deleted. Notifications are stored as plain
+ * properties files, so no Java deserialization of shared data takes place.
+ *
+ * @since 2.1.2
+ */
+public class DirectoryNotificationCorrelationStore implements INotificationCorrelationStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DirectoryNotificationCorrelationStore.class);
+
+  /**
+   * Longest Base64 encoded file name. Leaves room for the temporary and claimed
+   * suffixes within the common 255 byte limit.
+   */
+  static final int MAX_ENCODED_LENGTH = 160;
+  /** Prefix of hashed file names. Not part of the Base64 URL alphabet. */
+  static final String HASH_PREFIX = "sha256.";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String CLAIMED_SUFFIX = ".claimed";
+
+  private static final String KEY_CLASS = "class";
+  private static final String KEY_MESSAGE_ID = "messageID";
+  private static final String KEY_REF_TO_MESSAGE_ID = "refToMessageID";
+  private static final String KEY_RESULT = "result";
+  private static final String KEY_ERROR_CODE = "errorCode";
+  private static final String KEY_DESCRIPTION = "description";
+  private static final String KEY_SHORT_DESCRIPTION = "shortDescription";
+  private static final String KEY_SEVERITY = "severity";
+
+  private final ConcurrentMap<String, ISubscriber> subscribers = new ConcurrentHashMap<>();
+  private final Path directory;
+  private final long retention;
+  private final String nodeID = UUID.randomUUID().toString();
+  private final ScheduledExecutorService pollScheduler;
+
+  /**
+   * @param directory the directory shared by all nodes. Created if it does not
+   *                  exist yet.
+   * @param pollInterval the interval in milliseconds in which the directory is
+   *                  checked for notifications. Must be &gt; 0.
+   * @param retention the number of milliseconds after which unclaimed
+   *                  notifications are deleted. Must be &gt; 0.
+   * @throws IOException if the directory cannot be created
+   */
+  public DirectoryNotificationCorrelationStore(@Nonnull final Path directory,
+      @Nonnegative final long pollInterval, @Nonnegative final long retention) throws IOException {
+    ValueEnforcer.notNull(directory, "Directory");
+    ValueEnforcer.isGT0(pollInterval, "PollInterval");
+    ValueEnforcer.isGT0(retention, "Retention");
+    this.directory = Files.createDirectories(directory);
+    this.retention = retention;
+
+    pollScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread ret = new Thread(r, "mem-notification-store-poll");
+      ret.setDaemon(true);
+      return ret;
+    });
+    pollScheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return The shared directory. Never <code>null</code>.
+   */
+  @Nonnull
+  public Path getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public void subscribe(@Nonnull final String type, @Nonnull final ISubscriber subscriber) {
+    ValueEnforcer.notNull(type, "Type");
+    ValueEnforcer.notNull(subscriber, "Subscriber");
+    try {
+      Files.createDirectories(directory.resolve(type));
+    } catch (final IOException ex) {
+      throw new IllegalStateException("Failed to create the notification directory for " + type, ex);
+    }
+    subscribers.put(type, subscriber);
+  }
+
+  @Override
+  public void publish(@Nonnull final String type, @Nonnull final Notification notification) {
+    final String submitMessageID = notification.getRefToMessageID();
+    final ISubscriber subscriber = subscribers.get(type);
+    if (subscriber != null && subscriber.isWaitingFor(submitMessageID)) {
+      // Fast path: the sender waits on this node
+      subscriber.deliver(notification);
+      return;
+    }
+
+    final Path target = directory.resolve(type).resolve(encodeFileName(submitMessageID));
+    final Path temp = target.resolveSibling(target.getFileName() + "." + nodeID + TEMP_SUFFIX);
+    try {
+      try (final OutputStream os = Files.newOutputStream(temp)) {
+        toProperties(notification).store(os, null);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+      if (LOG.isDebugEnabled())
+        LOG.debug("Stored " + type + " for " + submitMessageID + " in " + target);
+    } catch (final IOException ex) {
+      LOG.error("Failed to store " + type + " for " + submitMessageID + " in " + target, ex);
+      try {
+        Files.deleteIfExists(temp);
+      } catch (final IOException ex2) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Claim and deliver all stored notifications a sender on this node waits for,
+   * and delete the ones whose retention period elapsed.
+   */
+  final void poll() {
+    for (final Map.Entry<String, ISubscriber> entry : subscribers.entrySet()) {
+      try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory.resolve(entry.getKey()))) {
+        final long expiryTime = System.currentTimeMillis() - retention;
+        for (final Path file : files) {
+          final String fileName = file.getFileName().toString();
+          if (fileName.endsWith(CLAIMED_SUFFIX) || fileName.endsWith(TEMP_SUFFIX)) {
+            deleteIfExpired(file, expiryTime);
+            continue;
+          }
+
+          final String submitMessageID = fileName.startsWith(HASH_PREFIX) ? readRefToMessageID(file)
+              : decodeFileName(fileName);
+          if (submitMessageID != null && entry.getValue().isWaitingFor(submitMessageID))
+            claim(file, entry.getValue());
+          else
+            deleteIfExpired(file, expiryTime);
+        }
+      } catch (final IOException | RuntimeException ex) {
+        // Never let an exception cancel the periodic task
+        LOG.error("Error polling the " + entry.getKey() + " notifications in " + directory, ex);
+      }
+    }
+  }
+
+  private void claim(@Nonnull final Path file, @Nonnull final ISubscriber subscriber) {
+    final Path claimed = file.resolveSibling(file.getFileName() + "." + nodeID + CLAIMED_SUFFIX);
+    try {
+      Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+    } catch (final NoSuchFileException | FileAlreadyExistsException ex) {
+      // Claimed by another node in the meantime
+      return;
+    } catch (final IOException ex) {
+      LOG.error("Failed to claim the notification " + file, ex);
+      return;
+    }
+
+    try {
+      final Properties properties = new Properties();
+      try (final InputStream is = Files.newInputStream(claimed)) {
+        properties.load(is);
+      }
+      subscriber.deliver(fromProperties(properties));
+    } catch (final IOException | RuntimeException ex) {
+      LOG.error("Failed to deliver the notification " + file, ex);
+    } finally {
+      try {
+        Files.deleteIfExists(claimed);
+      } catch (final IOException ex) {
+        LOG.warn("Failed to delete the claimed notification " + claimed);
+      }
+    }
+  }
+
+  private static void deleteIfExpired(@Nonnull final Path file, final long expiryTime) {
+    try {
+      if (Files.getLastModifiedTime(file).toMillis() < expiryTime && Files.deleteIfExists(file))
+        LOG.info("Deleted the unclaimed notification " + file);
+    } catch (final IOException ex) {
+      // Deleted by another node in the meantime
+    }
+  }
+
+  /**
+   * @return the ID of the message the stored notification refers to, or
+   *         <code>null</code> if the file cannot be read (e.g. because another
+   *         node claimed it in the meantime)
+   */
+  @Nullable
+  private static String readRefToMessageID(@Nonnull final Path file) {
+    try (final InputStream is = Files.newInputStream(file)) {
+      final Properties properties = new Properties();
+      properties.load(is);
+      return properties.getProperty(KEY_REF_TO_MESSAGE_ID);
+    } catch (final NoSuchFileException ex) {
+      return null;
+    } catch (final IOException ex) {
+      LOG.warn("Failed to read the notification " + file, ex);
+      return null;
+    }
+  }
+
+  @Nonnull
+  static String encodeFileName(@Nonnull final String submitMessageID) {
+    final byte[] bytes = submitMessageID.getBytes(StandardCharsets.UTF_8);
+    final String ret = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    if (ret.length() <= MAX_ENCODED_LENGTH)
+      return ret;
+
+    try {
+      final StringBuilder hash = new StringBuilder(HASH_PREFIX);
+      for (final byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+        hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return hash.toString();
+    } catch (final NoSuchAlgorithmException ex) {
+      // Every Java platform supports SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * @return the message ID encoded in the file name, or <code>null</code> if
+   *         the file name is hashed or not an encoded message ID
+   */
+  @Nullable
+  static String decodeFileName(@Nonnull final String fileName) {
+    if (fileName.startsWith(HASH_PREFIX))
+      return null;
+    try {
+      return new String(Base64.getUrlDecoder().decode(fileName), StandardCharsets.UTF_8);
+    } catch (final IllegalArgumentException ex) {
+      LOG.warn("Ignoring the unexpected file " + fileName);
+      return null;
+    }
+  }
+
+  private static void setIfPresent(@Nonnull final Properties properties, @Nonnull final String key, @Nullable final String value) {
+    if (value != null)
+      properties.setProperty(key, value);
+  }
+
+  @Nonnull
+  static Properties toProperties(@Nonnull final Notification notification) {
+    final Properties ret = new Properties();
+    ret.setProperty(KEY_CLASS, notification.getClass().getSimpleName());
+    setIfPresent(ret, KEY_MESSAGE_ID, notification.getMessageID());
+    setIfPresent(ret, KEY_REF_TO_MESSAGE_ID, notification.getRefToMessageID());
+    if (notification.getResult() != null)
+      ret.setProperty(KEY_RESULT, notification.getResult().name());
+    setIfPresent(ret, KEY_ERROR_CODE, notification.getErrorCode());
+    setIfPresent(ret, KEY_DESCRIPTION, notification.getDescription());
+    if (notification instanceof RelayResult) {
+      final RelayResult relayResult = (RelayResult) notification;
+      setIfPresent(ret, KEY_SHORT_DESCRIPTION, relayResult.getShortDescription());
+      setIfPresent(ret, KEY_SEVERITY, relayResult.getSeverity());
+    }
+    return ret;
+  }
+
+  @Nonnull
+  static Notification fromProperties(@Nonnull final Properties properties) {
+    final Notification ret;
+    final String className = properties.getProperty(KEY_CLASS);
+    if (RelayResult.class.getSimpleName().equals(className)) {
+      final RelayResult relayResult = new RelayResult();
+      relayResult.setShortDescription(properties.getProperty(KEY_SHORT_DESCRIPTION));
+      relayResult.setSeverity(properties.getProperty(KEY_SEVERITY));
+      ret = relayResult;
+    } else if (SubmissionResult.class.getSimpleName().equals(className)) {
+      ret = new SubmissionResult();
+    } else {
+      throw new IllegalStateException("Unsupported notification class '" + className + "'");
+    }
+    ret.setMessageID(properties.getProperty(KEY_MESSAGE_ID));
+    ret.setRefToMessageID(properties.getProperty(KEY_REF_TO_MESSAGE_ID));
+    final String result = properties.getProperty(KEY_RESULT);
+    if (result != null)
+      ret.setResult(ResultType.valueOf(result));
+    ret.setErrorCode(properties.getProperty(KEY_ERROR_CODE));
+    ret.setDescription(properties.getProperty(KEY_DESCRIPTION));
+    return ret;
+  }
+
+  @Override
+  public void close() {
+    pollScheduler.shutdownNow();
+  }
+}
@@ -49,4 +49,18 @@ public interface IMessageHandler {
    * @throws Exception in case of error
    */
   void handleMessage(@Nonnull MEMessage meMessage) throws Exception;
+
+  /**
+   * Only relevant if the message handlers run concurrently. The answer to the
+   * gateway is only sent after all synchronous handlers are done, and an
+   * error of a synchronous handler is reported back to the gateway. Errors of
+   * other handlers are only logged.
+   *
+   * @return <code>true</code> if the dispatching must wait for this handler.
+   *         Defaults to <code>true</code>.
+   * @since 2.1.2
+   */
+  default boolean isSynchronous() {
+    return true;
+  }
 }
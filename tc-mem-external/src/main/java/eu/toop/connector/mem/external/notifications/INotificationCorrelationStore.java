@@ -0,0 +1,93 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.notifications;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Correlates the notifications received from the gateway with the senders
+ * waiting for them, possibly across several TC nodes. A notification published
+ * on one node must be delivered to the subscriber of the node that waits for
+ * it, which may be another node behind the same load balancer.
+ * <p>
+ * Implementations must be thread-safe and must provide either a public no-arg
+ * constructor or be created by {@link NotificationCorrelationStoreFactory}.
+ *
+ * @since 2.1.2
+ */
+public interface INotificationCorrelationStore extends AutoCloseable {
+
+  /**
+   * The local receiver of notifications of one type.
+   */
+  interface ISubscriber {
+    /**
+     * @param submitMessageID the id of the submit message
+     * @return <code>true</code> if a sender on this node is waiting for the
+     *         notification of the given message
+     */
+    boolean isWaitingFor(@Nonnull String submitMessageID);
+
+    /**
+     * Deliver a notification to the waiters of this node.
+     *
+     * @param notification the notification to deliver. Never <code>null</code>.
+     */
+    void deliver(@Nonnull Notification notification);
+  }
+
+  /**
+   * Register the local subscriber for the notifications of the given type.
+   *
+   * @param type       the notification type name
+   * @param subscriber the local subscriber. Never <code>null</code>.
+   */
+  void subscribe(@Nonnull String type, @Nonnull ISubscriber subscriber);
+
+  /**
+   * Publish a notification received from the gateway, so that it reaches the
+   * waiter for it, no matter on which node it waits.
+   *
+   * @param type         the notification type name
+   * @param notification the received notification. Never <code>null</code>.
+   */
+  void publish(@Nonnull String type, @Nonnull Notification notification);
+
+  /**
+   * Release all resources of this store. Does nothing by default.
+   */
+  @Override
+  default void close() {
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.notifications;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * The default {@link INotificationCorrelationStore} that only works within a
+ * single TC node. Notifications are handed to the local subscriber directly,
+ * which also keeps notifications that arrive before their waiter.
+ *
+ * @since 2.1.2
+ */
+public class InMemoryNotificationCorrelationStore implements INotificationCorrelationStore {
+
+  private final ConcurrentMap<String, ISubscriber> subscribers = new ConcurrentHashMap<>();
+
+  @Override
+  public void subscribe(@Nonnull final String type, @Nonnull final ISubscriber subscriber) {
+    ValueEnforcer.notNull(type, "Type");
+    ValueEnforcer.notNull(subscriber, "Subscriber");
+    subscribers.put(type, subscriber);
+  }
+
+  @Override
+  public void publish(@Nonnull final String type, @Nonnull final Notification notification) {
+    final ISubscriber subscriber = subscribers.get(type);
+    if (subscriber == null)
+      throw new IllegalStateException("No subscriber for " + type + " notifications");
+    subscriber.deliver(notification);
+  }
+}
@@ -33,74 +33,346 @@
  */
 package eu.toop.connector.mem.external.notifications;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-
-import com.helger.commons.CGlobal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 import com.helger.commons.ValueEnforcer;
-import com.helger.commons.wrapper.Wrapper;
 
+import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
 
 /**
+ * Correlates the notifications received from the gateway with the senders
+ * waiting for them. Each submit message ID is mapped to a
+ * {@link CompletableFuture} that is completed by the gateway callback, so no
+ * thread needs to be parked while waiting.
+ * <p>
+ * Every entry nobody waits for is additionally recorded in an expiry index in
+ * creation order. As all entries share the same retention period, the head of
+ * that index is always the entry that expires next, so notifications that
+ * were never awaited are evicted in O(expired) without scanning the map. As
+ * soon as a waiter registers, its entry moves to a separate waiter index and
+ * is only bound by the timeout of the waiter, so waiting longer than the
+ * retention period, or forever, is possible. Entries consumed by a
+ * waiter are removed from the indexes right away. The number of entries is
+ * capped, and the oldest entries of both indexes are evicted first if the cap
+ * is exceeded.
+ * <p>
+ * Received notifications are published via an
+ * {@link INotificationCorrelationStore}, so that they reach the waiter even if
+ * it waits on another TC node.
+ *
  * @author yerlibilgin
  */
 public class InternalNotificationHandler {
 
   private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(InternalNotificationHandler.class);
 
-  private final Map<String, Wrapper<Notification>> messageQueue = new HashMap<>();
+  /**
+   * Shared scheduler that only fires the timeouts of pending waiters and the
+   * expiry sweeps. Futures are never completed on it, see
+   * {@link #COMPLETION_EXECUTOR}.
+   */
+  private static final ScheduledExecutorService TIMEOUT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+    final Thread ret = new Thread(r, "mem-notification-timeout");
+    ret.setDaemon(true);
+    return ret;
+  });
+
+  /**
+   * Completes the futures of timed out and expired waiters. The dependent
+   * stages of the waiters run on the completing thread, so a slow stage must
+   * not delay the other timeouts and the expiry sweeps on the scheduler.
+   */
+  private static final ExecutorService COMPLETION_EXECUTOR;
+  static {
+    final AtomicInteger threadIndex = new AtomicInteger();
+    COMPLETION_EXECUTOR = Executors.newCachedThreadPool(r -> {
+      final Thread ret = new Thread(r, "mem-notification-completion-" + threadIndex.incrementAndGet());
+      ret.setDaemon(true);
+      return ret;
+    });
+  }
+
+  /**
+   * Interval of the expiry sweep in milliseconds
+   */
+  private static final long EXPIRY_SWEEP_INTERVAL = 1000;
+
+  /**
+   * An entry of the expiry index
+   */
+  private static final class ExpiryEntry {
+    private final String messageID;
+    private final CompletableFuture<Notification> carrier;
+    private final long deadline;
+    // creation order, as several entries may share the same deadline
+    private final long sequence;
+
+    ExpiryEntry(final String messageID, final CompletableFuture<Notification> carrier, final long deadline,
+        final long sequence) {
+      this.messageID = messageID;
+      this.carrier = carrier;
+      this.deadline = deadline;
+      this.sequence = sequence;
+    }
+  }
+
+  private final ConcurrentMap<String, CompletableFuture<Notification>> messageQueue = new ConcurrentHashMap<>();
+  // insertion ordered, so the head expires first
+  @GuardedBy("expiryIndex")
+  private final LinkedHashMap<String, ExpiryEntry> expiryIndex = new LinkedHashMap<>();
+  // entries with a registered waiter, insertion ordered; not subject to the
+  // retention period
+  @GuardedBy("expiryIndex")
+  private final LinkedHashMap<String, ExpiryEntry> waiterIndex = new LinkedHashMap<>();
+  @GuardedBy("expiryIndex")
+  private long entrySequence;
+  private final AtomicLong evictedByTimeout = new AtomicLong();
+  private final AtomicLong evictedByCapacity = new AtomicLong();
   private final String targetTypeName;
+  private final long retention;
+  private final int maxPending;
+  private final INotificationCorrelationStore store;
+  private final ScheduledFuture<?> expirySweep;
 
   public InternalNotificationHandler(final Class<? extends Notification> targetType) {
-    this.targetTypeName = targetType.getSimpleName();
+    this(targetType, new InMemoryNotificationCorrelationStore());
+  }
+
+  /**
+   * @param targetType the notification type handled
+   * @param store      the store correlating the notifications across nodes.
+   *                   May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public InternalNotificationHandler(final Class<? extends Notification> targetType,
+      @Nonnull final INotificationCorrelationStore store) {
+    this(targetType,
+         TCConfig.MEM.getGatewayNotificationRetentionMS(),
+         TCConfig.MEM.getGatewayNotificationMaxPending(),
+         store);
+  }
 
-    // create a timer to periodically purge the expired notification and submission
-    // result messages
+  /**
+   * @param targetType the notification type handled
+   * @param retention  the number of milliseconds after which an entry nobody
+   *                   waits for is evicted. Waiters are only bound by their
+   *                   own timeout. Must be &gt; 0.
+   * @param maxPending the maximum number of entries. Must be &gt; 0.
+   */
+  public InternalNotificationHandler(final Class<? extends Notification> targetType,
+      @Nonnegative final long retention, @Nonnegative final int maxPending) {
+    this(targetType, retention, maxPending, new InMemoryNotificationCorrelationStore());
+  }
 
-    final Timer timer = new Timer(targetTypeName + "-purgatory-timer");
+  /**
+   * @param targetType the notification type handled
+   * @param retention  the number of milliseconds after which an entry nobody
+   *                   waits for is evicted. Waiters are only bound by their
+   *                   own timeout. Must be &gt; 0.
+   * @param maxPending the maximum number of entries. Must be &gt; 0.
+   * @param store      the store correlating the notifications across nodes.
+   *                   May not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public InternalNotificationHandler(final Class<? extends Notification> targetType,
+      @Nonnegative final long retention, @Nonnegative final int maxPending,
+      @Nonnull final INotificationCorrelationStore store) {
+    ValueEnforcer.isGT0(retention, "Retention");
+    ValueEnforcer.isGT0(maxPending, "MaxPending");
+    ValueEnforcer.notNull(store, "Store");
+    this.targetTypeName = targetType.getSimpleName();
+    this.retention = retention;
+    this.maxPending = maxPending;
+    this.store = store;
 
-    final long delay = 5 * CGlobal.MILLISECONDS_PER_MINUTE; // 5 minutes
-    final long period = 5 * CGlobal.MILLISECONDS_PER_MINUTE; // 5 minutes
+    store.subscribe(targetTypeName, new INotificationCorrelationStore.ISubscriber() {
+      @Override
+      public boolean isWaitingFor(@Nonnull final String submitMessageID) {
+        final CompletableFuture<Notification> carrier = messageQueue.get(submitMessageID);
+        return carrier != null && !carrier.isDone();
+      }
 
-    timer.scheduleAtFixedRate(new TimerTask() {
       @Override
-      public void run() {
-        purgeExpiredNotifications();
+      public void deliver(@Nonnull final Notification notification) {
+        completeCarrier(notification);
       }
-    }, delay, period);
+    });
+
+    // periodically evict the expired notifications and waiters
+    expirySweep = TIMEOUT_SCHEDULER.scheduleWithFixedDelay(this::evictExpired,
+                                                           EXPIRY_SWEEP_INTERVAL,
+                                                           EXPIRY_SWEEP_INTERVAL,
+                                                           TimeUnit.MILLISECONDS);
   }
 
-  protected void handleNotification(final Notification notification) {
-    Wrapper<Notification> carrier;
+  @Nonnull
+  private CompletableFuture<Notification> getCarrier(@Nonnull final String submitMessageID) {
+    final CompletableFuture<Notification> existing = messageQueue.get(submitMessageID);
+    if (existing != null)
+      return existing;
 
-    LOG.info("Received a notification " + notification.getMessageID() + "\n\t" + notification.getRefToMessageID());
-    // check the message quee and see if the new object is already there
-    synchronized (messageQueue) {
-      final String submitMessageID = notification.getRefToMessageID();
-      if (messageQueue.containsKey(submitMessageID)) {
-        carrier = messageQueue.get(submitMessageID);
-      } else {
-        carrier = new Wrapper<>();
-        messageQueue.put(submitMessageID, carrier);
+    final CompletableFuture<Notification> created = new CompletableFuture<>();
+    final CompletableFuture<Notification> ret = messageQueue.putIfAbsent(submitMessageID, created);
+    if (ret != null)
+      return ret;
+
+    synchronized (expiryIndex) {
+      final ExpiryEntry entry = new ExpiryEntry(submitMessageID, created, System.currentTimeMillis() + retention,
+          entrySequence++);
+      // re-insert to keep the index in creation order
+      expiryIndex.remove(submitMessageID);
+      waiterIndex.remove(submitMessageID);
+      expiryIndex.put(submitMessageID, entry);
+    }
+    if (messageQueue.size() > maxPending)
+      evictOverCapacity();
+    return created;
+  }
+
+  /**
+   * Remove the entry of the given carrier from the map and the indexes.
+   *
+   * @return <code>true</code> if the carrier was still registered
+   */
+  private boolean removeEntry(@Nonnull final String submitMessageID,
+      @Nonnull final CompletableFuture<Notification> carrier) {
+    synchronized (expiryIndex) {
+      ExpiryEntry entry = expiryIndex.get(submitMessageID);
+      if (entry != null && entry.carrier == carrier)
+        expiryIndex.remove(submitMessageID);
+      entry = waiterIndex.get(submitMessageID);
+      if (entry != null && entry.carrier == carrier)
+        waiterIndex.remove(submitMessageID);
+    }
+    return messageQueue.remove(submitMessageID, carrier);
+  }
+
+  /**
+   * Exempt the entry of the given carrier from the retention period, because
+   * a waiter with its own timeout registered for it.
+   */
+  private void markAwaited(@Nonnull final String submitMessageID,
+      @Nonnull final CompletableFuture<Notification> carrier) {
+    synchronized (expiryIndex) {
+      final ExpiryEntry entry = expiryIndex.get(submitMessageID);
+      if (entry != null && entry.carrier == carrier) {
+        expiryIndex.remove(submitMessageID);
+        waiterIndex.put(submitMessageID, entry);
       }
     }
+  }
+
+  protected void handleNotification(final Notification notification) {
+    LOG.info("Received a notification " + notification.getMessageID() + "\n\t" + notification.getRefToMessageID());
 
-    // now that we have a carrier, notify anyone who waits for it
-    synchronized (carrier) {
-      carrier.set(notification);
-      carrier.notifyAll();
+    // hand it to the waiter, which may wait on another node
+    store.publish(targetTypeName, notification);
+  }
+
+  private void completeCarrier(@Nonnull final Notification notification) {
+    // complete the carrier and thereby notify anyone who waits for it
+    final String submitMessageID = notification.getRefToMessageID();
+    if (!getCarrier(submitMessageID).complete(notification)) {
+      LOG.warn("Ignoring " + targetTypeName + " for " + submitMessageID + " because the waiter is already done");
     }
   }
 
+  /**
+   * Register interest in a {@link Notification} for a message with the given
+   * <code>submitMessageID</code>. The returned future is completed as soon as
+   * the notification arrives (or immediately, if it was already received), or
+   * completed exceptionally with a {@link MEOutgoingException} if it did not
+   * arrive within <code>timeout</code> milliseconds. The retention period of
+   * the handler does not apply to the waiter.
+   *
+   * @param submitMessageID the id of the submit message
+   * @param timeout         maximum amount to wait for the object. 0 means forever
+   * @return the future {@link Notification}. Never <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture<Notification> obtainNotificationAsync(final String submitMessageID, final long timeout) {
+    ValueEnforcer.isGE0(timeout, "timeout");
+    ValueEnforcer.notNull(submitMessageID, "MessageId");
+
+    if (LOG.isDebugEnabled())
+      LOG.debug("Wait for a " + targetTypeName + " with a messageID: " + submitMessageID);
+
+    final CompletableFuture<Notification> carrier = getCarrier(submitMessageID);
+    if (!carrier.isDone())
+      markAwaited(submitMessageID, carrier);
+
+    if (timeout > 0 && !carrier.isDone()) {
+      final ScheduledFuture<?> timeoutTask = TIMEOUT_SCHEDULER.schedule(() -> completeExceptionallyAsync(carrier,
+                                                                                                         new MEOutgoingException("Couldn't obtain a " +
+                                                                                                                                 targetTypeName +
+                                                                                                                                 " with a messageID " +
+                                                                                                                                 submitMessageID)),
+                                                                        timeout,
+                                                                        TimeUnit.MILLISECONDS);
+      carrier.whenComplete((n, ex) -> timeoutTask.cancel(false));
+    }
+
+    // the carrier is consumed by this waiter
+    return carrier.whenComplete((n, ex) -> removeEntry(submitMessageID, carrier));
+  }
+
+  /**
+   * Stop waiting for the notification of the given message, e.g. because
+   * sending the message failed. A pending waiter is completed exceptionally and
+   * its timeout is cancelled.
+   *
+   * @param submitMessageID the id of the submit message
+   * @return <code>true</code> if an entry was removed
+   * @since 2.1.2
+   */
+  public boolean cancel(@Nonnull final String submitMessageID) {
+    ValueEnforcer.notNull(submitMessageID, "MessageId");
+    final CompletableFuture<Notification> carrier = messageQueue.get(submitMessageID);
+    if (carrier == null || !removeEntry(submitMessageID, carrier))
+      return false;
+
+    carrier.completeExceptionally(new MEOutgoingException("Stopped waiting for a " +
+                                                          targetTypeName +
+                                                          " with a messageID " +
+                                                          submitMessageID));
+    return true;
+  }
+
+  /**
+   * Stop the periodic expiry sweep of this handler. Pending waiters are not
+   * touched.
+   *
+   * @since 2.1.2
+   */
+  public void close() {
+    expirySweep.cancel(false);
+  }
+
   /**
    * Wait for a {@link Notification} for a message with the given
    * <code>submitMessageID</code> and for a maximum timeout of
-   * <code>timeout</code>. Return the obtained notification
+   * <code>timeout</code>. Return the obtained notification. This is the blocking
+   * version of {@link #obtainNotificationAsync(String, long)}.
    *
    * @param submitMessageID the id of the submit message
    * @param timeout         maximum amount to wait for the object. 0 means forever
@@ -108,72 +380,178 @@ public class InternalNotificationHandler {
    * @throws MEOutgoingException If waiting fails
    */
   public Notification obtainNotification(final String submitMessageID, final long timeout) throws MEOutgoingException {
-    ValueEnforcer.isGE0(timeout, "timeout");
-    ValueEnforcer.notNull(submitMessageID, "MessageId");
+    try {
+      return obtainNotificationAsync(submitMessageID, timeout).get();
+    } catch (final InterruptedException e) {
+      if (LOG.isWarnEnabled())
+        LOG.warn("Wait for message " + submitMessageID + " was interrupted.");
+      Thread.currentThread().interrupt();
+      throw new MEOutgoingException("Wait for message " + submitMessageID + " was interrupted.", e);
+    } catch (final ExecutionException e) {
+      throw asMEOutgoingException(e.getCause());
+    }
+  }
 
-    Wrapper<Notification> carrier = null;
+  /**
+   * Unwrap the cause of a failed notification future.
+   *
+   * @param t the exception the future was completed with
+   * @return the {@link MEOutgoingException} to be thrown. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static MEOutgoingException asMEOutgoingException(@Nonnull final Throwable t) {
+    Throwable cause = t;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null)
+      cause = cause.getCause();
+    if (cause instanceof MEOutgoingException)
+      return (MEOutgoingException) cause;
+    return new MEOutgoingException(cause.getMessage(), cause);
+  }
 
-    if (LOG.isDebugEnabled())
-      LOG.debug("Wait for a " + targetTypeName + " with a messageID: " + submitMessageID);
+  /**
+   * @return The number of notifications and waiters currently pending.
+   */
+  @Nonnegative
+  public int getPendingCount() {
+    return messageQueue.size();
+  }
 
-    synchronized (messageQueue) {
-      if (messageQueue.containsKey(submitMessageID)) {
-        if (LOG.isDebugEnabled())
-          LOG.debug("we already have a " + targetTypeName + " message for " + submitMessageID);
-        carrier = messageQueue.remove(submitMessageID);
-      } else {
-        // we don't have a carrier yet. Create one
-        if (LOG.isDebugEnabled())
-          LOG.debug("We don't have a " + targetTypeName +
-                    " waiter for " +
-                    submitMessageID +
-                    ". Create a waiter for it");
-
-        carrier = new Wrapper<>();
-        messageQueue.put(submitMessageID, carrier);
-      }
+  /**
+   * @return The number of entries in the expiry and waiter indexes. Only for
+   *         testing.
+   */
+  @Nonnegative
+  final int getExpiryIndexSize() {
+    synchronized (expiryIndex) {
+      return expiryIndex.size() + waiterIndex.size();
     }
+  }
+
+  /**
+   * @return The number of entries evicted because their retention period
+   *         elapsed.
+   */
+  @Nonnegative
+  public long getEvictedByTimeoutCount() {
+    return evictedByTimeout.get();
+  }
 
-    // we have a nunnull carrier here
-    if (carrier.get() == null) {
-      // we haven't received the actual object yet. So wait for it
-      synchronized (carrier) {
-        try {
-          carrier.wait(timeout);
-        } catch (final InterruptedException e) {
-          if (LOG.isWarnEnabled())
-            LOG.warn("Wait for message " + submitMessageID + " was interrupted.");
-          Thread.currentThread().interrupt();
-          throw new MEOutgoingException("Wait for message " + submitMessageID + " was interrupted.", e);
-        }
+  /**
+   * @return The number of entries evicted because the maximum number of pending
+   *         entries was exceeded.
+   */
+  @Nonnegative
+  public long getEvictedByCapacityCount() {
+    return evictedByCapacity.get();
+  }
+
+  /**
+   * @return the oldest entry of the expiry index, if it expired before the
+   *         provided time. The entry is removed from the index.
+   */
+  @Nullable
+  private ExpiryEntry pollExpired(final long expiredBefore) {
+    synchronized (expiryIndex) {
+      final Iterator<ExpiryEntry> it = expiryIndex.values().iterator();
+      if (!it.hasNext())
+        return null;
+      final ExpiryEntry head = it.next();
+      if (head.deadline > expiredBefore)
+        return null;
+      it.remove();
+      return head;
+    }
+  }
+
+  /**
+   * @return the oldest entry of the expiry and waiter indexes. The entry is
+   *         removed from its index.
+   */
+  @Nullable
+  private ExpiryEntry pollOldest() {
+    synchronized (expiryIndex) {
+      final Iterator<ExpiryEntry> itExpiry = expiryIndex.values().iterator();
+      final Iterator<ExpiryEntry> itWaiter = waiterIndex.values().iterator();
+      final ExpiryEntry headExpiry = itExpiry.hasNext() ? itExpiry.next() : null;
+      final ExpiryEntry headWaiter = itWaiter.hasNext() ? itWaiter.next() : null;
+      if (headExpiry != null && (headWaiter == null || headExpiry.sequence < headWaiter.sequence)) {
+        itExpiry.remove();
+        return headExpiry;
       }
+      if (headWaiter != null)
+        itWaiter.remove();
+      return headWaiter;
     }
+  }
 
-    if (carrier.get() == null) {
-      throw new MEOutgoingException("Couldn't obtain a " + targetTypeName + " with a messageID " + submitMessageID);
+  /**
+   * Complete the provided future exceptionally on the
+   * {@link #COMPLETION_EXECUTOR}, so that its dependent stages don't run on the
+   * calling thread.
+   */
+  private static void completeExceptionallyAsync(@Nonnull final CompletableFuture<Notification> carrier,
+      @Nonnull final Throwable ex) {
+    try {
+      COMPLETION_EXECUTOR.execute(() -> carrier.completeExceptionally(ex));
+    } catch (final RejectedExecutionException rex) {
+      carrier.completeExceptionally(ex);
     }
+  }
 
-    return carrier.get();
+  private boolean evict(@Nonnull final ExpiryEntry entry, @Nonnull final String reason, final boolean async) {
+    if (!messageQueue.remove(entry.messageID, entry.carrier)) {
+      // Already consumed by a waiter
+      return false;
+    }
+
+    if (LOG.isDebugEnabled())
+      LOG.debug("Evicting " + targetTypeName + " entry for " + entry.messageID + " (" + reason + ")");
+    final MEOutgoingException ex = new MEOutgoingException("Couldn't obtain a " +
+                                                           targetTypeName +
+                                                           " with a messageID " +
+                                                           entry.messageID +
+                                                           " (" +
+                                                           reason +
+                                                           ")");
+    if (async)
+      completeExceptionallyAsync(entry.carrier, ex);
+    else
+      entry.carrier.completeExceptionally(ex);
+    return true;
   }
 
   /**
-   * Check the notification and subm.result queue and purge the expired messages
+   * Evict the oldest entries until the maximum number of entries is no longer
+   * exceeded.
    */
-  private void purgeExpiredNotifications() {
-    final long currentTime = System.currentTimeMillis();
-    synchronized (messageQueue) {
-      final List<String> trash = new ArrayList<>();
+  private void evictOverCapacity() {
+    while (messageQueue.size() > maxPending) {
+      final ExpiryEntry head = pollOldest();
+      if (head == null)
+        break;
+      // Runs on the thread adding the new entry
+      if (evict(head, "capacity exceeded", false))
+        evictedByCapacity.incrementAndGet();
+    }
+  }
 
-      for (final Map.Entry<String, Wrapper<Notification>> entry : messageQueue.entrySet()) {
-        final String messageID = entry.getKey();
-        final Wrapper<Notification> carrier = entry.getValue();
-        if (carrier != null && carrier.get() != null && carrier.get().isExpired(currentTime)) {
-          trash.add(messageID);
-        }
-      }
-      for (final String messageID : trash) {
-        messageQueue.remove(messageID);
+  /**
+   * Evict all entries nobody waits for whose retention period elapsed. As the
+   * expiry index is ordered by deadline, only the expired entries are touched.
+   */
+  final void evictExpired() {
+    try {
+      final long currentTime = System.currentTimeMillis();
+      ExpiryEntry head;
+      while ((head = pollExpired(currentTime)) != null) {
+        // Runs on the scheduler
+        if (evict(head, "expired", true))
+          evictedByTimeout.incrementAndGet();
       }
+    } catch (final RuntimeException ex) {
+      // Never let an exception cancel the periodic task
+      LOG.error("Error evicting expired " + targetTypeName + " entries", ex);
     }
   }
 }
@@ -44,6 +44,15 @@ public class InternalRelayResultHandler extends InternalNotificationHandler impl
     super(RelayResult.class);
   }
 
+  /**
+   * @param store the store correlating the notifications across nodes. May
+   *              not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public InternalRelayResultHandler(@Nonnull final INotificationCorrelationStore store) {
+    super(RelayResult.class, store);
+  }
+
   @Override
   public void handleNotification(@Nonnull RelayResult notification) {
     super.handleNotification(notification);
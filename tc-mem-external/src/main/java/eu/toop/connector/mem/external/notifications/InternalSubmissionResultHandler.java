@@ -44,6 +44,15 @@ public class InternalSubmissionResultHandler extends InternalNotificationHandler
     super(SubmissionResult.class);
   }
 
+  /**
+   * @param store the store correlating the notifications across nodes. May
+   *              not be <code>null</code>.
+   * @since 2.1.2
+   */
+  public InternalSubmissionResultHandler(@Nonnull final INotificationCorrelationStore store) {
+    super(SubmissionResult.class, store);
+  }
+
   @Override
   public void handleSubmissionResult(@Nonnull SubmissionResult submissionResult) {
     super.handleNotification(submissionResult);
@@ -0,0 +1,109 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.notifications;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.string.StringHelper;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * Creates the {@link INotificationCorrelationStore} configured via
+ * <code>toop.mem.as4.notification.store</code>.
+ *
+ * @since 2.1.2
+ */
+public final class NotificationCorrelationStoreFactory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NotificationCorrelationStoreFactory.class);
+
+  public static final String STORE_MEMORY = "memory";
+  public static final String STORE_DIRECTORY = "directory";
+
+  private NotificationCorrelationStoreFactory() {
+  }
+
+  /**
+   * @return A new store as configured. Never <code>null</code>.
+   * @throws IllegalStateException if the configuration is invalid
+   */
+  @Nonnull
+  public static INotificationCorrelationStore createFromConfig() {
+    final String store = TCConfig.MEM.getGatewayNotificationStore();
+    if (STORE_MEMORY.equals(store))
+      return new InMemoryNotificationCorrelationStore();
+
+    if (STORE_DIRECTORY.equals(store)) {
+      final String path = TCConfig.MEM.getGatewayNotificationStorePath();
+      if (StringHelper.hasNoText(path))
+        throw new IllegalStateException("The notification store directory is not configured");
+      try {
+        final DirectoryNotificationCorrelationStore ret = new DirectoryNotificationCorrelationStore(Paths.get(path),
+            TCConfig.MEM.getGatewayNotificationStorePollMS(),
+            TCConfig.MEM.getGatewayNotificationRetentionMS());
+        LOG.info("Correlating gateway notifications via the shared directory " + ret.getDirectory());
+        return ret;
+      } catch (final IOException ex) {
+        throw new IllegalStateException("Failed to create the notification store directory " + path, ex);
+      }
+    }
+
+    // Custom implementation
+    final Class<?> storeClass;
+    try {
+      storeClass = Class.forName(store);
+    } catch (final ClassNotFoundException ex) {
+      throw new IllegalStateException("The notification store class '" + store + "' was not found", ex);
+    }
+    if (!INotificationCorrelationStore.class.isAssignableFrom(storeClass))
+      throw new IllegalStateException("The class " + store + " does not implement " + INotificationCorrelationStore.class.getName());
+
+    try {
+      final INotificationCorrelationStore ret = storeClass.asSubclass(INotificationCorrelationStore.class)
+                                                          .getDeclaredConstructor()
+                                                          .newInstance();
+      LOG.info("Correlating gateway notifications via " + store);
+      return ret;
+    } catch (final ReflectiveOperationException ex) {
+      throw new IllegalStateException("Failed to create the notification store '" + store + "'", ex);
+    }
+  }
+}
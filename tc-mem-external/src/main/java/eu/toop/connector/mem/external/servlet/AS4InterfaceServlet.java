@@ -35,37 +35,114 @@ package eu.toop.connector.mem.external.servlet;
 
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnull;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
-import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.CMimeType;
 
+import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.me.incoming.MEIncomingException;
 import eu.toop.connector.mem.external.EBMSUtils;
+import eu.toop.connector.mem.external.EbmsHeaderModel;
 import eu.toop.connector.mem.external.MEMConstants;
 import eu.toop.connector.mem.external.MEMDelegate;
 import eu.toop.connector.mem.external.MEMDumper;
 import eu.toop.connector.mem.external.SoapUtil;
-import eu.toop.connector.mem.external.SoapXPathUtil;
+import eu.toop.connector.mem.external.mime.InboundSOAPMessage;
+import eu.toop.connector.mem.external.mime.TeeInputStream;
 
 /**
  * @author myildiz at 15.02.2018.
  */
-@WebServlet("/from-as4")
+@WebServlet(value = "/from-as4", asyncSupported = true)
 public class AS4InterfaceServlet extends HttpServlet {
 
   private static final Logger LOG = LoggerFactory.getLogger(AS4InterfaceServlet.class);
 
+  /**
+   * Writes exactly one response for an asynchronously processed message -
+   * either the result of the processing or a fault on timeout - and completes
+   * the async context afterwards.
+   */
+  private final class AsyncResponder implements AsyncListener {
+    private final AsyncContext asyncContext;
+    private final SOAPMessage receivedMessage;
+    private final AtomicBoolean responded = new AtomicBoolean(false);
+
+    AsyncResponder(@Nonnull final AsyncContext asyncContext, @Nonnull final SOAPMessage receivedMessage) {
+      this.asyncContext = asyncContext;
+      this.receivedMessage = receivedMessage;
+    }
+
+    void sendReceipt(@Nonnull final byte[] receipt) {
+      if (!responded.compareAndSet(false, true)) {
+        LOG.warn("Processed the message after the response was already sent");
+        return;
+      }
+      try {
+        writeReceipt((HttpServletResponse) asyncContext.getResponse(), receipt);
+      } catch (final IOException | RuntimeException ex) {
+        LOG.error("Error writing the response to the gateway", ex);
+      } finally {
+        asyncContext.complete();
+      }
+    }
+
+    void sendFault(@Nonnull final Throwable th) {
+      if (!responded.compareAndSet(false, true)) {
+        LOG.error("Error processing the message after the response was already sent", th);
+        return;
+      }
+      try {
+        sendBackFault((HttpServletResponse) asyncContext.getResponse(), receivedMessage, th);
+      } catch (final IOException | RuntimeException ex) {
+        LOG.error("Error writing the fault to the gateway", ex);
+      } finally {
+        asyncContext.complete();
+      }
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) {
+      sendFault(new TimeoutException("The message was not processed within " +
+                                     asyncContext.getTimeout() + " milliseconds"));
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) {
+      // The connection is broken - nothing to write anymore
+      if (responded.compareAndSet(false, true)) {
+        LOG.error("Error on the connection to the gateway", event.getThrowable());
+        asyncContext.complete();
+      }
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) {
+      // Nothing to do
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) {
+      // Nothing to do
+    }
+  }
+
   @Override
   protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
 
@@ -78,19 +155,12 @@ public class AS4InterfaceServlet extends HttpServlet {
     resp.setContentType(CMimeType.TEXT_XML.getAsString());
 
     SOAPMessage receivedMessage = null;
+    InboundSOAPMessage inbound = null;
     try {
-      final byte[] bytes = StreamHelper.getAllBytes(req.getInputStream());
-
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("Read inbound message");
-      }
-
-      MEMDumper.dumpIncomingMessage(bytes);
-
-      // Todo, remove buffering later
-      try (final NonBlockingByteArrayInputStream is = new NonBlockingByteArrayInputStream(bytes)) {
-        receivedMessage = SoapUtil.createMessage(mimeHeaders, is);
-      }
+      // Parse while reading, optionally copying the raw bytes to the dump file.
+      // Spilled attachments are deleted when the processing is done.
+      inbound = readInboundMessage(req, mimeHeaders);
+      receivedMessage = inbound.getMessage();
 
       // check if the message is a notification message
 
@@ -98,52 +168,142 @@ public class AS4InterfaceServlet extends HttpServlet {
         LOG.trace(SoapUtil.describe(receivedMessage));
       }
 
-      // get the action from the soap message
-      final String action = SoapXPathUtil.getSingleNodeTextContent(receivedMessage.getSOAPHeader(),
-                                                                   "//:CollaborationInfo/:Action");
-
-      switch (action) {
-      case MEMConstants.ACTION_DELIVER:
-        processDelivery(receivedMessage);
-        break;
-
-      case MEMConstants.ACTION_RELAY:
-        processRelayResult(receivedMessage);
-        break;
-
-      // does not exist in the standard CIT interface.
-      case MEMConstants.ACTION_SUBMISSION_RESULT:
-        processSubmissionResult(receivedMessage);
-        break;
+      // read all header information needed for dispatching at once
+      final EbmsHeaderModel header = EbmsHeaderModel.read(receivedMessage.getSOAPHeader());
+      final String action = header.getAction();
+      if (action == null)
+        throw new IllegalArgumentException("No CollaborationInfo/Action found");
+
+      if (TCConfig.MEM.isIncomingAsyncDispatch() && req.isAsyncSupported()) {
+        final GatewayCallbackDispatcher dispatcher = GatewayCallbackDispatcher.getInstance();
+        if (!dispatcher.isSupportedAction(action))
+          throw new UnsupportedOperationException("Action '" + action + "' is not supported");
+
+        // Free the container thread - the response is written by the action
+        // specific executor or on timeout, whatever happens first
+        final AsyncContext asyncContext = req.startAsync();
+        final AsyncResponder responder = new AsyncResponder(asyncContext, receivedMessage);
+        try {
+          asyncContext.addListener(responder);
+          asyncContext.setTimeout(TCConfig.MEM.getIncomingAsyncTimeoutMS());
+          final InboundSOAPMessage asyncInbound = inbound;
+          final SOAPMessage asyncMessage = receivedMessage;
+          dispatcher.execute(action, () -> {
+            try {
+              responder.sendReceipt(processMessage(asyncMessage, header, action));
+            } catch (final Throwable th) {
+              responder.sendFault(th);
+            } finally {
+              asyncInbound.close();
+            }
+          });
+          // Closed by the executor
+          inbound = null;
+        } catch (final Throwable th) {
+          // Rejected, shut down or anything else - the task never runs
+          responder.sendFault(th);
+        }
+      } else
+        processAndRespond(receivedMessage, header, action, resp);
+    } catch (final Exception ex) {
+      LOG.error("Error processing the message", ex);
+      sendBackFault(resp, receivedMessage, ex);
+    } finally {
+      if (inbound != null)
+        inbound.close();
+      if (LOG.isDebugEnabled())
+        LOG.debug("End doPost");
+    }
 
-      default:
-        throw new UnsupportedOperationException("Action '" + action + "' is not supported");
-      }
+    // Don't close output stream
+    // resp.getOutputStream().close();
+  }
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("Create success receipt");
-      }
-      final byte[] successReceipt = EBMSUtils.createSuccessReceipt(receivedMessage);
+  /**
+   * Dispatch the received message according to its action and send back the
+   * receipt or a fault.
+   *
+   * @param receivedMessage Received SOAP message
+   * @param header          The ebMS header of the received message
+   * @param action          The action of the received message
+   * @param resp            HTTP Servlet response
+   * @throws IOException In case of IO error
+   */
+  protected void processAndRespond(final SOAPMessage receivedMessage,
+                                   final EbmsHeaderModel header,
+                                   final String action,
+                                   final HttpServletResponse resp) throws IOException {
+    try {
+      final byte[] successReceipt = processMessage(receivedMessage, header, action);
 
       if (LOG.isDebugEnabled()) {
         LOG.debug("Send success receipt");
       }
-      resp.setStatus(HttpServletResponse.SC_OK);
-      resp.getOutputStream().write(successReceipt);
-      resp.getOutputStream().flush();
+      writeReceipt(resp, successReceipt);
 
       if (LOG.isDebugEnabled())
         LOG.debug("Done processing inbound AS4 message");
     } catch (final Exception ex) {
       LOG.error("Error processing the message", ex);
       sendBackFault(resp, receivedMessage, ex);
-    } finally {
-      if (LOG.isDebugEnabled())
-        LOG.debug("End doPost");
     }
+  }
 
-    // Don't close output stream
-    // resp.getOutputStream().close();
+  /**
+   * Dispatch the received message according to its action.
+   *
+   * @param receivedMessage Received SOAP message
+   * @param header          The ebMS header of the received message
+   * @param action          The action of the received message
+   * @return The success receipt to be sent back. Never <code>null</code>.
+   * @throws MEIncomingException In case the processing failed
+   */
+  @Nonnull
+  protected byte[] processMessage(final SOAPMessage receivedMessage,
+                                  final EbmsHeaderModel header,
+                                  final String action) throws MEIncomingException {
+    switch (action) {
+    case MEMConstants.ACTION_DELIVER:
+      processDelivery(receivedMessage, header);
+      break;
+
+    case MEMConstants.ACTION_RELAY:
+      processRelayResult(receivedMessage, header);
+      break;
+
+    // does not exist in the standard CIT interface.
+    case MEMConstants.ACTION_SUBMISSION_RESULT:
+      processSubmissionResult(receivedMessage, header);
+      break;
+
+    default:
+      throw new UnsupportedOperationException("Action '" + action + "' is not supported");
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Create success receipt");
+    }
+    return EBMSUtils.createSuccessReceipt(receivedMessage);
+  }
+
+  private static void writeReceipt(@Nonnull final HttpServletResponse resp, @Nonnull final byte[] receipt)
+      throws IOException {
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.getOutputStream().write(receipt);
+    resp.getOutputStream().flush();
+  }
+
+  @Nonnull
+  private static InboundSOAPMessage readInboundMessage(@Nonnull final HttpServletRequest req,
+                                                       @Nonnull final MimeHeaders mimeHeaders) throws IOException, SOAPException {
+    final InboundSOAPMessage ret;
+    try (final TeeInputStream is = new TeeInputStream(req.getInputStream(), MEMDumper.openIncomingDumpStream())) {
+      ret = InboundSOAPMessage.read(mimeHeaders, is, TCConfig.MEM.getIncomingSpillThresholdBytes());
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Read inbound message (" + ret.getSpilledPartCount() + " attachment(s) spilled to disk)");
+    }
+    return ret;
   }
 
   /**
@@ -176,34 +336,37 @@ public class AS4InterfaceServlet extends HttpServlet {
     resp.getOutputStream().flush();
   }
 
-  protected void processSubmissionResult(final SOAPMessage submissionResult) throws MEIncomingException {
+  protected void processSubmissionResult(final SOAPMessage submissionResult, final EbmsHeaderModel header)
+      throws MEIncomingException {
     if (LOG.isDebugEnabled()) {
       LOG.debug("------->> Received SubmissionResult <<-------");
       LOG.debug("Dispatch SubmissionResult");
       LOG.debug("\n" + SoapUtil.describe(submissionResult));
     }
 
-    MEMDelegate.getInstance().dispatchSubmissionResult(submissionResult);
+    MEMDelegate.getInstance().dispatchSubmissionResult(submissionResult, header);
   }
 
-  protected void processRelayResult(final SOAPMessage notification) throws MEIncomingException {
+  protected void processRelayResult(final SOAPMessage notification, final EbmsHeaderModel header)
+      throws MEIncomingException {
     if (LOG.isDebugEnabled()) {
       LOG.debug("------->> Received RelayResult <<-------");
       LOG.debug("Dispatch notification");
       LOG.debug("\n" + SoapUtil.describe(notification));
     }
 
-    MEMDelegate.getInstance().dispatchRelayResult(notification);
+    MEMDelegate.getInstance().dispatchRelayResult(notification, header);
   }
 
-  protected void processDelivery(final SOAPMessage receivedMessage) throws MEIncomingException {
+  protected void processDelivery(final SOAPMessage receivedMessage, final EbmsHeaderModel header)
+      throws MEIncomingException {
     if (LOG.isDebugEnabled()) {
       LOG.debug("------->> Received Delivery <<-------");
       LOG.debug("Dispatch inbound message");
       LOG.debug("\n" + SoapUtil.describe(receivedMessage));
     }
 
-    MEMDelegate.getInstance().dispatchInboundMessage(receivedMessage);
+    MEMDelegate.getInstance().dispatchInboundMessage(receivedMessage, header);
   }
 
   protected MimeHeaders readMimeHeaders(final HttpServletRequest req) {
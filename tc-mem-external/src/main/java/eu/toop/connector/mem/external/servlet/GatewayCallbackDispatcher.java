@@ -0,0 +1,274 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.servlet;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.mem.external.MEMConstants;
+
+/**
+ * Runs the processing of messages received from the gateway on bounded thread
+ * pools, one per action. This ensures that e.g. RelayResult messages, that
+ * our own senders are waiting for, are never queued behind slow Deliver
+ * messages.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public final class GatewayCallbackDispatcher {
+  /**
+   * What to do if the queue of an action is full.
+   */
+  public enum ERejectPolicy implements IHasID<String> {
+    /** Reject the message with an ebMS fault */
+    FAULT("fault"),
+    /** Process the message on the calling thread */
+    CALLER_RUNS("caller-runs");
+
+    public static final ERejectPolicy DEFAULT = FAULT;
+
+    private final String id;
+
+    ERejectPolicy(@Nonnull @Nonempty final String id) {
+      this.id = id;
+    }
+
+    @Nonnull
+    @Nonempty
+    public String getID() {
+      return id;
+    }
+
+    @Nonnull
+    public static ERejectPolicy getFromIDOrDefault(@Nullable final String id) {
+      return EnumHelper.getFromIDOrDefault(ERejectPolicy.class, id, DEFAULT);
+    }
+  }
+
+  /**
+   * The thread pool of a single action.
+   */
+  private static final class Lane {
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+
+    Lane(@Nonnull final String name, final int threads, final int queueSize, @Nonnull final ERejectPolicy rejectPolicy) {
+      this.name = name;
+      final AtomicInteger threadIndex = new AtomicInteger();
+      final RejectedExecutionHandler rejectHandler = (r, e) -> {
+        rejected.incrementAndGet();
+        if (rejectPolicy == ERejectPolicy.CALLER_RUNS && !e.isShutdown()) {
+          r.run();
+        } else {
+          throw new RejectedExecutionException("The processing queue for '" + name + "' messages is full");
+        }
+      };
+      executor = new ThreadPoolExecutor(threads,
+                                        threads,
+                                        60,
+                                        TimeUnit.SECONDS,
+                                        new ArrayBlockingQueue<>(queueSize),
+                                        r -> {
+                                          final Thread ret = new Thread(r,
+                                                                        "mem-gateway-" + name + "-" +
+                                                                           threadIndex.incrementAndGet());
+                                          ret.setDaemon(true);
+                                          return ret;
+                                        },
+                                        rejectHandler);
+      executor.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(GatewayCallbackDispatcher.class);
+  private static final Object LOCK = new Object();
+  @GuardedBy("LOCK")
+  private static GatewayCallbackDispatcher instance;
+  @GuardedBy("LOCK")
+  private static boolean shutdown;
+
+  private final ICommonsOrderedMap<String, Lane> lanes = new CommonsLinkedHashMap<>();
+
+  private GatewayCallbackDispatcher(final int deliverThreads,
+                                    final int resultThreads,
+                                    final int queueSize,
+                                    @Nonnull final ERejectPolicy rejectPolicy) {
+    ValueEnforcer.isGT0(deliverThreads, "DeliverThreads");
+    ValueEnforcer.isGT0(resultThreads, "ResultThreads");
+    ValueEnforcer.isGT0(queueSize, "QueueSize");
+    ValueEnforcer.notNull(rejectPolicy, "RejectPolicy");
+    lanes.put(MEMConstants.ACTION_DELIVER, new Lane("deliver", deliverThreads, queueSize, rejectPolicy));
+    lanes.put(MEMConstants.ACTION_RELAY, new Lane("relay", resultThreads, queueSize, rejectPolicy));
+    lanes.put(MEMConstants.ACTION_SUBMISSION_RESULT,
+              new Lane("submissionresult", resultThreads, queueSize, rejectPolicy));
+    LOG.info("Processing gateway callbacks with " + deliverThreads + " deliver and " + resultThreads +
+             " result threads, queue size " + queueSize + " and reject policy '" + rejectPolicy.getID() + "'");
+  }
+
+  /**
+   * @return The global instance, created from the configuration on first
+   *         access. Never <code>null</code>.
+   * @throws IllegalStateException If the dispatcher was already shut down
+   */
+  @Nonnull
+  public static GatewayCallbackDispatcher getInstance() {
+    synchronized (LOCK) {
+      if (shutdown)
+        throw new IllegalStateException("The gateway callback dispatcher was already shut down");
+      if (instance == null)
+        instance = new GatewayCallbackDispatcher(TCConfig.MEM.getIncomingDeliverThreads(),
+                                                 TCConfig.MEM.getIncomingResultThreads(),
+                                                 TCConfig.MEM.getIncomingQueueSize(),
+                                                 ERejectPolicy.getFromIDOrDefault(TCConfig.MEM.getIncomingRejectPolicy()));
+      return instance;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if {@link #shutdown()} was called. No new
+   *         messages are accepted afterwards.
+   */
+  public static boolean isShutdown() {
+    synchronized (LOCK) {
+      return shutdown;
+    }
+  }
+
+  /**
+   * Stop the global instance if it was created. Messages already queued are
+   * still processed. Afterwards {@link #getInstance()} rejects any further
+   * access.
+   */
+  public static void shutdown() {
+    final GatewayCallbackDispatcher old;
+    synchronized (LOCK) {
+      shutdown = true;
+      old = instance;
+      instance = null;
+    }
+    if (old != null)
+      for (final Lane lane : old.lanes.values())
+        lane.executor.shutdown();
+  }
+
+  /**
+   * @param action The ebMS action. May be <code>null</code>.
+   * @return <code>true</code> if messages with the provided action can be
+   *         dispatched.
+   */
+  public boolean isSupportedAction(@Nullable final String action) {
+    return action != null && lanes.containsKey(action);
+  }
+
+  /**
+   * Run the processing of a message.
+   *
+   * @param action The ebMS action of the message. Must be a supported action.
+   * @param task   The processing to be executed. May not be <code>null</code>.
+   * @throws RejectedExecutionException If the queue of the action is full and
+   *                                    the reject policy is
+   *                                    {@link ERejectPolicy#FAULT}
+   */
+  public void execute(@Nonnull final String action, @Nonnull final Runnable task) {
+    ValueEnforcer.notNull(task, "Task");
+    final Lane lane = lanes.get(action);
+    if (lane == null)
+      throw new IllegalArgumentException("Action '" + action + "' is not supported");
+    lane.executor.execute(task);
+  }
+
+  /**
+   * @param action The ebMS action.
+   * @return The number of messages of the provided action waiting for a
+   *         processing thread. 0 for unsupported actions.
+   */
+  public int getQueueDepth(@Nullable final String action) {
+    final Lane lane = lanes.get(action);
+    return lane == null ? 0 : lane.executor.getQueue().size();
+  }
+
+  /**
+   * @param action The ebMS action.
+   * @return The number of messages of the provided action that were rejected
+   *         because the queue was full. 0 for unsupported actions.
+   */
+  public long getRejectedCount(@Nullable final String action) {
+    final Lane lane = lanes.get(action);
+    return lane == null ? 0 : lane.rejected.get();
+  }
+
+  /**
+   * @return The queue depth, active threads, completed and rejected counts of
+   *         all actions, for the status page. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap<String, Object> getStatusData() {
+    final ICommonsOrderedMap<String, Object> ret = new CommonsLinkedHashMap<>();
+    for (final Map.Entry<String, Lane> entry : lanes.entrySet()) {
+      final Lane lane = entry.getValue();
+      final String prefix = "gateway.incoming." + lane.name + ".";
+      ret.put(prefix + "queue-depth", Integer.valueOf(lane.executor.getQueue().size()));
+      ret.put(prefix + "active", Integer.valueOf(lane.executor.getActiveCount()));
+      ret.put(prefix + "completed", Long.valueOf(lane.executor.getCompletedTaskCount()));
+      ret.put(prefix + "rejected", Long.valueOf(lane.rejected.get()));
+    }
+    return ret;
+  }
+}
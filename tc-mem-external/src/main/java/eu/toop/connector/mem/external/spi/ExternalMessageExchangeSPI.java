@@ -33,33 +33,37 @@
  */
 package eu.toop.connector.mem.external.spi;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import javax.annotation.Nonnull;
 import javax.servlet.ServletContext;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.IsSPIImplementation;
 import com.helger.commons.annotation.Nonempty;
-import com.helger.commons.collection.impl.CommonsArrayList;
-import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.error.level.EErrorLevel;
 
+import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.me.IMessageExchangeSPI;
+import eu.toop.connector.api.me.incoming.IIncomingEDMObject;
 import eu.toop.connector.api.me.incoming.IMEIncomingHandler;
 import eu.toop.connector.api.me.incoming.IncomingEDMErrorResponse;
+import eu.toop.connector.api.me.incoming.IncomingEDMHelper;
 import eu.toop.connector.api.me.incoming.IncomingEDMRequest;
 import eu.toop.connector.api.me.incoming.IncomingEDMResponse;
 import eu.toop.connector.api.me.incoming.MEIncomingTransportMetadata;
 import eu.toop.connector.api.me.model.MEMessage;
-import eu.toop.connector.api.me.model.MEPayload;
 import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.connector.api.me.outgoing.MESendResult;
 import eu.toop.connector.mem.external.MEMDelegate;
 import eu.toop.connector.mem.external.MEMDumper;
-import eu.toop.edm.EDMErrorResponse;
-import eu.toop.edm.EDMRequest;
-import eu.toop.edm.EDMResponse;
-import eu.toop.edm.IEDMTopLevelObject;
-import eu.toop.edm.xml.EDMPayloadDeterminator;
+import eu.toop.connector.mem.external.SoapUtil;
+import eu.toop.connector.mem.external.servlet.GatewayCallbackDispatcher;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
@@ -107,35 +111,24 @@ public class ExternalMessageExchangeSPI implements IMessageExchangeSPI {
 
     // Register the AS4 handler needed
     aDelegate.registerMessageHandler(aMEMessage -> {
-      final MEPayload aHead = aMEMessage.payloads().getFirst();
-      final IEDMTopLevelObject aTopLevel = EDMPayloadDeterminator.parseAndFind(aHead.getData().getInputStream());
-      final String sTopLevelContentID = aHead.getContentID();
-
       final MEIncomingTransportMetadata aMetadata = new MEIncomingTransportMetadata(aMEMessage.getSenderID(), aMEMessage.getReceiverID(), aMEMessage.getDoctypeID(), aMEMessage.getProcessID());
+      final IIncomingEDMObject aIncoming = IncomingEDMHelper.createIncomingObject(aMEMessage.payloads(),
+                                                                                  aMetadata,
+                                                                                  TCConfig.MEM.isIncomingEDMSniffing());
 
-      if (aTopLevel instanceof EDMRequest) {
+      if (aIncoming instanceof IncomingEDMRequest) {
         // Request
-        m_aIncomingHandler.handleIncomingRequest(new IncomingEDMRequest((EDMRequest) aTopLevel,
-                                                                        sTopLevelContentID,
-                                                                        aMetadata));
-      } else if (aTopLevel instanceof EDMResponse) {
+        m_aIncomingHandler.handleIncomingRequest((IncomingEDMRequest) aIncoming);
+      } else if (aIncoming instanceof IncomingEDMResponse) {
         // Response
-        final ICommonsList<MEPayload> aAttachments = new CommonsArrayList<>();
-        for (final MEPayload aItem : aMEMessage.payloads())
-          if (aItem != aHead)
-            aAttachments.add(aItem);
-        m_aIncomingHandler.handleIncomingResponse(new IncomingEDMResponse((EDMResponse) aTopLevel,
-                                                                          sTopLevelContentID,
-                                                                          aAttachments,
-                                                                          aMetadata));
-      } else if (aTopLevel instanceof EDMErrorResponse) {
+        m_aIncomingHandler.handleIncomingResponse((IncomingEDMResponse) aIncoming);
+      } else if (aIncoming instanceof IncomingEDMErrorResponse) {
         // Error response
-        m_aIncomingHandler.handleIncomingErrorResponse(new IncomingEDMErrorResponse((EDMErrorResponse) aTopLevel,
-                                                                                    sTopLevelContentID,
-                                                                                    aMetadata));
+        m_aIncomingHandler.handleIncomingErrorResponse((IncomingEDMErrorResponse) aIncoming);
       } else {
         // Unknown
-        ToopKafkaClient.send(EErrorLevel.ERROR, () -> "Unsuspported Message: " + aTopLevel);
+        ToopKafkaClient.send(EErrorLevel.ERROR,
+                             () -> "Unsuspported Message with Content-ID '" + aMEMessage.payloads().getFirst().getContentID() + "'");
       }
     });
   }
@@ -146,7 +139,52 @@ public class ExternalMessageExchangeSPI implements IMessageExchangeSPI {
     MEMDelegate.getInstance().sendMessage(aRoutingInfo, aMessage);
   }
 
+  /**
+   * Pushes the message to the gateway on the calling thread, but does not
+   * wait for the gateway notifications. The returned stage is completed by the
+   * thread receiving the RelayResult.
+   */
+  @Nonnull
+  public CompletionStage<MESendResult> sendOutgoingAsync(@Nonnull final IMERoutingInformation aRoutingInfo,
+      @Nonnull final MEMessage aMessage) {
+    MEMDumper.dumpOutgoingMessage(aRoutingInfo, aMessage);
+    try {
+      return MEMDelegate.getInstance().sendMessageAsync(aRoutingInfo, aMessage).thenApply(MESendResult::create);
+    } catch (final MEOutgoingException | RuntimeException ex) {
+      final CompletableFuture<MESendResult> ret = new CompletableFuture<>();
+      ret.completeExceptionally(ex);
+      return ret;
+    }
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap<String, Object> getStatusData() {
+    final ICommonsOrderedMap<String, Object> ret = new CommonsLinkedHashMap<>();
+    try {
+      ret.putAll(MEMDelegate.getInstance().getGatewayRouter().getStatusData());
+    } catch (final IllegalStateException ex) {
+      // No gateway configured
+    }
+    // Don't start the thread pools again during undeployment
+    if (TCConfig.MEM.isIncomingAsyncDispatch() && !GatewayCallbackDispatcher.isShutdown()) {
+      try {
+        ret.putAll(GatewayCallbackDispatcher.getInstance().getStatusData());
+      } catch (final IllegalStateException ex) {
+        // Shut down in the meantime
+      }
+    }
+    ret.putAll(MEMDumper.getStatusData());
+    ret.putAll(MEMDelegate.getInstance().getReceiverProfileCache().getStatusData("receiver-profile-cache."));
+    return ret;
+  }
+
   public void shutdown(@Nonnull final ServletContext aServletContext) {
-    // empty
+    // Release the pooled connections to the gateway
+    SoapUtil.closeTransport();
+    // Stop the threads processing gateway callbacks
+    GatewayCallbackDispatcher.shutdown();
+    // Write the pending dumps
+    MEMDumper.shutdown();
   }
 }
@@ -0,0 +1,270 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.soap.MimeHeader;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.ConnectionSocketFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.IHttpClientSettings;
+
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.http.TCHttpClientSettings;
+import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.connector.mem.external.SoapUtil;
+import eu.toop.edm.error.EToopErrorCode;
+
+/**
+ * {@link ISoapTransport} that sends all messages through one shared Apache
+ * HttpClient. Connections to the gateway are pooled and kept alive, so that
+ * the TCP and TLS handshakes are only paid when a new connection is opened.
+ * Proxy, TLS and timeout settings are taken from {@link TCHttpClientSettings}.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public class HttpClientSoapTransport implements ISoapTransport {
+  private final HttpClientManager httpClientManager;
+
+  /**
+   * Constructor using the global HTTP settings and the configured maximum
+   * number of connections per route.
+   */
+  public HttpClientSoapTransport() {
+    this(new TCHttpClientSettings(), TCConfig.MEM.getGatewayHttpMaxConnectionsPerRoute());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param settings          The HTTP client settings to use. May not be
+   *                          <code>null</code>.
+   * @param maxPerRoute       The maximum number of pooled connections per
+   *                          route. Must be &gt; 0.
+   */
+  public HttpClientSoapTransport(@Nonnull final IHttpClientSettings settings, final int maxPerRoute) {
+    ValueEnforcer.notNull(settings, "Settings");
+    ValueEnforcer.isGT0(maxPerRoute, "MaxPerRoute");
+    httpClientManager = new HttpClientManager(new GatewayHttpClientFactory(settings, maxPerRoute));
+  }
+
+  /**
+   * HttpClient factory with a connection pool sized for a single, fixed
+   * gateway.
+   */
+  private static final class GatewayHttpClientFactory extends HttpClientFactory {
+    private final int maxPerRoute;
+
+    GatewayHttpClientFactory(@Nonnull final IHttpClientSettings settings, final int maxPerRoute) {
+      super(settings);
+      this.maxPerRoute = maxPerRoute;
+    }
+
+    @Override
+    @Nonnull
+    public HttpClientConnectionManager createConnectionManager(@Nonnull final Registry<ConnectionSocketFactory> registry) {
+      final HttpClientConnectionManager ret = super.createConnectionManager(registry);
+      if (ret instanceof PoolingHttpClientConnectionManager) {
+        final PoolingHttpClientConnectionManager pool = (PoolingHttpClientConnectionManager) ret;
+        pool.setDefaultMaxPerRoute(maxPerRoute);
+        pool.setMaxTotal(Math.max(pool.getMaxTotal(), maxPerRoute));
+      }
+      return ret;
+    }
+
+    @Override
+    @Nonnull
+    public HttpClientBuilder createHttpClientBuilder() {
+      // Without this, connections authenticated by a TLS client certificate
+      // are bound to the principal and are not handed out again
+      return super.createHttpClientBuilder().disableConnectionState();
+    }
+  }
+
+  @Nonnull
+  private static HttpPost createRequest(@Nonnull final SOAPMessage message, @Nonnull final URL endpoint)
+      throws SOAPException, IOException {
+    if (message.saveRequired()) {
+      message.saveChanges();
+    }
+
+    final HttpPost post = new HttpPost(endpoint.toExternalForm());
+    String contentType = null;
+    final Iterator<?> it = message.getMimeHeaders().getAllHeaders();
+    while (it.hasNext()) {
+      final MimeHeader header = (MimeHeader) it.next();
+      if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getName())) {
+        contentType = header.getValue();
+      } else if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getName())) {
+        post.addHeader(header.getName(), header.getValue());
+      }
+    }
+
+    // Serialize upfront, so that the gateway gets a Content-Length
+    try (final NonBlockingByteArrayOutputStream out = new NonBlockingByteArrayOutputStream()) {
+      message.writeTo(out);
+      final ByteArrayEntity entity = new ByteArrayEntity(out.directGetBuffer(), 0, out.size());
+      entity.setContentType(contentType);
+      post.setEntity(entity);
+    }
+    return post;
+  }
+
+  @Nonnull
+  private static HttpPost createRequest(@Nonnull final SOAPMessage envelope,
+                                        @Nonnull final List<MEPayload> payloads,
+                                        @Nonnull final URL endpoint) throws SOAPException, IOException {
+    final MultipartRelatedEntity entity = new MultipartRelatedEntity(envelope, payloads);
+    final HttpPost post = new HttpPost(endpoint.toExternalForm());
+    final Iterator<?> it = MultipartRelatedEntity.getTransportHeaders(envelope).getAllHeaders();
+    while (it.hasNext()) {
+      final MimeHeader header = (MimeHeader) it.next();
+      post.addHeader(header.getName(), header.getValue());
+    }
+    post.setEntity(entity);
+    return post;
+  }
+
+  private static boolean isSoapContentType(@Nullable final String contentType) {
+    if (StringHelper.hasNoText(contentType)) {
+      return false;
+    }
+    final String lower = contentType.toLowerCase(Locale.US);
+    return lower.startsWith("application/soap+xml") || lower.startsWith("text/xml") ||
+        lower.startsWith("multipart/related");
+  }
+
+  @Nullable
+  private static SOAPMessage handleResponse(@Nonnull final HttpResponse response) throws IOException {
+    final StatusLine status = response.getStatusLine();
+    final HttpEntity entity = response.getEntity();
+    // Always read the entity fully, so that the connection can be reused
+    final byte[] body = entity == null ? null : EntityUtils.toByteArray(entity);
+    final Header contentType = entity == null ? null : entity.getContentType();
+    final boolean isError = status.getStatusCode() >= 300;
+
+    if (body == null || body.length == 0) {
+      if (isError) {
+        throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+      }
+      return null;
+    }
+    // SOAP faults are delivered with an error status code
+    if (isError && !isSoapContentType(contentType == null ? null : contentType.getValue())) {
+      throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+    }
+
+    final MimeHeaders headers = new MimeHeaders();
+    for (final Header header : response.getAllHeaders()) {
+      headers.addHeader(header.getName(), header.getValue());
+    }
+    final NonBlockingByteArrayInputStream is = new NonBlockingByteArrayInputStream(body);
+    try {
+      return SoapUtil.createMessage(headers, is);
+    } catch (final SOAPException e) {
+      throw new IOException("Failed to parse SOAP response", e);
+    } finally {
+      StreamHelper.close(is);
+    }
+  }
+
+  @Override
+  @Nullable
+  public SOAPMessage send(@Nonnull final SOAPMessage message, @Nonnull final URL endpoint)
+      throws MEOutgoingException {
+    try {
+      return httpClientManager.execute(createRequest(message, endpoint), HttpClientSoapTransport::handleResponse);
+    } catch (final SOAPException | IOException e) {
+      throw new MEOutgoingException(EToopErrorCode.ME_001, e);
+    }
+  }
+
+  /**
+   * Stream the envelope and the payloads as <code>multipart/related</code>
+   * without creating SAAJ attachments.
+   */
+  @Override
+  @Nullable
+  public SOAPMessage send(@Nonnull final SOAPMessage envelope,
+                          @Nonnull final List<MEPayload> payloads,
+                          @Nonnull final URL endpoint) throws MEOutgoingException {
+    if (payloads.isEmpty()) {
+      return send(envelope, endpoint);
+    }
+    try {
+      return httpClientManager.execute(createRequest(envelope, payloads, endpoint),
+          HttpClientSoapTransport::handleResponse);
+    } catch (final SOAPException | IOException e) {
+      throw new MEOutgoingException(EToopErrorCode.ME_001, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    StreamHelper.close(httpClientManager);
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.transport;
+
+import java.net.URL;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.soap.SOAPMessage;
+
+import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.connector.mem.external.EBMSUtils;
+
+/**
+ * The transport used to send SOAP messages to the gateway.
+ *
+ * @since 2.1.2
+ */
+public interface ISoapTransport extends AutoCloseable {
+  /**
+   * Send the provided SOAP message to the given endpoint and return the
+   * synchronous response.
+   *
+   * @param message  message to be send. May not be <code>null</code>.
+   * @param endpoint endpoint to send the message to. May not be
+   *                 <code>null</code>.
+   * @return The response message or <code>null</code> if the response has no
+   *         content.
+   * @throws MEOutgoingException in case of error
+   */
+  @Nullable
+  SOAPMessage send(@Nonnull SOAPMessage message, @Nonnull URL endpoint) throws MEOutgoingException;
+
+  /**
+   * Send the provided SOAP envelope together with the provided payloads as
+   * <code>multipart/related</code> to the given endpoint. The default
+   * implementation adds the payloads as SAAJ attachments to the envelope and
+   * calls {@link #send(SOAPMessage, URL)}.
+   *
+   * @param envelope the SOAP message without attachments. May not be
+   *                 <code>null</code>.
+   * @param payloads the payloads to be send as attachments. May not be
+   *                 <code>null</code>.
+   * @param endpoint endpoint to send the message to. May not be
+   *                 <code>null</code>.
+   * @return The response message or <code>null</code> if the response has no
+   *         content.
+   * @throws MEOutgoingException in case of error
+   */
+  @Nullable
+  default SOAPMessage send(@Nonnull final SOAPMessage envelope,
+                           @Nonnull final List<MEPayload> payloads,
+                           @Nonnull final URL endpoint) throws MEOutgoingException {
+    EBMSUtils.addAttachments(envelope, payloads);
+    return send(envelope, endpoint);
+  }
+
+  /**
+   * Release all resources held by this transport. The default implementation
+   * does nothing.
+   */
+  @Override
+  default void close() {
+  }
+}
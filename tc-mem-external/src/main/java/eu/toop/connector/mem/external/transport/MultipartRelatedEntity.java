@@ -0,0 +1,238 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.soap.MimeHeader;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.connector.api.me.model.IMEPayloadData;
+import eu.toop.connector.api.me.model.MEPayload;
+
+/**
+ * A <code>multipart/related</code> HTTP entity consisting of a SOAP envelope
+ * as the root part, followed by one part per {@link MEPayload}. The payload
+ * bytes are written straight from their {@link IMEPayloadData} (memory or
+ * file), so unlike SAAJ attachments no copies of the payloads are created.
+ * Only the envelope is serialized upfront, so that the exact content length is
+ * known if all payload sizes are known.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public class MultipartRelatedEntity extends AbstractHttpEntity {
+  private static final String CRLF = "\r\n";
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final String boundary;
+  private final byte[] envelopeHead;
+  private final byte[] envelope;
+  private final List<byte[]> payloadHeads;
+  private final List<IMEPayloadData> payloadData;
+  private final byte[] closeDelimiter;
+  private final long contentLength;
+
+  /**
+   * Constructor
+   *
+   * @param envelopeMessage The SOAP message containing the envelope. It must
+   *                        not contain attachments. May not be
+   *                        <code>null</code>.
+   * @param payloads        The payloads to be added as separate MIME parts.
+   *                        May not be <code>null</code>.
+   * @throws SOAPException in case the envelope cannot be serialized
+   * @throws IOException   in case the envelope cannot be serialized
+   */
+  public MultipartRelatedEntity(@Nonnull final SOAPMessage envelopeMessage, @Nonnull final List<MEPayload> payloads)
+      throws SOAPException, IOException {
+    ValueEnforcer.notNull(envelopeMessage, "EnvelopeMessage");
+    ValueEnforcer.notNull(payloads, "Payloads");
+    ValueEnforcer.isTrue(envelopeMessage.countAttachments() == 0, "The envelope message may not contain attachments");
+
+    if (envelopeMessage.saveRequired()) {
+      envelopeMessage.saveChanges();
+    }
+    final String[] contentTypes = envelopeMessage.getMimeHeaders().getHeader(HttpHeaders.CONTENT_TYPE);
+    final String envelopeContentType = contentTypes != null && contentTypes.length > 0 ? contentTypes[0]
+        : "application/soap+xml; charset=utf-8";
+    try (final NonBlockingByteArrayOutputStream out = new NonBlockingByteArrayOutputStream()) {
+      envelopeMessage.writeTo(out);
+      envelope = out.toByteArray();
+    }
+
+    boundary = "----=_Part_" + UUID.randomUUID().toString();
+    envelopeHead = ascii("--" + boundary + CRLF + HttpHeaders.CONTENT_TYPE + ": " + envelopeContentType + CRLF + CRLF);
+    long length = envelopeHead.length + envelope.length;
+
+    final List<byte[]> heads = new ArrayList<>(payloads.size());
+    final List<IMEPayloadData> data = new ArrayList<>(payloads.size());
+    for (final MEPayload payload : payloads) {
+      final byte[] head = ascii(CRLF + "--" + boundary + CRLF +
+          HttpHeaders.CONTENT_TYPE + ": " + payload.getMimeTypeString() + CRLF +
+          "Content-Transfer-Encoding: binary" + CRLF +
+          "Content-ID: <" + payload.getContentID() + ">" + CRLF + CRLF);
+      heads.add(head);
+      final IMEPayloadData payloadDataItem = payload.getPayloadData();
+      data.add(payloadDataItem);
+      final long size = payloadDataItem.getSize();
+      if (size < 0 || length < 0)
+        length = -1;
+      else
+        length += head.length + size;
+    }
+    payloadHeads = Collections.unmodifiableList(heads);
+    payloadData = Collections.unmodifiableList(data);
+    closeDelimiter = ascii(CRLF + "--" + boundary + "--" + CRLF);
+    contentLength = length < 0 ? -1 : length + closeDelimiter.length;
+
+    setContentType("multipart/related; type=\"application/soap+xml\"; boundary=\"" + boundary + "\"");
+  }
+
+  @Nonnull
+  private static byte[] ascii(@Nonnull final String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @return The MIME boundary used. Never <code>null</code>.
+   */
+  @Nonnull
+  public String getBoundary() {
+    return boundary;
+  }
+
+  /**
+   * Get the MIME headers of the envelope that are relevant for the transport
+   * (like <code>SOAPAction</code>). Content type and content length are defined
+   * by this entity.
+   *
+   * @param envelopeMessage The envelope message. May not be <code>null</code>.
+   * @return The filtered MIME headers. Never <code>null</code>.
+   */
+  @Nonnull
+  static MimeHeaders getTransportHeaders(@Nonnull final SOAPMessage envelopeMessage) {
+    final MimeHeaders ret = new MimeHeaders();
+    final Iterator<?> it = envelopeMessage.getMimeHeaders()
+                                          .getNonMatchingHeaders(new String[] { HttpHeaders.CONTENT_TYPE,
+                                                                                HttpHeaders.CONTENT_LENGTH });
+    while (it.hasNext()) {
+      final MimeHeader header = (MimeHeader) it.next();
+      ret.addHeader(header.getName(), header.getValue());
+    }
+    return ret;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  @Override
+  @Nonnull
+  public InputStream getContent() throws IOException {
+    // Views on the existing buffers and files - no copies
+    final List<InputStream> parts = new ArrayList<>(2 + payloadHeads.size() * 2);
+    parts.add(new NonBlockingByteArrayInputStream(envelopeHead));
+    parts.add(new NonBlockingByteArrayInputStream(envelope));
+    try {
+      for (int i = 0; i < payloadHeads.size(); ++i) {
+        parts.add(new NonBlockingByteArrayInputStream(payloadHeads.get(i)));
+        parts.add(payloadData.get(i).openStream());
+      }
+    } catch (final IOException ex) {
+      for (final InputStream part : parts)
+        StreamHelper.close(part);
+      throw ex;
+    }
+    parts.add(new NonBlockingByteArrayInputStream(closeDelimiter));
+    return new SequenceInputStream(Collections.enumeration(parts));
+  }
+
+  @Override
+  public void writeTo(@Nonnull final OutputStream out) throws IOException {
+    ValueEnforcer.notNull(out, "OutputStream");
+    out.write(envelopeHead);
+    out.write(envelope);
+    for (int i = 0; i < payloadHeads.size(); ++i) {
+      final IMEPayloadData data = payloadData.get(i);
+      out.write(payloadHeads.get(i));
+      if (data.isInMemory()) {
+        final ByteArrayWrapper bytes = data.getAsByteArrayWrapper();
+        out.write(bytes.bytes(), bytes.getOffset(), bytes.size());
+      } else {
+        try (final InputStream is = data.openStream()) {
+          final byte[] buffer = new byte[BUFFER_SIZE];
+          int read;
+          while ((read = is.read(buffer)) >= 0)
+            out.write(buffer, 0, read);
+        }
+      }
+    }
+    out.write(closeDelimiter);
+    out.flush();
+  }
+}
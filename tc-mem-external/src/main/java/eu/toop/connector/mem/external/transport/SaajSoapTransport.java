@@ -0,0 +1,86 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.transport;
+
+import java.net.URL;
+
+import javax.annotation.Nonnull;
+import javax.xml.soap.SOAPConnection;
+import javax.xml.soap.SOAPConnectionFactory;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+
+import com.helger.commons.exception.InitializationException;
+
+import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.edm.error.EToopErrorCode;
+
+/**
+ * {@link ISoapTransport} that creates a new SAAJ {@link SOAPConnection} for
+ * every message. This was the only transport prior to 2.1.2. It ignores the
+ * global HTTP settings.
+ *
+ * @since 2.1.2
+ */
+public class SaajSoapTransport implements ISoapTransport {
+  private final SOAPConnectionFactory soapConnectionFactory;
+
+  public SaajSoapTransport() {
+    try {
+      soapConnectionFactory = SOAPConnectionFactory.newInstance();
+    } catch (final SOAPException e) {
+      throw new InitializationException("Failed to initialize SOAP connection factory", e);
+    }
+  }
+
+  @Override
+  public SOAPMessage send(@Nonnull final SOAPMessage message, @Nonnull final URL endpoint)
+      throws MEOutgoingException {
+    SOAPConnection connection = null;
+    try {
+      connection = soapConnectionFactory.createConnection();
+      return connection.call(message, endpoint);
+    } catch (final SOAPException e) {
+      throw new MEOutgoingException(EToopErrorCode.ME_001, e);
+    } finally {
+      if (connection != null) {
+        try {
+          connection.close();
+        } catch (final SOAPException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
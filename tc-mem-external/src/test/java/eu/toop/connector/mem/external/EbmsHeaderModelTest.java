@@ -0,0 +1,117 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link EbmsHeaderModel}.
+ */
+public final class EbmsHeaderModelTest {
+  private static final String HEADER = "<env:Header xmlns:env='http://www.w3.org/2003/05/soap-envelope'>" +
+                                       "<eb:Messaging xmlns:eb='" + EBMSUtils.NS_EBMS + "'>" +
+                                       "<eb:UserMessage>" +
+                                       "<eb:MessageInfo><eb:Timestamp>now</eb:Timestamp><eb:MessageId>msg-1</eb:MessageId></eb:MessageInfo>" +
+                                       "<eb:CollaborationInfo><eb:Service>svc</eb:Service><eb:Action>Deliver</eb:Action></eb:CollaborationInfo>" +
+                                       "<eb:MessageProperties>" +
+                                       "<eb:Property name='originalSender' type='iso6523-actorid-upis'>9914:sender</eb:Property>" +
+                                       "<eb:Property name='finalRecipient'>iso6523-actorid-upis::9915:receiver</eb:Property>" +
+                                       "<eb:Property name='Action'>first</eb:Property>" +
+                                       "<eb:Property name='Action'>second</eb:Property>" +
+                                       "</eb:MessageProperties>" +
+                                       "<eb:PayloadInfo>" +
+                                       "<eb:PartInfo href='cid:a'><eb:PartProperties>" +
+                                       "<eb:Property name='MimeType'>application/xml</eb:Property>" +
+                                       "<eb:Property name='CharacterSet'>UTF-8</eb:Property>" +
+                                       "</eb:PartProperties></eb:PartInfo>" +
+                                       "<eb:PartInfo href='cid:b'><eb:PartProperties>" +
+                                       "<eb:Property name='MimeType'>application/pdf</eb:Property>" +
+                                       "</eb:PartProperties></eb:PartInfo>" +
+                                       "</eb:PayloadInfo>" +
+                                       "</eb:UserMessage>" +
+                                       "</eb:Messaging>" +
+                                       "</env:Header>";
+
+  @Test
+  public void testRead() {
+    final Document doc = DOMReader.readXMLDOM(HEADER);
+    assertNotNull(doc);
+    final EbmsHeaderModel header = EbmsHeaderModel.read(doc.getDocumentElement());
+
+    assertEquals("Deliver", header.getAction());
+    assertEquals("msg-1", header.getMessageID());
+    assertTrue(header.hasMessageProperties());
+
+    assertEquals("9914:sender", header.getMandatoryMessagePropertyValue("originalSender"));
+    assertEquals("iso6523-actorid-upis", header.getMessageProperty("originalSender").getType());
+    assertNull(header.getMessageProperty("finalRecipient").getType());
+    // First one wins
+    assertEquals("first", header.getMessagePropertyValue("Action"));
+    // Part properties don't leak into the message properties
+    assertNull(header.getMessageProperty("MimeType"));
+
+    assertEquals(2, header.partInfos().size());
+    assertEquals("application/xml", header.getPartInfo("cid:a").getPropertyValue("MimeType"));
+    assertEquals("UTF-8", header.getPartInfo("cid:a").getPropertyValue("CharacterSet"));
+    assertEquals("application/pdf", header.getPartInfo("cid:b").getPropertyValue("MimeType"));
+    assertNull(header.getPartInfo("cid:b").getPropertyValue("CharacterSet"));
+    assertNull(header.getPartInfo("cid:c"));
+  }
+
+  @Test
+  public void testEmpty() {
+    final Document doc = DOMReader.readXMLDOM("<env:Header xmlns:env='http://www.w3.org/2003/05/soap-envelope' />");
+    final EbmsHeaderModel header = EbmsHeaderModel.read(doc.getDocumentElement());
+    assertNull(header.getAction());
+    assertNull(header.getMessageID());
+    assertFalse(header.hasMessageProperties());
+    assertTrue(header.partInfos().isEmpty());
+    try {
+      header.getMandatoryMessagePropertyValue("Result");
+    } catch (final IllegalArgumentException ex) {
+      // expected
+      return;
+    }
+    throw new AssertionError("Exception expected");
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.soap.SOAPMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.mime.CMimeType;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroWriter;
+import com.helger.xml.namespace.MapBasedNamespaceContext;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xml.serialize.write.XMLWriterSettings;
+
+import eu.toop.connector.api.me.model.MEMessage;
+import eu.toop.connector.api.me.model.MEPayload;
+
+/**
+ * Microbenchmark for building the outbound ebMS header. Compares the previous
+ * approach (MicroDocument, serialized, parsed again and imported) with writing
+ * the header directly into the SOAP header. Reports time and allocated bytes
+ * per message. Run manually.
+ */
+public final class MainOutboundHeaderBenchmark {
+  private static final Logger LOG = LoggerFactory.getLogger(MainOutboundHeaderBenchmark.class);
+
+  private static final int WARMUP = 2_000;
+  private static final int ITERATIONS = 10_000;
+
+  private MainOutboundHeaderBenchmark() {
+  }
+
+  private static void legacyProperty(final IMicroElement eParent, final String sName, final String sValue) {
+    if (sValue != null)
+      eParent.appendElement(EBMSUtils.NS_EBMS, "Property").setAttribute("name", sName).appendText(sValue);
+  }
+
+  /** The header creation as it was done before */
+  private static void legacyHeader(final SOAPMessage message,
+                                   final SubmissionMessageProperties metadata,
+                                   final MEMessage meMessage) throws Exception {
+    final IMicroDocument aDoc = new MicroDocument();
+    final IMicroElement eMessaging = aDoc.appendElement(EBMSUtils.NS_EBMS, "Messaging");
+    eMessaging.setAttribute(EBMSUtils.NS_SOAPENV, "mustUnderstand", "true");
+    final IMicroElement eUserMessage = eMessaging.appendElement(EBMSUtils.NS_EBMS, "UserMessage");
+    final IMicroElement eMessageInfo = eUserMessage.appendElement(EBMSUtils.NS_EBMS, "MessageInfo");
+    eMessageInfo.appendElement(EBMSUtils.NS_EBMS, "Timestamp").appendText(DateTimeUtils.getCurrentTimestamp());
+    eMessageInfo.appendElement(EBMSUtils.NS_EBMS, "MessageId")
+                .appendText(EBMSUtils.genereateEbmsMessageId(MEMConstants.MEM_AS4_SUFFIX));
+    final IMicroElement ePartyInfo = eUserMessage.appendElement(EBMSUtils.NS_EBMS, "PartyInfo");
+    final IMicroElement eFrom = ePartyInfo.appendElement(EBMSUtils.NS_EBMS, "From");
+    eFrom.appendElement(EBMSUtils.NS_EBMS, "PartyId").appendText("tc");
+    eFrom.appendElement(EBMSUtils.NS_EBMS, "Role").appendText(MEMConstants.MEM_PARTY_ROLE);
+    final IMicroElement eTo = ePartyInfo.appendElement(EBMSUtils.NS_EBMS, "To");
+    eTo.appendElement(EBMSUtils.NS_EBMS, "PartyId").appendText("gw");
+    eTo.appendElement(EBMSUtils.NS_EBMS, "Role").appendText(MEMConstants.GW_PARTY_ROLE);
+    final IMicroElement eCollaborationInfo = eUserMessage.appendElement(EBMSUtils.NS_EBMS, "CollaborationInfo");
+    eCollaborationInfo.appendElement(EBMSUtils.NS_EBMS, "Service").appendText(MEMConstants.SERVICE);
+    eCollaborationInfo.appendElement(EBMSUtils.NS_EBMS, "Action").appendText(MEMConstants.ACTION_SUBMIT);
+    eCollaborationInfo.appendElement(EBMSUtils.NS_EBMS, "ConversationId").appendText(metadata.conversationId);
+    final IMicroElement eMessageProperties = eUserMessage.appendElement(EBMSUtils.NS_EBMS, "MessageProperties");
+    legacyProperty(eMessageProperties, "ToPartyId", metadata.toPartyId);
+    legacyProperty(eMessageProperties, "ToPartyRole", metadata.toPartyRole);
+    legacyProperty(eMessageProperties, "ToPartyCertificate", metadata.toPartyCertificate);
+    legacyProperty(eMessageProperties, "TargetURL", metadata.targetURL);
+    legacyProperty(eMessageProperties, "Service", metadata.service);
+    legacyProperty(eMessageProperties, "Action", metadata.action);
+    legacyProperty(eMessageProperties, "MessageId", metadata.messageId);
+    legacyProperty(eMessageProperties, "ConversationId", metadata.conversationId);
+    final IMicroElement ePayloadInfo = eUserMessage.appendElement(EBMSUtils.NS_EBMS, "PayloadInfo");
+    for (final MEPayload aPayload : meMessage.payloads()) {
+      final IMicroElement ePartInfo = ePayloadInfo.appendElement(EBMSUtils.NS_EBMS, "PartInfo");
+      ePartInfo.setAttribute("href", "cid:" + aPayload.getContentID());
+      legacyProperty(ePartInfo.appendElement(EBMSUtils.NS_EBMS, "PartProperties"),
+                     "MimeType",
+                     aPayload.getMimeTypeString());
+    }
+
+    final MapBasedNamespaceContext aNSCtx = new MapBasedNamespaceContext();
+    aNSCtx.addMapping("env", EBMSUtils.NS_SOAPENV);
+    aNSCtx.addMapping("eb", EBMSUtils.NS_EBMS);
+    final Element element = DOMReader.readXMLDOM(MicroWriter.getNodeAsBytes(aDoc,
+                                                                            new XMLWriterSettings().setNamespaceContext(aNSCtx)))
+                                     .getDocumentElement();
+    final Node importNode = message.getSOAPHeader().getOwnerDocument().importNode(element, true);
+    message.getSOAPHeader().appendChild(importNode);
+  }
+
+  @FunctionalInterface
+  private interface IHeaderWriter {
+    void write(SOAPMessage message) throws Exception;
+  }
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread()
+                                                                                                                  .getId());
+  }
+
+  private static void measure(final String name, final IHeaderWriter writer) throws Exception {
+    for (int i = 0; i < WARMUP; ++i)
+      writer.write(SoapUtil.createEmptyMessage());
+
+    // Creating the empty message is part of both variants
+    final long startBytes = getAllocatedBytes();
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i)
+      writer.write(SoapUtil.createEmptyMessage());
+    final long nanos = System.nanoTime() - start;
+    final long bytes = getAllocatedBytes() - startBytes;
+
+    LOG.info(name + ": " + (nanos / ITERATIONS / 1000.0) + " µs/message, " + (bytes / ITERATIONS) + " bytes/message");
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final SubmissionMessageProperties sd = new SubmissionMessageProperties();
+    sd.conversationId = "MainOutboundHeaderBenchmark";
+    sd.toPartyId = "receiver";
+    sd.toPartyRole = MEMConstants.GW_PARTY_ROLE;
+    sd.targetURL = "https://example.org/as4";
+    sd.service = "urn:service";
+    sd.action = "urn:action";
+    sd.messageId = "msg-1";
+    final MEMessage meMessage = MEMessage.builder()
+                                         .addPayload(x -> x.mimeType(CMimeType.APPLICATION_XML)
+                                                           .contentID("payload0")
+                                                           .data("<?xml version='1.0'?><root demo='true' />",
+                                                                 StandardCharsets.ISO_8859_1))
+                                         .addPayload(x -> x.mimeType(CMimeType.APPLICATION_PDF)
+                                                           .contentID("payload1")
+                                                           .data(new byte[16]))
+                                         .build();
+
+    for (int round = 0; round < 3; ++round) {
+      measure("MicroDocument + reparse", m -> legacyHeader(m, sd, meMessage));
+      measure("direct SOAPHeader      ", m -> EBMSUtils.addMessagingHeader(m.getSOAPHeader(), sd, meMessage));
+    }
+  }
+}
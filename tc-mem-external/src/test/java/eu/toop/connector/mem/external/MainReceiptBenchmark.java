@@ -0,0 +1,123 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.XMLConstants;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.xml.transform.TransformSourceFactory;
+
+import eu.toop.connector.api.me.model.MEMessage;
+
+/**
+ * Microbenchmark for the creation of success receipts. Compares compiling the
+ * receipt stylesheet for every receipt with using the cached templates.
+ * Reports receipts per second. Run manually.
+ */
+public final class MainReceiptBenchmark {
+  private static final Logger LOG = LoggerFactory.getLogger(MainReceiptBenchmark.class);
+
+  private static final int WARMUP = 500;
+  private static final long DURATION_MS = 3_000;
+
+  private MainReceiptBenchmark() {
+  }
+
+  /** The receipt creation as it was done before */
+  private static byte[] legacyReceipt(final SOAPMessage message) throws Exception {
+    final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+    transformerFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    final Transformer transformer = transformerFactory.newTransformer(TransformSourceFactory.create(new ClassPathResource("/receipt-generator.xslt")));
+    transformer.setParameter("messageid", EBMSUtils.genereateEbmsMessageId(MEMConstants.MEM_AS4_SUFFIX));
+    transformer.setParameter("timestamp", DateTimeUtils.getCurrentTimestamp());
+    try (final NonBlockingByteArrayOutputStream baos = new NonBlockingByteArrayOutputStream()) {
+      transformer.transform(new DOMSource(message.getSOAPPart()), new StreamResult(baos));
+      return baos.toByteArray();
+    }
+  }
+
+  @FunctionalInterface
+  private interface IReceiptCreator {
+    byte[] create(SOAPMessage message) throws Exception;
+  }
+
+  private static void measure(final String name, final SOAPMessage message, final IReceiptCreator creator)
+      throws Exception {
+    for (int i = 0; i < WARMUP; ++i)
+      creator.create(message);
+
+    long count = 0;
+    final long start = System.nanoTime();
+    final long end = start + DURATION_MS * 1_000_000L;
+    long now;
+    do {
+      creator.create(message);
+      ++count;
+      now = System.nanoTime();
+    } while (now < end);
+
+    LOG.info(name + ": " + (long) (count * 1_000_000_000d / (now - start)) + " receipts/sec");
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final SubmissionMessageProperties sd = new SubmissionMessageProperties();
+    sd.conversationId = "MainReceiptBenchmark";
+    sd.toPartyId = "receiver";
+    sd.messageId = "msg-1";
+    final MEMessage meMessage = MEMessage.builder()
+                                         .addPayload(x -> x.mimeType(CMimeType.APPLICATION_XML)
+                                                           .contentID("payload0")
+                                                           .data("<?xml version='1.0'?><root demo='true' />",
+                                                                 StandardCharsets.ISO_8859_1))
+                                         .build();
+    final SOAPMessage message = EBMSUtils.createOutboundEnvelope(sd, meMessage);
+
+    for (int round = 0; round < 3; ++round) {
+      measure("compile per receipt", message, MainReceiptBenchmark::legacyReceipt);
+      measure("cached templates   ", message, EBMSUtils::createSuccessReceipt);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.soap.SOAPHeader;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+import com.helger.commons.mime.CMimeType;
+import com.helger.xml.namespace.MapBasedNamespaceContext;
+import com.helger.xml.xpath.XPathHelper;
+
+import eu.toop.connector.api.me.model.MEMessage;
+
+/**
+ * Microbenchmark for the XPath lookups done per inbound message. Compares the
+ * previous approach (new XPath and compilation per lookup) with the cached
+ * expressions of {@link SoapXPathUtil}. Run manually.
+ */
+public final class MainSoapXPathBenchmark {
+  private static final Logger LOG = LoggerFactory.getLogger(MainSoapXPathBenchmark.class);
+
+  private static final int PAYLOADS = 3;
+  private static final int WARMUP = 2_000;
+  private static final int ITERATIONS = 20_000;
+
+  private static final String[] PROPERTY_XPATHS = { ".//:Property[@name='originalSender']/text()",
+                                                    ".//:Property[@name='finalRecipient']/text()",
+                                                    ".//:Property[@name='Action']/text()",
+                                                    ".//:Property[@name='ServiceType']/text()",
+                                                    ".//:Property[@name='Service']/text()",
+                                                    ".//:Property[@name='MessageId']/text()",
+                                                    ".//:Property[@name='RefToMessageId']/text()",
+                                                    ".//:Property[@name='ConversationId']/text()" };
+
+  private MainSoapXPathBenchmark() {
+  }
+
+  /** The lookups as they were done before expressions were cached */
+  private static Node legacyFind(final Node node, final String xpath) throws Exception {
+    final XPath ret = XPathHelper.createNewXPath();
+    final MapBasedNamespaceContext aNamespaceCtx = new MapBasedNamespaceContext();
+    aNamespaceCtx.addDefaultNamespaceURI(EBMSUtils.NS_EBMS);
+    ret.setNamespaceContext(aNamespaceCtx);
+    return (Node) ret.evaluate(xpath, node, XPathConstants.NODE);
+  }
+
+  private static int legacyMessage(final SOAPHeader header) throws Exception {
+    int ret = 0;
+    for (int i = 0; i < PAYLOADS; ++i) {
+      final Node partInfo = legacyFind(header, "//:PayloadInfo/:PartInfo[@href='cid:payload" + i + "']");
+      ret += legacyFind(partInfo, ".//:PartProperties/:Property[@name='MimeType']").getTextContent().length();
+    }
+    final Node props = legacyFind(header, "//:MessageProperties");
+    for (final String xp : PROPERTY_XPATHS)
+      if (legacyFind(props, xp) != null)
+        ret++;
+    return ret;
+  }
+
+  private static int cachedMessage(final SOAPHeader header) {
+    int ret = 0;
+    for (int i = 0; i < PAYLOADS; ++i) {
+      final Node partInfo = SoapXPathUtil.safeFindSingleNode(header,
+          "//:PayloadInfo/:PartInfo[@href=$href]",
+          Collections.singletonMap("href", "cid:payload" + i));
+      ret += SoapXPathUtil.getSingleNodeTextContent(partInfo, ".//:PartProperties/:Property[@name='MimeType']")
+                          .length();
+    }
+    final Node props = SoapXPathUtil.safeFindSingleNode(header, "//:MessageProperties");
+    for (final String xp : PROPERTY_XPATHS)
+      if (SoapXPathUtil.findSingleNode(props, xp) != null)
+        ret++;
+    return ret;
+  }
+
+  @FunctionalInterface
+  private interface IMessageLookup {
+    int run() throws Exception;
+  }
+
+  private static void measure(final String name, final IMessageLookup lookup) throws Exception {
+    int blackhole = 0;
+    for (int i = 0; i < WARMUP; ++i)
+      blackhole += lookup.run();
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i)
+      blackhole += lookup.run();
+    final long nanos = System.nanoTime() - start;
+
+    LOG.info(name + ": " + (nanos / ITERATIONS / 1000.0) + " µs/message (" + TimeUnit.NANOSECONDS.toMillis(nanos) +
+        " ms total, checksum " + blackhole + ")");
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final SubmissionMessageProperties sd = new SubmissionMessageProperties();
+    sd.conversationId = "MainSoapXPathBenchmark";
+    sd.action = "urn:action";
+    sd.service = "urn:service";
+    sd.messageId = "msg-1";
+    final MEMessage.Builder aBuilder = MEMessage.builder();
+    for (int i = 0; i < PAYLOADS; ++i) {
+      final String sContentID = "payload" + i;
+      aBuilder.addPayload(x -> x.mimeType(CMimeType.APPLICATION_XML)
+                                .contentID(sContentID)
+                                .data("<?xml version='1.0'?><root demo='true' />", StandardCharsets.ISO_8859_1));
+    }
+    final SOAPMessage sm = EBMSUtils.convert2MEOutboundAS4Message(sd, aBuilder.build());
+    final SOAPHeader header = sm.getSOAPHeader();
+
+    for (int round = 0; round < 3; ++round) {
+      measure("new XPath per lookup", () -> legacyMessage(header));
+      measure("cached expressions  ", () -> cachedMessage(header));
+    }
+  }
+}
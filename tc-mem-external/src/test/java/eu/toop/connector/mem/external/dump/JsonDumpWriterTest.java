@@ -0,0 +1,87 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.json.IJsonArray;
+import com.helger.json.IJsonObject;
+import com.helger.json.serialize.JsonReader;
+
+/**
+ * Test class for class {@link JsonDumpWriter}.
+ */
+public final class JsonDumpWriterTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    final byte[] data = new byte[100_000];
+    new Random(42).nextBytes(data);
+
+    final NonBlockingByteArrayOutputStream out = new NonBlockingByteArrayOutputStream();
+    final JsonDumpWriter writer = new JsonDumpWriter(out);
+    writer.beginObject();
+    writer.beginObject("routing").property("sender", "a\"b\\c\n\u0001").property("certificate", null).endObject();
+    writer.beginArray("payloads");
+    writer.beginObject().property("contentID", "first").base64Property("data", data, 10, 50_000).endObject();
+    writer.beginObject().property("contentID", "empty").base64Property("data", data, 0, 0).endObject();
+    writer.endArray();
+    writer.beginArray("none").endArray();
+    writer.endObject();
+    writer.flush();
+
+    final IJsonObject json = (IJsonObject) JsonReader.readFromString(out.getAsString(StandardCharsets.UTF_8));
+    assertNotNull(json);
+    assertEquals("a\"b\\c\n\u0001", json.getAsObject("routing").getAsString("sender"));
+    assertTrue(json.getAsObject("routing").containsKey("certificate"));
+
+    final IJsonArray payloads = json.getAsArray("payloads");
+    assertEquals(2, payloads.size());
+    assertArrayEquals(Arrays.copyOfRange(data, 10, 50_010),
+                      Base64.getDecoder().decode(payloads.getObjectAtIndex(0).getAsString("data")));
+    assertEquals("", payloads.getObjectAtIndex(1).getAsString("data"));
+    assertEquals(0, json.getAsArray("none").size());
+  }
+}
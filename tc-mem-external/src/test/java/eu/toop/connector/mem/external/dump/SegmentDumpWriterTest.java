@@ -0,0 +1,172 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.connector.api.dump.DumpArchiveEntry;
+import eu.toop.connector.api.dump.DumpArchiveLookup;
+
+/**
+ * Test class for class {@link SegmentDumpWriter}.
+ */
+public final class SegmentDumpWriterTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("segment-dump").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting(directory);
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    final SegmentDumpWriter writer = new SegmentDumpWriter(directory, "test", 100, 1024 * 1024, 1024 * 1024);
+    for (int i = 0; i < 10; i++) {
+      final byte[] data = ("dump number " + i).getBytes(StandardCharsets.UTF_8);
+      assertTrue(writer.offer("msg-" + i, "raw", data.length, out -> out.write(data)));
+    }
+    writer.close();
+    assertEquals(10, writer.getWrittenCount());
+    assertEquals(0, writer.getDroppedCount());
+    assertEquals(0, writer.getFailedCount());
+
+    // After closing, dumps are dropped
+    assertFalse(writer.offer("late", "raw", 1, out -> out.write(1)));
+    assertEquals(1, writer.getDroppedCount());
+
+    final List<DumpArchiveEntry> entries = DumpArchiveLookup.findEntries(directory, null, null, x -> true);
+    assertEquals(10, entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      final DumpArchiveEntry entry = entries.get(i);
+      assertEquals("msg-" + i, entry.getMessageID());
+      assertEquals("raw", entry.getType());
+      try (final InputStream in = DumpArchiveLookup.openDump(entry)) {
+        assertArrayEquals(("dump number " + i).getBytes(StandardCharsets.UTF_8), StreamHelper.getAllBytes(in));
+      }
+    }
+  }
+
+  @Test
+  public void testFailedContent() throws Exception {
+    final SegmentDumpWriter writer = new SegmentDumpWriter(directory, "test", 100, 1024 * 1024, 1024 * 1024);
+    writer.offer("broken", "raw", 0, out -> {
+      throw new IllegalStateException("Simulated");
+    });
+    writer.offer("msg", "raw", 1, out -> out.write(1));
+    writer.close();
+    assertEquals(1, writer.getWrittenCount());
+    assertEquals(1, writer.getFailedCount());
+    assertEquals(0, DumpArchiveLookup.findByMessageID(directory, "broken").size());
+  }
+
+  @Test
+  public void testQueueBoundedByBytes() throws Exception {
+    final SegmentDumpWriter writer = new SegmentDumpWriter(directory, "test", 100, 1000, 1024 * 1024);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    // Blocks the writer thread, so that the following dumps stay queued
+    assertTrue(writer.offer("blocker", "raw", 0, out -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    assertTrue(writer.offer("msg-1", "raw", 600, out -> out.write(new byte[600])));
+    assertEquals(600, writer.getQueuedBytes());
+    assertFalse(writer.offer("msg-2", "raw", 600, out -> out.write(new byte[600])));
+    assertTrue(writer.offer("msg-3", "raw", 400, out -> out.write(new byte[400])));
+    assertEquals(1000, writer.getQueuedBytes());
+    assertEquals(1, writer.getDroppedCount());
+
+    release.countDown();
+    writer.close();
+    assertEquals(3, writer.getWrittenCount());
+    assertEquals(0, writer.getQueuedBytes());
+  }
+
+  @Test
+  public void testOpenDumpStream() throws Exception {
+    final SegmentDumpWriter writer = new SegmentDumpWriter(directory, "test", 100, 1024 * 1024, 1024 * 1024);
+    try (final OutputStream out = writer.openDumpStream(null, "raw")) {
+      out.write("<eb:MessageInfo><eb:MessageId>msg@toop</eb:MessageId></eb:MessageInfo>".getBytes(StandardCharsets.UTF_8));
+    }
+    writer.close();
+    assertEquals(1, writer.getWrittenCount());
+    assertEquals(1, DumpArchiveLookup.findByMessageID(directory, "msg@toop").size());
+  }
+
+  @Test
+  public void testRollOver() throws Exception {
+    final SegmentDumpWriter writer = new SegmentDumpWriter(directory, "test", 100, 1024 * 1024, 1);
+    for (int i = 0; i < 3; i++)
+      writer.offer("msg-" + i, "raw", 100, out -> out.write(new byte[100]));
+    writer.close();
+    assertEquals(3, writer.getWrittenCount());
+
+    try (final Stream<Path> files = Files.walk(directory.toPath())) {
+      assertEquals(3, files.filter(p -> p.getFileName().toString().endsWith(".gz")).count());
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.url.URLHelper;
+
+/**
+ * Test class for class {@link GatewayRouter}.
+ */
+public final class GatewayRouterTest {
+  private static GatewayEndpoint _gw(final String host) {
+    return new GatewayEndpoint(URLHelper.getAsURL("http://" + host + "/as4"), host);
+  }
+
+  @Test
+  public void testLeastOutstanding() {
+    final GatewayEndpoint gw1 = _gw("gw1");
+    final GatewayEndpoint gw2 = _gw("gw2");
+    final GatewayRouter router = new GatewayRouter(new CommonsArrayList<>(gw1, gw2), 3, 60_000);
+
+    final GatewayEndpoint first = router.acquire();
+    final GatewayEndpoint second = router.acquire();
+    // Both must be used once
+    assertNotSame(first, second);
+    assertEquals(1, gw1.getOutstanding());
+    assertEquals(1, gw2.getOutstanding());
+
+    // Free the first one - it must be chosen next
+    router.onSuccess(first);
+    assertSame(first, router.acquire());
+    router.onSuccess(first);
+    router.release(second);
+    assertEquals(0, gw1.getOutstanding());
+    assertEquals(0, gw2.getOutstanding());
+  }
+
+  @Test
+  public void testEjection() {
+    final GatewayEndpoint gw1 = _gw("gw1");
+    final GatewayEndpoint gw2 = _gw("gw2");
+    final GatewayRouter router = new GatewayRouter(new CommonsArrayList<>(gw1, gw2), 2, 60_000);
+
+    // Two consecutive failures eject the gateway
+    gw1.incrementOutstanding();
+    router.onFailure(gw1);
+    assertTrue(gw1.isHealthy(System.currentTimeMillis()));
+    gw1.incrementOutstanding();
+    router.onFailure(gw1);
+    assertFalse(gw1.isHealthy(System.currentTimeMillis()));
+    assertEquals(2, gw1.getTotalFailures());
+
+    // Only the healthy gateway is used, even if it has more outstanding
+    // messages
+    for (int i = 0; i < 5; ++i)
+      assertSame(gw2, router.acquire());
+    assertEquals(0, gw1.getOutstanding());
+    assertEquals(5, gw2.getOutstanding());
+  }
+
+  @Test
+  public void testAllEjected() {
+    final GatewayEndpoint gw1 = _gw("gw1");
+    final GatewayRouter router = new GatewayRouter(new CommonsArrayList<>(gw1), 1, 60_000);
+    gw1.incrementOutstanding();
+    router.onFailure(gw1);
+    assertFalse(gw1.isHealthy(System.currentTimeMillis()));
+
+    // Still used, as there is no alternative
+    assertSame(gw1, router.acquire());
+  }
+}
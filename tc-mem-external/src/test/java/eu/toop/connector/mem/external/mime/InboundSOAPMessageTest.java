@@ -0,0 +1,112 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.mime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import javax.xml.soap.AttachmentPart;
+import javax.xml.soap.MimeHeaders;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+
+import eu.toop.connector.api.me.model.MEMessage;
+import eu.toop.connector.mem.external.EBMSUtils;
+import eu.toop.connector.mem.external.SubmissionMessageProperties;
+import eu.toop.connector.mem.external.transport.MultipartRelatedEntity;
+
+/**
+ * Test class for class {@link InboundSOAPMessage}.
+ */
+public final class InboundSOAPMessageTest {
+  @Test
+  public void testReadWithSpilling() throws Exception {
+    final SubmissionMessageProperties sd = new SubmissionMessageProperties();
+    sd.conversationId = "InboundSOAPMessageTest";
+    final byte[] aBin = new byte[100_000];
+    for (int i = 0; i < aBin.length; ++i)
+      aBin[i] = (byte) (i * 31);
+    final MEMessage msg = MEMessage.builder()
+                                   .addPayload(x -> x.mimeType(CMimeType.APPLICATION_XML)
+                                                     .contentID("xml@tc-ng.toop")
+                                                     .data("<?xml version='1.0'?><root demo='true' />",
+                                                           StandardCharsets.ISO_8859_1))
+                                   .addPayload(x -> x.mimeType(CMimeType.APPLICATION_OCTET_STREAM)
+                                                     .contentID("bin@tc-ng.toop")
+                                                     .data(aBin))
+                                   .build();
+    final MultipartRelatedEntity aEntity = new MultipartRelatedEntity(EBMSUtils.createOutboundEnvelope(sd, msg),
+                                                                      msg.payloads());
+    final byte[] aWritten;
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream()) {
+      aEntity.writeTo(aBAOS);
+      aWritten = aBAOS.toByteArray();
+    }
+
+    final MimeHeaders aHeaders = new MimeHeaders();
+    aHeaders.addHeader("Content-Type", aEntity.getContentType().getValue());
+    final NonBlockingByteArrayOutputStream aCopy = new NonBlockingByteArrayOutputStream();
+    final InboundSOAPMessage aInbound;
+    try (final TeeInputStream aIS = new TeeInputStream(new NonBlockingByteArrayInputStream(aWritten), aCopy)) {
+      aInbound = InboundSOAPMessage.read(aHeaders, aIS, 1024);
+    }
+    // The copy must contain the complete raw message
+    assertArrayEquals(aWritten, aCopy.toByteArray());
+
+    try (final InboundSOAPMessage aCloser = aInbound) {
+      assertEquals(1, aInbound.getSpilledPartCount());
+      assertEquals(1,
+                   aInbound.getMessage()
+                           .getSOAPHeader()
+                           .getElementsByTagNameNS(EBMSUtils.NS_EBMS, "Messaging")
+                           .getLength());
+      assertEquals(2, aInbound.getMessage().countAttachments());
+
+      final Iterator<?> it = aInbound.getMessage().getAttachments();
+      final AttachmentPart aXml = (AttachmentPart) it.next();
+      assertEquals("<xml@tc-ng.toop>", aXml.getContentId());
+      assertArrayEquals(msg.payloads().get(0).getData().getAllBytes(), aXml.getRawContentBytes());
+      final AttachmentPart aBinPart = (AttachmentPart) it.next();
+      assertEquals("<bin@tc-ng.toop>", aBinPart.getContentId());
+      assertArrayEquals(aBin, aBinPart.getRawContentBytes());
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.notifications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperationManager;
+
+import eu.toop.connector.mem.external.ResultType;
+
+/**
+ * Test class for class {@link DirectoryNotificationCorrelationStore}.
+ */
+public final class DirectoryNotificationCorrelationStoreTest {
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("notification-store");
+  }
+
+  @After
+  public void tearDown() {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting(directory.toFile());
+  }
+
+  @Test
+  public void testNotificationReceivedByOtherNode() throws Exception {
+    try (final DirectoryNotificationCorrelationStore storeA = new DirectoryNotificationCorrelationStore(directory, 10, 60000);
+        final DirectoryNotificationCorrelationStore storeB = new DirectoryNotificationCorrelationStore(directory, 10, 60000)) {
+      final InternalRelayResultHandler nodeA = new InternalRelayResultHandler(storeA);
+      final InternalRelayResultHandler nodeB = new InternalRelayResultHandler(storeB);
+
+      // The sender waits on node B, but the gateway calls node A
+      final CompletableFuture<Notification> future = nodeB.obtainNotificationAsync("msg/1", 10000);
+      final RelayResult relayResult = new RelayResult();
+      relayResult.setMessageID("notification-1");
+      relayResult.setRefToMessageID("msg/1");
+      relayResult.setResult(ResultType.ERROR);
+      relayResult.setErrorCode("E1");
+      relayResult.setSeverity("failure");
+      nodeA.handleNotification(relayResult);
+
+      final RelayResult received = (RelayResult) future.get(5, TimeUnit.SECONDS);
+      assertEquals("notification-1", received.getMessageID());
+      assertEquals("msg/1", received.getRefToMessageID());
+      assertEquals(ResultType.ERROR, received.getResult());
+      assertEquals("E1", received.getErrorCode());
+      assertEquals("failure", received.getSeverity());
+      assertNull(received.getDescription());
+      assertEquals(0, nodeA.getPendingCount());
+    }
+  }
+
+  @Test
+  public void testNotificationBeforeWaiter() throws Exception {
+    try (final DirectoryNotificationCorrelationStore storeA = new DirectoryNotificationCorrelationStore(directory, 10, 60000);
+        final DirectoryNotificationCorrelationStore storeB = new DirectoryNotificationCorrelationStore(directory, 10, 60000)) {
+      final InternalSubmissionResultHandler nodeA = new InternalSubmissionResultHandler(storeA);
+      final InternalSubmissionResultHandler nodeB = new InternalSubmissionResultHandler(storeB);
+
+      final SubmissionResult submissionResult = new SubmissionResult();
+      submissionResult.setRefToMessageID("early");
+      nodeA.handleSubmissionResult(submissionResult);
+
+      final CompletableFuture<Notification> future = nodeB.obtainNotificationAsync("early", 10000);
+      assertEquals("early", future.get(5, TimeUnit.SECONDS).getRefToMessageID());
+      try (final Stream<Path> files = Files.list(directory.resolve(SubmissionResult.class.getSimpleName()))) {
+        assertFalse(files.findAny().isPresent());
+      }
+    }
+  }
+
+  @Test
+  public void testFileNameEncoding() {
+    final String messageID = "uuid:1234@toop.eu/../x";
+    final String fileName = DirectoryNotificationCorrelationStore.encodeFileName(messageID);
+    assertFalse(fileName.contains("/"));
+    assertEquals(messageID, DirectoryNotificationCorrelationStore.decodeFileName(fileName));
+  }
+
+  @Test
+  public void testLongMessageIDFileName() {
+    final String messageID = longMessageID();
+    final String fileName = DirectoryNotificationCorrelationStore.encodeFileName(messageID);
+    assertTrue(fileName.startsWith(DirectoryNotificationCorrelationStore.HASH_PREFIX));
+    assertTrue(fileName.length() <= DirectoryNotificationCorrelationStore.MAX_ENCODED_LENGTH);
+    assertEquals(fileName, DirectoryNotificationCorrelationStore.encodeFileName(messageID));
+    assertNull(DirectoryNotificationCorrelationStore.decodeFileName(fileName));
+  }
+
+  @Test
+  public void testLongMessageIDReceivedByOtherNode() throws Exception {
+    try (final DirectoryNotificationCorrelationStore storeA = new DirectoryNotificationCorrelationStore(directory, 10, 60000);
+        final DirectoryNotificationCorrelationStore storeB = new DirectoryNotificationCorrelationStore(directory, 10, 60000)) {
+      final InternalSubmissionResultHandler nodeA = new InternalSubmissionResultHandler(storeA);
+      final InternalSubmissionResultHandler nodeB = new InternalSubmissionResultHandler(storeB);
+
+      final String messageID = longMessageID();
+      final CompletableFuture<Notification> future = nodeB.obtainNotificationAsync(messageID, 10000);
+      final SubmissionResult submissionResult = new SubmissionResult();
+      submissionResult.setRefToMessageID(messageID);
+      nodeA.handleSubmissionResult(submissionResult);
+
+      assertEquals(messageID, future.get(5, TimeUnit.SECONDS).getRefToMessageID());
+    }
+  }
+
+  private static String longMessageID() {
+    final StringBuilder ret = new StringBuilder("uuid:");
+    while (ret.length() < 300)
+      ret.append("0123456789abcdef");
+    return ret.append("@toop.eu").toString();
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.external.notifications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+
+/**
+ * Test class for class {@link InternalNotificationHandler}.
+ */
+public final class InternalNotificationHandlerTest {
+
+  private static SubmissionResult createSR(final String refToMessageID) {
+    final SubmissionResult ret = new SubmissionResult();
+    ret.setRefToMessageID(refToMessageID);
+    return ret;
+  }
+
+  @Test
+  public void testNotificationBeforeWaiter() throws Exception {
+    final InternalSubmissionResultHandler handler = new InternalSubmissionResultHandler();
+    final SubmissionResult sr = createSR("early");
+    handler.handleSubmissionResult(sr);
+
+    final CompletableFuture<Notification> future = handler.obtainNotificationAsync("early", 1000);
+    assertTrue(future.isDone());
+    assertSame(sr, future.get());
+  }
+
+  @Test
+  public void testNotificationAfterWaiter() throws Exception {
+    final InternalSubmissionResultHandler handler = new InternalSubmissionResultHandler();
+    final CompletableFuture<Notification> future = handler.obtainNotificationAsync("late", 10000);
+    assertFalse(future.isDone());
+
+    final SubmissionResult sr = createSR("late");
+    handler.handleSubmissionResult(sr);
+    assertSame(sr, future.get());
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    final InternalSubmissionResultHandler handler = new InternalSubmissionResultHandler();
+    try {
+      handler.obtainNotificationAsync("never", 50).get();
+      fail();
+    } catch (final ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof MEOutgoingException);
+    }
+
+    try {
+      handler.obtainNotification("never", 50);
+      fail();
+    } catch (final MEOutgoingException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTimeoutIsNotCompletedOnTheScheduler() throws Exception {
+    final InternalSubmissionResultHandler handler = new InternalSubmissionResultHandler();
+    final String threadName = handler.obtainNotificationAsync("slow", 10)
+                                     .handle((n, ex) -> Thread.currentThread().getName())
+                                     .get();
+    assertFalse(threadName, threadName.startsWith("mem-notification-timeout"));
+  }
+
+  @Test
+  public void testEvictionByCapacity() throws Exception {
+    final InternalNotificationHandler handler = new InternalNotificationHandler(SubmissionResult.class, 60000, 2);
+    try {
+      // wait without timeout, so that only the eviction can complete it
+      final CompletableFuture<Notification> a = handler.obtainNotificationAsync("a", 0);
+      handler.handleNotification(createSR("b"));
+      assertFalse(a.isDone());
+      handler.handleNotification(createSR("c"));
+      assertEquals(2, handler.getPendingCount());
+      assertEquals(1, handler.getEvictedByCapacityCount());
+
+      // "a" was the oldest and was evicted
+      assertTrue(a.isCompletedExceptionally());
+    } finally {
+      handler.close();
+    }
+  }
+
+  @Test
+  public void testConsumedEntriesLeaveTheExpiryIndex() throws Exception {
+    final InternalNotificationHandler handler = new InternalNotificationHandler(SubmissionResult.class, 60000, 2);
+    try {
+      for (int i = 0; i < 10; ++i) {
+        final SubmissionResult sr = createSR("id" + i);
+        handler.handleNotification(sr);
+        assertSame(sr, handler.obtainNotificationAsync("id" + i, 0).get());
+      }
+      assertEquals(0, handler.getPendingCount());
+      assertEquals(0, handler.getExpiryIndexSize());
+    } finally {
+      handler.close();
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    final InternalNotificationHandler handler = new InternalNotificationHandler(SubmissionResult.class, 60000, 10);
+    try {
+      final CompletableFuture<Notification> future = handler.obtainNotificationAsync("failed", 60000);
+      assertTrue(handler.cancel("failed"));
+      assertTrue(future.isCompletedExceptionally());
+      assertEquals(0, handler.getPendingCount());
+      assertEquals(0, handler.getExpiryIndexSize());
+      assertFalse(handler.cancel("failed"));
+    } finally {
+      handler.close();
+    }
+  }
+
+  @Test
+  public void testEvictionByTimeout() throws Exception {
+    final InternalNotificationHandler handler = new InternalNotificationHandler(SubmissionResult.class, 1, 100);
+    handler.handleNotification(createSR("orphan"));
+    Thread.sleep(10);
+    handler.evictExpired();
+    assertEquals(0, handler.getPendingCount());
+    assertEquals(1, handler.getEvictedByTimeoutCount());
+  }
+
+  @Test
+  public void testWaiterIsNotEvictedByTimeout() throws Exception {
+    final InternalNotificationHandler handler = new InternalNotificationHandler(SubmissionResult.class, 1, 100);
+    try {
+      final CompletableFuture<Notification> future = handler.obtainNotificationAsync("awaited", 0);
+      Thread.sleep(10);
+      handler.evictExpired();
+      assertFalse(future.isDone());
+      assertEquals(1, handler.getPendingCount());
+      assertEquals(0, handler.getEvictedByTimeoutCount());
+
+      final SubmissionResult sr = createSR("awaited");
+      handler.handleNotification(sr);
+      assertSame(sr, future.get());
+      assertEquals(0, handler.getPendingCount());
+      assertEquals(0, handler.getExpiryIndexSize());
+    } finally {
+      handler.close();
+    }
+  }
+}
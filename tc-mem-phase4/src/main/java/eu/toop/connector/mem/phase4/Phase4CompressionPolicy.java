@@ -0,0 +1,367 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.function.DoubleSupplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.lang.EnumHelper;
+import com.helger.commons.mime.EMimeContentType;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+
+import eu.toop.connector.api.me.model.IMEPayloadData;
+
+/**
+ * Decides which outgoing payloads are compressed. Compressing data that is
+ * already compressed (like PDFs, images or ZIP files) costs CPU time and makes
+ * the message slightly bigger, whereas XML and JSON usually shrink
+ * considerably.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class Phase4CompressionPolicy
+{
+  /**
+   * The available compression modes.
+   */
+  public enum EMode implements IHasID <String>
+  {
+    /** Decide by MIME type, size and entropy */
+    ADAPTIVE ("adaptive"),
+    /** Compress all text/* payloads - the behaviour before 2.1.2 */
+    TEXT ("text"),
+    /** Compress everything */
+    ALWAYS ("always"),
+    /** Compress nothing */
+    NEVER ("never");
+
+    private final String m_sID;
+
+    EMode (@Nonnull @Nonempty final String sID)
+    {
+      m_sID = sID;
+    }
+
+    @Nonnull
+    @Nonempty
+    public String getID ()
+    {
+      return m_sID;
+    }
+
+    @Nullable
+    public static EMode getFromIDOrNull (@Nullable final String sID)
+    {
+      return EnumHelper.getFromIDOrNull (EMode.class, sID);
+    }
+  }
+
+  public static final EMode DEFAULT_MODE = EMode.ADAPTIVE;
+  /** Number of equally spaced chunks the entropy sample is taken from */
+  private static final int SAMPLE_CHUNKS = 4;
+
+  private final EMode m_eMode;
+  private final ICommonsOrderedSet <String> m_aSuffixes;
+  private final int m_nMinSize;
+  private final int m_nEntropySampleSize;
+  private final double m_dEntropyMax;
+
+  /**
+   * Constructor
+   *
+   * @param eMode
+   *        The compression mode. May not be <code>null</code>.
+   * @param aSuffixes
+   *        The MIME type suffixes (like "+xml") that are always compressed in
+   *        adaptive mode. May not be <code>null</code>.
+   * @param nMinSize
+   *        The minimum payload size in bytes to be compressed in adaptive
+   *        mode. Must be &ge; 0.
+   * @param nEntropySampleSize
+   *        The number of bytes to sample for the entropy. Must be &gt; 0.
+   * @param dEntropyMax
+   *        The maximum entropy in bits per byte up to which payloads of other
+   *        MIME types are compressed in adaptive mode.
+   */
+  public Phase4CompressionPolicy (@Nonnull final EMode eMode,
+                                  @Nonnull final Iterable <String> aSuffixes,
+                                  @Nonnegative final int nMinSize,
+                                  @Nonnegative final int nEntropySampleSize,
+                                  final double dEntropyMax)
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
+    ValueEnforcer.notNull (aSuffixes, "Suffixes");
+    ValueEnforcer.isGE0 (nMinSize, "MinSize");
+    ValueEnforcer.isGT0 (nEntropySampleSize, "EntropySampleSize");
+    m_eMode = eMode;
+    m_aSuffixes = new CommonsLinkedHashSet <> ();
+    for (final String sSuffix : aSuffixes)
+      if (StringHelper.hasText (sSuffix))
+        m_aSuffixes.add (sSuffix.trim ().toLowerCase (Locale.ROOT));
+    m_nMinSize = nMinSize;
+    m_nEntropySampleSize = nEntropySampleSize;
+    m_dEntropyMax = dEntropyMax;
+  }
+
+  @Nonnull
+  public EMode getMode ()
+  {
+    return m_eMode;
+  }
+
+  /**
+   * @param aMimeType
+   *        The MIME type to check. May not be <code>null</code>.
+   * @return <code>true</code> if the MIME type denotes textual content that
+   *         compresses well.
+   */
+  public boolean isTextual (@Nonnull final IMimeType aMimeType)
+  {
+    if (aMimeType.getContentType () == EMimeContentType.TEXT)
+      return true;
+    final String sSubType = aMimeType.getContentSubType ().toLowerCase (Locale.ROOT);
+    if (sSubType.equals ("xml") || sSubType.equals ("json"))
+      return true;
+    for (final String sSuffix : m_aSuffixes)
+      if (sSubType.endsWith (sSuffix))
+        return true;
+    return false;
+  }
+
+  /**
+   * Determine the compression to use for a single payload.
+   *
+   * @param aMimeType
+   *        The MIME type of the payload. May not be <code>null</code>.
+   * @param aData
+   *        The payload bytes. May not be <code>null</code>.
+   * @param nOfs
+   *        Offset into the bytes. Must be &ge; 0.
+   * @param nLen
+   *        Number of bytes of the payload. Must be &ge; 0.
+   * @return The compression mode or <code>null</code> to not compress.
+   */
+  @Nullable
+  public EAS4CompressionMode getCompressionMode (@Nonnull final IMimeType aMimeType,
+                                                 @Nonnull final byte [] aData,
+                                                 @Nonnegative final int nOfs,
+                                                 @Nonnegative final int nLen)
+  {
+    ValueEnforcer.notNull (aMimeType, "MimeType");
+    ValueEnforcer.isArrayOfsLen (aData, nOfs, nLen);
+
+    return _getCompressionMode (aMimeType, nLen, () -> getSampleEntropy (aData, nOfs, nLen, m_nEntropySampleSize));
+  }
+
+  /**
+   * Determine the compression to use for a single payload. If the payload is
+   * not kept in memory, only the beginning is read to determine the entropy.
+   *
+   * @param aMimeType
+   *        The MIME type of the payload. May not be <code>null</code>.
+   * @param aData
+   *        The payload content. May not be <code>null</code>.
+   * @return The compression mode or <code>null</code> to not compress.
+   * @throws UncheckedIOException
+   *         If the payload cannot be read
+   */
+  @Nullable
+  public EAS4CompressionMode getCompressionMode (@Nonnull final IMimeType aMimeType, @Nonnull final IMEPayloadData aData)
+  {
+    ValueEnforcer.notNull (aMimeType, "MimeType");
+    ValueEnforcer.notNull (aData, "Data");
+
+    if (aData.isInMemory ())
+    {
+      final ByteArrayWrapper aBytes = aData.getAsByteArrayWrapper ();
+      return getCompressionMode (aMimeType, aBytes.bytes (), aBytes.getOffset (), aBytes.size ());
+    }
+    return _getCompressionMode (aMimeType, aData.getSize (), () -> {
+      final byte [] aSample = new byte [m_nEntropySampleSize];
+      try (final InputStream aIS = aData.openStream ())
+      {
+        int nSampled = 0;
+        int nRead;
+        while (nSampled < aSample.length && (nRead = aIS.read (aSample, nSampled, aSample.length - nSampled)) >= 0)
+          nSampled += nRead;
+        return getSampleEntropy (aSample, 0, nSampled, m_nEntropySampleSize);
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to read the payload sample", ex);
+      }
+    });
+  }
+
+  /**
+   * @param aMimeType
+   *        MIME type
+   * @param nSize
+   *        Payload size in bytes or -1 if unknown
+   * @param aEntropy
+   *        Supplier for the entropy, only invoked if needed
+   */
+  @Nullable
+  private EAS4CompressionMode _getCompressionMode (@Nonnull final IMimeType aMimeType,
+                                                   final long nSize,
+                                                   @Nonnull final DoubleSupplier aEntropy)
+  {
+    switch (m_eMode)
+    {
+      case ALWAYS:
+        return EAS4CompressionMode.GZIP;
+      case NEVER:
+        return null;
+      case TEXT:
+        return aMimeType.getContentType () == EMimeContentType.TEXT ? EAS4CompressionMode.GZIP : null;
+      default:
+        break;
+    }
+
+    // Adaptive
+    if (nSize >= 0 && nSize < m_nMinSize)
+    {
+      // The GZIP overhead eats up the savings
+      return null;
+    }
+    if (isTextual (aMimeType))
+      return EAS4CompressionMode.GZIP;
+    return aEntropy.getAsDouble () <= m_dEntropyMax ? EAS4CompressionMode.GZIP : null;
+  }
+
+  /**
+   * Calculate the Shannon entropy of a sample of the provided bytes. The
+   * sample is taken from equally spaced chunks, so that the (often
+   * uncompressed) header of a file format does not dominate.
+   *
+   * @param aData
+   *        The bytes. May not be <code>null</code>.
+   * @param nOfs
+   *        Offset into the bytes. Must be &ge; 0.
+   * @param nLen
+   *        Number of bytes. Must be &ge; 0.
+   * @param nSampleSize
+   *        Maximum number of bytes to sample. Must be &gt; 0.
+   * @return The entropy in bits per byte, in the range 0 to 8.
+   */
+  public static double getSampleEntropy (@Nonnull final byte [] aData,
+                                         @Nonnegative final int nOfs,
+                                         @Nonnegative final int nLen,
+                                         @Nonnegative final int nSampleSize)
+  {
+    final int [] aCounts = new int [256];
+    int nSampled = 0;
+    if (nLen <= nSampleSize)
+    {
+      for (int i = 0; i < nLen; ++i)
+        aCounts[aData[nOfs + i] & 0xff]++;
+      nSampled = nLen;
+    }
+    else
+    {
+      final int nChunkSize = Math.max (1, nSampleSize / SAMPLE_CHUNKS);
+      final int nChunks = nSampleSize / nChunkSize;
+      final long nStride = (nLen - nChunkSize) / Math.max (1, nChunks - 1);
+      for (int nChunk = 0; nChunk < nChunks; ++nChunk)
+      {
+        final int nStart = nOfs + (int) (nChunk * nStride);
+        for (int i = 0; i < nChunkSize; ++i)
+          aCounts[aData[nStart + i] & 0xff]++;
+        nSampled += nChunkSize;
+      }
+    }
+    if (nSampled == 0)
+      return 0;
+
+    double dEntropy = 0;
+    for (final int nCount : aCounts)
+      if (nCount > 0)
+      {
+        final double p = (double) nCount / nSampled;
+        dEntropy -= p * Math.log (p);
+      }
+    return dEntropy / Math.log (2);
+  }
+
+  /**
+   * @return A new policy based on the {@link Phase4Config} settings. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static Phase4CompressionPolicy createFromConfig ()
+  {
+    EMode eMode = DEFAULT_MODE;
+    final String sMode = Phase4Config.getCompressionMode ();
+    if (StringHelper.hasText (sMode))
+    {
+      eMode = EMode.getFromIDOrNull (sMode.trim ().toLowerCase (Locale.ROOT));
+      if (eMode == null)
+        throw new IllegalStateException ("Unsupported phase4 compression mode '" + sMode + "'");
+    }
+    return new Phase4CompressionPolicy (eMode,
+                                        StringHelper.getExploded (',', Phase4Config.getCompressionSuffixes ()),
+                                        Phase4Config.getCompressionMinSize (),
+                                        Phase4Config.getCompressionEntropySampleSize (),
+                                        Phase4Config.getCompressionEntropyMax ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Mode", m_eMode)
+                                       .append ("Suffixes", m_aSuffixes)
+                                       .append ("MinSize", m_nMinSize)
+                                       .append ("EntropySampleSize", m_nEntropySampleSize)
+                                       .append ("EntropyMax", m_dEntropyMax)
+                                       .getToString ();
+  }
+}
@@ -36,6 +36,8 @@ package eu.toop.connector.mem.phase4;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.CGlobal;
+import com.helger.commons.string.StringParser;
 import com.helger.config.IConfig;
 import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
@@ -89,6 +91,27 @@ public final class Phase4Config
     return getConfig ().getAsString ("phase4.dump.outgoing.path");
   }
 
+  /**
+   * @return <code>true</code> if the incoming, outgoing and response dumps
+   *         should be appended to compressed daily segment files with an
+   *         index, <code>false</code> to write one file per message.
+   * @since 2.1.2
+   */
+  public static boolean isDumpArchiveEnabled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.dump.archive.enabled", false);
+  }
+
+  /**
+   * @return The size in bytes after which a new dump archive segment is
+   *         started.
+   * @since 2.1.2
+   */
+  public static long getDumpArchiveSegmentSize ()
+  {
+    return getConfig ().getAsLong ("phase4.dump.archive.segment-size", 64 * CGlobal.BYTES_PER_MEGABYTE);
+  }
+
   @Nullable
   public static String getFromPartyID ()
   {
@@ -132,6 +155,170 @@ public final class Phase4Config
     return getConfig ().getAsString ("phase4.send.response.folder");
   }
 
+  /**
+   * @return The number of threads used for asynchronous sending.
+   * @since 2.1.2
+   */
+  public static int getSendAsyncThreads ()
+  {
+    return getConfig ().getAsInt ("phase4.send.async.threads", 16);
+  }
+
+  /**
+   * @return The maximum number of asynchronous send requests waiting for a
+   *         thread.
+   * @since 2.1.2
+   */
+  public static int getSendAsyncQueueSize ()
+  {
+    return getConfig ().getAsInt ("phase4.send.async.queue-size", 1000);
+  }
+
+  /**
+   * @return <code>true</code> if incoming AS4 messages should be acknowledged
+   *         immediately and handed over to worker threads for the EDM
+   *         processing, <code>false</code> to process them before the receipt
+   *         is returned.
+   * @since 2.1.2
+   */
+  public static boolean isIncomingAsync ()
+  {
+    return getConfig ().getAsBoolean ("phase4.incoming.async.enabled", false);
+  }
+
+  /**
+   * @return The number of worker threads processing incoming AS4 messages
+   *         asynchronously.
+   * @since 2.1.2
+   */
+  public static int getIncomingAsyncThreads ()
+  {
+    return getConfig ().getAsInt ("phase4.incoming.async.threads", 4);
+  }
+
+  /**
+   * @return The maximum number of incoming AS4 messages waiting for a worker
+   *         thread.
+   * @since 2.1.2
+   */
+  public static int getIncomingAsyncQueueSize ()
+  {
+    return getConfig ().getAsInt ("phase4.incoming.async.queue-size", 100);
+  }
+
+  /**
+   * @return The directory in which incoming AS4 messages are kept until they
+   *         were processed. May be <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nullable
+  public static String getIncomingAsyncSpoolPath ()
+  {
+    return getConfig ().getAsString ("phase4.incoming.async.spool.path");
+  }
+
+  /**
+   * @return <code>true</code> if all outgoing AS4 messages should be sent via
+   *         one shared, pooled HTTP client, <code>false</code> to create a new
+   *         HTTP client per message.
+   * @since 2.1.2
+   */
+  public static boolean isHttpPooled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.http.pooled", true);
+  }
+
+  /**
+   * @return The maximum number of pooled connections in total.
+   * @since 2.1.2
+   */
+  public static int getHttpMaxConnectionsTotal ()
+  {
+    return getConfig ().getAsInt ("phase4.http.max-total", 100);
+  }
+
+  /**
+   * @return The maximum number of pooled connections per receiving access
+   *         point.
+   * @since 2.1.2
+   */
+  public static int getHttpMaxConnectionsPerRoute ()
+  {
+    return getConfig ().getAsInt ("phase4.http.max-per-route", 20);
+  }
+
+  /**
+   * @return The number of milliseconds after which idle pooled connections are
+   *         closed.
+   * @since 2.1.2
+   */
+  public static long getHttpIdleTimeoutMS ()
+  {
+    return getConfig ().getAsLong ("phase4.http.idle-timeout", 30_000);
+  }
+
+  /**
+   * @return The maximum number of TLS sessions cached for resumption. 0 to not
+   *         configure the TLS session cache.
+   * @since 2.1.2
+   */
+  public static int getHttpTLSSessionCacheSize ()
+  {
+    return getConfig ().getAsInt ("phase4.http.tls.session-cache-size", 100);
+  }
+
+  /**
+   * @return The compression policy for outgoing payloads. Either "adaptive",
+   *         "text", "always" or "never". May be <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nullable
+  public static String getCompressionMode ()
+  {
+    return getConfig ().getAsString ("phase4.compression.mode");
+  }
+
+  /**
+   * @return The comma separated MIME type suffixes of payloads that are always
+   *         compressed by the adaptive policy.
+   * @since 2.1.2
+   */
+  @Nonnull
+  public static String getCompressionSuffixes ()
+  {
+    return getConfig ().getAsString ("phase4.compression.suffixes", "+xml,+json");
+  }
+
+  /**
+   * @return The minimum size in bytes of payloads to be compressed by the
+   *         adaptive policy.
+   * @since 2.1.2
+   */
+  public static int getCompressionMinSize ()
+  {
+    return getConfig ().getAsInt ("phase4.compression.min-size", 1024);
+  }
+
+  /**
+   * @return The number of bytes sampled to determine the entropy of payloads of
+   *         other MIME types.
+   * @since 2.1.2
+   */
+  public static int getCompressionEntropySampleSize ()
+  {
+    return getConfig ().getAsInt ("phase4.compression.entropy.sample-size", 4096);
+  }
+
+  /**
+   * @return The maximum entropy in bits per byte of the sample, up to which a
+   *         payload of another MIME type is compressed.
+   * @since 2.1.2
+   */
+  public static double getCompressionEntropyMax ()
+  {
+    return StringParser.parseDouble (getConfig ().getAsString ("phase4.compression.entropy.max"), 7.5);
+  }
+
   // Keystore stuff
   @Nonnull
   public static EKeyStoreType getKeyStoreType ()
@@ -0,0 +1,276 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.config.ConnectionSocketFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.exception.InitializationException;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+
+import eu.toop.connector.api.http.TCHttpClientSettings;
+
+/**
+ * A {@link HttpClientFactory} for outgoing AS4 messages that always hands out
+ * the same pooled HTTP client. phase4 creates and closes an HTTP client for
+ * each message, so closing the handed out client is ignored and the
+ * connections to the receiving access points are kept alive across messages.
+ * Idle connections are evicted in the background. Optionally a dedicated TLS
+ * session cache is configured, so that new connections to a known access point
+ * can resume the TLS session.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public class Phase4HttpClientFactory extends HttpClientFactory implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4HttpClientFactory.class);
+
+  private final int m_nMaxTotal;
+  private final int m_nMaxPerRoute;
+  private final long m_nIdleTimeoutMS;
+  @GuardedBy ("this")
+  private CloseableHttpClient m_aSharedClient;
+  @GuardedBy ("this")
+  private CloseableHttpClient m_aNonClosingClient;
+  @GuardedBy ("this")
+  private boolean m_bClosed = false;
+
+  /**
+   * An HTTP client that delegates to the shared client, but ignores
+   * {@link #close()}.
+   */
+  private static final class NonClosingHttpClient extends CloseableHttpClient
+  {
+    private final CloseableHttpClient m_aDelegate;
+
+    NonClosingHttpClient (@Nonnull final CloseableHttpClient aDelegate)
+    {
+      m_aDelegate = aDelegate;
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute (final HttpHost aTarget,
+                                               final HttpRequest aRequest,
+                                               final HttpContext aContext) throws IOException
+    {
+      return m_aDelegate.execute (aTarget, aRequest, aContext);
+    }
+
+    @Override
+    public void close ()
+    {
+      // The shared client is closed by the factory
+    }
+
+    @Override
+    @Deprecated
+    public HttpParams getParams ()
+    {
+      return m_aDelegate.getParams ();
+    }
+
+    @Override
+    @Deprecated
+    public ClientConnectionManager getConnectionManager ()
+    {
+      return m_aDelegate.getConnectionManager ();
+    }
+  }
+
+  /**
+   * Constructor using the global HTTP settings and the phase4 configuration.
+   */
+  public Phase4HttpClientFactory ()
+  {
+    this (new TCHttpClientSettings (),
+          Phase4Config.getHttpMaxConnectionsTotal (),
+          Phase4Config.getHttpMaxConnectionsPerRoute (),
+          Phase4Config.getHttpIdleTimeoutMS (),
+          Phase4Config.getHttpTLSSessionCacheSize ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSettings
+   *        The HTTP client settings to use. May not be <code>null</code>.
+   * @param nMaxTotal
+   *        The maximum number of pooled connections. Must be &gt; 0.
+   * @param nMaxPerRoute
+   *        The maximum number of pooled connections per route. Must be &gt; 0.
+   * @param nIdleTimeoutMS
+   *        The milliseconds after which idle connections are closed. Must be
+   *        &gt; 0.
+   * @param nTLSSessionCacheSize
+   *        The maximum number of cached TLS sessions. 0 to keep the defaults.
+   */
+  public Phase4HttpClientFactory (@Nonnull final HttpClientSettings aSettings,
+                                  @Nonnegative final int nMaxTotal,
+                                  @Nonnegative final int nMaxPerRoute,
+                                  @Nonnegative final long nIdleTimeoutMS,
+                                  @Nonnegative final int nTLSSessionCacheSize)
+  {
+    super (_applyTLSSessionCache (aSettings, nTLSSessionCacheSize));
+    ValueEnforcer.isGT0 (nMaxTotal, "MaxTotal");
+    ValueEnforcer.isGT0 (nMaxPerRoute, "MaxPerRoute");
+    ValueEnforcer.isGT0 (nIdleTimeoutMS, "IdleTimeoutMS");
+    m_nMaxTotal = nMaxTotal;
+    m_nMaxPerRoute = nMaxPerRoute;
+    m_nIdleTimeoutMS = nIdleTimeoutMS;
+  }
+
+  @Nonnull
+  private static HttpClientSettings _applyTLSSessionCache (@Nonnull final HttpClientSettings aSettings,
+                                                           @Nonnegative final int nTLSSessionCacheSize)
+  {
+    ValueEnforcer.notNull (aSettings, "Settings");
+    ValueEnforcer.isGE0 (nTLSSessionCacheSize, "TLSSessionCacheSize");
+    if (nTLSSessionCacheSize > 0)
+    {
+      SSLContext aSSLContext = aSettings.getSSLContext ();
+      if (aSSLContext == null)
+      {
+        // Use a dedicated context, so that the JVM default is not modified
+        try
+        {
+          aSSLContext = SSLContext.getInstance ("TLS");
+          aSSLContext.init (null, null, null);
+        }
+        catch (final GeneralSecurityException ex)
+        {
+          throw new InitializationException ("Failed to create the TLS context", ex);
+        }
+        aSettings.setSSLContext (aSSLContext);
+      }
+      aSSLContext.getClientSessionContext ().setSessionCacheSize (nTLSSessionCacheSize);
+    }
+    return aSettings;
+  }
+
+  @Override
+  @Nonnull
+  public HttpClientConnectionManager createConnectionManager (@Nonnull final Registry <ConnectionSocketFactory> aRegistry)
+  {
+    final HttpClientConnectionManager ret = super.createConnectionManager (aRegistry);
+    if (ret instanceof PoolingHttpClientConnectionManager)
+    {
+      final PoolingHttpClientConnectionManager aPool = (PoolingHttpClientConnectionManager) ret;
+      aPool.setMaxTotal (m_nMaxTotal);
+      aPool.setDefaultMaxPerRoute (Math.min (m_nMaxPerRoute, m_nMaxTotal));
+    }
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  public HttpClientBuilder createHttpClientBuilder ()
+  {
+    return super.createHttpClientBuilder ()
+                // Without this, connections authenticated by a TLS client
+                // certificate are bound to the principal and are not reused
+                .disableConnectionState ()
+                .evictExpiredConnections ()
+                .evictIdleConnections (m_nIdleTimeoutMS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return The shared HTTP client. Closing it has no effect. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException
+   *         If this factory was already closed
+   */
+  @Override
+  @Nonnull
+  public synchronized CloseableHttpClient createHttpClient ()
+  {
+    if (m_bClosed)
+      throw new IllegalStateException ("The phase4 HTTP client factory is already closed");
+    if (m_aNonClosingClient == null)
+    {
+      m_aSharedClient = super.createHttpClient ();
+      m_aNonClosingClient = new NonClosingHttpClient (m_aSharedClient);
+      LOGGER.info ("Created the shared phase4 HTTP client with at most " +
+                   m_nMaxPerRoute +
+                   " connections per access point");
+    }
+    return m_aNonClosingClient;
+  }
+
+  /**
+   * @return <code>true</code> if this factory was closed.
+   */
+  public synchronized boolean isClosed ()
+  {
+    return m_bClosed;
+  }
+
+  /**
+   * Close the shared HTTP client and all pooled connections. Afterwards no
+   * more clients are created.
+   */
+  @Override
+  public synchronized void close ()
+  {
+    m_bClosed = true;
+    StreamHelper.close (m_aSharedClient);
+    m_aSharedClient = null;
+    m_aNonClosingClient = null;
+  }
+}
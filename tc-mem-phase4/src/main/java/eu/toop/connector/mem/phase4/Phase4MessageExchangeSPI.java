@@ -36,11 +36,19 @@ package eu.toop.connector.mem.phase4;
 import java.io.File;
 import java.security.KeyStore;
 import java.security.KeyStore.PrivateKeyEntry;
-import java.security.cert.X509Certificate;
 import java.time.LocalDate;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
-import javax.naming.InvalidNameException;
+import javax.annotation.Nullable;
 import javax.servlet.ServletContext;
 
 import org.slf4j.Logger;
@@ -49,19 +57,19 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.IsSPIImplementation;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.datetime.PDTFactory;
 import com.helger.commons.exception.InitializationException;
 import com.helger.commons.io.file.FileOperationManager;
-import com.helger.commons.mime.EMimeContentType;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
-import com.helger.peppol.utils.PeppolCertificateHelper;
+import com.helger.httpclient.HttpClientFactory;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.Phase4OutgoingAttachment;
 import com.helger.phase4.cef.Phase4CEFSender.CEFUserMessageBuilder;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
-import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.http.AS4HttpDebug;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.mgr.MetaAS4Manager;
@@ -75,14 +83,21 @@ import com.helger.phase4.util.Phase4Exception;
 import com.helger.photon.app.io.WebFileIO;
 import com.helger.servlet.ServletHelper;
 
+import eu.toop.connector.api.dump.DumpArchive;
 import eu.toop.connector.api.http.TCHttpClientSettings;
 import eu.toop.connector.api.me.IMessageExchangeSPI;
 import eu.toop.connector.api.me.incoming.IMEIncomingHandler;
+import eu.toop.connector.api.me.model.IMEPayloadData;
 import eu.toop.connector.api.me.model.MEMessage;
 import eu.toop.connector.api.me.model.MEPayload;
 import eu.toop.connector.api.me.outgoing.IMERoutingInformation;
 import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.connector.api.me.outgoing.MEReceiverProfileCache;
+import eu.toop.connector.api.me.outgoing.MESendResult;
 import eu.toop.connector.mem.phase4.config.TOOPPMode;
+import eu.toop.connector.mem.phase4.dump.AS4IncomingDumperArchive;
+import eu.toop.connector.mem.phase4.dump.AS4OutgoingDumperArchive;
+import eu.toop.connector.mem.phase4.servlet.AS4IncomingHandOff;
 import eu.toop.connector.mem.phase4.servlet.AS4MessageProcessorSPI;
 import eu.toop.edm.error.EToopErrorCode;
 
@@ -96,12 +111,41 @@ public class Phase4MessageExchangeSPI implements IMessageExchangeSPI
 {
   public static final String ID = "phase4";
   private static final Logger LOGGER = LoggerFactory.getLogger (Phase4MessageExchangeSPI.class);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
 
   private IAS4CryptoFactory m_aCF;
+  // Created on demand for asynchronous sending
+  private volatile ExecutorService m_aSendExecutor;
+  // Created on demand, if pooling is enabled
+  private volatile Phase4HttpClientFactory m_aHttpClientFactory;
+  private final MEReceiverProfileCache <Phase4SendProfile> m_aSendProfileCache = new MEReceiverProfileCache <> ();
+  private final Phase4CompressionPolicy m_aCompressionPolicy;
+  // Only set if the dump archive is enabled
+  private final DumpArchive m_aIncomingDumpArchive;
+  private final DumpArchive m_aOutgoingDumpArchive;
+  private final DumpArchive m_aResponseDumpArchive;
+  private final RawResponseWriter m_aRawResponseWriter;
 
   public Phase4MessageExchangeSPI ()
   {
     m_aCF = Phase4Config.getCryptoFactory ();
+    m_aCompressionPolicy = Phase4CompressionPolicy.createFromConfig ();
+
+    // The archives only touch the file system when the first dump is written
+    final boolean bDumpArchive = Phase4Config.isDumpArchiveEnabled ();
+    m_aIncomingDumpArchive = bDumpArchive ? _createDumpArchive (Phase4Config.getDumpPathIncoming (), "phase4-incoming") : null;
+    m_aOutgoingDumpArchive = bDumpArchive ? _createDumpArchive (Phase4Config.getDumpPathOutgoing (), "phase4-outgoing") : null;
+    m_aResponseDumpArchive = bDumpArchive ? _createDumpArchive (Phase4Config.getSendResponseFolderName (), "phase4-response")
+                                          : null;
+    m_aRawResponseWriter = new RawResponseWriter (m_aResponseDumpArchive);
+  }
+
+  @Nullable
+  private static DumpArchive _createDumpArchive (@Nullable final String sPath, @Nonnull @Nonempty final String sFilePrefix)
+  {
+    if (StringHelper.hasNoText (sPath))
+      return null;
+    return new DumpArchive (new File (sPath), sFilePrefix, Phase4Config.getDumpArchiveSegmentSize ());
   }
 
   /**
@@ -148,7 +192,9 @@ public class Phase4MessageExchangeSPI implements IMessageExchangeSPI
                                       StringHelper.getLeadingZero (aLD.getMonthValue (), 2) +
                                       "/" +
                                       StringHelper.getLeadingZero (aLD.getDayOfMonth (), 2));
-    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (ret);
+    // Only the first message of the day needs to create it
+    if (!ret.isDirectory ())
+      FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (ret);
     return ret;
   }
 
@@ -205,67 +251,142 @@ public class Phase4MessageExchangeSPI implements IMessageExchangeSPI
     final String sIncomingDumpPath = Phase4Config.getDumpPathIncoming ();
     if (StringHelper.hasText (sIncomingDumpPath))
     {
-      LOGGER.info ("Dumping incoming phase4 AS4 messages to '" + sIncomingDumpPath + "'");
-      AS4DumpManager.setIncomingDumper (new AS4IncomingDumperFileBased ( (aMessageMetadata,
-                                                                          aHttpHeaderMap) -> new File (_getTargetFolder (sIncomingDumpPath),
-                                                                                                       AS4IncomingDumperFileBased.IFileProvider.getFilename (aMessageMetadata))));
+      if (m_aIncomingDumpArchive != null)
+      {
+        LOGGER.info ("Archiving incoming phase4 AS4 messages in '" + sIncomingDumpPath + "'");
+        AS4DumpManager.setIncomingDumper (new AS4IncomingDumperArchive (m_aIncomingDumpArchive));
+      }
+      else
+      {
+        LOGGER.info ("Dumping incoming phase4 AS4 messages to '" + sIncomingDumpPath + "'");
+        AS4DumpManager.setIncomingDumper (new AS4IncomingDumperFileBased ( (aMessageMetadata,
+                                                                            aHttpHeaderMap) -> new File (_getTargetFolder (sIncomingDumpPath),
+                                                                                                         AS4IncomingDumperFileBased.IFileProvider.getFilename (aMessageMetadata))));
+      }
     }
 
     // Set outgoing dumper
     final String sOutgoingDumpPath = Phase4Config.getDumpPathOutgoing ();
     if (StringHelper.hasText (sOutgoingDumpPath))
     {
-      LOGGER.info ("Dumping outgoing phase4 AS4 messages to '" + sOutgoingDumpPath + "'");
-      AS4DumpManager.setOutgoingDumper (new AS4OutgoingDumperFileBased ( (sMessageID,
-                                                                          nTry) -> new File (_getTargetFolder (sOutgoingDumpPath),
-                                                                                             AS4OutgoingDumperFileBased.IFileProvider.getFilename (sMessageID,
-                                                                                                                                                   nTry))));
+      if (m_aOutgoingDumpArchive != null)
+      {
+        LOGGER.info ("Archiving outgoing phase4 AS4 messages in '" + sOutgoingDumpPath + "'");
+        AS4DumpManager.setOutgoingDumper (new AS4OutgoingDumperArchive (m_aOutgoingDumpArchive));
+      }
+      else
+      {
+        LOGGER.info ("Dumping outgoing phase4 AS4 messages to '" + sOutgoingDumpPath + "'");
+        AS4DumpManager.setOutgoingDumper (new AS4OutgoingDumperFileBased ( (sMessageID,
+                                                                            nTry) -> new File (_getTargetFolder (sOutgoingDumpPath),
+                                                                                               AS4OutgoingDumperFileBased.IFileProvider.getFilename (sMessageID,
+                                                                                                                                                     nTry))));
+      }
     }
   }
 
-  private static void _sendOutgoing (@Nonnull final IAS4CryptoFactory aCF,
-                                     @Nonnull final IMERoutingInformation aRoutingInfo,
-                                     @Nonnull final MEMessage aMessage) throws MEOutgoingException
+  /**
+   * @return The HTTP client factory to use for the next message. Either the
+   *         shared pooled one or a new one, depending on the configuration.
+   */
+  @Nonnull
+  private HttpClientFactory _getHttpClientFactory ()
   {
-    try
+    if (!Phase4Config.isHttpPooled ())
+      return new HttpClientFactory (new TCHttpClientSettings ());
+
+    Phase4HttpClientFactory ret = m_aHttpClientFactory;
+    if (ret == null)
     {
-      final X509Certificate aTheirCert = aRoutingInfo.getCertificate ();
+      synchronized (this)
+      {
+        ret = m_aHttpClientFactory;
+        if (ret == null)
+        {
+          ret = new Phase4HttpClientFactory ();
+          m_aHttpClientFactory = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return The cache of the per receiver send data. Never <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  public final MEReceiverProfileCache <Phase4SendProfile> getSendProfileCache ()
+  {
+    return m_aSendProfileCache;
+  }
+
+  /**
+   * @return The policy deciding which outgoing payloads are compressed. Never
+   *         <code>null</code>.
+   * @since 2.1.2
+   */
+  @Nonnull
+  public final Phase4CompressionPolicy getCompressionPolicy ()
+  {
+    return m_aCompressionPolicy;
+  }
 
+  /**
+   * @param sMessageID
+   *        The AS4 message ID to be used for the outgoing user message. May
+   *        not be <code>null</code>.
+   * @return <code>true</code> if the message was sent successfully,
+   *         <code>false</code> if the receiver did not accept it.
+   */
+  private static boolean _sendOutgoing (@Nonnull final IAS4CryptoFactory aCF,
+                                             @Nonnull final HttpClientFactory aHCF,
+                                             @Nonnull final Phase4CompressionPolicy aCompressionPolicy,
+                                             @Nonnull final RawResponseWriter aRawResponseWriter,
+                                             @Nonnull final Phase4SendProfile aProfile,
+                                             @Nonnull final IMERoutingInformation aRoutingInfo,
+                                             @Nonnull final MEMessage aMessage,
+                                             @Nonnull final String sMessageID) throws MEOutgoingException
+  {
+    try
+    {
       // See :
       // http://wiki.ds.unipi.gr/display/TOOP/Routing+Information+Profile
       // http://wiki.ds.unipi.gr/display/CCTF/TOOP+AS4+GW+Interface+specification
-      final CEFUserMessageBuilder aBuilder = new CEFUserMessageBuilder ().httpClientFactory (new TCHttpClientSettings ())
+      final CEFUserMessageBuilder aBuilder = new CEFUserMessageBuilder ().httpClientFactory (aHCF)
                                                                          .cryptoFactory (aCF)
                                                                          .senderParticipantID (aRoutingInfo.getSenderID ())
                                                                          .receiverParticipantID (aRoutingInfo.getReceiverID ())
                                                                          .documentTypeID (aRoutingInfo.getDocumentTypeID ())
                                                                          .processID (aRoutingInfo.getProcessID ())
+                                                                         .messageID (sMessageID)
                                                                          .conversationID (MessageHelperMethods.createRandomConversationID ())
-                                                                         .fromPartyIDType (Phase4Config.getFromPartyIDType ())
-                                                                         .fromPartyID (Phase4Config.getFromPartyID ())
+                                                                         .fromPartyIDType (aProfile.getFromPartyIDType ())
+                                                                         .fromPartyID (aProfile.getFromPartyID ())
                                                                          .fromRole ("http://www.toop.eu/edelivery/gateway")
-                                                                         .toPartyIDType (Phase4Config.getToPartyIDType ())
-                                                                         .toPartyID (PeppolCertificateHelper.getCN (aTheirCert.getSubjectX500Principal ()
-                                                                                                                              .getName ()))
+                                                                         .toPartyIDType (aProfile.getToPartyIDType ())
+                                                                         .toPartyID (aProfile.getToPartyID ())
                                                                          .toRole ("http://www.toop.eu/edelivery/gateway")
                                                                          .useOriginalSenderFinalRecipientTypeAttr (false)
-                                                                         .rawResponseConsumer (new RawResponseWriter ())
-                                                                         .endpointDetailProvider (new AS4EndpointDetailProviderConstant (aRoutingInfo.getCertificate (),
-                                                                                                                                         aRoutingInfo.getEndpointURL ()));
+                                                                         .rawResponseConsumer (aRawResponseWriter)
+                                                                         .endpointDetailProvider (aProfile.getEndpointDetailProvider ());
 
       // Payload/attachments
       int nPayloadIndex = 0;
       for (final MEPayload aPayload : aMessage.payloads ())
       {
-        // Compress only text
-        final Phase4OutgoingAttachment aOA = Phase4OutgoingAttachment.builder ()
-                                                                     .data (aPayload.getData ())
-                                                                     .contentID (aPayload.getContentID ())
-                                                                     .mimeType (aPayload.getMimeType ())
-                                                                     .compression (aPayload.getMimeType ()
-                                                                                           .getContentType () == EMimeContentType.TEXT ? EAS4CompressionMode.GZIP
-                                                                                                                                       : null)
-                                                                     .build ();
+        final IMEPayloadData aData = aPayload.getPayloadData ();
+        final Phase4OutgoingAttachment.Builder aOAB = Phase4OutgoingAttachment.builder ()
+                                                                              .contentID (aPayload.getContentID ())
+                                                                              .mimeType (aPayload.getMimeType ())
+                                                                              .compression (aCompressionPolicy.getCompressionMode (aPayload.getMimeType (),
+                                                                                                                                   aData));
+        // Big payloads are sent directly from their file
+        if (aData.getFile () != null)
+          aOAB.data (aData.getFile ());
+        else
+          aOAB.data (aData.getAsByteArrayWrapper ());
+        final Phase4OutgoingAttachment aOA = aOAB.build ();
         if (nPayloadIndex == 0)
           aBuilder.payload (aOA);
         else
@@ -275,14 +396,13 @@ public class Phase4MessageExchangeSPI implements IMessageExchangeSPI
 
       if (aBuilder.sendMessage ().isSuccess ())
       {
-        LOGGER.info ("[phase4] Sucessfully sent message");
-      }
-      else
-      {
-        LOGGER.error ("[phase4] Failed to send message");
+        LOGGER.info ("[phase4] Sucessfully sent message with ID '" + sMessageID + "'");
+        return true;
       }
+      LOGGER.error ("[phase4] Failed to send message with ID '" + sMessageID + "'");
+      return false;
     }
-    catch (final Phase4Exception | InvalidNameException ex)
+    catch (final Phase4Exception ex)
     {
       LOGGER.error ("[phase4] Error sending message", ex);
       throw new MEOutgoingException (EToopErrorCode.ME_001, ex);
@@ -292,12 +412,162 @@ public class Phase4MessageExchangeSPI implements IMessageExchangeSPI
   public void sendOutgoing (@Nonnull final IMERoutingInformation aRoutingInfo, @Nonnull final MEMessage aMessage) throws MEOutgoingException
   {
     LOGGER.info ("[phase4] sendOutgoing");
-    _sendOutgoing (m_aCF, aRoutingInfo, aMessage);
+    final Phase4SendProfile aProfile = m_aSendProfileCache.getOrCreate (aRoutingInfo, Phase4SendProfile::create);
+    _sendOutgoing (m_aCF,
+                   _getHttpClientFactory (),
+                   m_aCompressionPolicy,
+                   m_aRawResponseWriter,
+                   aProfile,
+                   aRoutingInfo,
+                   aMessage,
+                   MessageHelperMethods.createRandomMessageID ());
+  }
+
+  @Nonnull
+  private ExecutorService _getSendExecutor ()
+  {
+    ExecutorService ret = m_aSendExecutor;
+    if (ret == null)
+    {
+      synchronized (this)
+      {
+        ret = m_aSendExecutor;
+        if (ret == null)
+        {
+          final int nThreads = Phase4Config.getSendAsyncThreads ();
+          final AtomicInteger aThreadIndex = new AtomicInteger ();
+          final ThreadFactory aThreadFactory = r -> {
+            final Thread t = new Thread (r, "phase4-send-" + aThreadIndex.incrementAndGet ());
+            t.setDaemon (true);
+            return t;
+          };
+          final ThreadPoolExecutor aExecutor = new ThreadPoolExecutor (nThreads,
+                                                                       nThreads,
+                                                                       60,
+                                                                       TimeUnit.SECONDS,
+                                                                       new ArrayBlockingQueue <> (Phase4Config.getSendAsyncQueueSize ()),
+                                                                       aThreadFactory);
+          aExecutor.allowCoreThreadTimeOut (true);
+          ret = aExecutor;
+          m_aSendExecutor = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The phase4 sender itself is blocking, so the transmission is performed on
+   * a dedicated bounded thread pool. The calling thread is never blocked. If
+   * the pool is exhausted, the returned stage fails immediately. On success
+   * the stage is completed with the AS4 message ID of the user message.
+   */
+  @Nonnull
+  public CompletionStage <MESendResult> sendOutgoingAsync (@Nonnull final IMERoutingInformation aRoutingInfo,
+                                                           @Nonnull final MEMessage aMessage)
+  {
+    LOGGER.info ("[phase4] sendOutgoingAsync");
+    final IAS4CryptoFactory aCF = m_aCF;
+    final HttpClientFactory aHCF = _getHttpClientFactory ();
+    final Phase4CompressionPolicy aCompressionPolicy = m_aCompressionPolicy;
+    final RawResponseWriter aRawResponseWriter = m_aRawResponseWriter;
+    final String sMessageID = MessageHelperMethods.createRandomMessageID ();
+    final CompletableFuture <MESendResult> ret = new CompletableFuture <> ();
+    final Phase4SendProfile aProfile;
+    try
+    {
+      aProfile = m_aSendProfileCache.getOrCreate (aRoutingInfo, Phase4SendProfile::create);
+    }
+    catch (final MEOutgoingException ex)
+    {
+      ret.completeExceptionally (ex);
+      return ret;
+    }
+
+    try
+    {
+      _getSendExecutor ().execute ( () -> {
+        try
+        {
+          if (_sendOutgoing (aCF, aHCF, aCompressionPolicy, aRawResponseWriter, aProfile, aRoutingInfo, aMessage, sMessageID))
+            ret.complete (MESendResult.create (sMessageID));
+          else
+            ret.completeExceptionally (new MEOutgoingException (EToopErrorCode.ME_001, "Failed to send message"));
+        }
+        catch (final MEOutgoingException | RuntimeException ex)
+        {
+          ret.completeExceptionally (ex);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      LOGGER.error ("[phase4] Too many pending asynchronous transmissions");
+      ret.completeExceptionally (new MEOutgoingException ("Too many pending asynchronous AS4 transmissions", ex));
+    }
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Object> getStatusData ()
+  {
+    final ICommonsOrderedMap <String, Object> ret = m_aSendProfileCache.getStatusData ("send-profile-cache.");
+    final AS4IncomingHandOff aHandOff = AS4MessageProcessorSPI.getIncomingHandOff ();
+    if (aHandOff != null)
+      ret.putAll (aHandOff.getStatusData ("incoming-handoff."));
+    if (m_aIncomingDumpArchive != null)
+      ret.putAll (m_aIncomingDumpArchive.getStatusData ("dump-archive.incoming."));
+    if (m_aOutgoingDumpArchive != null)
+      ret.putAll (m_aOutgoingDumpArchive.getStatusData ("dump-archive.outgoing."));
+    if (m_aResponseDumpArchive != null)
+      ret.putAll (m_aResponseDumpArchive.getStatusData ("dump-archive.response."));
+    return ret;
   }
 
   public void shutdown (@Nonnull final ServletContext aServletContext)
   {
-    // Nothing to do here
+    // Process the already acknowledged incoming messages
+    AS4MessageProcessorSPI.shutdown ();
+
+    final ExecutorService aExecutor = m_aSendExecutor;
+    if (aExecutor != null)
+    {
+      // Let the pending transmissions finish, as they need the HTTP client
+      aExecutor.shutdown ();
+      m_aSendExecutor = null;
+      try
+      {
+        if (!aExecutor.awaitTermination (SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+          LOGGER.warn ("[phase4] The pending asynchronous transmissions did not finish within " +
+                       SHUTDOWN_TIMEOUT_SECONDS +
+                       " seconds");
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+    }
+
+    final Phase4HttpClientFactory aHCF;
+    synchronized (this)
+    {
+      aHCF = m_aHttpClientFactory;
+      m_aHttpClientFactory = null;
+    }
+    if (aHCF != null)
+    {
+      // Close the pooled connections
+      aHCF.close ();
+    }
+
+    // Close the current dump archive segments
+    if (m_aIncomingDumpArchive != null)
+      m_aIncomingDumpArchive.close ();
+    if (m_aOutgoingDumpArchive != null)
+      m_aOutgoingDumpArchive.close ();
+    if (m_aResponseDumpArchive != null)
+      m_aResponseDumpArchive.close ();
   }
 
   @Override
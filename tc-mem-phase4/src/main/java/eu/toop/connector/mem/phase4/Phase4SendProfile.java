@@ -0,0 +1,161 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4;
+
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.naming.InvalidNameException;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.utils.PeppolCertificateHelper;
+import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
+import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+
+import eu.toop.connector.api.me.outgoing.MEOutgoingException;
+import eu.toop.edm.error.EToopErrorCode;
+
+/**
+ * The data needed to send AS4 messages to a single receiving access point,
+ * derived once from its certificate, endpoint URL and the configuration.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class Phase4SendProfile
+{
+  private final String m_sFromPartyIDType;
+  private final String m_sFromPartyID;
+  private final String m_sToPartyIDType;
+  private final String m_sToPartyID;
+  private final IAS4EndpointDetailProvider m_aEndpointDetailProvider;
+
+  private Phase4SendProfile (@Nullable final String sFromPartyIDType,
+                             @Nullable final String sFromPartyID,
+                             @Nullable final String sToPartyIDType,
+                             @Nonnull final String sToPartyID,
+                             @Nonnull final IAS4EndpointDetailProvider aEndpointDetailProvider)
+  {
+    m_sFromPartyIDType = sFromPartyIDType;
+    m_sFromPartyID = sFromPartyID;
+    m_sToPartyIDType = sToPartyIDType;
+    m_sToPartyID = sToPartyID;
+    m_aEndpointDetailProvider = aEndpointDetailProvider;
+  }
+
+  @Nullable
+  public String getFromPartyIDType ()
+  {
+    return m_sFromPartyIDType;
+  }
+
+  @Nullable
+  public String getFromPartyID ()
+  {
+    return m_sFromPartyID;
+  }
+
+  @Nullable
+  public String getToPartyIDType ()
+  {
+    return m_sToPartyIDType;
+  }
+
+  /**
+   * @return The CN of the receiver certificate. Never <code>null</code>.
+   */
+  @Nonnull
+  public String getToPartyID ()
+  {
+    return m_sToPartyID;
+  }
+
+  /**
+   * @return The constant endpoint details of the receiver. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public IAS4EndpointDetailProvider getEndpointDetailProvider ()
+  {
+    return m_aEndpointDetailProvider;
+  }
+
+  /**
+   * Create a new send profile.
+   *
+   * @param aTheirCert
+   *        The certificate of the receiving access point. May not be
+   *        <code>null</code>.
+   * @param sEndpointURL
+   *        The endpoint URL of the receiving access point. May not be
+   *        <code>null</code>.
+   * @return The new profile. Never <code>null</code>.
+   * @throws MEOutgoingException
+   *         If the CN cannot be extracted from the certificate
+   */
+  @Nonnull
+  public static Phase4SendProfile create (@Nonnull final X509Certificate aTheirCert,
+                                          @Nonnull final String sEndpointURL) throws MEOutgoingException
+  {
+    ValueEnforcer.notNull (aTheirCert, "TheirCert");
+    ValueEnforcer.notNull (sEndpointURL, "EndpointURL");
+    final String sToPartyID;
+    try
+    {
+      sToPartyID = PeppolCertificateHelper.getCN (aTheirCert.getSubjectX500Principal ().getName ());
+    }
+    catch (final InvalidNameException ex)
+    {
+      throw new MEOutgoingException (EToopErrorCode.ME_001, ex);
+    }
+    return new Phase4SendProfile (Phase4Config.getFromPartyIDType (),
+                                  Phase4Config.getFromPartyID (),
+                                  Phase4Config.getToPartyIDType (),
+                                  sToPartyID,
+                                  new AS4EndpointDetailProviderConstant (aTheirCert, sEndpointURL));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("FromPartyIDType", m_sFromPartyIDType)
+                                       .append ("FromPartyID", m_sFromPartyID)
+                                       .append ("ToPartyIDType", m_sToPartyIDType)
+                                       .append ("ToPartyID", m_sToPartyID)
+                                       .getToString ();
+  }
+}
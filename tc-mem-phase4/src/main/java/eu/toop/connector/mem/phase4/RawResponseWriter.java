@@ -34,6 +34,9 @@
 package eu.toop.connector.mem.phase4;
 
 import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,16 +49,52 @@ import com.helger.phase4.client.AS4ClientSentMessage;
 import com.helger.phase4.client.IAS4RawResponseConsumer;
 import com.helger.phase4.util.Phase4Exception;
 
+import eu.toop.connector.api.dump.DumpArchive;
+
 public class RawResponseWriter implements IAS4RawResponseConsumer
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (RawResponseWriter.class);
 
+  private final DumpArchive m_aArchive;
+
+  public RawResponseWriter ()
+  {
+    this (null);
+  }
+
+  /**
+   * @param aArchive
+   *        The dump archive to write the responses to. May be
+   *        <code>null</code> to write one file per response.
+   * @since 2.1.2
+   */
+  public RawResponseWriter (@Nullable final DumpArchive aArchive)
+  {
+    m_aArchive = aArchive;
+  }
+
   public void handleResponse (final AS4ClientSentMessage <byte []> aResponseEntity) throws Phase4Exception
   {
+    final String sMessageID = aResponseEntity.getMessageID ();
+    if (m_aArchive != null)
+    {
+      final byte [] aResponse = aResponseEntity.getResponse ();
+      if (aResponse != null)
+        try
+        {
+          // Indexed with the ID of the sent message
+          m_aArchive.writeDump (sMessageID, DumpArchive.TYPE_RESPONSE, aResponse);
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("[phase4] Error archiving the response to '" + sMessageID + "'", ex);
+        }
+      return;
+    }
+
     final String sFolderName = Phase4Config.getSendResponseFolderName ();
     if (StringHelper.hasText (sFolderName))
     {
-      final String sMessageID = aResponseEntity.getMessageID ();
       final String sFilename = PDTIOHelper.getCurrentLocalDateTimeForFilename () +
                                "-" +
                                FilenameHelper.getAsSecureValidASCIIFilename (sMessageID) +
@@ -0,0 +1,218 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.connector.api.dump.DumpArchive;
+import eu.toop.connector.api.dump.DumpArchiveEntry;
+import eu.toop.connector.api.dump.DumpArchiveLookup;
+
+/**
+ * Command line tool to find and extract dumps from a {@link DumpArchive}.
+ * Run without arguments for the usage.
+ *
+ * @since 2.1.2
+ */
+public final class AS4DumpArchiveCLI
+{
+  private static final int EXIT_FOUND = 0;
+  private static final int EXIT_NOT_FOUND = 1;
+  private static final int EXIT_USAGE = 2;
+  private static final int EXIT_ERROR = 3;
+
+  private AS4DumpArchiveCLI ()
+  {}
+
+  private static int _usage (@Nonnull final PrintStream aErr, @Nonnull final String sMsg)
+  {
+    if (sMsg.length () > 0)
+      aErr.println (sMsg);
+    aErr.println ("Usage: " + AS4DumpArchiveCLI.class.getName () + " [options] <archive-directory> <id>");
+    aErr.println ("Lists the dumps of the AS4 message with the provided ID.");
+    aErr.println ("  --conversation       search by conversation ID instead of message ID");
+    aErr.println ("  --from <yyyy-MM-dd>  only search from the provided day on");
+    aErr.println ("  --to <yyyy-MM-dd>    only search up to the provided day");
+    aErr.println ("  --extract <dir>      write each found dump into a separate file in the directory");
+    aErr.println ("  --cat                write all found dumps to standard output");
+    return EXIT_USAGE;
+  }
+
+  static int run (@Nonnull final String [] aArgs, @Nonnull final PrintStream aOut, @Nonnull final PrintStream aErr)
+  {
+    boolean bConversation = false;
+    boolean bCat = false;
+    LocalDate aFrom = null;
+    LocalDate aTo = null;
+    File aExtractDir = null;
+    File aBaseDir = null;
+    String sID = null;
+
+    try
+    {
+      for (int i = 0; i < aArgs.length; ++i)
+      {
+        final String sArg = aArgs[i];
+        switch (sArg)
+        {
+          case "--conversation":
+            bConversation = true;
+            break;
+          case "--cat":
+            bCat = true;
+            break;
+          case "--from":
+          case "--to":
+          case "--extract":
+            if (i + 1 >= aArgs.length)
+              return _usage (aErr, "Missing value for " + sArg);
+            final String sValue = aArgs[++i];
+            if (sArg.equals ("--from"))
+              aFrom = LocalDate.parse (sValue);
+            else
+              if (sArg.equals ("--to"))
+                aTo = LocalDate.parse (sValue);
+              else
+                aExtractDir = new File (sValue);
+            break;
+          default:
+            if (sArg.startsWith ("--"))
+              return _usage (aErr, "Unknown option " + sArg);
+            if (aBaseDir == null)
+              aBaseDir = new File (sArg);
+            else
+              if (sID == null)
+                sID = sArg;
+              else
+                return _usage (aErr, "Too many arguments");
+        }
+      }
+    }
+    catch (final DateTimeParseException ex)
+    {
+      return _usage (aErr, "Invalid date: " + ex.getParsedString ());
+    }
+    if (aBaseDir == null || sID == null)
+      return _usage (aErr, "");
+    if (!aBaseDir.isDirectory ())
+      return _usage (aErr, "The archive directory " + aBaseDir + " does not exist");
+
+    try
+    {
+      final String sSearchID = sID;
+      final Predicate <DumpArchiveEntry> aFilter = bConversation ? x -> x.getConversationID ().equals (sSearchID)
+                                                                    : x -> x.getMessageID ().equals (sSearchID);
+      final ICommonsList <DumpArchiveEntry> aEntries = DumpArchiveLookup.findEntries (aBaseDir, aFrom, aTo, aFilter);
+      if (aEntries.isEmpty ())
+      {
+        aErr.println ("No dump found for " + (bConversation ? "conversation" : "message") + " ID '" + sID + "'");
+        return EXIT_NOT_FOUND;
+      }
+
+      if (aExtractDir != null)
+        Files.createDirectories (aExtractDir.toPath ());
+
+      // Keep standard output for the dumps in "cat" mode
+      final PrintStream aList = bCat ? aErr : aOut;
+      int nIndex = 0;
+      for (final DumpArchiveEntry aEntry : aEntries)
+      {
+        ++nIndex;
+        aList.println (Instant.ofEpochMilli (aEntry.getTimestamp ()) +
+                       "\t" +
+                       aEntry.getType () +
+                       "\t" +
+                       aEntry.getMessageID () +
+                       "\t" +
+                       aEntry.getConversationID () +
+                       "\t" +
+                       aEntry.getSegment ().getPath () +
+                       "@" +
+                       aEntry.getOffset ());
+
+        if (aExtractDir != null)
+        {
+          final File aTarget = new File (aExtractDir,
+                                         nIndex +
+                                                      "-" +
+                                                      aEntry.getType () +
+                                                      "-" +
+                                                      FilenameHelper.getAsSecureValidASCIIFilename (aEntry.getMessageID ()) +
+                                                      ".as4dump");
+          try (final InputStream aIS = DumpArchiveLookup.openDump (aEntry);
+               final OutputStream aOS = Files.newOutputStream (aTarget.toPath ()))
+          {
+            if (StreamHelper.copyInputStreamToOutputStream (aIS, aOS).isFailure ())
+              throw new IOException ("Failed to extract the dump to " + aTarget);
+          }
+        }
+        if (bCat)
+        {
+          try (final InputStream aIS = DumpArchiveLookup.openDump (aEntry))
+          {
+            if (StreamHelper.copyInputStreamToOutputStream (aIS, aOut).isFailure ())
+              throw new IOException ("Failed to read the dump from " + aEntry.getSegment ());
+          }
+          aOut.flush ();
+        }
+      }
+      return EXIT_FOUND;
+    }
+    catch (final IOException ex)
+    {
+      aErr.println ("Error reading the dump archive: " + ex.getMessage ());
+      return EXIT_ERROR;
+    }
+  }
+
+  public static void main (final String [] aArgs)
+  {
+    System.exit (run (aArgs, System.out, System.err));
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4.dump;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.dump.AbstractAS4IncomingDumperWithHeaders;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+
+import eu.toop.connector.api.dump.DumpArchive;
+
+/**
+ * Incoming AS4 dumper that writes into a {@link DumpArchive}. The message
+ * ID is taken from the ebMS header of the message.
+ *
+ * @since 2.1.2
+ */
+public class AS4IncomingDumperArchive extends AbstractAS4IncomingDumperWithHeaders
+{
+  private final DumpArchive m_aArchive;
+
+  public AS4IncomingDumperArchive (@Nonnull final DumpArchive aArchive)
+  {
+    ValueEnforcer.notNull (aArchive, "Archive");
+    m_aArchive = aArchive;
+  }
+
+  @Override
+  @Nonnull
+  protected OutputStream openOutputStream (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nonnull final HttpHeaderMap aHttpHeaderMap) throws IOException
+  {
+    return m_aArchive.openDumpStream (null, DumpArchive.TYPE_INCOMING);
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4.dump;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.dump.AbstractAS4OutgoingDumperWithHeaders;
+
+import eu.toop.connector.api.dump.DumpArchive;
+
+/**
+ * Outgoing AS4 dumper that writes into a {@link DumpArchive}. Each try is
+ * a separate dump.
+ *
+ * @since 2.1.2
+ */
+public class AS4OutgoingDumperArchive extends AbstractAS4OutgoingDumperWithHeaders
+{
+  private final DumpArchive m_aArchive;
+
+  public AS4OutgoingDumperArchive (@Nonnull final DumpArchive aArchive)
+  {
+    ValueEnforcer.notNull (aArchive, "Archive");
+    m_aArchive = aArchive;
+  }
+
+  @Override
+  @Nonnull
+  protected OutputStream openOutputStream (@Nonnull @Nonempty final String sMessageID,
+                                           @Nullable final HttpHeaderMap aCustomHeaders,
+                                           @Nonnegative final int nTry) throws IOException
+  {
+    return m_aArchive.openDumpStream (sMessageID, DumpArchive.TYPE_OUTGOING);
+  }
+}
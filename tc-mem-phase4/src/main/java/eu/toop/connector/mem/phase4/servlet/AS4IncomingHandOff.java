@@ -0,0 +1,435 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4.servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.io.file.FileIOError;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A bounded hand-off between the phase4 servlet thread and the EDM processing
+ * of incoming messages. The servlet thread only offers the message and returns
+ * the AS4 receipt immediately, while a fixed number of worker threads perform
+ * the processing. If the queue is full, {@link #offer(AS4IncomingMessage)}
+ * returns <code>false</code> so that the message can be rejected and the
+ * sender retries later.<br>
+ * If a spool directory is provided, each accepted message is written and
+ * synced to disk there before it is acknowledged, and deleted after it was
+ * processed successfully. If the processing fails, the file is renamed to
+ * <code>*.failed</code>, so that an operator can inspect and replay it.
+ * Messages found in the spool directory at startup are processed again by a
+ * background thread, that waits for free queue capacity.
+ *
+ * @since 2.1.2
+ */
+@ThreadSafe
+public final class AS4IncomingHandOff implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingHandOff.class);
+  private static final String SPOOL_EXT = ".as4in";
+  private static final String FAILED_EXT = ".failed";
+  private static final long SHUTDOWN_WAIT_SECONDS = 30;
+  private static final long RECOVERY_RETRY_MS = 100;
+
+  private final Consumer <? super AS4IncomingMessage> m_aProcessor;
+  private final File m_aSpoolDir;
+  private final ThreadPoolExecutor m_aExecutor;
+  private final AtomicLong m_aSpoolIndex = new AtomicLong ();
+  private final AtomicLong m_aAccepted = new AtomicLong ();
+  private final AtomicLong m_aRejected = new AtomicLong ();
+  private final AtomicLong m_aProcessed = new AtomicLong ();
+  private final AtomicLong m_aFailed = new AtomicLong ();
+  private final AtomicLong m_aFailedSpooled = new AtomicLong ();
+
+  /**
+   * Constructor
+   *
+   * @param aProcessor
+   *        The processor to be invoked on the worker threads. Exceptions are
+   *        logged. May not be <code>null</code>.
+   * @param nThreads
+   *        The number of worker threads. Must be &gt; 0.
+   * @param nQueueSize
+   *        The maximum number of messages waiting for a worker thread. Must be
+   *        &gt; 0.
+   * @param aSpoolDir
+   *        The optional spool directory. May be <code>null</code>.
+   */
+  public AS4IncomingHandOff (@Nonnull final Consumer <? super AS4IncomingMessage> aProcessor,
+                             @Nonnegative final int nThreads,
+                             @Nonnegative final int nQueueSize,
+                             @Nullable final File aSpoolDir)
+  {
+    ValueEnforcer.notNull (aProcessor, "Processor");
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    ValueEnforcer.isGT0 (nQueueSize, "QueueSize");
+    m_aProcessor = aProcessor;
+    m_aSpoolDir = aSpoolDir;
+    if (aSpoolDir != null)
+    {
+      final FileIOError aError = FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aSpoolDir);
+      if (aError.isFailure ())
+        throw new IllegalStateException ("Failed to create incoming spool directory " + aSpoolDir + ": " + aError);
+    }
+
+    final AtomicInteger aThreadIndex = new AtomicInteger ();
+    final ThreadFactory aThreadFactory = r -> {
+      final Thread t = new Thread (r, "phase4-incoming-" + aThreadIndex.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    m_aExecutor = new ThreadPoolExecutor (nThreads,
+                                          nThreads,
+                                          60,
+                                          TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue <> (nQueueSize),
+                                          aThreadFactory);
+    m_aExecutor.allowCoreThreadTimeOut (true);
+
+    if (aSpoolDir != null)
+    {
+      // List the files before new messages are spooled
+      final File [] aFiles = aSpoolDir.listFiles ( (d, n) -> n.endsWith (SPOOL_EXT));
+      if (aFiles != null && aFiles.length > 0)
+      {
+        final Thread aRecoveryThread = new Thread ( () -> _recover (aFiles), "phase4-incoming-recovery");
+        aRecoveryThread.setDaemon (true);
+        aRecoveryThread.start ();
+      }
+    }
+  }
+
+  private void _recover (@Nonnull final File [] aFiles)
+  {
+    LOGGER.info ("Recovering " + aFiles.length + " unprocessed incoming AS4 message(s) from " + m_aSpoolDir);
+    Arrays.sort (aFiles, Comparator.comparingLong (File::lastModified).thenComparing (File::getName));
+    int nRecovered = 0;
+    for (final File aFile : aFiles)
+    {
+      final AS4IncomingMessage aMessage;
+      try (final InputStream aIS = StreamHelper.getBuffered (Files.newInputStream (aFile.toPath ())))
+      {
+        aMessage = AS4IncomingMessage.readFrom (aIS);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to read spooled incoming AS4 message " + aFile, ex);
+        _keepFailed (aFile);
+        continue;
+      }
+      // Wait until the queue has capacity again
+      while (!_submit (aMessage, aFile))
+      {
+        if (m_aExecutor.isShutdown ())
+        {
+          LOGGER.warn ("Stopped recovering incoming AS4 messages - the remaining " +
+                       (aFiles.length - nRecovered) +
+                       " spooled message(s) are processed after the next restart");
+          return;
+        }
+        try
+        {
+          Thread.sleep (RECOVERY_RETRY_MS);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          return;
+        }
+      }
+      nRecovered++;
+    }
+    LOGGER.info ("Recovered all unprocessed incoming AS4 messages from " + m_aSpoolDir);
+  }
+
+  private boolean _submit (@Nonnull final AS4IncomingMessage aMessage, @Nullable final File aSpoolFile)
+  {
+    try
+    {
+      m_aExecutor.execute ( () -> {
+        try
+        {
+          m_aProcessor.accept (aMessage);
+        }
+        catch (final RuntimeException ex)
+        {
+          m_aFailed.incrementAndGet ();
+          LOGGER.error ("Error processing incoming AS4 message '" + aMessage.getMessageID () + "'", ex);
+          if (aSpoolFile != null)
+          {
+            if (m_aExecutor.isShutdown ())
+              LOGGER.warn ("Keeping " + aSpoolFile + " to process it again after the next restart");
+            else
+              _keepFailed (aSpoolFile);
+          }
+          return;
+        }
+        // Only delete the spooled message when it was processed
+        m_aProcessed.incrementAndGet ();
+        if (aSpoolFile != null)
+          FileOperationManager.INSTANCE.deleteFileIfExisting (aSpoolFile);
+      });
+      return true;
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Rename a spooled message that could not be processed, so that it is not
+   * recovered automatically but remains available for a manual replay.
+   */
+  private void _keepFailed (@Nonnull final File aSpoolFile)
+  {
+    final File aFailedFile = new File (aSpoolFile.getParentFile (), aSpoolFile.getName () + FAILED_EXT);
+    final FileIOError aError = FileOperationManager.INSTANCE.renameFile (aSpoolFile, aFailedFile);
+    if (aError.isFailure ())
+      LOGGER.error ("Failed to rename " + aSpoolFile + " to " + aFailedFile + ": " + aError);
+    else
+    {
+      m_aFailedSpooled.incrementAndGet ();
+      LOGGER.warn ("Kept the failed incoming AS4 message as " + aFailedFile);
+    }
+  }
+
+  @Nonnull
+  private File _spool (@Nonnull final AS4IncomingMessage aMessage) throws IOException
+  {
+    final String sBaseName = System.currentTimeMillis () + "-" + m_aSpoolIndex.incrementAndGet ();
+    final File aTmpFile = new File (m_aSpoolDir, sBaseName + ".tmp");
+    final File aFile = new File (m_aSpoolDir, sBaseName + SPOOL_EXT);
+    try (final FileChannel aFC = FileChannel.open (aTmpFile.toPath (), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+         final OutputStream aOS = StreamHelper.getBuffered (Channels.newOutputStream (aFC)))
+    {
+      aMessage.writeTo (aOS);
+      aOS.flush ();
+      // The message is acknowledged afterwards, so it must survive a crash
+      aFC.force (true);
+    }
+    // Only complete files may be recovered
+    Files.move (aTmpFile.toPath (), aFile.toPath (), StandardCopyOption.ATOMIC_MOVE);
+    _syncSpoolDir ();
+    return aFile;
+  }
+
+  /**
+   * Make the rename durable by syncing the directory entry.
+   */
+  private void _syncSpoolDir ()
+  {
+    try (final FileChannel aFC = FileChannel.open (m_aSpoolDir.toPath (), StandardOpenOption.READ))
+    {
+      aFC.force (true);
+    }
+    catch (final IOException ex)
+    {
+      // Directories cannot be opened on all platforms (e.g. Windows)
+      LOGGER.debug ("Failed to sync the incoming spool directory " + m_aSpoolDir, ex);
+    }
+  }
+
+  /**
+   * Hand over a message to the worker threads.
+   *
+   * @param aMessage
+   *        The message to be processed. May not be <code>null</code>.
+   * @return <code>true</code> if the message was accepted, <code>false</code>
+   *         if the queue is full or it could not be spooled.
+   */
+  public boolean offer (@Nonnull final AS4IncomingMessage aMessage)
+  {
+    ValueEnforcer.notNull (aMessage, "Message");
+
+    // Fail fast without spooling
+    if (m_aExecutor.getQueue ().remainingCapacity () == 0 && m_aExecutor.getActiveCount () >= m_aExecutor.getMaximumPoolSize ())
+    {
+      m_aRejected.incrementAndGet ();
+      return false;
+    }
+
+    File aSpoolFile = null;
+    if (m_aSpoolDir != null)
+    {
+      try
+      {
+        aSpoolFile = _spool (aMessage);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to spool incoming AS4 message '" + aMessage.getMessageID () + "'", ex);
+        m_aRejected.incrementAndGet ();
+        return false;
+      }
+    }
+
+    if (!_submit (aMessage, aSpoolFile))
+    {
+      if (aSpoolFile != null)
+        FileOperationManager.INSTANCE.deleteFileIfExisting (aSpoolFile);
+      m_aRejected.incrementAndGet ();
+      return false;
+    }
+    m_aAccepted.incrementAndGet ();
+    return true;
+  }
+
+  /**
+   * @return The number of messages waiting for a worker thread.
+   */
+  @Nonnegative
+  public int getQueueSize ()
+  {
+    return m_aExecutor.getQueue ().size ();
+  }
+
+  @Nonnegative
+  public long getAcceptedCount ()
+  {
+    return m_aAccepted.get ();
+  }
+
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejected.get ();
+  }
+
+  @Nonnegative
+  public long getProcessedCount ()
+  {
+    return m_aProcessed.get ();
+  }
+
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailed.get ();
+  }
+
+  /**
+   * @return The number of spooled messages renamed to <code>*.failed</code>
+   *         because they could not be read or processed.
+   */
+  @Nonnegative
+  public long getFailedSpooledCount ()
+  {
+    return m_aFailedSpooled.get ();
+  }
+
+  /**
+   * @param sPrefix
+   *        The prefix for all keys. May not be <code>null</code>.
+   * @return The hand-off counters for the status page. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Object> getStatusData (@Nonnull final String sPrefix)
+  {
+    final ICommonsOrderedMap <String, Object> ret = new CommonsLinkedHashMap <> ();
+    ret.put (sPrefix + "queue-size", Integer.valueOf (getQueueSize ()));
+    ret.put (sPrefix + "accepted", Long.valueOf (getAcceptedCount ()));
+    ret.put (sPrefix + "rejected", Long.valueOf (getRejectedCount ()));
+    ret.put (sPrefix + "processed", Long.valueOf (getProcessedCount ()));
+    ret.put (sPrefix + "failed", Long.valueOf (getFailedCount ()));
+    ret.put (sPrefix + "failed-spooled", Long.valueOf (getFailedSpooledCount ()));
+    return ret;
+  }
+
+  /**
+   * Stop accepting messages and wait for a limited time until the pending ones
+   * were processed. Spooled messages that were not processed, including the
+   * ones whose processing failed during the shutdown, are recovered on the
+   * next start.
+   */
+  @Override
+  public void close ()
+  {
+    m_aExecutor.shutdown ();
+    try
+    {
+      if (!m_aExecutor.awaitTermination (SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS))
+      {
+        LOGGER.warn ("Incoming AS4 messages still pending after " + SHUTDOWN_WAIT_SECONDS + " seconds");
+        m_aExecutor.shutdownNow ();
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      m_aExecutor.shutdownNow ();
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SpoolDir", m_aSpoolDir).getToString ();
+  }
+}
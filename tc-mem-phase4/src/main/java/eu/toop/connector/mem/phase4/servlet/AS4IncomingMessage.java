@@ -0,0 +1,379 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4.servlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.me.model.IMEPayloadData;
+import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.connector.api.me.model.MEPayloadDataHelper;
+
+/**
+ * The transport independent data of a single incoming AS4 user message, as
+ * needed for the EDM processing. All attachments are copied from the request
+ * (small ones into memory, big ones into temporary files), so that the
+ * processing can happen after the AS4 receipt was returned. The payload data
+ * must be released after the processing.
+ *
+ * @since 2.1.2
+ */
+@Immutable
+public final class AS4IncomingMessage
+{
+  private static final int FORMAT_VERSION = 1;
+  private static final int BUFFER_SIZE = 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+  /**
+   * Reads at most a fixed number of bytes from the underlying stream, which is
+   * not closed.
+   */
+  private static final class LimitedInputStream extends FilterInputStream
+  {
+    private long m_nRemaining;
+
+    LimitedInputStream (@Nonnull final InputStream aIS, final long nLimit)
+    {
+      super (aIS);
+      m_nRemaining = nLimit;
+    }
+
+    long getRemaining ()
+    {
+      return m_nRemaining;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      if (m_nRemaining <= 0)
+        return -1;
+      final int ret = super.read ();
+      if (ret >= 0)
+        m_nRemaining--;
+      return ret;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      if (m_nRemaining <= 0)
+        return -1;
+      final int ret = super.read (aBuf, nOfs, (int) Math.min (nLen, m_nRemaining));
+      if (ret > 0)
+        m_nRemaining -= ret;
+      return ret;
+    }
+
+    @Override
+    public long skip (final long n) throws IOException
+    {
+      final long ret = super.skip (Math.min (n, m_nRemaining));
+      m_nRemaining -= ret;
+      return ret;
+    }
+
+    @Override
+    public int available () throws IOException
+    {
+      return (int) Math.min (super.available (), m_nRemaining);
+    }
+
+    @Override
+    public void close ()
+    {
+      // Keep the underlying stream open
+    }
+
+    @Override
+    public boolean markSupported ()
+    {
+      return false;
+    }
+  }
+
+  private final String m_sMessageID;
+  private final String m_sOriginalSenderType;
+  private final String m_sOriginalSenderValue;
+  private final String m_sFinalRecipientType;
+  private final String m_sFinalRecipientValue;
+  private final String m_sAction;
+  private final String m_sServiceType;
+  private final String m_sServiceValue;
+  private final ICommonsList <MEPayload> m_aPayloads;
+
+  public AS4IncomingMessage (@Nullable final String sMessageID,
+                             @Nullable final String sOriginalSenderType,
+                             @Nullable final String sOriginalSenderValue,
+                             @Nullable final String sFinalRecipientType,
+                             @Nullable final String sFinalRecipientValue,
+                             @Nullable final String sAction,
+                             @Nullable final String sServiceType,
+                             @Nullable final String sServiceValue,
+                             @Nonnull final ICommonsList <MEPayload> aPayloads)
+  {
+    ValueEnforcer.notEmptyNoNullValue (aPayloads, "Payloads");
+    m_sMessageID = sMessageID;
+    m_sOriginalSenderType = sOriginalSenderType;
+    m_sOriginalSenderValue = sOriginalSenderValue;
+    m_sFinalRecipientType = sFinalRecipientType;
+    m_sFinalRecipientValue = sFinalRecipientValue;
+    m_sAction = sAction;
+    m_sServiceType = sServiceType;
+    m_sServiceValue = sServiceValue;
+    m_aPayloads = aPayloads;
+  }
+
+  @Nullable
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  @Nullable
+  public String getOriginalSenderType ()
+  {
+    return m_sOriginalSenderType;
+  }
+
+  @Nullable
+  public String getOriginalSenderValue ()
+  {
+    return m_sOriginalSenderValue;
+  }
+
+  @Nullable
+  public String getFinalRecipientType ()
+  {
+    return m_sFinalRecipientType;
+  }
+
+  @Nullable
+  public String getFinalRecipientValue ()
+  {
+    return m_sFinalRecipientValue;
+  }
+
+  @Nullable
+  public String getAction ()
+  {
+    return m_sAction;
+  }
+
+  @Nullable
+  public String getServiceType ()
+  {
+    return m_sServiceType;
+  }
+
+  @Nullable
+  public String getServiceValue ()
+  {
+    return m_sServiceValue;
+  }
+
+  /**
+   * @return All payloads. The first one is the top-level EDM object. Never
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public ICommonsList <MEPayload> payloads ()
+  {
+    return m_aPayloads;
+  }
+
+  private static void _writeString (@Nonnull final DataOutputStream aDOS, @Nullable final String s) throws IOException
+  {
+    aDOS.writeBoolean (s != null);
+    if (s != null)
+      aDOS.writeUTF (s);
+  }
+
+  @Nullable
+  private static String _readString (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    return aDIS.readBoolean () ? aDIS.readUTF () : null;
+  }
+
+  /**
+   * Write this message to the provided stream, so that it can be read again
+   * via {@link #readFrom(InputStream)}.
+   *
+   * @param aOS
+   *        The stream to write to. May not be <code>null</code>. Is not closed.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public void writeTo (@Nonnull final OutputStream aOS) throws IOException
+  {
+    final DataOutputStream aDOS = new DataOutputStream (aOS);
+    aDOS.writeInt (FORMAT_VERSION);
+    _writeString (aDOS, m_sMessageID);
+    _writeString (aDOS, m_sOriginalSenderType);
+    _writeString (aDOS, m_sOriginalSenderValue);
+    _writeString (aDOS, m_sFinalRecipientType);
+    _writeString (aDOS, m_sFinalRecipientValue);
+    _writeString (aDOS, m_sAction);
+    _writeString (aDOS, m_sServiceType);
+    _writeString (aDOS, m_sServiceValue);
+    aDOS.writeInt (m_aPayloads.size ());
+    for (final MEPayload aPayload : m_aPayloads)
+    {
+      aDOS.writeUTF (aPayload.getContentID ());
+      aDOS.writeUTF (aPayload.getMimeTypeString ());
+      final IMEPayloadData aData = aPayload.getPayloadData ();
+      final long nSize = aData.getSize ();
+      if (nSize < 0)
+        throw new IOException ("Payload '" + aPayload.getContentID () + "' has an unknown size");
+      aDOS.writeLong (nSize);
+      long nWritten = 0;
+      try (final InputStream aIS = aData.openStream ())
+      {
+        final byte [] aBuffer = new byte [BUFFER_SIZE];
+        int nRead;
+        while ((nRead = aIS.read (aBuffer)) >= 0)
+        {
+          aDOS.write (aBuffer, 0, nRead);
+          nWritten += nRead;
+        }
+      }
+      if (nWritten != nSize)
+        throw new IOException ("Payload '" + aPayload.getContentID () + "' has " + nWritten + " bytes instead of " + nSize);
+    }
+    aDOS.flush ();
+  }
+
+  /**
+   * Read a message previously written via {@link #writeTo(OutputStream)}.
+   *
+   * @param aIS
+   *        The stream to read from. May not be <code>null</code>. Is not
+   *        closed.
+   * @return The read message. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a read error or an unsupported format
+   */
+  @Nonnull
+  public static AS4IncomingMessage readFrom (@Nonnull final InputStream aIS) throws IOException
+  {
+    final DataInputStream aDIS = new DataInputStream (aIS);
+    final int nVersion = aDIS.readInt ();
+    if (nVersion != FORMAT_VERSION)
+      throw new IOException ("Unsupported incoming message format version " + nVersion);
+    final String sMessageID = _readString (aDIS);
+    final String sOriginalSenderType = _readString (aDIS);
+    final String sOriginalSenderValue = _readString (aDIS);
+    final String sFinalRecipientType = _readString (aDIS);
+    final String sFinalRecipientValue = _readString (aDIS);
+    final String sAction = _readString (aDIS);
+    final String sServiceType = _readString (aDIS);
+    final String sServiceValue = _readString (aDIS);
+    final int nPayloads = aDIS.readInt ();
+    if (nPayloads <= 0)
+      throw new IOException ("Invalid number of payloads " + nPayloads);
+    final ICommonsList <MEPayload> aPayloads = new CommonsArrayList <> (nPayloads);
+    boolean bSuccess = false;
+    try
+    {
+      for (int i = 0; i < nPayloads; ++i)
+      {
+        final String sContentID = aDIS.readUTF ();
+        final String sMimeType = aDIS.readUTF ();
+        final long nLength = aDIS.readLong ();
+        if (nLength < 0)
+          throw new IOException ("Invalid payload length " + nLength);
+        final LimitedInputStream aLIS = new LimitedInputStream (aDIS, nLength);
+        final IMEPayloadData aData = MEPayloadDataHelper.read (aLIS);
+        if (aLIS.getRemaining () > 0)
+        {
+          aData.release ();
+          throw new EOFException ("Payload '" + sContentID + "' is truncated");
+        }
+        aPayloads.add (MEPayload.builder ()
+                                .mimeType (MimeTypeParser.safeParseMimeType (sMimeType))
+                                .contentID (sContentID)
+                                .data (aData)
+                                .build ());
+      }
+      bSuccess = true;
+    }
+    finally
+    {
+      if (!bSuccess)
+        MEPayloadDataHelper.releaseAll (aPayloads);
+    }
+    return new AS4IncomingMessage (sMessageID,
+                                   sOriginalSenderType,
+                                   sOriginalSenderValue,
+                                   sFinalRecipientType,
+                                   sFinalRecipientValue,
+                                   sAction,
+                                   sServiceType,
+                                   sServiceValue,
+                                   aPayloads);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MessageID", m_sMessageID)
+                                       .append ("OriginalSenderType", m_sOriginalSenderType)
+                                       .append ("OriginalSenderValue", m_sOriginalSenderValue)
+                                       .append ("FinalRecipientType", m_sFinalRecipientType)
+                                       .append ("FinalRecipientValue", m_sFinalRecipientValue)
+                                       .append ("Action", m_sAction)
+                                       .append ("ServiceType", m_sServiceType)
+                                       .append ("ServiceValue", m_sServiceValue)
+                                       .append ("Payloads", m_aPayloads)
+                                       .getToString ();
+  }
+}
@@ -33,6 +33,8 @@
  */
 package eu.toop.connector.mem.phase4.servlet;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 
 import javax.annotation.Nonnull;
@@ -49,7 +51,10 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.string.StringHelper;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.phase4.CAS4;
@@ -69,18 +74,18 @@ import com.helger.phase4.servlet.spi.IAS4ServletMessageProcessorSPI;
 import com.helger.xml.serialize.write.XMLWriter;
 
 import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.me.incoming.IIncomingEDMObject;
 import eu.toop.connector.api.me.incoming.IMEIncomingHandler;
 import eu.toop.connector.api.me.incoming.IncomingEDMErrorResponse;
+import eu.toop.connector.api.me.incoming.IncomingEDMHelper;
 import eu.toop.connector.api.me.incoming.IncomingEDMRequest;
 import eu.toop.connector.api.me.incoming.IncomingEDMResponse;
 import eu.toop.connector.api.me.incoming.MEIncomingTransportMetadata;
+import eu.toop.connector.api.me.model.IMEPayloadData;
 import eu.toop.connector.api.me.model.MEPayload;
+import eu.toop.connector.api.me.model.MEPayloadDataHelper;
+import eu.toop.connector.api.me.model.MEPayloadDataStreamed;
 import eu.toop.connector.mem.phase4.Phase4Config;
-import eu.toop.edm.EDMErrorResponse;
-import eu.toop.edm.EDMRequest;
-import eu.toop.edm.EDMResponse;
-import eu.toop.edm.IEDMTopLevelObject;
-import eu.toop.edm.xml.EDMPayloadDeterminator;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
@@ -97,23 +102,59 @@ public class AS4MessageProcessorSPI implements IAS4ServletMessageProcessorSPI
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4MessageProcessorSPI.class);
 
   private static IMEIncomingHandler s_aIncomingHandler;
+  // Only set if asynchronous processing is enabled
+  private static volatile AS4IncomingHandOff s_aIncomingHandOff;
 
   public static void setIncomingHandler (@Nonnull final IMEIncomingHandler aIncomingHandler)
   {
     ValueEnforcer.notNull (aIncomingHandler, "IncomingHandler");
     ValueEnforcer.isNull (s_aIncomingHandler, "s_aIncomingHandler");
     s_aIncomingHandler = aIncomingHandler;
+
+    if (Phase4Config.isIncomingAsync ())
+    {
+      final String sSpoolPath = Phase4Config.getIncomingAsyncSpoolPath ();
+      s_aIncomingHandOff = new AS4IncomingHandOff (AS4MessageProcessorSPI::_processAsync,
+                                                   Phase4Config.getIncomingAsyncThreads (),
+                                                   Phase4Config.getIncomingAsyncQueueSize (),
+                                                   StringHelper.hasText (sSpoolPath) ? new File (sSpoolPath) : null);
+      LOGGER.info ("Processing incoming AS4 messages asynchronously using " + s_aIncomingHandOff);
+    }
+  }
+
+  /**
+   * @return The hand-off used for the asynchronous processing of incoming
+   *         messages or <code>null</code> if they are processed synchronously.
+   * @since 2.1.2
+   */
+  @Nullable
+  public static AS4IncomingHandOff getIncomingHandOff ()
+  {
+    return s_aIncomingHandOff;
+  }
+
+  /**
+   * Stop the asynchronous processing of incoming messages, if enabled.
+   *
+   * @since 2.1.2
+   */
+  public static void shutdown ()
+  {
+    final AS4IncomingHandOff aHandOff = s_aIncomingHandOff;
+    if (aHandOff != null)
+    {
+      s_aIncomingHandOff = null;
+      aHandOff.close ();
+    }
   }
 
   @Nullable
-  private static IParticipantIdentifier _asPI (@Nullable final Ebms3Property aProp)
+  private static IParticipantIdentifier _asPI (@Nullable final String sType, @Nullable final String sValue)
   {
-    if (aProp == null)
+    if (sValue == null)
       return null;
 
     final IIdentifierFactory aIF = TCConfig.getIdentifierFactory ();
-    final String sType = aProp.getType ();
-    final String sValue = aProp.getValue ();
     if (sType == null)
     {
       if (LOGGER.isDebugEnabled ())
@@ -123,6 +164,150 @@ public class AS4MessageProcessorSPI implements IAS4ServletMessageProcessorSPI
     return aIF.createParticipantIdentifier (sType, sValue);
   }
 
+  /**
+   * Collect all data needed for the EDM processing. The first attachment is
+   * the top-level EDM object.
+   *
+   * @param bCopyPayloads
+   *        <code>true</code> to read all attachments, so that the message is
+   *        independent of the lifetime of the HTTP request, <code>false</code>
+   *        to read the attachments on demand while the request is processed.
+   */
+  @Nonnull
+  private static AS4IncomingMessage _createIncomingMessage (@Nullable final String sMessageID,
+                                                            @Nonnull final Ebms3UserMessage aUserMessage,
+                                                            @Nonnull final ICommonsList <WSS4JAttachment> aIncomingAttachments,
+                                                            final boolean bCopyPayloads) throws IOException
+  {
+    final ICommonsList <Ebms3Property> aProps = new CommonsArrayList <> (aUserMessage.getMessageProperties ().getProperty ());
+    final Ebms3Property aPropOS = aProps.findFirst (x -> x.getName ().equals (CAS4.ORIGINAL_SENDER));
+    final Ebms3Property aPropFR = aProps.findFirst (x -> x.getName ().equals (CAS4.FINAL_RECIPIENT));
+
+    final ICommonsList <MEPayload> aPayloads = new CommonsArrayList <> (aIncomingAttachments.size ());
+    boolean bSuccess = false;
+    try
+    {
+      for (final WSS4JAttachment aItem : aIncomingAttachments)
+      {
+        IMimeType aMimeType = MimeTypeParser.safeParseMimeType (aItem.getMimeType ());
+        if (aMimeType == null && aPayloads.isEmpty ())
+        {
+          // Only the content of the top-level object matters
+          aMimeType = CMimeType.APPLICATION_OCTET_STREAM;
+        }
+        final IMEPayloadData aData;
+        if (bCopyPayloads)
+        {
+          // Big attachments are spilled to temporary files
+          try (final InputStream aIS = aItem.getSourceStream ())
+          {
+            aData = MEPayloadDataHelper.read (aIS);
+          }
+        }
+        else
+        {
+          // Only read what the EDM processing and the handlers need
+          aData = new MEPayloadDataStreamed (aItem::getSourceStream, -1);
+        }
+        try
+        {
+          aPayloads.add (MEPayload.builder ().mimeType (aMimeType).contentID (aItem.getId ()).data (aData).build ());
+        }
+        catch (final RuntimeException ex)
+        {
+          aData.release ();
+          throw ex;
+        }
+      }
+      bSuccess = true;
+    }
+    finally
+    {
+      if (!bSuccess)
+        MEPayloadDataHelper.releaseAll (aPayloads);
+    }
+
+    return new AS4IncomingMessage (sMessageID,
+                                   aPropOS == null ? null : aPropOS.getType (),
+                                   aPropOS == null ? null : aPropOS.getValue (),
+                                   aPropFR == null ? null : aPropFR.getType (),
+                                   aPropFR == null ? null : aPropFR.getValue (),
+                                   aUserMessage.getCollaborationInfo ().getAction (),
+                                   aUserMessage.getCollaborationInfo ().getService ().getType (),
+                                   aUserMessage.getCollaborationInfo ().getService ().getValue (),
+                                   aPayloads);
+  }
+
+  /**
+   * Determine the top-level EDM object and forward it to the incoming handler.
+   * Releases the payload data afterwards.
+   */
+  private static void _process (@Nonnull final AS4IncomingMessage aMessage) throws Exception
+  {
+    try
+    {
+      _dispatch (aMessage);
+    }
+    finally
+    {
+      MEPayloadDataHelper.releaseAll (aMessage.payloads ());
+    }
+  }
+
+  private static void _dispatch (@Nonnull final AS4IncomingMessage aMessage) throws Exception
+  {
+    final IIdentifierFactory aIF = TCConfig.getIdentifierFactory ();
+    final MEIncomingTransportMetadata aMetadata = new MEIncomingTransportMetadata (_asPI (aMessage.getOriginalSenderType (),
+                                                                                          aMessage.getOriginalSenderValue ()),
+                                                                                   _asPI (aMessage.getFinalRecipientType (),
+                                                                                          aMessage.getFinalRecipientValue ()),
+                                                                                   aIF.parseDocumentTypeIdentifier (aMessage.getAction ()),
+                                                                                   aIF.createProcessIdentifier (aMessage.getServiceType (),
+                                                                                                                aMessage.getServiceValue ()));
+    LOGGER.info ("Incoming Transport Metadata: " + aMetadata.toString ());
+
+    final IIncomingEDMObject aIncoming = IncomingEDMHelper.createIncomingObject (aMessage.payloads (),
+                                                                               aMetadata,
+                                                                               TCConfig.MEM.isIncomingEDMSniffing ());
+    if (aIncoming instanceof IncomingEDMRequest)
+    {
+      // Request
+      s_aIncomingHandler.handleIncomingRequest ((IncomingEDMRequest) aIncoming);
+    }
+    else
+      if (aIncoming instanceof IncomingEDMResponse)
+      {
+        // Response
+        s_aIncomingHandler.handleIncomingResponse ((IncomingEDMResponse) aIncoming);
+      }
+      else
+        if (aIncoming instanceof IncomingEDMErrorResponse)
+        {
+          // Error Response
+          s_aIncomingHandler.handleIncomingErrorResponse ((IncomingEDMErrorResponse) aIncoming);
+        }
+        else
+          ToopKafkaClient.send (EErrorLevel.ERROR,
+                                () -> "Unsuspported Message with Content-ID '" + aMessage.payloads ().getFirst ().getContentID () + "'");
+  }
+
+  /**
+   * Invoked on the worker threads if asynchronous processing is enabled.
+   */
+  private static void _processAsync (@Nonnull final AS4IncomingMessage aMessage)
+  {
+    try
+    {
+      _process (aMessage);
+    }
+    catch (final Exception ex)
+    {
+      ToopKafkaClient.send (EErrorLevel.ERROR,
+                            () -> "Error handling incoming AS4 message '" + aMessage.getMessageID () + "' asynchronously",
+                            ex);
+    }
+  }
+
   @Nonnull
   public AS4MessageProcessorResult processAS4UserMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
                                                           @Nonnull final HttpHeaderMap aHttpHeaders,
@@ -164,62 +349,27 @@ public class AS4MessageProcessorSPI implements IAS4ServletMessageProcessorSPI
 
     if (aIncomingAttachments != null && aIncomingAttachments.isNotEmpty ())
     {
-      // This is the ASIC
-      final WSS4JAttachment aMainPayload = aIncomingAttachments.getFirst ();
       try
       {
-        final IIdentifierFactory aIF = TCConfig.getIdentifierFactory ();
-        final ICommonsList <Ebms3Property> aProps = new CommonsArrayList <> (aUserMessage.getMessageProperties ().getProperty ());
-        final Ebms3Property aPropOS = aProps.findFirst (x -> x.getName ().equals (CAS4.ORIGINAL_SENDER));
-        final Ebms3Property aPropFR = aProps.findFirst (x -> x.getName ().equals (CAS4.FINAL_RECIPIENT));
-
-        final MEIncomingTransportMetadata aMetadata = new MEIncomingTransportMetadata (_asPI (aPropOS),
-                                                                                       _asPI (aPropFR),
-                                                                                       aIF.parseDocumentTypeIdentifier (aUserMessage.getCollaborationInfo ()
-                                                                                                                                    .getAction ()),
-                                                                                       aIF.createProcessIdentifier (aUserMessage.getCollaborationInfo ()
-                                                                                                                                .getService ()
-                                                                                                                                .getType (),
-                                                                                                                    aUserMessage.getCollaborationInfo ()
-                                                                                                                                .getService ()
-                                                                                                                                .getValue ()));
-        LOGGER.info ("Incoming Transport Metadata: " + aMetadata.toString ());
-
-        final String sTopLevelContentID = aMainPayload.getId ();
-
-        final IEDMTopLevelObject aTopLevel = EDMPayloadDeterminator.parseAndFind (aMainPayload.getSourceStream ());
-        if (aTopLevel instanceof EDMRequest)
+        final AS4IncomingHandOff aHandOff = s_aIncomingHandOff;
+        // The attachments are only copied if they are processed after the
+        // request ended
+        final AS4IncomingMessage aMessage = _createIncomingMessage (aState.getMessageID (),
+                                                                    aUserMessage,
+                                                                    aIncomingAttachments,
+                                                                    aHandOff != null);
+        if (aHandOff != null)
         {
-          // Request
-          s_aIncomingHandler.handleIncomingRequest (new IncomingEDMRequest ((EDMRequest) aTopLevel, sTopLevelContentID, aMetadata));
-        }
-        else
-          if (aTopLevel instanceof EDMResponse)
+          // Acknowledge now and process later
+          if (!aHandOff.offer (aMessage))
           {
-            // Response
-            final ICommonsList <MEPayload> aAttachments = new CommonsArrayList <> ();
-            for (final WSS4JAttachment aItem : aIncomingAttachments)
-              if (aItem != aMainPayload)
-                aAttachments.add (MEPayload.builder ()
-                                           .mimeType (MimeTypeParser.safeParseMimeType (aItem.getMimeType ()))
-                                           .contentID (aItem.getId ())
-                                           .data (StreamHelper.getAllBytes (aItem.getSourceStream ()))
-                                           .build ());
-            s_aIncomingHandler.handleIncomingResponse (new IncomingEDMResponse ((EDMResponse) aTopLevel,
-                                                                                sTopLevelContentID,
-                                                                                aAttachments,
-                                                                                aMetadata));
+            MEPayloadDataHelper.releaseAll (aMessage.payloads ());
+            LOGGER.warn ("Rejecting incoming AS4 message '" + aState.getMessageID () + "' because the incoming queue is full");
+            return AS4MessageProcessorResult.createFailure ("The incoming message queue is full - please retry later");
           }
-          else
-            if (aTopLevel instanceof EDMErrorResponse)
-            {
-              // Error Response
-              s_aIncomingHandler.handleIncomingErrorResponse (new IncomingEDMErrorResponse ((EDMErrorResponse) aTopLevel,
-                                                                                            sTopLevelContentID,
-                                                                                            aMetadata));
-            }
-            else
-              ToopKafkaClient.send (EErrorLevel.ERROR, () -> "Unsuspported Message: " + aTopLevel);
+        }
+        else
+          _process (aMessage);
       }
       catch (final AS4DecompressException ex)
       {
@@ -0,0 +1,183 @@
+/**
+ * This work is protected under copyrights held by the members of the
+ * TOOP Project Consortium as indicated at
+ * http://wiki.ds.unipi.gr/display/TOOP/Contributors
+ * (c) 2018-2021. All rights reserved.
+ *
+ * This work is dual licensed under Apache License, Version 2.0
+ * and the EUPL 1.2.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *  = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL
+ * (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *         https://joinup.ec.europa.eu/software/page/eupl
+ */
+package eu.toop.connector.mem.phase4;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.CountingOutputStream;
+import com.helger.commons.io.stream.NullOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.mime.IMimeType;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+
+import eu.toop.regrep.CRegRep4;
+
+/**
+ * Microbenchmark for the compression of outgoing payloads. Compares the
+ * previous "compress text only" policy with the adaptive policy on a typical
+ * EDM response consisting of the RegRep XML, a PDF attachment and a small
+ * text attachment. Reports the bytes on the wire and the CPU time per message.
+ * Run manually.
+ */
+public final class MainCompressionBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainCompressionBenchmark.class);
+
+  private static final int WARMUP = 20;
+  private static final int RUNS = 100;
+
+  private static final class Payload
+  {
+    private final IMimeType m_aMimeType;
+    private final byte [] m_aData;
+
+    Payload (@Nonnull final IMimeType aMimeType, @Nonnull final byte [] aData)
+    {
+      m_aMimeType = aMimeType;
+      m_aData = aData;
+    }
+  }
+
+  private MainCompressionBenchmark ()
+  {}
+
+  @Nonnull
+  private static byte [] _createRegRepXML ()
+  {
+    final StringBuilder aSB = new StringBuilder ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                                                 "<query:QueryResponse xmlns:query=\"urn:oasis:names:tc:ebxml-regrep:xsd:query:4.0\"" +
+                                                 " xmlns:rim=\"urn:oasis:names:tc:ebxml-regrep:xsd:rim:4.0\">\n");
+    for (int i = 0; i < 500; ++i)
+      aSB.append ("  <rim:Slot name=\"ConceptValues\"><rim:SlotValue xsi:type=\"rim:StringValueType\">" +
+                  "<rim:Value>Company legal name ")
+         .append (i)
+         .append ("</rim:Value></rim:SlotValue></rim:Slot>\n");
+    aSB.append ("</query:QueryResponse>\n");
+    return aSB.toString ().getBytes (StandardCharsets.UTF_8);
+  }
+
+  @Nonnull
+  private static byte [] _createPDF ()
+  {
+    // A PDF consists mostly of deflated streams
+    final byte [] ret = new byte [512 * 1024];
+    new Random (42).nextBytes (ret);
+    final byte [] aHeader = "%PDF-1.7\n".getBytes (StandardCharsets.US_ASCII);
+    System.arraycopy (aHeader, 0, ret, 0, aHeader.length);
+    return ret;
+  }
+
+  private static long _gzipSize (@Nonnull final byte [] aData) throws IOException
+  {
+    try (final CountingOutputStream aCOS = new CountingOutputStream (new NullOutputStream ()))
+    {
+      try (final GZIPOutputStream aGZOS = new GZIPOutputStream (aCOS))
+      {
+        aGZOS.write (aData);
+      }
+      return aCOS.getBytesWritten ();
+    }
+  }
+
+  private static void _measure (@Nonnull final String sName,
+                                @Nonnull final ICommonsList <Payload> aPayloads,
+                                @Nonnull final Phase4CompressionPolicy aPolicy) throws IOException
+  {
+    final ThreadMXBean aMX = ManagementFactory.getThreadMXBean ();
+    long nWireBytes = 0;
+    long nCPUNanos = 0;
+    for (int nRun = -WARMUP; nRun < RUNS; ++nRun)
+    {
+      final long nStart = aMX.getCurrentThreadCpuTime ();
+      long nBytes = 0;
+      for (final Payload aPayload : aPayloads)
+      {
+        final EAS4CompressionMode eMode = aPolicy.getCompressionMode (aPayload.m_aMimeType,
+                                                                      aPayload.m_aData,
+                                                                      0,
+                                                                      aPayload.m_aData.length);
+        nBytes += eMode == null ? aPayload.m_aData.length : _gzipSize (aPayload.m_aData);
+      }
+      final long nCPU = aMX.getCurrentThreadCpuTime () - nStart;
+      if (nRun >= 0)
+      {
+        nWireBytes += nBytes;
+        nCPUNanos += nCPU;
+      }
+    }
+    LOGGER.info (sName + ": " + nWireBytes / RUNS + " bytes/message, " + nCPUNanos / RUNS / 1000 + " µs CPU/message");
+  }
+
+  public static void main (final String [] args) throws IOException
+  {
+    final ICommonsList <Payload> aPayloads = new CommonsArrayList <> ();
+    aPayloads.add (new Payload (CRegRep4.MIME_TYPE_EBRS_XML, _createRegRepXML ()));
+    aPayloads.add (new Payload (CMimeType.APPLICATION_PDF, _createPDF ()));
+    aPayloads.add (new Payload (CMimeType.TEXT_PLAIN, "Evidence provided by the DP".getBytes (StandardCharsets.UTF_8)));
+
+    final Phase4CompressionPolicy aLegacy = new Phase4CompressionPolicy (Phase4CompressionPolicy.EMode.TEXT,
+                                                                         new CommonsArrayList <> (),
+                                                                         0,
+                                                                         4096,
+                                                                         0);
+    final Phase4CompressionPolicy aAdaptive = new Phase4CompressionPolicy (Phase4CompressionPolicy.EMode.ADAPTIVE,
+                                                                           new CommonsArrayList <> ("+xml", "+json"),
+                                                                           1024,
+                                                                           4096,
+                                                                           7.5);
+    final Phase4CompressionPolicy aAlways = new Phase4CompressionPolicy (Phase4CompressionPolicy.EMode.ALWAYS,
+                                                                         new CommonsArrayList <> (),
+                                                                         0,
+                                                                         4096,
+                                                                         0);
+    for (int nRound = 0; nRound < 3; ++nRound)
+    {
+      _measure ("text only", aPayloads, aLegacy);
+      _measure ("adaptive ", aPayloads, aAdaptive);
+      _measure ("always   ", aPayloads, aAlways);
+    }
+  }
+}